@@ -12,6 +12,10 @@ using namespace CMSat;
 static SATSolver solver;
 static void (*sig_alrm_handler)(int);
 static bool interrupted = false;
+static std::vector<int> projection;
+
+// 1: commands 0-3; 2: commands 4-6
+static const int PROTOCOL_VERSION = 2;
 
 static void catchalrm(int sig) {
     solver.interrupt_asap();
@@ -38,10 +42,17 @@ int main(int argc, const char* argv[]) {
         std::cout << " * Add variables: 1 <number of new variables>" << std::endl;
         std::cout << " * Solve:         2 <time limit in seconds>" << std::endl;
         std::cout << " * Terminate:     3" << std::endl;
+        std::cout << " * Solve under assumptions: 4 <time limit in seconds> <assumptions terminated by 0>" << std::endl;
+        std::cout << " * Set projection: 5 <variables terminated by 0>" << std::endl;
+        std::cout << " * Protocol version: 6 0 2 0" << std::endl;
+        std::cout << "   (binaries of protocol version 1 read it as an empty clause and solve, answering UNSAT)" << std::endl;
         std::cout << "As well as output: " << std::endl;
         std::cout << " * SAT:     0 <assignment terminated by 0>" << std::endl;
+        std::cout << "   (only of the projection variables if a projection is set)" << std::endl;
         std::cout << " * UNSAT:   1" << std::endl;
+        std::cout << "   (for 4: 1 <failed assumptions terminated by 0>, empty if UNSAT without assumptions)" << std::endl;
         std::cout << " * UNKNOWN: 2" << std::endl;
+        std::cout << " * Protocol version: 6 <version>" << std::endl;
         return 1;
     }
     sig_alrm_handler = signal(SIGALRM, catchalrm);
@@ -53,22 +64,45 @@ int main(int argc, const char* argv[]) {
     
     while (true) {
         int code = read();
-        if (code == 2) { // solve
+        if (code == 2 || code == 4) { // solve
             int time_limit = read();
+            std::vector<Lit> assumptions;
+            while (code == 4) {
+                int literal = read();
+                if (literal == 0) {
+                    break;
+                }
+                assumptions.push_back(Lit(abs(literal) - 1, literal < 0));
+            }
+            interrupted = false;
             alarm(time_limit);
-            lbool res = solver.solve();
+            lbool res = solver.solve(&assumptions);
             alarm(0);
             if (interrupted) {
                 write(2); // unknown
             } else if (res == l_True) {
                 write(0);
                 std::vector<lbool> model = solver.get_model();
-                for (int i = 0; i < model.size(); i++) {
-                    write((model[i] == l_True ? 1 : -1) * (i + 1));
+                if (projection.empty()) {
+                    for (int i = 0; i < model.size(); i++) {
+                        write((model[i] == l_True ? 1 : -1) * (i + 1));
+                    }
+                } else {
+                    for (int i = 0; i < projection.size(); i++) {
+                        write((model[projection[i] - 1] == l_True ? 1 : -1) * projection[i]);
+                    }
                 }
                 write(0);
             } else if (res == l_False) {
                 write(1); // unsat
+                if (code == 4) {
+                    // the conflict consists of negated assumptions
+                    const std::vector<Lit>& conflict = solver.get_conflict();
+                    for (int i = 0; i < conflict.size(); i++) {
+                        write((conflict[i].sign() ? 1 : -1) * (conflict[i].var() + 1));
+                    }
+                    write(0);
+                }
             } else {
                 write(2); // unknown
             }
@@ -78,6 +112,22 @@ int main(int argc, const char* argv[]) {
             solver.new_vars(num);
         } else if (code == 3) {
             break;
+        } else if (code == 6) {
+            for (int i = 0; i < 3; i++) {
+                read(); // 0 2 0
+            }
+            write(6);
+            write(PROTOCOL_VERSION);
+            fflush(stdout);
+        } else if (code == 5) {
+            projection.clear();
+            while (true) {
+                int var = read();
+                if (var == 0) {
+                    break;
+                }
+                projection.push_back(var);
+            }
         } else {
             std::vector<Lit> lits;
             while (true) {
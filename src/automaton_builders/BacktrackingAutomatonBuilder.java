@@ -9,6 +9,7 @@ import algorithms.AutomatonCompleter.CompletenessType;
 import bool.MyBooleanExpression;
 import exception.AutomatonFoundException;
 import exception.TimeLimitExceededException;
+import meta.SynthesisSession;
 import sat_solving.SolverResult;
 import sat_solving.SolverResult.SolverResults;
 import scenario.StringActions;
@@ -54,7 +55,7 @@ public class BacktrackingAutomatonBuilder {
         }
         
         void checkTimeLimit() throws TimeLimitExceededException {
-            if (System.currentTimeMillis() > finishTime) {
+            if (System.currentTimeMillis() > finishTime || SynthesisSession.current().isCancelled()) {
                 throw new TimeLimitExceededException();
             }
         }
@@ -627,6 +628,7 @@ public class BacktrackingAutomatonBuilder {
             return Optional.empty();
         }
         logger.info(new SolverResult(SolverResults.UNSAT).toString());
+        SynthesisSession.current().reportNoSolution();
         return Optional.empty();
     }
 }
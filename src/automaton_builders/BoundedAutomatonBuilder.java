@@ -0,0 +1,95 @@
+package automaton_builders;
+
+/**
+ * (c) Igor Buzhinsky
+ */
+
+import algorithms.AutomatonCompleter.CompletenessType;
+import bnf_formulae.BooleanVariable;
+import bnf_formulae.ClauseBuffer;
+import formula_builders.BoundedSynthesisFormulaBuilder;
+import formula_builders.CardinalityEncoding;
+import meta.SynthesisSession;
+import sat_solving.Assignment;
+import sat_solving.Model;
+import sat_solving.SatSolver;
+import sat_solving.SolverInterface;
+import sat_solving.SolverResult;
+import sat_solving.SolverResult.SolverResults;
+import structures.mealy.MealyAutomaton;
+import structures.mealy.NegativeScenarioTree;
+import structures.mealy.ScenarioTree;
+import verification.ltl.LtlParseException;
+import verification.verifier.SpecificationAutomaton;
+import verification.verifier.Verifier;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Optional;
+import java.util.logging.Logger;
+import java.util.stream.Collectors;
+
+/*
+ * Synthesis with the LTL formulae encoded into SAT together with the scenarios, see BoundedSynthesisFormulaBuilder.
+ * The bound k is increased on the same solver until an automaton is found, or until the solver proves that none
+ * exists: either for the maximum bound, or without using the assumption of the bound.
+ * Unlike the counterexample-guided strategies, each found automaton satisfies the formulae.
+ */
+public class BoundedAutomatonBuilder extends ScenarioAndLtlAutomatonBuilder {
+    public static Optional<MealyAutomaton> build(Logger logger, ScenarioTree tree, NegativeScenarioTree negativeTree,
+                                                 int size, List<String> strFormulae, List<String> events,
+                                                 List<String> actions, Verifier verifier, long finishTime,
+                                                 CompletenessType completenessType, SatSolver solver)
+            throws IOException, LtlParseException {
+        deleteTrash();
+        final List<SpecificationAutomaton> specification = SpecificationAutomaton.of(strFormulae, events, actions);
+        final boolean complete = completenessType == CompletenessType.NORMAL;
+        final BoundedSynthesisFormulaBuilder builder = new BoundedSynthesisFormulaBuilder(size, tree, negativeTree,
+                events, actions, complete, true, CardinalityEncoding.PAIRWISE, specification);
+        builder.createVars();
+        final ClauseBuffer constraints = builder.positiveConstraints();
+        constraints.addAll(builder.negativeConstraints());
+        constraints.addAll(builder.specificationConstraints());
+        final SolverInterface inf = solver.createInterface(constraints, null, logger);
+        final List<BooleanVariable> primaryVars = builder.primaryVars();
+        inf.setProjection(primaryVars);
+
+        final int maxBound = builder.maxBound();
+        logger.info("BOUNDED SYNTHESIS: " + specification.size() + " formulae, maximum bound " + maxBound);
+        for (int k = 0; k <= maxBound; k++) {
+            if (!hasTimeLeft(finishTime)) {
+                inf.halt();
+                logger.info("TIME LIMIT EXCEEDED");
+                return Optional.empty();
+            }
+            logger.info("TRYING k = " + k);
+            final List<Assignment> assumptions = builder.boundAssumption(k);
+            final SolverResult ass = inf.solve(builder.boundConstraints(k), assumptions,
+                    timeLeftForSolver(finishTime));
+            logger.info(ass.type().toString());
+            if (ass.type() == SolverResults.UNKNOWN) {
+                inf.halt();
+                return Optional.empty();
+            } else if (ass.type() == SolverResults.UNSAT) {
+                if (k == maxBound || ass.core().isEmpty()) {
+                    break;
+                }
+                continue;
+            }
+
+            final Model model = ass.model();
+            final List<BooleanVariable> trueVars = primaryVars.stream().filter(model::value)
+                    .collect(Collectors.toList());
+            final MealyAutomaton automaton = FastAutomatonBuilder.constructAutomatonFromAssignment(logger,
+                    trueVars, builder, tree, size, true, completenessType, actions, events).getLeft();
+            inf.halt();
+            if (!verifier.verify(automaton)) {
+                throw new AssertionError("The automaton found by bounded synthesis violates the formulae");
+            }
+            return Optional.of(automaton);
+        }
+        inf.halt();
+        SynthesisSession.current().reportNoSolution();
+        return Optional.empty();
+    }
+}
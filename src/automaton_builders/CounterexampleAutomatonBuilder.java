@@ -14,6 +14,7 @@ import bool.MyBooleanExpression;
 import exception.AutomatonFoundException;
 import exception.TimeLimitExceededException;
 import formula_builders.CounterexampleFormulaBuilder;
+import meta.SynthesisSession;
 import sat_solving.Assignment;
 import sat_solving.ExpandableStringFormula;
 import sat_solving.SatSolver;
@@ -80,7 +81,7 @@ public class CounterexampleAutomatonBuilder extends ScenarioAndLtlAutomatonBuild
         final Set<BooleanFormula> previousConstraints = new LinkedHashSet<>();
         final Set<BooleanFormula> negationConstraints = new LinkedHashSet<>();
         
-        for (int iteration = 0; System.currentTimeMillis() < finishTime; iteration++) {
+        for (int iteration = 0; hasTimeLeft(finishTime); iteration++) {
             final CounterexampleFormulaBuilder builder = new CounterexampleFormulaBuilder(tree, size, events, actions,
                     effectiveCompletenessType, negativeTree, prohibited);
             final FormulaList negationList = new FormulaList(BinaryOperations.AND);
@@ -88,17 +89,16 @@ public class CounterexampleAutomatonBuilder extends ScenarioAndLtlAutomatonBuild
                 final BooleanFormula basicFormula = builder.getBasicFormula();
                 negationConstraints.addAll(builder.getNegationConstraints());
                 negationConstraints.forEach(negationList::add);
-                final String formula = basicFormula.and(negationList.assemble())
-                        .simplify().toLimbooleString();
+                final BooleanFormula formula = basicFormula.and(negationList.assemble()).simplify();
                 expandableFormula = new ExpandableStringFormula(formula, logger, satSolver);
             } else {
                 negationConstraints.addAll(builder.getNegationConstraints());
                 final Set<BooleanFormula> diffConstraints = new LinkedHashSet<>(negationConstraints);
                 diffConstraints.removeAll(previousConstraints);
                 diffConstraints.forEach(negationList::add);
-                final String negationFormula = negationList.assemble().simplify().toLimbooleString();
+                final BooleanFormula negationFormula = negationList.assemble().simplify();
                 final List<String> negativeDimacsConstraints = BooleanFormula.extendDimacs(negationFormula,
-                        logger, "_tmp.incremental.dimacs", expandableFormula.info());
+                        logger, expandableFormula.info());
                 expandableFormula.addConstraints(negativeDimacsConstraints);
             }
             previousConstraints.addAll(negationConstraints);
@@ -151,6 +151,9 @@ public class CounterexampleAutomatonBuilder extends ScenarioAndLtlAutomatonBuild
                 }
             } else {
                 // no solution due to UNSAT or UNKNOWN, stop search
+                if (ass.type() == SolverResults.UNSAT && prohibited.isEmpty()) {
+                    SynthesisSession.current().reportNoSolution();
+                }
                 return reportResult(logger, iteration, Optional.empty());
             }
         }
@@ -7,12 +7,17 @@ package automaton_builders;
 import algorithms.AutomatonCompleter.CompletenessType;
 import bnf_formulae.BinaryOperations;
 import bnf_formulae.BooleanVariable;
+import bnf_formulae.ClauseBuffer;
 import bnf_formulae.FormulaList;
+import bnf_formulae.VariableLayout;
 import bool.MyBooleanExpression;
+import formula_builders.CardinalityEncoding;
 import formula_builders.MealyFormulaBuilder;
+import meta.SynthesisSession;
 import org.apache.commons.lang3.ArrayUtils;
 import org.apache.commons.lang3.tuple.Pair;
-import sat_solving.Assignment;
+import sat_solving.CnfPreprocessor;
+import sat_solving.Model;
 import sat_solving.SatSolver;
 import sat_solving.SolverInterface;
 import sat_solving.SolverResult;
@@ -33,23 +38,24 @@ public class FastAutomatonBuilder extends ScenarioAndLtlAutomatonBuilder {
     /*
      * Returns (automaton, transition variables supported by scenarios).
      * Events and actions are represented by indices.
+     * trueVars are the primary variables of the builder which are true in the model, sorted by name.
+     * Variables are decoded with the layout of the formula builder.
      */
-    private static Pair<MealyAutomaton, List<BooleanVariable>> constructAutomatonFromAssignment(
-            Logger logger, List<Assignment> ass, ScenarioTree tree, int colorSize,
+    static Pair<MealyAutomaton, List<BooleanVariable>> constructAutomatonFromAssignment(
+            Logger logger, List<BooleanVariable> trueVars, MealyFormulaBuilder builder, ScenarioTree tree,
+            int colorSize,
             boolean complete, CompletenessType completenessType,
             List<String> actionList, List<String> eventList) {
         final List<BooleanVariable> filteredYVars = new ArrayList<>();
         final int[] nodeColors = new int[tree.nodeCount()];
+        final VariableLayout layout = builder.layout();
+        final VariableLayout.Kind x = builder.xVars();
+        final VariableLayout.Kind y = builder.yVars();
+        final VariableLayout.Kind z = builder.zVars();
         
-        ass.stream()
-                .filter(a -> a.value && a.var.name.startsWith("x_"))
-                .forEach(a -> {
-                    String[] tokens = a.var.name.split("_");
-                    assert tokens.length == 3;
-                    final int node = Integer.parseInt(tokens[1]);
-                    final int color = Integer.parseInt(tokens[2]);
-                    nodeColors[node] = color;
-                });
+        trueVars.stream()
+                .filter(v -> layout.kindOf(v) == x)
+                .forEach(v -> nodeColors[x.index(v, 0)] = x.index(v, 1));
         // add transitions from scenarios
         final MealyAutomaton ans = new MealyAutomaton(colorSize);
         for (int i = 0; i < tree.nodeCount(); i++) {
@@ -65,30 +71,35 @@ public class FastAutomatonBuilder extends ScenarioAndLtlAutomatonBuilder {
         }
 
         if (complete) {
+            // actions of transitions: color -> event -> actions
+            final List<List<List<String>>> transitionActions = new ArrayList<>();
+            for (int i = 0; i < colorSize; i++) {
+                transitionActions.add(new ArrayList<>());
+                for (int j = 0; j < eventList.size(); j++) {
+                    transitionActions.get(i).add(new ArrayList<>());
+                }
+            }
+            trueVars.stream()
+                    .filter(v -> layout.kindOf(v) == z)
+                    .forEach(v -> transitionActions.get(z.index(v, 0)).get(z.index(v, 2))
+                            .add(actionList.get(z.index(v, 1))));
+            
             // add other transitions
-            for (Assignment a : ass.stream().filter(a_ -> a_.value && a_.var.name.startsWith("y_"))
+            for (BooleanVariable var : trueVars.stream().filter(v -> layout.kindOf(v) == y)
                     .collect(Collectors.toList())) {
-                String[] tokens = a.var.name.split("_");
-                assert tokens.length == 4;
-                final int from = Integer.parseInt(tokens[1]);
-                final int to = Integer.parseInt(tokens[2]);
-                final int eventIndex = Integer.parseInt(tokens[3]);
+                final int from = y.index(var, 0);
+                final int to = y.index(var, 1);
+                final int eventIndex = y.index(var, 2);
                 final String event = eventList.get(eventIndex);
     
                 MealyNode state = ans.state(from);
     
                 if (state.hasTransition(event, MyBooleanExpression.getTautology())) {
-                    filteredYVars.add(a.var);
+                    filteredYVars.add(var);
                 }
                 
                 // include transitions not from scenarios
-                final List<String> properUniqueActions = new ArrayList<>();
-                for (Assignment az : ass) {
-                    if (az.value && az.var.name.startsWith("z_" + from + "_")
-                            && az.var.name.endsWith("_" + eventIndex)) {
-                        properUniqueActions.add(actionList.get(Integer.parseInt(az.var.name.split("_")[2])));
-                    }
-                }
+                final List<String> properUniqueActions = new ArrayList<>(transitionActions.get(from).get(eventIndex));
                 Collections.sort(properUniqueActions);
     
                 if (!state.hasTransition(event, MyBooleanExpression.getTautology())) {
@@ -110,7 +121,7 @@ public class FastAutomatonBuilder extends ScenarioAndLtlAutomatonBuilder {
                     // check
                     final MealyTransition t = state.transition(event, MyBooleanExpression.getTautology());
                     if (t.dst() != ans.state(to)) {
-                        logger.severe("INVALID TRANSITION DESTINATION " + a.var);
+                        logger.severe("INVALID TRANSITION DESTINATION " + var);
                     }
                     final List<String> actualActions = new ArrayList<>(new TreeSet<>(
                             Arrays.asList(t.actions().getActions())));
@@ -193,7 +204,9 @@ public class FastAutomatonBuilder extends ScenarioAndLtlAutomatonBuilder {
                                                  List<String> strFormulae, List<String> events,
                                                  List<String> actions, Verifier verifier, long finishTime,
                                                  boolean complete, boolean bfsConstraints, boolean useGlobalTree,
-                                                 SatSolver solver) throws IOException {
+                                                 SatSolver solver, CardinalityEncoding amoEncoding,
+                                                 boolean preprocess, boolean unsatCores, int cubeWorkers)
+            throws IOException {
         deleteTrash();
         
         final boolean[] ltlIsG = new boolean[strFormulae.size()];
@@ -206,35 +219,62 @@ public class FastAutomatonBuilder extends ScenarioAndLtlAutomatonBuilder {
         final NegativeScenarioTree globalTree = new NegativeScenarioTree();
         
         SolverInterface inf = null;
+        List<BooleanVariable> primaryVars = null;
+        // kept between iterations to pass only new negative constraints to the solver
+        final MealyFormulaBuilder builder = new MealyFormulaBuilder(size, positiveTree,
+                negativeTree, globalTree, events, actions, complete, bfsConstraints, amoEncoding, unsatCores);
         
-        for (int iteration = 0; System.currentTimeMillis() < finishTime; iteration++) {
-            final MealyFormulaBuilder builder = new MealyFormulaBuilder(size, positiveTree,
-                    negativeTree, globalTree, events, actions, complete, bfsConstraints);
+        for (int iteration = 0; hasTimeLeft(finishTime); iteration++) {
             builder.createVars();
             final int secondsLeft = timeLeftForSolver(finishTime);
             if (iteration == 0) {
-                final List<int[]> constraints = builder.positiveConstraints();
+                final ClauseBuffer constraints = builder.positiveConstraints();
                 final String transSpec = transitionSpecification(strFormulae, size, events, actions);
-                inf = solver.createInterface(constraints, transSpec, logger);
+                final CnfPreprocessor preprocessor = preprocess
+                        ? new CnfPreprocessor(logger, builder::isAuxiliary) : null;
+                inf = cubeWorkers > 0
+                        ? SatSolver.createCubeAndConquerInterface(constraints, transSpec, logger, preprocessor,
+                                cubeWorkers, builder.splittingGroups())
+                        : solver.createInterface(constraints, transSpec, logger, preprocessor);
+                // x, y and z variables do not change after the first iteration
+                primaryVars = builder.primaryVars();
+                inf.setProjection(primaryVars);
             }
             
             // SAT-solve
-            final SolverResult ass = inf.solve(builder.negativeConstraints(), secondsLeft);
+            final ClauseBuffer negativeConstraints = builder.negativeConstraints();
+            final SolverResult ass = unsatCores
+                    ? inf.solve(negativeConstraints, builder.assumptions(), secondsLeft)
+                    : inf.solve(negativeConstraints, secondsLeft);
             logger.info(ass.type().toString());
             if (ass.type() != SolverResults.SAT) {
+                if (ass.type() == SolverResults.UNSAT) {
+                    if (unsatCores) {
+                        final String core = builder.describeCore(ass.core());
+                        logger.info("UNSAT CORE: " + core);
+                        SynthesisSession.current().reportNoSolution(core);
+                    } else {
+                        SynthesisSession.current().reportNoSolution();
+                    }
+                }
+                // after UNSAT under assumptions, the solver would be usable further
+                inf.halt();
                 return reportResult(logger, iteration, Optional.empty());
             }
 
-            final MealyAutomaton automaton = constructAutomatonFromAssignment(logger, ass.list(),
+            final Model model = ass.model();
+            final List<BooleanVariable> trueVars = primaryVars.stream().filter(model::value)
+                    .collect(Collectors.toList());
+            final MealyAutomaton automaton = constructAutomatonFromAssignment(logger, trueVars, builder,
                     positiveTree, size, true,
                     complete ? CompletenessType.NORMAL : CompletenessType.NO_DEAD_ENDS,
                     actions, events).getLeft();
 
             // verify
-            final List<Counterexample> counterexamples =
-                    verifier.verifyWithCounterexamplesWithNoDeadEndRemoval(automaton);
+            final List<List<Counterexample>> counterexamples =
+                    verifier.verifyWithCounterexampleListsWithNoDeadEndRemoval(automaton);
             
-            if (counterexamples.stream().allMatch(Counterexample::isEmpty)) {
+            if (counterexamples.stream().allMatch(List::isEmpty)) {
                 inf.halt();
                 return reportResult(logger, iteration, Optional.of(automaton));
             } else if (useGlobalTree) {
@@ -244,23 +284,22 @@ public class FastAutomatonBuilder extends ScenarioAndLtlAutomatonBuilder {
                 final Set<Counterexample> globalCEs = new LinkedHashSet<>();
                 int globalIndex = 0;
                 for (int i = 0; i < counterexamples.size(); i++) {
-                    final Counterexample normalCE = counterexamples.get(i);
+                    final List<Counterexample> formulaCEs = counterexamples.get(i);
                     if (ltlIsG[i]) {
                         final Counterexample globalCE = globalCounterexamples.get(globalIndex++);
                         if (!globalCE.isEmpty() && globalCE.loopLength == 0) {
                             globalCEs.add(globalCE);
-                        } else if (!normalCE.isEmpty()) {
-                            normalCEs.add(normalCE);
+                        } else {
+                            normalCEs.addAll(formulaCEs);
                         }
-                    } else if (!normalCE.isEmpty()) {
-                        normalCEs.add(normalCE);
+                    } else {
+                        normalCEs.addAll(formulaCEs);
                     }
                 }
                 normalCEs.forEach(ce -> addCounterexample(logger, ce, negativeTree));
                 globalCEs.forEach(ce -> addCounterexample(logger, ce, globalTree));
             } else {
-                counterexamples.stream()
-                        .filter(ce -> !ce.isEmpty()).distinct()
+                counterexamples.stream().flatMap(List::stream).distinct()
                         .forEach(ce -> addCounterexample(logger, ce, negativeTree));
             }
         }
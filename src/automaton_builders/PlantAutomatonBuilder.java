@@ -5,11 +5,17 @@ package automaton_builders;
  */
 
 import bnf_formulae.BooleanVariable;
+import bnf_formulae.ClauseBuffer;
+import bnf_formulae.VariableLayout;
 import bool.MyBooleanExpression;
+import formula_builders.CardinalityEncoding;
 import formula_builders.PlantFormulaBuilder;
+import formula_builders.SafetyFormulaCompiler;
+import meta.SynthesisSession;
 import org.apache.commons.lang3.ArrayUtils;
 import org.apache.commons.lang3.tuple.Pair;
-import sat_solving.Assignment;
+import sat_solving.CnfPreprocessor;
+import sat_solving.Model;
 import sat_solving.SatSolver;
 import sat_solving.SolverInterface;
 import sat_solving.SolverResult;
@@ -19,7 +25,6 @@ import scenario.StringScenario;
 import structures.moore.*;
 import verification.verifier.Counterexample;
 import verification.verifier.NondetMooreVerifierPair;
-import verification.verifier.SimpleVerifier;
 
 import java.io.File;
 import java.io.FileNotFoundException;
@@ -35,9 +40,16 @@ public class PlantAutomatonBuilder extends ScenarioAndLtlAutomatonBuilder {
         return a;
     }
         
-    private static NondetMooreAutomaton constructAutomatonFromAssignment(List<Assignment> ass,
-            PositivePlantScenarioForest forest, int colorSize, List<String> actionList, List<String> eventList,
-            boolean complete) {
+    /*
+     * trueVars are the primary variables of the builder which are true in the model, sorted by name.
+     */
+    private static NondetMooreAutomaton constructAutomatonFromAssignment(List<BooleanVariable> trueVars,
+            PlantFormulaBuilder builder, PositivePlantScenarioForest forest, int colorSize, List<String> actionList,
+            List<String> eventList, boolean complete) {
+        final VariableLayout layout = builder.layout();
+        final VariableLayout.Kind x = builder.xVars();
+        final VariableLayout.Kind y = builder.yVars();
+        final VariableLayout.Kind z = builder.zVars();
         final List<Boolean> isStart = Arrays.asList(ArrayUtils.toObject(new boolean[colorSize]));
         final List<List<String>> actions = new ArrayList<>();
         for (int i = 0; i < colorSize; i++) {
@@ -45,21 +57,20 @@ public class PlantAutomatonBuilder extends ScenarioAndLtlAutomatonBuilder {
         }
         
         final Map<Integer, Integer> coloring = new HashMap<>();
-        ass.stream().filter(a -> a.value).forEach(a -> {
-            final String tokens[] = a.var.name.split("_");
-            if (tokens[0].equals("x")) {
+        trueVars.forEach(var -> {
+            final VariableLayout.Kind kind = layout.kindOf(var);
+            if (kind == x) {
+                final int node = x.index(var, 0);
+                final int color = x.index(var, 1);
                 for (MooreNode root : forest.roots()) {
-                    if (tokens[1].equals(String.valueOf(root.number()))) {
-                        final int state = Integer.parseInt(tokens[2]);
-                        isStart.set(state, true);
+                    if (root.number() == node) {
+                        isStart.set(color, true);
                     }
                 }
-                final int node = Integer.parseInt(tokens[1]);
-                final int color = Integer.parseInt(tokens[2]);
                 coloring.put(node, color);
-            } else if (tokens[0].equals("z")) {
-                final int state = Integer.parseInt(tokens[1]);
-                final String action = actionList.get(Integer.parseInt(tokens[2]));
+            } else if (kind == z) {
+                final int state = z.index(var, 0);
+                final String action = actionList.get(z.index(var, 1));
                 actions.get(state).add(action);
             }
         });
@@ -68,14 +79,11 @@ public class PlantAutomatonBuilder extends ScenarioAndLtlAutomatonBuilder {
                 actions.stream().map(l -> new StringActions(String.join(",", l)))
                 .collect(Collectors.toList()), isStart);
 
-        ass.stream().filter(a -> a.value).forEach(a -> {
-            final String tokens[] = a.var.name.split("_");
-            if (tokens[0].equals("y")) {
-                final int from = Integer.parseInt(tokens[1]);
-                final int to = Integer.parseInt(tokens[2]);
-                final String event = eventList.get(Integer.parseInt(tokens[3]));
-                automaton.state(from).addTransition(event, automaton.state(to));
-            }
+        trueVars.stream().filter(var -> layout.kindOf(var) == y).forEach(var -> {
+            final int from = y.index(var, 0);
+            final int to = y.index(var, 1);
+            final String event = eventList.get(y.index(var, 2));
+            automaton.state(from).addTransition(event, automaton.state(to));
         });
 
         // identify used transitions
@@ -155,36 +163,73 @@ public class PlantAutomatonBuilder extends ScenarioAndLtlAutomatonBuilder {
                                                        String actionspecFilePath, List<String> events,
                                                        List<String> actions, NondetMooreVerifierPair verifier,
                                                        long finishTime, SatSolver solver, boolean deterministic,
-                                                       boolean bfsConstraints, boolean complete) throws IOException {
+                                                       boolean bfsConstraints, boolean complete,
+                                                       CardinalityEncoding amoEncoding, boolean preprocess,
+                                                       boolean unsatCores, int cubeWorkers,
+                                                       List<String> safetyFormulae) throws IOException {
         deleteTrash();
-        SimpleVerifier.setLoopWeight(size);
+        SynthesisSession.current().setLoopWeight(size);
         
         final NegativePlantScenarioForest globalNegativeForest = new NegativePlantScenarioForest();
         
         SolverInterface inf = null;
+        List<BooleanVariable> primaryVars = null;
+        final List<SafetyFormulaCompiler.SafetyFormula> compiledFormulae = SafetyFormulaCompiler.compile(
+                safetyFormulae, size, events.size());
+        if (!safetyFormulae.isEmpty()) {
+            logger.info("SAFETY FORMULAE: " + compiledFormulae.size() + " of " + safetyFormulae.size()
+                    + " formulae are encoded as constraints");
+        }
+        // kept between iterations to pass only new negative constraints to the solver
+        final PlantFormulaBuilder builder = new PlantFormulaBuilder(size, positiveForest, negativeForest,
+                globalNegativeForest, events, actions, deterministic, bfsConstraints, complete, amoEncoding,
+                unsatCores, compiledFormulae);
         
-        for (int iteration = 0; System.currentTimeMillis() < finishTime; iteration++) {
-            final PlantFormulaBuilder builder = new PlantFormulaBuilder(size, positiveForest, negativeForest,
-                    globalNegativeForest, events, actions, deterministic, bfsConstraints, complete);
+        for (int iteration = 0; hasTimeLeft(finishTime); iteration++) {
             builder.createVars();
             final int secondsLeft = timeLeftForSolver(finishTime);
             if (iteration == 0) {
                 // create
                 logger.info("Generating initial constraints...");
-                final List<int[]> positiveConstraints = builder.positiveConstraints();
+                final ClauseBuffer positiveConstraints = builder.positiveConstraints();
                 logger.info("Generated initial constraints.");
                 final String actionSpec = actionSpecification(actionspecFilePath, size, actions);
-                inf = solver.createInterface(positiveConstraints, actionSpec, logger);
+                final CnfPreprocessor preprocessor = preprocess
+                        ? new CnfPreprocessor(logger, builder::isAuxiliary) : null;
+                inf = cubeWorkers > 0
+                        ? SatSolver.createCubeAndConquerInterface(positiveConstraints, actionSpec, logger,
+                                preprocessor, cubeWorkers, builder.splittingGroups())
+                        : solver.createInterface(positiveConstraints, actionSpec, logger, preprocessor);
+                // x, y and z variables do not change after the first iteration
+                primaryVars = builder.primaryVars();
+                inf.setProjection(primaryVars);
             }
             
             // SAT-solve
-            final SolverResult ass = inf.solve(builder.negativeConstraints(), secondsLeft);
+            final ClauseBuffer negativeConstraints = builder.negativeConstraints();
+            final SolverResult ass = unsatCores
+                    ? inf.solve(negativeConstraints, builder.assumptions(), secondsLeft)
+                    : inf.solve(negativeConstraints, secondsLeft);
             logger.info(ass.type().toString());
             if (ass.type() != SolverResults.SAT) {
+                if (ass.type() == SolverResults.UNSAT) {
+                    if (unsatCores) {
+                        final String core = builder.describeCore(ass.core());
+                        logger.info("UNSAT CORE: " + core);
+                        SynthesisSession.current().reportNoSolution(core);
+                    } else {
+                        SynthesisSession.current().reportNoSolution();
+                    }
+                }
+                // after UNSAT under assumptions, the solver would be usable further
+                inf.halt();
                 return reportResult(logger, iteration, Optional.empty());
             }
 
-            final NondetMooreAutomaton automaton = constructAutomatonFromAssignment(ass.list(),
+            final Model model = ass.model();
+            final List<BooleanVariable> trueVars = primaryVars.stream().filter(model::value)
+                    .collect(Collectors.toList());
+            final NondetMooreAutomaton automaton = constructAutomatonFromAssignment(trueVars, builder,
                     positiveForest, size, actions, events, complete);
 
             // verify
@@ -29,7 +29,8 @@ import java.util.Set;
 import java.util.logging.Logger;
 
 public class QbfAutomatonBuilder extends ScenarioAndLtlAutomatonBuilder {
-    private static final int MAX_FORMULA_SIZE = 1000 * 1000 * 1000;
+    // the number of distinct subformulae
+    private static final int MAX_FORMULA_SIZE = 20 * 1000 * 1000;
 
     public static Optional<MealyAutomaton> build(Logger logger, ScenarioTree tree,
                                                  List<LtlNode> formulae, int size, QbfSolver qbfSolver,
@@ -44,7 +45,7 @@ public class QbfAutomatonBuilder extends ScenarioAndLtlAutomatonBuilder {
             logger.info("FORBIDDEN YS: " + forbiddenYs);
 
             for (int k = 0; ; k++) {
-                if (System.currentTimeMillis() > finishTime) {
+                if (!hasTimeLeft(finishTime)) {
                     logger.info("TIME LIMIT EXCEEDED");
                     return Optional.empty();
                 }
@@ -54,7 +55,7 @@ public class QbfAutomatonBuilder extends ScenarioAndLtlAutomatonBuilder {
                         formulae, size, k, completenessType, events, actions).getFormula(false);
                 final int timeLeft = (int) (finishTime - System.currentTimeMillis()) / 1000 + 1;
                 
-                String formula;
+                BooleanFormula formula;
                 try {
                     formula = qbf.flatten(size, k, logger, events, actions,
                             forbiddenYs, finishTime, MAX_FORMULA_SIZE, true);
@@ -87,7 +88,7 @@ public class QbfAutomatonBuilder extends ScenarioAndLtlAutomatonBuilder {
                 return Optional.empty();
             }
             for (int k = 0; ; k++) {
-                if (System.currentTimeMillis() > finishTime) {
+                if (!hasTimeLeft(finishTime)) {
                     logger.info("TIME LIMIT EXCEEDED");
                     return Optional.empty();
                 }
@@ -7,6 +7,7 @@ package automaton_builders;
 import algorithms.AutomatonCompleter.CompletenessType;
 import bnf_formulae.BooleanVariable;
 import bool.MyBooleanExpression;
+import meta.SynthesisSession;
 import org.apache.commons.lang3.tuple.Pair;
 import sat_solving.Assignment;
 import scenario.StringActions;
@@ -16,7 +17,6 @@ import structures.mealy.MealyTransition;
 import structures.mealy.ScenarioTree;
 import verification.ltl.grammar.LtlUtils;
 
-import java.io.File;
 import java.util.*;
 import java.util.logging.Logger;
 import java.util.stream.Collectors;
@@ -28,7 +28,7 @@ import java.util.stream.Collectors;
 public abstract class ScenarioAndLtlAutomatonBuilder {
     static void deleteTrash() {
         // delete files from the previous run
-        Arrays.stream(new File(".").listFiles()).filter(f -> f.getName().startsWith("_tmp.")).forEach(File::delete);
+        SynthesisSession.current().deleteTemporaryFiles();
     }
     
     /*
@@ -133,4 +133,11 @@ public abstract class ScenarioAndLtlAutomatonBuilder {
     static int timeLeftForSolver(long finishTime) {
         return (int) (finishTime - System.currentTimeMillis()) / 1000 + 1;
     }
+    
+    /*
+     * Whether the search may continue: the time limit is not exceeded and the session is not cancelled.
+     */
+    static boolean hasTimeLeft(long finishTime) {
+        return System.currentTimeMillis() < finishTime && !SynthesisSession.current().isCancelled();
+    }
 }
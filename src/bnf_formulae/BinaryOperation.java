@@ -4,25 +4,23 @@ package bnf_formulae;
  * (c) Igor Buzhinsky
  */
 
+import meta.SynthesisSession;
+
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
-import java.util.stream.Collectors;
+import java.util.Objects;
 
 public class BinaryOperation extends BooleanFormula {
-    private final List<BooleanFormula> children;
+    private final BooleanFormula[] children;
     public final BinaryOperations type;
     private final String comment;
+    private final int hash;
+    private BooleanFormula simplified;
 
-    private BinaryOperation(BooleanFormula left, BooleanFormula right, BinaryOperations type) {
-        this(Arrays.asList(left, right), type, null);
-    }
-    
-    private BinaryOperation(List<BooleanFormula> children, BinaryOperations type) {
-        this(children, type, null);
-    }
-    
     private BinaryOperation(List<BooleanFormula> children, BinaryOperations type, String comment) {
         for (BooleanFormula f : children) {
             assert f != null;
@@ -30,11 +28,24 @@ public class BinaryOperation extends BooleanFormula {
         if (type == BinaryOperations.EQ || type == BinaryOperations.IMPLIES) {
             assert children.size() == 2;
         }
-        this.children = new ArrayList<>(children);
+        this.children = children.toArray(new BooleanFormula[children.size()]);
         this.type = type;
         this.comment = comment;
+        int hash = 31 * type.hashCode() + Objects.hashCode(comment);
+        for (BooleanFormula child : this.children) {
+            hash = 31 * hash + child.hashCode();
+        }
+        this.hash = hash;
+    }
+
+    private static BooleanFormula create(List<BooleanFormula> children, BinaryOperations type, String comment) {
+        return SynthesisSession.current().formulas().intern(new BinaryOperation(children, type, comment));
     }
     
+    List<BooleanFormula> children() {
+        return Collections.unmodifiableList(Arrays.asList(children));
+    }
+
     public static BooleanFormula and(List<BooleanFormula> elements) {
         return and(elements, null);
     }
@@ -44,87 +55,146 @@ public class BinaryOperation extends BooleanFormula {
     }
     
     public static BooleanFormula and(List<BooleanFormula> elements, String comment) {
-        return new BinaryOperation(elements, BinaryOperations.AND, comment);
+        return create(elements, BinaryOperations.AND, comment);
     }
     
     public static BooleanFormula or(List<BooleanFormula> elements, String comment) {
-        return new BinaryOperation(elements, BinaryOperations.OR, comment);
+        return create(elements, BinaryOperations.OR, comment);
     }
     
     public static BooleanFormula and(BooleanFormula... elements) {
-        return new BinaryOperation(Arrays.asList(elements), BinaryOperations.AND);
+        return create(Arrays.asList(elements), BinaryOperations.AND, null);
     }
     
     public static BooleanFormula or(BooleanFormula... elements) {
-        return new BinaryOperation(Arrays.asList(elements), BinaryOperations.OR);
+        return create(Arrays.asList(elements), BinaryOperations.OR, null);
     }
     
     public static BooleanFormula implies(BooleanFormula left, BooleanFormula right) {
-        return new BinaryOperation(left, right, BinaryOperations.IMPLIES);
+        return create(Arrays.asList(left, right), BinaryOperations.IMPLIES, null);
     }
     
     public static BooleanFormula equivalent(BooleanFormula left, BooleanFormula right) {
-        return new BinaryOperation(left, right, BinaryOperations.EQ);
+        return create(Arrays.asList(left, right), BinaryOperations.EQ, null);
     }
     
     @Override
-    public String toLimbooleString() {
-        assert !children.isEmpty();
-        if (children.size() == 1) {
-            return children.get(0).toLimbooleString();
-        }
-        
-        final List<String> strChildren = children.stream()
-                .map(BooleanFormula::toLimbooleString)
-                .collect(Collectors.toList());
-        
-        // limboole does not like '->' without the left space
-        return "(" + String.join((type == BinaryOperations.IMPLIES ? " " : "")
-                + type, strChildren) + ")";
-    }
-    
-    private String commentStringStart() {
-        return comment == null ? "" : ("\n/* " + comment + " */\n");
-    }
-    
-    private String commentStringEnd() {
-        return comment == null ? "" : ("\n/* " + "end of block" + " */\n");
+    void emit(Emitter e) throws IOException {
+        if (e.limboole) {
+            emitLimboole(e);
+        } else {
+            emitPretty(e);
+        }
     }
-    
-    private String comment(String content) {
-        return commentStringStart() + content + commentStringEnd();
+
+    private void emitLimboole(Emitter e) throws IOException {
+        assert children.length > 0;
+        if (children.length == 1) {
+            e.child(children[0]);
+            return;
+        }
+        // limboole does not like '->' without the left space
+        final String separator = (type == BinaryOperations.IMPLIES ? " " : "") + type;
+        e.text("(");
+        for (int i = 0; i < children.length; i++) {
+            if (i > 0) {
+                e.text(separator);
+            }
+            e.child(children[i]);
+        }
+        e.text(")");
     }
     
-    @Override
-    public String toString() {
-        if (children.isEmpty()) {
+    private void emitPretty(Emitter e) throws IOException {
+        if (children.length > 1) {
+            e.text("(");
+        }
+        if (comment != null) {
+            e.text("\n/* " + comment + " */\n");
+        }
+        if (children.length == 0) {
             switch (type) {
             case AND:
-                return comment(BooleanFormula.TRUE.toString());
+                e.child(BooleanFormula.TRUE);
+                break;
             case OR:
-                return comment(BooleanFormula.FALSE.toString());
+                e.child(BooleanFormula.FALSE);
+                break;
             default:
                 throw new AssertionError();
             }
-        } else if (children.size() == 1) {
-            return comment(children.get(0).toString());
         }
-        
-        final List<String> strChildren = children.stream().map(Object::toString).collect(Collectors.toList());
-        return "(" + comment(String.join(" " + type + " ", strChildren)) + ")";
+        final String separator = " " + type + " ";
+        for (int i = 0; i < children.length; i++) {
+            if (i > 0) {
+                e.text(separator);
+            }
+            e.child(children[i]);
+        }
+        if (comment != null) {
+            e.text("\n/* end of block */\n");
+        }
+        if (children.length > 1) {
+            e.text(")");
+        }
+    }
+
+    /*
+     * Children are interned, so they are compared by reference.
+     */
+    @Override
+    public boolean equals(Object other) {
+        if (this == other) {
+            return true;
+        } else if (!(other instanceof BinaryOperation)) {
+            return false;
+        }
+        final BinaryOperation o = (BinaryOperation) other;
+        if (hash != o.hash || type != o.type || !Objects.equals(comment, o.comment)
+                || children.length != o.children.length) {
+            return false;
+        }
+        for (int i = 0; i < children.length; i++) {
+            if (children[i] != o.children[i]) {
+                return false;
+            }
+        }
+        return true;
     }
 
     @Override
-    public BooleanFormula multipleSubstitute(Map<BooleanVariable, BooleanFormula> replacement) {
-        List<BooleanFormula> newChildren = children.stream().map(c ->
-            c.multipleSubstitute(replacement)).collect(Collectors.toList());
-        return new BinaryOperation(newChildren, type);
+    public int hashCode() {
+        return hash;
+    }
+
+    @Override
+    BooleanFormula substitute(Map<BooleanVariable, BooleanFormula> replacement,
+                              Map<BooleanFormula, BooleanFormula> memo) {
+        BooleanFormula result = memo.get(this);
+        if (result == null) {
+            final List<BooleanFormula> newChildren = new ArrayList<>(children.length);
+            for (BooleanFormula c : children) {
+                newChildren.add(c.substitute(replacement, memo));
+            }
+            result = create(newChildren, type, null);
+            memo.put(this, result);
+        }
+        return result;
     }
     
     @Override
     public BooleanFormula simplify() {
-        final List<BooleanFormula> childrenSimpl = children.stream()
-                .map(BooleanFormula::simplify).collect(Collectors.toList());
+        if (simplified == null) {
+            simplified = simplifyChildren();
+        }
+        return simplified;
+    }
+
+    private BooleanFormula simplifyChildren() {
+        final List<BooleanFormula> childrenSimpl = new ArrayList<>(children.length);
+        for (BooleanFormula c : children) {
+            childrenSimpl.add(c.simplify());
+        }
         BooleanFormula left;
         BooleanFormula right;
         switch (type) {
@@ -160,7 +230,7 @@ public class BinaryOperation extends BooleanFormula {
             } else if (right == BooleanFormula.FALSE) {
                 return left.not();
             }
-            return new BinaryOperation(childrenSimpl, BinaryOperations.EQ);
+            return create(childrenSimpl, BinaryOperations.EQ, null);
         case IMPLIES:
             left = childrenSimpl.get(0);
             right = childrenSimpl.get(1);
@@ -173,7 +243,7 @@ public class BinaryOperation extends BooleanFormula {
             } else if (right == BooleanFormula.FALSE) {
                 return left.not();
             }
-            return new BinaryOperation(childrenSimpl, BinaryOperations.IMPLIES);
+            return create(childrenSimpl, BinaryOperations.IMPLIES, null);
         }
         throw new AssertionError();
     }
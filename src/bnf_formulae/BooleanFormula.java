@@ -4,7 +4,9 @@ package bnf_formulae;
  * (c) Igor Buzhinsky
  */
 
+import meta.SynthesisSession;
 import sat_solving.Assignment;
+import sat_solving.EmbeddedSolver;
 import sat_solving.SatSolver;
 import sat_solving.SolverResult;
 
@@ -15,17 +17,21 @@ import java.util.logging.Logger;
 public abstract class BooleanFormula {
     public static final BooleanFormula TRUE = new BooleanFormula() {
         @Override
-        public String toLimbooleString() {
-            throw new AssertionError();
+        void emit(Emitter e) throws IOException {
+            if (e.limboole) {
+                throw new AssertionError();
+            }
+            e.text("TRUE");
         }
 
         @Override
-        public String toString() {
-            return "TRUE";
+        public int hashCode() {
+            return "TRUE".hashCode();
         }
 
         @Override
-        public BooleanFormula multipleSubstitute(Map<BooleanVariable, BooleanFormula> replacement) {
+        BooleanFormula substitute(Map<BooleanVariable, BooleanFormula> replacement,
+                                  Map<BooleanFormula, BooleanFormula> memo) {
             return this;
         }
 
@@ -37,17 +43,21 @@ public abstract class BooleanFormula {
 
     public static final BooleanFormula FALSE = new BooleanFormula() {
         @Override
-        public String toLimbooleString() {
-            throw new AssertionError();
+        void emit(Emitter e) throws IOException {
+            if (e.limboole) {
+                throw new AssertionError();
+            }
+            e.text("FALSE");
         }
 
         @Override
-        public String toString() {
-            return "FALSE";
+        public int hashCode() {
+            return "FALSE".hashCode();
         }
 
         @Override
-        public BooleanFormula multipleSubstitute(Map<BooleanVariable, BooleanFormula> replacement) {
+        BooleanFormula substitute(Map<BooleanVariable, BooleanFormula> replacement,
+                                  Map<BooleanFormula, BooleanFormula> memo) {
             return this;
         }
 
@@ -67,7 +77,9 @@ public abstract class BooleanFormula {
         return limbooleIndex.map(index -> new Assignment(BooleanVariable.getVarByNumber(index), isTrue));
     }
     
-    public static final String DIMACS_FILENAME = "_tmp.dimacs";
+    public static String dimacsFilename() {
+        return SynthesisSession.current().temporaryFile("dimacs");
+    }
     
     public static class SolveAsSatResult {
         private final List<Assignment> list;
@@ -108,7 +120,7 @@ public abstract class BooleanFormula {
     public static void appendConstraintsToDimacs(Logger logger,
             List<String> newClauses, DimacsConversionInfo info) throws IOException {
         int oldClauseNum;
-        final File file = new File(DIMACS_FILENAME);
+        final File file = new File(dimacsFilename());
         try (final BufferedReader input = new BufferedReader(new FileReader(file))) {
             final String[] tokens = input.readLine().split(" +");
             assert tokens.length == 4;
@@ -133,78 +145,59 @@ public abstract class BooleanFormula {
     }
     
     // modifies the info and returns new constraints
-    public static List<String> extendDimacs(String limbooleFormula, Logger logger,
-            String tmpDimacsFilename, DimacsConversionInfo oldInfo) throws IOException {
+    public static List<String> extendDimacs(BooleanFormula formula, Logger logger, DimacsConversionInfo oldInfo) {
         final List<String> result = new ArrayList<>();
-        try (DimacsConversionInfo newInfo = toDimacs(limbooleFormula, logger, tmpDimacsFilename)) {
-            final List<String> newDimacsLines = new ArrayList<>();
-            try (BufferedReader input = new BufferedReader(new InputStreamReader(new FileInputStream(tmpDimacsFilename)))) {
-                input.lines().forEach(newDimacsLines::add);
-            }
+        final CnfEncoder encoder = new CnfEncoder(oldInfo::primaryToDimacs, oldInfo::newAuxiliaryVar,
+                clause -> result.add(clauseToString(clause)));
+        encoder.assertFormula(formula);
+        logger.info("CNF EXTENSION: " + encoder.clauseCount() + " clauses, "
+                + encoder.auxVarCount() + " auxiliary variables");
+        return result;
+    }
 
-            final Map<Integer, Integer> varMapping = new HashMap<>();
-            varMapping.put(0, 0);
-            // map primary vars to old numbers
-            for (Map.Entry<Integer, Integer> entry : newInfo.dimacsNumberToLimboole.entrySet()) {
-                final int dimacsBeforeMapping = entry.getKey();
-                final int limboole = entry.getValue();
-                final Integer oldDimacsValue = oldInfo.limbooleNumberToDimacs.get(limboole);
-                if (oldDimacsValue != null) {
-                    // old primary var
-                    varMapping.put(dimacsBeforeMapping, oldDimacsValue);
-                } else {
-                    // new primary var
-                    oldInfo.varNumber++;
-                    varMapping.put(dimacsBeforeMapping, oldInfo.varNumber);
-                    oldInfo.dimacsNumberToLimboole.put(oldInfo.varNumber, limboole);
-                    oldInfo.limbooleNumberToDimacs.put(limboole, oldInfo.varNumber);
-                }
-            }
-            // map auxiliary vars to new values
-            for (int i = 1; i <= newInfo.varNumber(); i++) {
-                if (!newInfo.dimacsNumberToLimboole.containsKey(i)) {
-                    oldInfo.varNumber++;
-                    varMapping.put(i, oldInfo.varNumber);
-                }
-            }
+    private static String clauseToString(int[] clause) {
+        final StringBuilder sb = new StringBuilder();
+        for (int lit : clause) {
+            sb.append(lit).append(" ");
+        }
+        return sb.append("0").toString();
+    }
 
-            for (String line : newDimacsLines) {
-                if (line.startsWith("p")) {
-                    continue;
-                }
-                final String[] tokens = line.split(" ");
-                assert tokens[tokens.length - 1].equals("0");
-                final List<String> assList = new ArrayList<>();
-                for (String token : tokens) {
-                    boolean isPositive = !token.startsWith("-");
-                    if (!isPositive) {
-                        token = token.substring(1);
-                    }
-                    final int var = Integer.parseInt(token);
-                    final int mappedVar = varMapping.get(var);
-                    assList.add((isPositive ? "" : "-") + mappedVar);
-                }
-                result.add(String.join(" ", assList));
-            }
+    private static void writeClause(PrintWriter pw, int[] clause) {
+        for (int lit : clause) {
+            pw.print(lit);
+            pw.print(' ');
         }
-        return result;
+        pw.println('0');
     }
     
-    private static int SOLVER_SEED = 0;
-    
     public static SolveAsSatResult solveDimacs(Logger logger, int timeoutSeconds, SatSolver solver,
             DimacsConversionInfo info) throws IOException {
         long time = System.currentTimeMillis();
         final Map<String, Assignment> list = new LinkedHashMap<>();
+        if (solver == SatSolver.EMBEDDED) {
+            final EmbeddedSolver embedded = EmbeddedSolver.fromDimacs(dimacsFilename());
+            if (embedded.solve(Math.max(1, timeoutSeconds)) == SolverResult.SolverResults.SAT) {
+                for (int i = 1; i <= embedded.varNumber(); i++) {
+                    final boolean value = embedded.modelValue(i);
+                    info.toLimbooleNumber(i).ifPresent(index -> {
+                        final BooleanVariable var = BooleanVariable.getVarByNumber(index);
+                        list.put(var.name, new Assignment(var, value));
+                    });
+                }
+            }
+            time = System.currentTimeMillis() - time;
+            return new SolveAsSatResult(new ArrayList<>(list.values()), time, info);
+        }
         String solverParams = "";
+        final int seed = SynthesisSession.current().nextSolverSeed();
         if (solver == SatSolver.LINGELING) {
-            solverParams = " --seed=" + SOLVER_SEED;
+            solverParams = " --seed=" + seed;
         } else if (solver == SatSolver.CRYPTOMINISAT) {
-            solverParams = " --random=" + SOLVER_SEED;
+            solverParams = " --random=" + seed;
         }
         timeoutSeconds = Math.max(1, timeoutSeconds);
-        SOLVER_SEED++;
-        final String solverStr = solver.command + timeoutSeconds + " " + solverParams + " " + DIMACS_FILENAME;
+        final String solverStr = solver.command + timeoutSeconds + " " + solverParams + " " + dimacsFilename();
         logger.info(solverStr);
         final Process p = Runtime.getRuntime().exec(solverStr);
 
@@ -220,10 +213,9 @@ public abstract class BooleanFormula {
         return new SolveAsSatResult(new ArrayList<>(list.values()), time, info);
     }
     
-    public static SolveAsSatResult solveAsSat(String formula, Logger logger,
+    public static SolveAsSatResult solveAsSat(BooleanFormula formula, Logger logger,
             int timeoutSeconds, SatSolver solver) throws IOException {
-        logger.info("Final SAT formula length: " + formula.length());
-        final DimacsConversionInfo info = BooleanFormula.toDimacs(formula, logger, DIMACS_FILENAME);
+        final DimacsConversionInfo info = BooleanFormula.toDimacs(formula, logger, dimacsFilename());
         info.close();
         logger.info("CREATED DIMACS FILE");
         return solveDimacs(logger, timeoutSeconds, solver, info);
@@ -238,25 +230,26 @@ public abstract class BooleanFormula {
         return toDimacs(limbooleString, logger, dimacsFilename);
     }
 
-    public static void transformConstraints(List<int[]> cnfConstraints, DimacsConversionInfo info) {
-        for (final int[] terms : cnfConstraints) {
-            for (int j = 0; j < terms.length; j++) {
-                final int term = terms[j];
-                final int var = Math.abs(term);
-
-                Integer transformedNum = info.limbooleNumberToDimacs.get(var);
-                if (transformedNum == null) {
-                    info.varNumber++;
-                    info.limbooleNumberToDimacs.put(var, info.varNumber);
-                    info.dimacsNumberToLimboole.put(info.varNumber, var);
-                    transformedNum = info.varNumber;
-                }
-                terms[j] = (term < 0 ? -1 : 1) * transformedNum;
-            }
-        }
+    /*
+     * Limboole literal -> DIMACS literal, a new DIMACS variable is allocated for an unknown limboole variable.
+     */
+    public static int toDimacsLiteral(int term, DimacsConversionInfo info) {
+        final int var = Math.abs(term);
+        Integer transformedNum = info.limbooleNumberToDimacs.get(var);
+        if (transformedNum == null) {
+            info.varNumber++;
+            info.limbooleNumberToDimacs.put(var, info.varNumber);
+            info.dimacsNumberToLimboole.put(info.varNumber, var);
+            transformedNum = info.varNumber;
+        }
+        return (term < 0 ? -1 : 1) * transformedNum;
+    }
+
+    public static void transformConstraints(ClauseBuffer cnfConstraints, DimacsConversionInfo info) {
+        cnfConstraints.mapLiterals(term -> toDimacsLiteral(term, info));
     }
 
-    public static void appendConstraints(List<int[]> cnfConstraints, DimacsConversionInfo info,
+    public static void appendConstraints(ClauseBuffer cnfConstraints, DimacsConversionInfo info,
                                          DataOutputStream constraintWriter) throws IOException {
         final int initialVarNumber = info.varNumber;
         transformConstraints(cnfConstraints, info);
@@ -265,55 +258,69 @@ public abstract class BooleanFormula {
             constraintWriter.writeInt(1);
             constraintWriter.writeInt(newVars);
         }
-        for (int[] constraint : cnfConstraints) {
-            constraintWriter.writeInt(0);
-            for (int i : constraint) {
-                constraintWriter.writeInt(i);
-            }
-            constraintWriter.writeInt(0);
-        }
+        cnfConstraints.writeTo(constraintWriter);
     }
     
+    /*
+     * Clauses are written to the file as they are produced. The file starts with a fixed-size header,
+     * which is overwritten with the actual numbers of variables and clauses when the file is complete.
+     */
     public static class DimacsConversionInfo implements AutoCloseable {
         private final Map<Integer, Integer> limbooleNumberToDimacs = new HashMap<>();
         private final Map<Integer, Integer> dimacsNumberToLimboole = new HashMap<>();
         private String title;
-        private Integer varNumber;
-        private PrintWriter pw;
+        private int varNumber;
+        private int clauseNumber;
+        private final String filename;
+        private final PrintWriter pw;
         
-        DimacsConversionInfo(String filename) throws FileNotFoundException {
-             pw = new PrintWriter(new File(filename));
+        DimacsConversionInfo(String filename) throws IOException {
+            this.filename = filename;
+            pw = new PrintWriter(new BufferedWriter(new FileWriter(filename)));
+            pw.println(fixedSizedDimacsHeader(0, 0));
         }
         
-        void acceptLine(String line) {
-            if (line.startsWith("c")) {
-                String[] tokens = line.split(" ");
-                assert tokens.length == 3;
-                int first = Integer.parseInt(tokens[1]);
-                int second = Integer.parseInt(tokens[2]);
-                assert !limbooleNumberToDimacs.containsKey(second);
-                assert !dimacsNumberToLimboole.containsKey(first);
-                limbooleNumberToDimacs.put(second, first);
-                dimacsNumberToLimboole.put(first, second);
-            } else if (line.startsWith("p")) {
-                title = line;
-                String[] tokens = line.split(" ");
-                assert tokens.length == 4;
-                varNumber = Integer.parseInt(tokens[2]);
-                final int clauseNumber = Integer.parseInt(tokens[3]);
-                pw.println(fixedSizedDimacsHeader(varNumber, clauseNumber));
-            } else {
-                pw.println(line);
+        int primaryToDimacs(int limbooleNum) {
+            Integer dimacsNum = limbooleNumberToDimacs.get(limbooleNum);
+            if (dimacsNum == null) {
+                dimacsNum = ++varNumber;
+                limbooleNumberToDimacs.put(limbooleNum, dimacsNum);
+                dimacsNumberToLimboole.put(dimacsNum, limbooleNum);
+            }
+            return dimacsNum;
+        }
+        
+        int newAuxiliaryVar() {
+            return ++varNumber;
+        }
+        
+        void write(int[] clause) {
+            writeClause(pw, clause);
+            clauseNumber++;
+        }
+
+        void finish() throws IOException {
+            pw.close();
+            if (pw.checkError()) {
+                throw new IOException("Failed to write " + filename);
+            }
+            title = "p cnf " + varNumber + " " + clauseNumber;
+            try (final RandomAccessFile f = new RandomAccessFile(filename, "rw")) {
+                f.write(fixedSizedDimacsHeader(varNumber, clauseNumber).getBytes());
             }
         }
         
+        int clauseNumber() {
+            return clauseNumber;
+        }
+        
         String title() {
             assert title != null;
             return title;
         }
         
         Optional<Integer> toDimacsNumber(int num) {
-            return Optional.of(limbooleNumberToDimacs.get(num));
+            return Optional.ofNullable(limbooleNumberToDimacs.get(num));
         }
         
         public int varNumber() {
@@ -330,41 +337,104 @@ public abstract class BooleanFormula {
         }
     }
     
-    public abstract String toLimbooleString();
-    
-    private static DimacsConversionInfo toDimacs(String limbooleFormula, Logger logger, String dimacsFilename)
-            throws IOException {
-        final String beforeLimbooleFilename = "_tmp.limboole";
-        final String afterLimbooleFilename = "_tmp.after.limboole.dimacs";
-        
-        try (PrintWriter pw = new PrintWriter(beforeLimbooleFilename)) {
-            pw.print(limbooleFormula);
+    /*
+     * Serializes formulae without recursion. A formula emits its text and its children in order, and the
+     * children are expanded later from an explicit stack. Text which precedes all children is written at once.
+     */
+    static final class Emitter {
+        final boolean limboole;
+        private final Appendable out;
+        private final Deque<Object> stack = new ArrayDeque<>();
+        // text and children emitted by the formula being expanded
+        private final List<Object> pending = new ArrayList<>();
+
+        private Emitter(Appendable out, boolean limboole) {
+            this.out = out;
+            this.limboole = limboole;
         }
-        
-        final String limbooleStr = "limboole -d -s -o " + afterLimbooleFilename + " " + beforeLimbooleFilename;
-        logger.info(limbooleStr);
-        final Process limboole = Runtime.getRuntime().exec(limbooleStr);
-        try {
-            limboole.waitFor();
-        } catch (InterruptedException e) {
-            throw new AssertionError();
+
+        void text(String s) throws IOException {
+            if (pending.isEmpty()) {
+                out.append(s);
+            } else {
+                pending.add(s);
+            }
         }
-        
-        final DimacsConversionInfo info = new DimacsConversionInfo(dimacsFilename);
-        try (BufferedReader input = new BufferedReader(new InputStreamReader(new FileInputStream(afterLimbooleFilename)))) {
-            input.lines().forEach(info::acceptLine);
+
+        void child(BooleanFormula f) {
+            pending.add(f);
         }
-        info.close();
 
+        private void run(BooleanFormula formula) throws IOException {
+            stack.push(formula);
+            while (!stack.isEmpty()) {
+                final Object item = stack.pop();
+                if (item instanceof BooleanFormula) {
+                    ((BooleanFormula) item).emit(this);
+                    for (int i = pending.size() - 1; i >= 0; i--) {
+                        stack.push(pending.get(i));
+                    }
+                    pending.clear();
+                } else {
+                    out.append((String) item);
+                }
+            }
+        }
+    }
+
+    abstract void emit(Emitter e) throws IOException;
+
+    public void writeLimboole(Appendable out) throws IOException {
+        new Emitter(out, true).run(this);
+    }
+
+    public void write(Appendable out) throws IOException {
+        new Emitter(out, false).run(this);
+    }
+
+    public String toLimbooleString() {
+        final StringBuilder sb = new StringBuilder();
+        try {
+            writeLimboole(sb);
+        } catch (IOException e) {
+            throw new AssertionError(e);
+        }
+        return sb.toString();
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder sb = new StringBuilder();
+        try {
+            write(sb);
+        } catch (IOException e) {
+            throw new AssertionError(e);
+        }
+        return sb.toString();
+    }
+    
+    private static DimacsConversionInfo toDimacs(String limbooleFormula, Logger logger, String dimacsFilename)
+            throws IOException {
+        return toDimacs(LimbooleParser.parse(limbooleFormula), logger, dimacsFilename);
+    }
+    
+    private static DimacsConversionInfo toDimacs(BooleanFormula formula, Logger logger, String dimacsFilename)
+            throws IOException {
+        final DimacsConversionInfo info = new DimacsConversionInfo(dimacsFilename);
+        final CnfEncoder encoder = new CnfEncoder(info::primaryToDimacs, info::newAuxiliaryVar, info::write);
+        encoder.assertFormula(formula);
+        info.finish();
+        logger.info("CNF CONVERSION: " + info.varNumber() + " variables (" + encoder.auxVarCount()
+                + " auxiliary), " + info.clauseNumber() + " clauses");
         return info;
     }
     
     DimacsConversionInfo toDimacs(Logger logger, String dimacsFilename) throws IOException {
-        return toDimacs(simplify().toLimbooleString(), logger, dimacsFilename);
+        return toDimacs(simplify(), logger, dimacsFilename);
     }
     
     public BooleanFormula not() {
-        return new NotOperation(this);
+        return NotOperation.create(this);
     }
     
     public BooleanFormula and(BooleanFormula other) {
@@ -383,20 +453,18 @@ public abstract class BooleanFormula {
         return BinaryOperation.equivalent(this, other);
     }
     
-    public abstract BooleanFormula multipleSubstitute(Map<BooleanVariable, BooleanFormula> replacement);
+    public BooleanFormula multipleSubstitute(Map<BooleanVariable, BooleanFormula> replacement) {
+        return substitute(replacement, new IdentityHashMap<>());
+    }
+
+    /*
+     * memo: already substituted subformulae, so that shared subformulae are processed once.
+     */
+    abstract BooleanFormula substitute(Map<BooleanVariable, BooleanFormula> replacement,
+                                       Map<BooleanFormula, BooleanFormula> memo);
     
     /*
      * Removes TRUE and FALSE.
      */
     public abstract BooleanFormula simplify();
-
-    @Override
-    public boolean equals(Object other) {
-        return other.getClass() == getClass() && toString().equals(other.toString());
-    }
-    
-    @Override
-    public int hashCode() {
-        return toString().hashCode();
-    }
 }
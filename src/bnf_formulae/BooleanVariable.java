@@ -4,6 +4,9 @@ package bnf_formulae;
  * (c) Igor Buzhinsky
  */
 
+import meta.SynthesisSession;
+
+import java.io.IOException;
 import java.util.*;
 
 public class BooleanVariable extends BooleanFormula implements Comparable<BooleanVariable> {
@@ -11,14 +14,12 @@ public class BooleanVariable extends BooleanFormula implements Comparable<Boolea
     public final int number;
     
     public static void eraseVariables() {
-        ALL_VARS.clear();
-        VARS_BY_NAME.clear();
-        counter = 1;
+        registry().clear();
     }
     
-    private static int counter = 1;
-    private static final List<BooleanVariable> ALL_VARS = new ArrayList<>();
-    private static final Map<String, BooleanVariable> VARS_BY_NAME = new HashMap<>();
+    private static VariableRegistry registry() {
+        return SynthesisSession.current().variables();
+    }
 
     private static String createName(String prefix, Object... indices) {
         assert indices.length == 0 || !prefix.contains("_");
@@ -29,17 +30,15 @@ public class BooleanVariable extends BooleanFormula implements Comparable<Boolea
 
     public BooleanVariable(String prefix, Object... indices) {
         name = createName(prefix, indices);
-        number = counter++;
-        ALL_VARS.add(this);
-        VARS_BY_NAME.put(name, this);
+        number = registry().register(this);
     }
 
     public static BooleanVariable getVarByNumber(int num) {
-        return ALL_VARS.get(num - 1);
+        return registry().byNumber(num);
     }
     
     public static Optional<BooleanVariable> byName(String prefix, Object... indices) {
-        return Optional.ofNullable(VARS_BY_NAME.get(createName(prefix, indices)));
+        return Optional.ofNullable(registry().byName(createName(prefix, indices)));
     }
     
     public static BooleanVariable getOrCreate(String prefix, Object... indices) {
@@ -47,14 +46,24 @@ public class BooleanVariable extends BooleanFormula implements Comparable<Boolea
         return v.orElseGet(() -> new BooleanVariable(prefix, indices));
     }
     
+    @Override
+    void emit(Emitter e) throws IOException {
+        e.text(e.limboole ? String.valueOf(number) : name);
+    }
+
     @Override
     public String toString() {
         return name;
     }
 
     @Override
-    public String toLimbooleString() {
-        return String.valueOf(number);
+    public boolean equals(Object other) {
+        return this == other || other instanceof BooleanVariable && name.equals(((BooleanVariable) other).name);
+    }
+
+    @Override
+    public int hashCode() {
+        return name.hashCode();
     }
 
     @Override
@@ -63,7 +72,8 @@ public class BooleanVariable extends BooleanFormula implements Comparable<Boolea
     }
     
     @Override
-    public BooleanFormula multipleSubstitute(Map<BooleanVariable, BooleanFormula> replacement) {
+    BooleanFormula substitute(Map<BooleanVariable, BooleanFormula> replacement,
+                              Map<BooleanFormula, BooleanFormula> memo) {
         BooleanFormula res = replacement.get(this);
         return res == null ? this : res;
     }
@@ -0,0 +1,165 @@
+package bnf_formulae;
+
+/**
+ * (c) Igor Buzhinsky
+ */
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.function.IntUnaryOperator;
+
+/*
+ * CNF clauses stored in one growable int array: the literals of each clause followed by 0, as in DIMACS,
+ * plus the offset of each clause. Unlike List<int[]>, no object is created per clause.
+ * Clauses are appended either whole with add() or literal by literal with literal() and endClause().
+ * mark() and truncate() discard the clauses added after some point.
+ */
+public class ClauseBuffer {
+    private int[] literals = new int[1024];
+    // length of the used part of literals, including the clause being appended
+    private int size;
+    // end of the last complete clause
+    private int end;
+    private int[] starts = new int[256];
+    private int clauseCount;
+
+    public interface ClauseConsumer {
+        /*
+         * The clause is literals[from..to).
+         */
+        void accept(int[] literals, int from, int to);
+    }
+
+    private void ensureCapacity(int extra) {
+        if (size + extra > literals.length) {
+            literals = Arrays.copyOf(literals, Math.max(size + extra, literals.length * 2));
+        }
+    }
+
+    public ClauseBuffer literal(int lit) {
+        if (lit == 0) {
+            throw new IllegalArgumentException("Zero literal");
+        }
+        ensureCapacity(1);
+        literals[size++] = lit;
+        return this;
+    }
+
+    public void endClause() {
+        ensureCapacity(1);
+        literals[size++] = 0;
+        if (clauseCount == starts.length) {
+            starts = Arrays.copyOf(starts, clauseCount * 2);
+        }
+        starts[clauseCount++] = end;
+        end = size;
+    }
+
+    public void add(int lit) {
+        literal(lit).endClause();
+    }
+
+    public void add(int lit1, int lit2) {
+        literal(lit1).literal(lit2).endClause();
+    }
+
+    public void add(int lit1, int lit2, int lit3) {
+        literal(lit1).literal(lit2).literal(lit3).endClause();
+    }
+
+    public void add(int... clause) {
+        add(clause, 0, clause.length);
+    }
+
+    public void add(int[] clause, int from, int to) {
+        ensureCapacity(to - from);
+        for (int i = from; i < to; i++) {
+            literal(clause[i]);
+        }
+        endClause();
+    }
+
+    public void addAll(ClauseBuffer other) {
+        other.forEach(this::add);
+    }
+
+    public int clauseCount() {
+        return clauseCount;
+    }
+
+    public boolean isEmpty() {
+        return clauseCount == 0;
+    }
+
+    // end of the clause, excluding the terminating 0
+    private int to(int index) {
+        return index + 1 < clauseCount ? starts[index + 1] - 1 : end - 1;
+    }
+
+    /*
+     * A copy of the clause.
+     */
+    public int[] clause(int index) {
+        return Arrays.copyOfRange(literals, starts[index], to(index));
+    }
+
+    public int clauseSize(int index) {
+        return to(index) - starts[index];
+    }
+
+    public int literalAt(int index, int position) {
+        return literals[starts[index] + position];
+    }
+
+    public void forEach(ClauseConsumer consumer) {
+        for (int i = 0; i < clauseCount; i++) {
+            consumer.accept(literals, starts[i], to(i));
+        }
+    }
+
+    /*
+     * Replaces each literal l with f(l) in place.
+     */
+    public void mapLiterals(IntUnaryOperator f) {
+        for (int i = 0; i < end; i++) {
+            if (literals[i] != 0) {
+                literals[i] = f.applyAsInt(literals[i]);
+            }
+        }
+    }
+
+    public int mark() {
+        return clauseCount;
+    }
+
+    /*
+     * Removes the clauses added after mark() has returned the given value, as well as an unfinished clause.
+     */
+    public void truncate(int mark) {
+        if (mark > clauseCount) {
+            throw new IllegalArgumentException("Invalid mark " + mark);
+        }
+        if (mark < clauseCount) {
+            end = starts[mark];
+        }
+        clauseCount = mark;
+        size = end;
+    }
+
+    public void clear() {
+        truncate(0);
+    }
+
+    /*
+     * Writes the clauses as commands of the incremental solver protocol: 0 <literals> 0.
+     */
+    public void writeTo(DataOutputStream out) throws IOException {
+        for (int i = 0; i < end; i++) {
+            if (i == 0 || literals[i - 1] == 0) {
+                out.writeInt(0);
+            }
+            out.writeInt(literals[i]);
+        }
+    }
+}
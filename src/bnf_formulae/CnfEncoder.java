@@ -0,0 +1,300 @@
+package bnf_formulae;
+
+/**
+ * (c) Igor Buzhinsky
+ */
+
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.function.IntSupplier;
+import java.util.function.IntUnaryOperator;
+
+/*
+ * In-JVM CNF conversion of BooleanFormula trees (replaces the limboole round-trip).
+ * Auxiliary variables are introduced with the polarity-aware (Plaisted-Greenbaum) variant
+ * of the Tseitin transformation: for a subformula occurring only positively, only the clauses
+ * x -> subformula are generated, and vice versa. Top-level conjunctions and disjunctions are
+ * translated into clauses directly. Subformula objects that occur several times are encoded once.
+ * The traversal is iterative, so deeply nested formulae do not exhaust the stack.
+ *
+ * Output variable numbers are obtained from primaryVar (for BooleanVariable numbers) and
+ * freshVar (for auxiliary variables), clauses are passed to the sink.
+ */
+public class CnfEncoder {
+    private static final int POS = 1;
+    private static final int NEG = 2;
+    private static final int BOTH = POS | NEG;
+
+    private final IntUnaryOperator primaryVar;
+    private final IntSupplier freshVar;
+    private final Consumer<int[]> sink;
+
+    // subformula -> {literal, encoded polarities}
+    private final Map<BooleanFormula, int[]> cache = new IdentityHashMap<>();
+    private int trueLiteral;
+    private int auxVarCount;
+    private int clauseCount;
+
+    public CnfEncoder(IntUnaryOperator primaryVar, IntSupplier freshVar, Consumer<int[]> sink) {
+        this.primaryVar = primaryVar;
+        this.freshVar = freshVar;
+        this.sink = sink;
+    }
+
+    public int auxVarCount() {
+        return auxVarCount;
+    }
+
+    public int clauseCount() {
+        return clauseCount;
+    }
+
+    private static int flip(int polarity) {
+        return polarity == BOTH ? BOTH : BOTH - polarity;
+    }
+
+    private void emit(int... clause) {
+        clauseCount++;
+        sink.accept(clause);
+    }
+
+    private int fresh() {
+        auxVarCount++;
+        return freshVar.getAsInt();
+    }
+
+    private int trueLiteral() {
+        if (trueLiteral == 0) {
+            trueLiteral = fresh();
+            emit(trueLiteral);
+        }
+        return trueLiteral;
+    }
+
+    /*
+     * Adds clauses requiring the formula to be true.
+     */
+    public void assertFormula(BooleanFormula formula) {
+        final Deque<BooleanFormula> todo = new ArrayDeque<>();
+        final Deque<Boolean> signs = new ArrayDeque<>();
+        todo.push(formula);
+        signs.push(true);
+        while (!todo.isEmpty()) {
+            final BooleanFormula f = todo.pop();
+            final boolean positive = signs.pop();
+            if (f == BooleanFormula.TRUE || f == BooleanFormula.FALSE) {
+                if ((f == BooleanFormula.TRUE) != positive) {
+                    emit();
+                }
+            } else if (f instanceof BooleanVariable) {
+                final int var = primaryVar.applyAsInt(((BooleanVariable) f).number);
+                emit(positive ? var : -var);
+            } else if (f instanceof NotOperation) {
+                todo.push(((NotOperation) f).inside);
+                signs.push(!positive);
+            } else if (f instanceof BinaryOperation) {
+                final BinaryOperation op = (BinaryOperation) f;
+                final List<BooleanFormula> children = op.children();
+                final BinaryOperations type = op.type;
+                if ((type == BinaryOperations.AND) == positive
+                        && (type == BinaryOperations.AND || type == BinaryOperations.OR)) {
+                    // positive conjunction or negated disjunction
+                    for (int i = children.size() - 1; i >= 0; i--) {
+                        todo.push(children.get(i));
+                        signs.push(positive);
+                    }
+                } else if (type == BinaryOperations.AND || type == BinaryOperations.OR) {
+                    // positive disjunction or negated conjunction
+                    final int[] clause = new int[children.size()];
+                    for (int i = 0; i < clause.length; i++) {
+                        clause[i] = positive ? literal(children.get(i), POS) : -literal(children.get(i), NEG);
+                    }
+                    emit(clause);
+                } else if (type == BinaryOperations.IMPLIES) {
+                    if (positive) {
+                        emit(-literal(children.get(0), NEG), literal(children.get(1), POS));
+                    } else {
+                        todo.push(children.get(0));
+                        signs.push(true);
+                        todo.push(children.get(1));
+                        signs.push(false);
+                    }
+                } else {
+                    final int a = literal(children.get(0), BOTH);
+                    final int b = literal(children.get(1), BOTH);
+                    if (positive) {
+                        emit(-a, b);
+                        emit(a, -b);
+                    } else {
+                        emit(a, b);
+                        emit(-a, -b);
+                    }
+                }
+            } else {
+                throw new AssertionError("Unknown formula type " + f.getClass());
+            }
+        }
+    }
+
+    /*
+     * Returns a literal equivalent to the formula.
+     */
+    public int literal(BooleanFormula formula) {
+        return literal(formula, BOTH);
+    }
+
+    private static class Frame {
+        final BooleanFormula formula;
+        final int polarity;
+        final List<BooleanFormula> children;
+        final int[] literals;
+        int next;
+
+        Frame(BooleanFormula formula, int polarity) {
+            this.formula = formula;
+            this.polarity = polarity;
+            children = formula instanceof NotOperation
+                    ? Collections.singletonList(((NotOperation) formula).inside)
+                    : ((BinaryOperation) formula).children();
+            literals = new int[children.size()];
+        }
+
+        int childPolarity(int index) {
+            if (formula instanceof NotOperation) {
+                return flip(polarity);
+            }
+            switch (((BinaryOperation) formula).type) {
+            case AND: case OR:
+                return polarity;
+            case IMPLIES:
+                return index == 0 ? flip(polarity) : polarity;
+            default:
+                return BOTH;
+            }
+        }
+    }
+
+    /*
+     * Returns the literal without traversal, or 0 if the formula needs to be encoded.
+     */
+    private int immediateLiteral(BooleanFormula f, int polarity) {
+        if (f instanceof BooleanVariable) {
+            return primaryVar.applyAsInt(((BooleanVariable) f).number);
+        } else if (f == BooleanFormula.TRUE) {
+            return trueLiteral();
+        } else if (f == BooleanFormula.FALSE) {
+            return -trueLiteral();
+        } else if (f instanceof NotOperation && ((NotOperation) f).inside instanceof BooleanVariable) {
+            return -primaryVar.applyAsInt(((BooleanVariable) ((NotOperation) f).inside).number);
+        } else if (f instanceof BinaryOperation && ((BinaryOperation) f).children().isEmpty()) {
+            return ((BinaryOperation) f).type == BinaryOperations.AND ? trueLiteral() : -trueLiteral();
+        }
+        final int[] entry = cache.get(f);
+        return entry != null && (entry[1] & polarity) == polarity ? entry[0] : 0;
+    }
+
+    private int literal(BooleanFormula formula, int polarity) {
+        final int immediate = immediateLiteral(formula, polarity);
+        if (immediate != 0) {
+            return immediate;
+        }
+        final Deque<Frame> stack = new ArrayDeque<>();
+        stack.push(new Frame(formula, polarity));
+        int result = 0;
+        while (!stack.isEmpty()) {
+            final Frame frame = stack.peek();
+            if (frame.next < frame.children.size()) {
+                final BooleanFormula child = frame.children.get(frame.next);
+                final int childPolarity = frame.childPolarity(frame.next);
+                final int lit = immediateLiteral(child, childPolarity);
+                if (lit != 0) {
+                    frame.literals[frame.next++] = lit;
+                } else {
+                    stack.push(new Frame(child, childPolarity));
+                }
+            } else {
+                stack.pop();
+                final int lit = complete(frame);
+                if (stack.isEmpty()) {
+                    result = lit;
+                } else {
+                    final Frame parent = stack.peek();
+                    parent.literals[parent.next++] = lit;
+                }
+            }
+        }
+        return result;
+    }
+
+    private int complete(Frame frame) {
+        final int[] l = frame.literals;
+        if (frame.formula instanceof NotOperation) {
+            return -l[0];
+        } else if (l.length == 1) {
+            return l[0];
+        }
+        final int[] entry = cache.get(frame.formula);
+        final int x = entry == null ? fresh() : entry[0];
+        final int missing = frame.polarity & ~(entry == null ? 0 : entry[1]);
+        final boolean pos = (missing & POS) != 0;
+        final boolean neg = (missing & NEG) != 0;
+        switch (((BinaryOperation) frame.formula).type) {
+        case AND:
+            if (pos) {
+                for (int lit : l) {
+                    emit(-x, lit);
+                }
+            }
+            if (neg) {
+                final int[] clause = new int[l.length + 1];
+                clause[0] = x;
+                for (int i = 0; i < l.length; i++) {
+                    clause[i + 1] = -l[i];
+                }
+                emit(clause);
+            }
+            break;
+        case OR:
+            if (pos) {
+                final int[] clause = new int[l.length + 1];
+                clause[0] = -x;
+                System.arraycopy(l, 0, clause, 1, l.length);
+                emit(clause);
+            }
+            if (neg) {
+                for (int lit : l) {
+                    emit(x, -lit);
+                }
+            }
+            break;
+        case IMPLIES:
+            if (pos) {
+                emit(-x, -l[0], l[1]);
+            }
+            if (neg) {
+                emit(x, l[0]);
+                emit(x, -l[1]);
+            }
+            break;
+        case EQ:
+            if (pos) {
+                emit(-x, -l[0], l[1]);
+                emit(-x, l[0], -l[1]);
+            }
+            if (neg) {
+                emit(x, l[0], l[1]);
+                emit(x, -l[0], -l[1]);
+            }
+            break;
+        default:
+            throw new AssertionError();
+        }
+        cache.put(frame.formula, new int[] { x, frame.polarity | (entry == null ? 0 : entry[1]) });
+        return x;
+    }
+}
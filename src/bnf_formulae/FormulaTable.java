@@ -0,0 +1,39 @@
+package bnf_formulae;
+
+/**
+ * (c) Igor Buzhinsky
+ */
+
+import java.lang.ref.WeakReference;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/*
+ * Unique table of compound formulae (hash consing). NotOperation and BinaryOperation objects are created only
+ * through intern(), so structurally equal formulae of one session are the same object: equality is a reference
+ * comparison, and common subformulae are shared instead of being copied.
+ * Formulae are referenced weakly and leave the table once they are not used elsewhere.
+ * Each SynthesisSession has its own table.
+ */
+public class FormulaTable {
+    private final Map<BooleanFormula, WeakReference<BooleanFormula>> table = new WeakHashMap<>();
+
+    /*
+     * The formula is compared with the table entries by its equals(), which may assume that its children
+     * are interned.
+     */
+    @SuppressWarnings("unchecked")
+    <T extends BooleanFormula> T intern(T formula) {
+        final WeakReference<BooleanFormula> ref = table.get(formula);
+        final BooleanFormula existing = ref == null ? null : ref.get();
+        if (existing != null) {
+            return (T) existing;
+        }
+        table.put(formula, new WeakReference<>(formula));
+        return formula;
+    }
+
+    public int size() {
+        return table.size();
+    }
+}
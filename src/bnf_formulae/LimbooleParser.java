@@ -0,0 +1,221 @@
+package bnf_formulae;
+
+/**
+ * (c) Igor Buzhinsky
+ */
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+
+/*
+ * Parses formulae in the limboole syntax (as produced by toLimbooleString) back into BooleanFormula.
+ * Numeric identifiers refer to BooleanVariable numbers, other identifiers are treated as variable names.
+ * The parser is iterative (operator precedence), so deeply nested formulae do not exhaust the stack.
+ */
+public class LimbooleParser {
+    private enum Op {
+        NOT(5, true), AND(4, false), OR(3, false), IMPLIES(2, true), IMPLIED(2, false), EQ(1, false), PAREN(0, false);
+
+        final int precedence;
+        final boolean rightAssociative;
+
+        Op(int precedence, boolean rightAssociative) {
+            this.precedence = precedence;
+            this.rightAssociative = rightAssociative;
+        }
+    }
+
+    /*
+     * Conjunctions and disjunctions are collected into a single n-ary operation.
+     */
+    private static class Junction {
+        final BinaryOperations type;
+        final List<BooleanFormula> children = new ArrayList<>();
+
+        Junction(BinaryOperations type) {
+            this.type = type;
+        }
+    }
+
+    private final String s;
+    private int pos;
+    private final Deque<Object> operands = new ArrayDeque<>();
+    private final Deque<Op> operators = new ArrayDeque<>();
+
+    private LimbooleParser(String s) {
+        this.s = s;
+    }
+
+    public static BooleanFormula parse(String formula) {
+        return new LimbooleParser(formula).parse();
+    }
+
+    private static BooleanFormula finish(Object operand) {
+        if (operand instanceof Junction) {
+            final Junction j = (Junction) operand;
+            return j.type == BinaryOperations.AND ? BinaryOperation.and(j.children) : BinaryOperation.or(j.children);
+        }
+        return (BooleanFormula) operand;
+    }
+
+    private static void addJunctionChild(Junction j, Object operand) {
+        if (operand instanceof Junction && ((Junction) operand).type == j.type) {
+            j.children.addAll(((Junction) operand).children);
+        } else {
+            j.children.add(finish(operand));
+        }
+    }
+
+    private void reduce() {
+        final Op op = operators.pop();
+        if (op == Op.NOT) {
+            operands.push(finish(operands.pop()).not());
+            return;
+        }
+        final Object right = operands.pop();
+        final Object left = operands.pop();
+        switch (op) {
+        case AND: case OR:
+            final BinaryOperations type = op == Op.AND ? BinaryOperations.AND : BinaryOperations.OR;
+            final Junction j;
+            if (left instanceof Junction && ((Junction) left).type == type) {
+                j = (Junction) left;
+            } else {
+                j = new Junction(type);
+                addJunctionChild(j, left);
+            }
+            addJunctionChild(j, right);
+            operands.push(j);
+            break;
+        case IMPLIES:
+            operands.push(finish(left).implies(finish(right)));
+            break;
+        case IMPLIED:
+            operands.push(finish(right).implies(finish(left)));
+            break;
+        case EQ:
+            operands.push(finish(left).equivalent(finish(right)));
+            break;
+        default:
+            throw new AssertionError();
+        }
+    }
+
+    private void pushBinary(Op op) {
+        while (!operators.isEmpty()) {
+            final Op top = operators.peek();
+            if (top == Op.PAREN || top.precedence < op.precedence
+                    || (top.precedence == op.precedence && op.rightAssociative)) {
+                break;
+            }
+            reduce();
+        }
+        operators.push(op);
+    }
+
+    private static boolean isIdentifierChar(char c) {
+        return Character.isLetterOrDigit(c) || c == '_' || c == '.' || c == '[' || c == ']' || c == '$' || c == '@';
+    }
+
+    private RuntimeException error(String message) {
+        final int from = Math.max(0, pos - 20);
+        final int to = Math.min(s.length(), pos + 20);
+        return new RuntimeException("Limboole parse error at position " + pos + " (" + message + "): ..."
+                + s.substring(from, to) + "...");
+    }
+
+    private BooleanFormula parse() {
+        boolean expectOperand = true;
+        while (true) {
+            while (pos < s.length() && (Character.isWhitespace(s.charAt(pos)) || s.charAt(pos) == '%')) {
+                if (s.charAt(pos) == '%') {
+                    while (pos < s.length() && s.charAt(pos) != '\n') {
+                        pos++;
+                    }
+                } else {
+                    pos++;
+                }
+            }
+            if (pos == s.length()) {
+                break;
+            }
+            final char c = s.charAt(pos);
+            if (expectOperand) {
+                if (c == '!') {
+                    operators.push(Op.NOT);
+                    pos++;
+                } else if (c == '(') {
+                    operators.push(Op.PAREN);
+                    pos++;
+                } else if (isIdentifierChar(c)) {
+                    final int start = pos;
+                    while (pos < s.length() && isIdentifierChar(s.charAt(pos))) {
+                        pos++;
+                    }
+                    operands.push(variable(s.substring(start, pos)));
+                    expectOperand = false;
+                } else {
+                    throw error("operand expected");
+                }
+            } else {
+                if (c == ')') {
+                    while (!operators.isEmpty() && operators.peek() != Op.PAREN) {
+                        reduce();
+                    }
+                    if (operators.isEmpty()) {
+                        throw error("unbalanced parentheses");
+                    }
+                    operators.pop();
+                    pos++;
+                } else if (c == '&') {
+                    pushBinary(Op.AND);
+                    pos++;
+                    expectOperand = true;
+                } else if (c == '|') {
+                    pushBinary(Op.OR);
+                    pos++;
+                    expectOperand = true;
+                } else if (s.startsWith("->", pos)) {
+                    pushBinary(Op.IMPLIES);
+                    pos += 2;
+                    expectOperand = true;
+                } else if (s.startsWith("<->", pos)) {
+                    pushBinary(Op.EQ);
+                    pos += 3;
+                    expectOperand = true;
+                } else if (s.startsWith("<-", pos)) {
+                    pushBinary(Op.IMPLIED);
+                    pos += 2;
+                    expectOperand = true;
+                } else {
+                    throw error("operator expected");
+                }
+            }
+            // negations apply as soon as their operand is complete
+            while (!expectOperand && operators.peek() == Op.NOT) {
+                reduce();
+            }
+        }
+        if (expectOperand) {
+            throw error("unexpected end of formula");
+        }
+        while (!operators.isEmpty()) {
+            if (operators.peek() == Op.PAREN) {
+                throw error("unbalanced parentheses");
+            }
+            reduce();
+        }
+        assert operands.size() == 1;
+        return finish(operands.pop());
+    }
+
+    private static BooleanFormula variable(String name) {
+        if (name.chars().allMatch(Character::isDigit)) {
+            return BooleanVariable.getVarByNumber(Integer.parseInt(name));
+        }
+        // limboole treats unknown identifiers as free variables
+        return BooleanVariable.getOrCreate(name);
+    }
+}
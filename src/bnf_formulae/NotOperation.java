@@ -1,5 +1,8 @@
 package bnf_formulae;
 
+import meta.SynthesisSession;
+
+import java.io.IOException;
 import java.util.Map;
 
 /**
@@ -8,30 +11,53 @@ import java.util.Map;
 
 public class NotOperation extends BooleanFormula {
     public final BooleanFormula inside;
+    private BooleanFormula simplified;
 
-    public NotOperation(BooleanFormula inside) {
+    private NotOperation(BooleanFormula inside) {
         this.inside = inside;
     }
+
+    static BooleanFormula create(BooleanFormula inside) {
+        return SynthesisSession.current().formulas().intern(new NotOperation(inside));
+    }
     
     @Override
-    public String toLimbooleString() {
-        return "!" + inside.toLimbooleString();
+    void emit(Emitter e) throws IOException {
+        e.text("!");
+        e.child(inside);
     }
-    
+
+    /*
+     * The inside formula is interned, so it is compared by reference.
+     */
+    @Override
+    public boolean equals(Object other) {
+        return this == other || other instanceof NotOperation && ((NotOperation) other).inside == inside;
+    }
+
     @Override
-    public String toString() {
-        return "!" + inside;
+    public int hashCode() {
+        return ~inside.hashCode();
     }
     
     @Override
     public BooleanFormula simplify() {
-        final BooleanFormula insideSimpl = inside.simplify();
-        return insideSimpl == BooleanFormula.TRUE ? BooleanFormula.FALSE
-             : insideSimpl == BooleanFormula.FALSE ? BooleanFormula.TRUE : insideSimpl.not();
+        if (simplified == null) {
+            final BooleanFormula insideSimpl = inside.simplify();
+            simplified = insideSimpl == BooleanFormula.TRUE ? BooleanFormula.FALSE
+                    : insideSimpl == BooleanFormula.FALSE ? BooleanFormula.TRUE : insideSimpl.not();
+        }
+        return simplified;
     }
 
     @Override
-    public BooleanFormula multipleSubstitute(Map<BooleanVariable, BooleanFormula> replacement) {
-        return inside.multipleSubstitute(replacement).not();
+    BooleanFormula substitute(Map<BooleanVariable, BooleanFormula> replacement,
+                              Map<BooleanFormula, BooleanFormula> memo) {
+        BooleanFormula result = memo.get(this);
+        if (result == null) {
+            result = inside.substitute(replacement, memo).not();
+            memo.put(this, result);
+        }
+        return result;
     }
 }
@@ -6,6 +6,7 @@ package bnf_formulae;
 
 import bnf_formulae.BooleanFormula.DimacsConversionInfo;
 import exception.TimeLimitExceededException;
+import meta.SynthesisSession;
 import sat_solving.Assignment;
 import sat_solving.QbfSolver;
 import sat_solving.SolverResult;
@@ -15,6 +16,7 @@ import java.io.*;
 import java.util.*;
 import java.util.logging.Logger;
 import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
 public class QuantifiedBooleanFormula {
     private final List<BooleanVariable> existVars;
@@ -40,68 +42,96 @@ public class QuantifiedBooleanFormula {
     
     @Override
     public String toString() {
+        final StringBuilder sb = new StringBuilder();
+        try {
+            write(sb);
+        } catch (IOException e) {
+            throw new AssertionError(e);
+        }
+        return sb.toString();
+    }
+    
+    public void write(Appendable out) throws IOException {
         final List<BooleanVariable> e = existVars.stream().sorted().collect(Collectors.toList());
         final List<BooleanVariable> a = forallVars.stream().sorted().collect(Collectors.toList());
-        return "EXIST\n" + e + "\nFORALL\n" + a + "\n" + formula();
+        out.append("EXIST\n").append(e.toString()).append("\nFORALL\n").append(a.toString()).append("\n");
+        formula().write(out);
     }
     
     private static class QdimacsConversionInfo {
-        final String qdimacsString;
         private final DimacsConversionInfo info;
         
-        QdimacsConversionInfo(String qdimacsString, DimacsConversionInfo info) {
-            this.qdimacsString = qdimacsString;
+        QdimacsConversionInfo(DimacsConversionInfo info) {
             this.info = info;
         }
     }
     
-    private String otherVars(DimacsConversionInfo info) {
-        final List<Integer> nums = new ArrayList<>();
-        for (int i = 1; i <= info.varNumber(); i++) {
-            if (!info.toLimbooleNumber(i).isPresent()) {
-                nums.add(i);
+    /*
+     * The matrix is converted to CNF in the DIMACS file first, since the auxiliary variables of the
+     * innermost block are known only after the conversion. Then the prefix is written and the clauses are
+     * copied, so the QDIMACS text is never kept in memory.
+     */
+    private QdimacsConversionInfo writeQdimacs(Logger logger, String filename) throws IOException {
+        final DimacsConversionInfo info = formula().toDimacs(logger, BooleanFormula.dimacsFilename());
+        
+        try (Writer out = new BufferedWriter(new FileWriter(filename));
+             BufferedReader input = new BufferedReader(new FileReader(BooleanFormula.dimacsFilename()))) {
+            out.write(info.title());
+            out.write("\n");
+            writeQuantifier(out, 'e', varsToNumbers(existVars, info));
+            writeQuantifier(out, 'a', varsToNumbers(forallVars, info));
+            writeQuantifier(out, 'e', otherVars(info));
+            // skip title
+            input.readLine();
+            String line;
+            while ((line = input.readLine()) != null) {
+                out.write(line);
+                out.write("\n");
             }
         }
-        return nums.toString().replaceAll("[,\\[\\]]", "");
+        
+        return new QdimacsConversionInfo(info);
     }
     
-    private QdimacsConversionInfo toQdimacs(Logger logger) throws IOException {
-        final StringBuilder sb = new StringBuilder();
-        final DimacsConversionInfo info = formula().toDimacs(logger, BooleanFormula.DIMACS_FILENAME);
-        
-        sb.append(info.title()).append("\n");
-        sb.append("e ").append(varsToNumbers(existVars, info)).append(" 0\n");
-        sb.append("a ").append(varsToNumbers(forallVars, info)).append(" 0\n");
-        sb.append("e ").append(otherVars(info)).append(" 0\n");
-        try (BufferedReader input = new BufferedReader(new FileReader(BooleanFormula.DIMACS_FILENAME))) {
-            // skip title
-            input.lines().skip(1).forEach(line -> sb.append(line).append("\n"));
+    private static void writeQuantifier(Writer out, char quantifier, int[] vars) throws IOException {
+        if (vars.length == 0) {
+            return;
         }
-        
-        return new QdimacsConversionInfo(sb.toString(), info);
+        out.write(quantifier);
+        for (int var : vars) {
+            out.write(" ");
+            out.write(String.valueOf(var));
+        }
+        out.write(" 0\n");
+    }
+    
+    private int[] otherVars(DimacsConversionInfo info) {
+        return IntStream.rangeClosed(1, info.varNumber())
+                .filter(i -> !info.toLimbooleNumber(i).isPresent()).toArray();
     }
     
-    private String varsToNumbers(List<BooleanVariable> vars, DimacsConversionInfo info) {
-        final List<Integer> nums = new ArrayList<>();
-        vars.forEach(v -> {
-            Optional<Integer> dimacsNumber = info.toDimacsNumber(v.number);
-            dimacsNumber.map(nums::add);
-            if (!dimacsNumber.isPresent()) {
+    private int[] varsToNumbers(List<BooleanVariable> vars, DimacsConversionInfo info) {
+        final int[] nums = new int[vars.size()];
+        int size = 0;
+        for (BooleanVariable v : vars) {
+            final Optional<Integer> dimacsNumber = info.toDimacsNumber(v.number);
+            if (dimacsNumber.isPresent()) {
+                nums[size++] = dimacsNumber.get();
+            } else {
                 System.out.println("Warning: unused variable " + v.name + " " + v.number);
             }
-        });
-        Collections.sort(nums);
-        return nums.toString().replaceAll("[\\[\\],]", "");
+        }
+        Arrays.sort(nums, 0, size);
+        return Arrays.copyOf(nums, size);
     }
 
-    private static final String QDIMACS_FILENAME = "_tmp.qdimacs";
-    private static final String QDIMACS_PRETTY_FILENAME = "_tmp.pretty";
     
     private SolverResult depqbfSolve(Logger logger, int timeoutSeconds,
             QdimacsConversionInfo qdimacs) throws IOException {
         long time = System.currentTimeMillis();
         final List<Assignment> list = new ArrayList<>();
-        final String depqbfStr = "depqbf --max-secs=" + timeoutSeconds + " --qdo " + QDIMACS_FILENAME;
+        final String depqbfStr = "depqbf --max-secs=" + timeoutSeconds + " --qdo "
+                + SynthesisSession.current().temporaryFile("qdimacs");
         logger.info(depqbfStr);
         final Process depqbf = Runtime.getRuntime().exec(depqbfStr);
         try (BufferedReader input = new BufferedReader(new InputStreamReader(depqbf.getInputStream()))) {
@@ -133,19 +163,17 @@ public class QuantifiedBooleanFormula {
 
     public QdimacsConversionInfo printQdimacs(Logger logger, String filename, String prettyFilename)
             throws IOException {
-        final QdimacsConversionInfo qdimacs = toQdimacs(logger);
+        final QdimacsConversionInfo qdimacs = writeQdimacs(logger, filename);
         logger.info("DIMACS CNF: " + qdimacs.info.title());
-        try (PrintWriter pw = new PrintWriter(filename)) {
-            pw.print(qdimacs.qdimacsString);
-        }
-        try (PrintWriter pw = new PrintWriter(prettyFilename)) {
-            pw.print(toString());
+        try (Writer out = new BufferedWriter(new FileWriter(prettyFilename))) {
+            write(out);
         }
         return qdimacs;
     }
 
     public SolverResult solve(Logger logger, QbfSolver solver, int timeoutSeconds) throws IOException {
-        final QdimacsConversionInfo qdimacs = printQdimacs(logger, QDIMACS_FILENAME, QDIMACS_PRETTY_FILENAME);
+        final QdimacsConversionInfo qdimacs = printQdimacs(logger,
+                SynthesisSession.current().temporaryFile("qdimacs"), SynthesisSession.current().temporaryFile("pretty"));
         switch (solver) {
         case DEPQBF:
             return depqbfSolve(logger, timeoutSeconds, qdimacs);
@@ -155,10 +183,11 @@ public class QuantifiedBooleanFormula {
     }
     
     /*
-     * Produce an equivalent Boolean formula as a Limboole string.
-     * The size of the formula is exponential of forallVars.size().
+     * Produce an equivalent Boolean formula.
+     * The size of the formula is exponential of forallVars.size(), but equal subformulae of the expansion
+     * are shared. sizeLimit bounds the number of distinct subformulae.
      */
-    public String flatten(int statesNum, int k, Logger logger, List<String> events, List<String> actions,
+    public BooleanFormula flatten(int statesNum, int k, Logger logger, List<String> events, List<String> actions,
             Set<String> forbiddenYs, long finishTime, int sizeLimit, boolean withExistPart)
             throws FormulaSizeException, TimeLimitExceededException {
         final FormulaBuffer buffer = new FormulaBuffer(finishTime, sizeLimit);
@@ -171,9 +200,9 @@ public class QuantifiedBooleanFormula {
                 buffer, -1, -1, new HashMap<>(), forbiddenYs);
         
         time = System.currentTimeMillis() - time;
-        logger.info("Formula generation time: " + time + " ms.");
+        logger.info("Formula generation time: " + time + " ms, " + buffer.size() + " distinct subformulae.");
         
-        return buffer.toString();
+        return buffer.formula();
     }
 
     // recursive
@@ -249,8 +278,12 @@ public class QuantifiedBooleanFormula {
         }
     }
 
+    /*
+     * Conjunction of the appended formulae. Subformulae which have already been counted are not traversed again.
+     */
     private static class FormulaBuffer {
-        private final StringBuilder formula = new StringBuilder();
+        private final List<BooleanFormula> conjuncts = new ArrayList<>();
+        private final Set<BooleanFormula> counted = Collections.newSetFromMap(new IdentityHashMap<>());
         private final int sizeLimit;
         private final long timeToFinish;
         
@@ -263,18 +296,31 @@ public class QuantifiedBooleanFormula {
             if (System.currentTimeMillis() > timeToFinish) {
                 throw new TimeLimitExceededException();
             }
-            if (formula.length() > 0) {
-                formula.append("&");
+            conjuncts.add(f);
+            final Deque<BooleanFormula> todo = new ArrayDeque<>();
+            todo.push(f);
+            while (!todo.isEmpty()) {
+                final BooleanFormula g = todo.pop();
+                if (!counted.add(g)) {
+                    continue;
+                }
+                if (g instanceof NotOperation) {
+                    todo.push(((NotOperation) g).inside);
+                } else if (g instanceof BinaryOperation) {
+                    ((BinaryOperation) g).children().forEach(todo::push);
+                }
             }
-            formula.append(f.toLimbooleString());
-            if (formula.length() > sizeLimit) {
+            if (counted.size() > sizeLimit) {
                 throw new FormulaSizeException();
             }
         }
+
+        int size() {
+            return counted.size();
+        }
         
-        @Override
-        public String toString() {
-            return formula.toString();
+        BooleanFormula formula() {
+            return BinaryOperation.and(conjuncts);
         }
     }
     
@@ -0,0 +1,140 @@
+package bnf_formulae;
+
+/**
+ * (c) Igor Buzhinsky
+ */
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/*
+ * Dense int-indexed access to families of BooleanVariables such as x_node_color or y_from_to_event.
+ * A variable of a kind is found by computing its position from the indices arithmetically instead of
+ * formatting and hashing its name, and a variable number from a solver model is decoded back into
+ * the kind and the indices in the same way.
+ * The first index of each kind is unbounded (e.g. scenario tree nodes may be added later), other
+ * indices are bounded by the sizes given on kind creation.
+ * A layout is owned by one formula builder and is not thread-safe.
+ */
+public class VariableLayout {
+    // indexed by variable number
+    private Kind[] kindByNumber = new Kind[0];
+    private int[] positionByNumber = new int[0];
+
+    public Kind kind(String prefix, int... sizes) {
+        return new Kind(prefix, sizes);
+    }
+
+    /*
+     * The kind of the variable, or null if it does not belong to this layout.
+     */
+    public Kind kindOf(BooleanVariable var) {
+        return var.number < kindByNumber.length ? kindByNumber[var.number] : null;
+    }
+
+    private void register(BooleanVariable var, Kind kind, int position) {
+        if (var.number >= kindByNumber.length) {
+            final int capacity = Math.max(var.number + 1, kindByNumber.length * 2);
+            kindByNumber = Arrays.copyOf(kindByNumber, capacity);
+            positionByNumber = Arrays.copyOf(positionByNumber, capacity);
+        }
+        kindByNumber[var.number] = kind;
+        positionByNumber[var.number] = position;
+    }
+
+    public class Kind {
+        private final String prefix;
+        // strides[i] = product of sizes of dimensions after i
+        private final int[] strides;
+        private final int[] sizes;
+        private BooleanVariable[] vars = new BooleanVariable[0];
+
+        private Kind(String prefix, int[] sizes) {
+            this.prefix = prefix;
+            this.sizes = new int[sizes.length + 1];
+            System.arraycopy(sizes, 0, this.sizes, 1, sizes.length);
+            strides = new int[sizes.length + 1];
+            strides[sizes.length] = 1;
+            for (int i = sizes.length - 1; i >= 0; i--) {
+                strides[i] = strides[i + 1] * sizes[i];
+            }
+        }
+
+        private int position(int... indices) {
+            if (indices.length != strides.length) {
+                throw new AssertionError("Wrong number of indices for variable " + prefix);
+            }
+            int position = indices[0] * strides[0];
+            for (int i = 1; i < indices.length; i++) {
+                if (indices[i] < 0 || indices[i] >= sizes[i]) {
+                    throw new AssertionError("Index out of range for variable " + prefix + ": "
+                            + Arrays.toString(indices));
+                }
+                position += indices[i] * strides[i];
+            }
+            return position;
+        }
+
+        /*
+         * Creates the variable in the session registry, or returns it if it already exists.
+         */
+        public BooleanVariable create(int... indices) {
+            final int position = position(indices);
+            if (position >= vars.length) {
+                vars = Arrays.copyOf(vars, Math.max(position + 1, vars.length * 2));
+            }
+            if (vars[position] == null) {
+                final Object[] boxed = Arrays.stream(indices).boxed().toArray();
+                vars[position] = BooleanVariable.getOrCreate(prefix, boxed);
+                register(vars[position], this, position);
+            }
+            return vars[position];
+        }
+
+        /*
+         * Variables of this kind created so far.
+         */
+        public List<BooleanVariable> created() {
+            final List<BooleanVariable> result = new ArrayList<>();
+            for (BooleanVariable var : vars) {
+                if (var != null) {
+                    result.add(var);
+                }
+            }
+            return result;
+        }
+
+        private BooleanVariable get(int position) {
+            final BooleanVariable var = position < vars.length ? vars[position] : null;
+            if (var == null) {
+                throw new AssertionError("Variable " + prefix + " was not created");
+            }
+            return var;
+        }
+
+        public BooleanVariable get(int i, int j) {
+            assert strides.length == 2 && j < sizes[1];
+            return get(i * strides[0] + j);
+        }
+
+        public BooleanVariable get(int i, int j, int k) {
+            assert strides.length == 3 && j < sizes[1] && k < sizes[2];
+            return get(i * strides[0] + j * strides[1] + k);
+        }
+
+        /*
+         * Index number dimension of a variable of this kind.
+         */
+        public int index(BooleanVariable var, int dimension) {
+            assert kindByNumber[var.number] == this;
+            final int position = positionByNumber[var.number];
+            return dimension == 0 ? position / strides[0] : position / strides[dimension] % sizes[dimension];
+        }
+
+        @Override
+        public String toString() {
+            return prefix;
+        }
+    }
+}
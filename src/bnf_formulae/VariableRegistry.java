@@ -0,0 +1,43 @@
+package bnf_formulae;
+
+/**
+ * (c) Igor Buzhinsky
+ */
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/*
+ * Numbering and lookup of BooleanVariable objects. Each SynthesisSession has its own registry.
+ */
+public class VariableRegistry {
+    private int counter = 1;
+    private final List<BooleanVariable> allVars = new ArrayList<>();
+    private final Map<String, BooleanVariable> varsByName = new HashMap<>();
+
+    int register(BooleanVariable var) {
+        allVars.add(var);
+        varsByName.put(var.name, var);
+        return counter++;
+    }
+
+    BooleanVariable byNumber(int num) {
+        return allVars.get(num - 1);
+    }
+
+    BooleanVariable byName(String name) {
+        return varsByName.get(name);
+    }
+
+    public int size() {
+        return allVars.size();
+    }
+
+    public void clear() {
+        allVars.clear();
+        varsByName.clear();
+        counter = 1;
+    }
+}
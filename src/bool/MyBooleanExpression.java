@@ -1,11 +1,23 @@
 package bool;
 
+import meta.SynthesisSession;
+
 import java.text.ParseException;
 import java.util.*;
 import java.util.regex.Pattern;
 
 public class MyBooleanExpression {
-    private static Map<String, MyBooleanExpression> expressions = new TreeMap<>();
+    /*
+     * Expression cache and variable numbering, one per SynthesisSession.
+     */
+    public static class Cache {
+        private final Map<String, MyBooleanExpression> expressions = new TreeMap<>();
+        private final LinkedHashMap<String, Integer> varToNumber = new LinkedHashMap<>();
+    }
+
+    private static Cache cache() {
+        return SynthesisSession.current().expressions();
+    }
 
     public static MyBooleanExpression getTautology() {
         try {
@@ -16,6 +28,7 @@ public class MyBooleanExpression {
     }
     
     public static MyBooleanExpression get(String repr) throws ParseException {
+        final Map<String, MyBooleanExpression> expressions = cache().expressions;
         if (expressions.containsKey(repr)) {
             return expressions.get(repr);
         }
@@ -34,9 +47,8 @@ public class MyBooleanExpression {
     private final String repr;
     private final String[] variables;
     private final Map<Map<String, Boolean>, Boolean> truthTable;
-    private static LinkedHashMap<String, Integer> varToNumber = new LinkedHashMap<>();
-
     public static int varToNumber(String varName) {
+        final Map<String, Integer> varToNumber = cache().varToNumber;
         Integer value = varToNumber.get(varName);
         if (value == null) {
             value = varToNumber.size();
@@ -65,7 +77,7 @@ public class MyBooleanExpression {
         for (String var : variables) {
             shortExpr = shortExpr.replaceAll(var, "___" + varToNumber(var));
         }
-        for (int i = 0; i < varToNumber.size(); i++) {
+        for (int i = 0; i < cache().varToNumber.size(); i++) {
             shortExpr = shortExpr.replaceAll("___" + i, String.valueOf((char) ('a' + i)));
         }
         
@@ -104,7 +116,7 @@ public class MyBooleanExpression {
     
     private List<Map<String, Boolean>> extendForAllVars(Map<String, Boolean> varAssignment) {
         final Set<Integer> remainingNumbers = new TreeSet<>();
-        for (int i = 0; i < varToNumber.size(); i++) {
+        for (int i = 0; i < cache().varToNumber.size(); i++) {
             if (!varAssignment.containsKey(String.valueOf((char) ('a' + i)))) {
                 remainingNumbers.add(i);
             }
@@ -114,12 +126,13 @@ public class MyBooleanExpression {
     
     public List<String> getSatVarCombinations() {
         final List<String> combinations = new ArrayList<>();
+        final int varNumber = cache().varToNumber.size();
         for (Map.Entry<Map<String, Boolean>, Boolean> entry : truthTable.entrySet()) {
             if (entry.getValue()) {
                 final List<Map<String, Boolean>> varAssignments = extendForAllVars(entry.getKey());
                 for (Map<String, Boolean> varAssignment : varAssignments) {
-                    final char[] assignment = new char[varToNumber.size()];
-                    for (int i = 0; i < varToNumber.size(); i++) {
+                    final char[] assignment = new char[varNumber];
+                    for (int i = 0; i < varNumber; i++) {
                         assignment[i] = varAssignment.get(String.valueOf((char) ('a' + i))) ? '1' : '0';
                     }
                     combinations.add(String.valueOf(assignment));
@@ -5,20 +5,71 @@ package formula_builders;
  */
 
 import bnf_formulae.*;
-import sat_solving.Assignment;
-import sat_solving.SatSolver;
+import meta.CacheFiles;
+import meta.SynthesisSession;
+import sat_solving.EmbeddedSolver;
+import sat_solving.SolverResult.SolverResults;
 
+import java.io.BufferedReader;
+import java.io.File;
 import java.io.IOException;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.logging.Logger;
-import java.util.stream.Collectors;
 
+/*
+ * Finds the y variables which cannot be true under the BFS symmetry breaking constraints. The result (table)
+ * depends only on the numbers of states and events, not on scenarios, so tables are kept in memory for the
+ * lifetime of the JVM and, if the current SynthesisSession has a cache directory, in files.
+ * A missing table is computed with one embedded solver, which checks each y variable as an assumption.
+ */
 public class BFSVariableProhibitionDeterminer {
+    // to be incremented if the constraints change, so that old table files are ignored
+    private static final int TABLE_VERSION = 1;
+    private static final String FILE_SUFFIX = ".forbidden-ys";
+    private static final Map<String, Set<String>> MEMORY = new ConcurrentHashMap<>();
+
     public static Set<String> getForbiddenYs(int statesNum, int eventNum, Logger logger) throws IOException {
         final int effectiveEventNum = Math.max(2, Math.min(eventNum, statesNum - 2));
-        final BFSVariableProhibitionDeterminer d = new BFSVariableProhibitionDeterminer(statesNum, effectiveEventNum);
-        return new TreeSet<>(d.check(logger).entrySet().stream().filter(e -> !e.getValue())
-                .map(Map.Entry::getKey).collect(Collectors.toList()));
+        final String key = "bfs-v" + TABLE_VERSION + "-states-" + statesNum + "-events-" + effectiveEventNum;
+        Set<String> table = MEMORY.get(key);
+        if (table != null) {
+            return table;
+        }
+        final File dir = SynthesisSession.current().cacheDirectory();
+        final File file = dir == null ? null : new File(dir, key + FILE_SUFFIX);
+        if (file != null) {
+            table = CacheFiles.read(file, key, BFSVariableProhibitionDeterminer::load);
+        }
+        if (table == null) {
+            final Set<String> computed = new BFSVariableProhibitionDeterminer(statesNum, effectiveEventNum)
+                    .forbiddenYs(logger);
+            if (file != null) {
+                CacheFiles.write(file, key, pw -> computed.forEach(pw::println));
+            }
+            table = computed;
+        } else {
+            logger.info("BFS TABLE: loaded from " + file);
+        }
+        table = Collections.unmodifiableSet(table);
+        final Set<String> previous = MEMORY.putIfAbsent(key, table);
+        return previous == null ? table : previous;
+    }
+
+    /*
+     * File format: the key line, then the names of forbidden variables, one per line.
+     * Reads the file after the key line, returns null if it is malformed.
+     */
+    private static Set<String> load(BufferedReader in) throws IOException {
+        final Set<String> table = new TreeSet<>();
+        String line;
+        while ((line = in.readLine()) != null) {
+            if (!line.startsWith("y_")) {
+                return null;
+            }
+            table.add(line);
+        }
+        return table;
     }
     
     private final List<BooleanVariable> existVars = new ArrayList<>();
@@ -81,18 +132,29 @@ public class BFSVariableProhibitionDeterminer {
         notMoreThanOneEdgeConstraints();
     }
     
-    public Map<String, Boolean> check(Logger logger) throws IOException {
-        final Map<String, Boolean> results = new LinkedHashMap<>();
+    private Set<String> forbiddenYs(Logger logger) {
+        final EmbeddedSolver solver = new EmbeddedSolver();
+        SynthesisSession.current().onCancel(solver::interrupt);
+        final Map<Integer, Integer> solverVars = new HashMap<>();
+        final CnfEncoder encoder = new CnfEncoder(num -> solverVars.computeIfAbsent(num, n -> solver.newVar()),
+                solver::newVar, solver::addClause);
+        encoder.assertFormula(constraints.assemble());
+        final Set<String> forbidden = new TreeSet<>();
+        int checked = 0;
         for (BooleanVariable v : existVars) {
             if (v.name.startsWith("y")) {
-                constraints.add(v);
-                final List<Assignment> list = BooleanFormula.solveAsSat(constraints.assemble().toLimbooleString(),
-                        logger, 100000, SatSolver.CRYPTOMINISAT).list();
-                results.put(v.name, !list.isEmpty());
-                constraints.removeLast();
+                final SolverResults result = solver.solve(0, encoder.literal(v));
+                if (result == SolverResults.UNKNOWN) {
+                    throw new RuntimeException("BFS table computation has been interrupted");
+                } else if (result == SolverResults.UNSAT) {
+                    forbidden.add(v.name);
+                }
+                checked++;
             }
         }
-        return results;
+        logger.info("BFS TABLE: " + checked + " y variables checked, " + forbidden.size() + " forbidden, "
+                + solver.conflicts() + " conflicts");
+        return forbidden;
     }
     
     private void notMoreThanOneEdgeConstraints() {
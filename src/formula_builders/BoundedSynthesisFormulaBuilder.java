@@ -0,0 +1,194 @@
+package formula_builders;
+
+/**
+ * (c) Igor Buzhinsky
+ */
+
+import bnf_formulae.BooleanVariable;
+import bnf_formulae.ClauseBuffer;
+import bnf_formulae.VariableLayout;
+import sat_solving.Assignment;
+import structures.mealy.NegativeScenarioTree;
+import structures.mealy.ScenarioTree;
+import verification.verifier.SpecificationAutomaton;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/*
+ * Encoding of LTL formulae into the same CNF as the scenario constraints (bounded synthesis): for each formula,
+ * the product of the automaton with the Buchi automaton of the negated formula must have no reachable accepting
+ * cycle, i.e. no lasso which violates the formula. reach_f_q_b marks reachable product nodes (state q,
+ * Buchi node b), and visits_j_f_q_b means that some path to (q, b) visits accepting product nodes at least
+ * j times. With the bound k, j <= k is required for all nodes, so that the number of accepting nodes on each path
+ * is bounded by k. Such an automaton has no accepting cycles, and, conversely, for an automaton without accepting
+ * cycles each accepting product node occurs on a path at most once, so the bound of colorSize times the number of
+ * accepting Buchi nodes is never reached.
+ * The bound is increased on the same solver: the clauses of visits_j hold for any bound, and only "j <= k" is
+ * enabled by the assumption bound_k.
+ */
+public class BoundedSynthesisFormulaBuilder extends MealyFormulaBuilder {
+    private final List<SpecificationAutomaton> specification;
+    // reach_formula_color_node
+    private final VariableLayout.Kind reach;
+    // visits_level_formula_color_node
+    private final VariableLayout.Kind visits;
+    private final VariableLayout.Kind bound;
+    // the largest level of visits variables created so far
+    private int levels = 0;
+
+    public BoundedSynthesisFormulaBuilder(int colorSize, ScenarioTree positiveTree, NegativeScenarioTree negativeTree,
+                                          List<String> events, List<String> actions, boolean complete,
+                                          boolean bfsConstraints, CardinalityEncoding amoEncoding,
+                                          List<SpecificationAutomaton> specification) {
+        super(colorSize, positiveTree, negativeTree, new NegativeScenarioTree(), events, actions, complete,
+                bfsConstraints, amoEncoding, false);
+        this.specification = specification;
+        int nodeIdBound = 1;
+        for (SpecificationAutomaton a : specification) {
+            nodeIdBound = Math.max(nodeIdBound, a.nodeIdBound);
+        }
+        reach = layout.kind("reach", colorSize, nodeIdBound);
+        visits = layout.kind("visits", specification.size(), colorSize, nodeIdBound);
+        bound = layout.kind("bound");
+    }
+
+    /*
+     * No automaton exists for larger bounds if none exists for this one.
+     */
+    public int maxBound() {
+        int result = 0;
+        for (SpecificationAutomaton a : specification) {
+            result = Math.max(result, colorSize * a.acceptingNodeCount());
+        }
+        return result;
+    }
+
+    private int reachVar(int formula, int color, int node) {
+        return reach.create(formula, color, node).number;
+    }
+
+    private int visitsVar(int level, int formula, int color, int node) {
+        return visits.create(level, formula, color, node).number;
+    }
+
+    public BooleanVariable boundVar(int k) {
+        return bound.create(k);
+    }
+
+    public List<Assignment> boundAssumption(int k) {
+        final List<Assignment> result = new ArrayList<>();
+        result.add(new Assignment(boundVar(k), true));
+        return result;
+    }
+
+    private interface ProductTransitionConsumer {
+        /*
+         * The product transition from (color, source) to (childColor, target) is taken unless one of the literals
+         * is true.
+         */
+        void accept(int color, SpecificationAutomaton.Transition t, int childColor, int[] literals);
+    }
+
+    private void forEachProductTransition(SpecificationAutomaton a, ProductTransitionConsumer consumer) {
+        for (SpecificationAutomaton.Transition t : a.transitions) {
+            for (int color = 0; color < colorSize; color++) {
+                for (int ei = 0; ei < events.size(); ei++) {
+                    if (!t.allows(events.get(ei))) {
+                        continue;
+                    }
+                    final List<Integer> guard = new ArrayList<>();
+                    boolean unsatisfiable = false;
+                    for (String action : t.requiredActions) {
+                        final Integer ai = actionIndices.get(action);
+                        if (ai == null) {
+                            unsatisfiable = true;
+                        } else {
+                            guard.add(-zVars().get(color, ai, ei).number);
+                        }
+                    }
+                    for (String action : t.forbiddenActions) {
+                        final Integer ai = actionIndices.get(action);
+                        if (ai != null) {
+                            guard.add(zVars().get(color, ai, ei).number);
+                        }
+                    }
+                    if (unsatisfiable) {
+                        continue;
+                    }
+                    for (int childColor = 0; childColor < colorSize; childColor++) {
+                        final int[] literals = new int[guard.size() + 1];
+                        literals[0] = -yVar(color, childColor, ei).number;
+                        for (int i = 0; i < guard.size(); i++) {
+                            literals[i + 1] = guard.get(i);
+                        }
+                        consumer.accept(color, t, childColor, literals);
+                    }
+                }
+            }
+        }
+    }
+
+    private static void implication(int premise, int[] literals, int conclusion, ClauseBuffer constraints) {
+        constraints.literal(-premise);
+        for (int lit : literals) {
+            constraints.literal(lit);
+        }
+        constraints.literal(conclusion).endClause();
+    }
+
+    /*
+     * Reachability in the product.
+     */
+    public ClauseBuffer specificationConstraints() {
+        final ClauseBuffer constraints = new ClauseBuffer();
+        for (int f = 0; f < specification.size(); f++) {
+            final int formula = f;
+            final SpecificationAutomaton a = specification.get(f);
+            constraints.add(reachVar(f, 0, a.startNode));
+            forEachProductTransition(a, (color, t, childColor, literals) -> implication(
+                    reachVar(formula, color, t.source), literals, reachVar(formula, childColor, t.target),
+                    constraints));
+        }
+        return constraints;
+    }
+
+    /*
+     * Creates the visits variables up to level k + 1 and returns their new constraints, together with
+     * bound_k -> no accepting node is visited k + 1 times.
+     */
+    public ClauseBuffer boundConstraints(int k) {
+        final ClauseBuffer constraints = new ClauseBuffer();
+        for (; levels < k + 1; levels++) {
+            final int level = levels + 1;
+            for (int f = 0; f < specification.size(); f++) {
+                final int formula = f;
+                final SpecificationAutomaton a = specification.get(f);
+                if (level == 1 && a.isAccepting(a.startNode)) {
+                    constraints.add(visitsVar(1, f, 0, a.startNode));
+                }
+                forEachProductTransition(a, (color, t, childColor, literals) -> {
+                    final int conclusion = visitsVar(level, formula, childColor, t.target);
+                    if (a.isAccepting(t.target)) {
+                        implication(level == 1 ? reachVar(formula, color, t.source)
+                                : visitsVar(level - 1, formula, color, t.source), literals, conclusion, constraints);
+                    } else {
+                        implication(visitsVar(level, formula, color, t.source), literals, conclusion, constraints);
+                    }
+                });
+            }
+        }
+        final int boundVar = boundVar(k).number;
+        for (int f = 0; f < specification.size(); f++) {
+            final SpecificationAutomaton a = specification.get(f);
+            for (int node = 0; node < a.nodeIdBound; node++) {
+                if (a.isAccepting(node)) {
+                    for (int color = 0; color < colorSize; color++) {
+                        constraints.add(-boundVar, -visitsVar(k + 1, f, color, node));
+                    }
+                }
+            }
+        }
+        return constraints;
+    }
+}
@@ -0,0 +1,126 @@
+package formula_builders;
+
+/**
+ * (c) Igor Buzhinsky
+ */
+
+import bnf_formulae.ClauseBuffer;
+
+import java.util.Arrays;
+import java.util.function.IntSupplier;
+
+/*
+ * CNF encodings of the at-most-one constraint over a set of literals.
+ * PAIRWISE needs no auxiliary variables, but produces n(n-1)/2 clauses. Other encodings produce O(n) clauses
+ * (O(n log n) for BIMANDER) with auxiliary variables obtained from newVar:
+ *   SEQUENTIAL: sequential counter (Sinz, 2005), 3n clauses and n-1 variables;
+ *   COMMANDER: commander variables for groups of three literals, applied recursively (Klieber, Kwon, 2007);
+ *   PRODUCT: literals are placed in a sqrt(n) x sqrt(n) grid, at most one row and column (Chen, 2010);
+ *   BIMANDER: groups of two literals are numbered by log(n) binary variables (Holldobler, Nguyen, 2013).
+ */
+public enum CardinalityEncoding {
+    PAIRWISE, SEQUENTIAL, COMMANDER, PRODUCT, BIMANDER;
+
+    // below this number of literals, the pairwise encoding is not larger than the others
+    private static final int PAIRWISE_THRESHOLD = 5;
+    private static final int COMMANDER_GROUP_SIZE = 3;
+    private static final int BIMANDER_GROUP_SIZE = 2;
+
+    public void atMostOne(int[] literals, ClauseBuffer constraints, IntSupplier newVar) {
+        if (this == PAIRWISE || literals.length < PAIRWISE_THRESHOLD) {
+            pairwise(literals, 0, literals.length, constraints);
+            return;
+        }
+        switch (this) {
+            case SEQUENTIAL:
+                sequential(literals, constraints, newVar);
+                break;
+            case COMMANDER:
+                commander(literals, constraints, newVar);
+                break;
+            case PRODUCT:
+                product(literals, constraints, newVar);
+                break;
+            case BIMANDER:
+                bimander(literals, constraints, newVar);
+                break;
+            default:
+                throw new AssertionError();
+        }
+    }
+
+    private static void pairwise(int[] literals, int from, int to, ClauseBuffer constraints) {
+        for (int i = from; i < to; i++) {
+            for (int j = from; j < i; j++) {
+                constraints.add(-literals[i], -literals[j]);
+            }
+        }
+    }
+
+    private static void sequential(int[] literals, ClauseBuffer constraints, IntSupplier newVar) {
+        final int n = literals.length;
+        // s[i] = at least one of literals[0..i] is true
+        final int[] s = new int[n - 1];
+        for (int i = 0; i < n - 1; i++) {
+            s[i] = newVar.getAsInt();
+        }
+        constraints.add(-literals[0], s[0]);
+        for (int i = 1; i < n - 1; i++) {
+            constraints.add(-literals[i], s[i]);
+            constraints.add(-s[i - 1], s[i]);
+            constraints.add(-literals[i], -s[i - 1]);
+        }
+        constraints.add(-literals[n - 1], -s[n - 2]);
+    }
+
+    private void commander(int[] literals, ClauseBuffer constraints, IntSupplier newVar) {
+        final int groups = (literals.length + COMMANDER_GROUP_SIZE - 1) / COMMANDER_GROUP_SIZE;
+        final int[] commanders = new int[groups];
+        for (int g = 0; g < groups; g++) {
+            final int from = g * COMMANDER_GROUP_SIZE;
+            final int to = Math.min(from + COMMANDER_GROUP_SIZE, literals.length);
+            commanders[g] = newVar.getAsInt();
+            pairwise(literals, from, to, constraints);
+            for (int i = from; i < to; i++) {
+                constraints.add(-literals[i], commanders[g]);
+            }
+        }
+        atMostOne(commanders, constraints, newVar);
+    }
+
+    private void product(int[] literals, ClauseBuffer constraints, IntSupplier newVar) {
+        final int columns = (int) Math.ceil(Math.sqrt(literals.length));
+        final int rows = (literals.length + columns - 1) / columns;
+        final int[] u = new int[rows];
+        final int[] v = new int[columns];
+        for (int r = 0; r < rows; r++) {
+            u[r] = newVar.getAsInt();
+        }
+        for (int c = 0; c < columns; c++) {
+            v[c] = newVar.getAsInt();
+        }
+        for (int i = 0; i < literals.length; i++) {
+            constraints.add(-literals[i], u[i / columns]);
+            constraints.add(-literals[i], v[i % columns]);
+        }
+        atMostOne(u, constraints, newVar);
+        atMostOne(v, constraints, newVar);
+    }
+
+    private static void bimander(int[] literals, ClauseBuffer constraints, IntSupplier newVar) {
+        final int groups = (literals.length + BIMANDER_GROUP_SIZE - 1) / BIMANDER_GROUP_SIZE;
+        final int bitCount = 32 - Integer.numberOfLeadingZeros(groups - 1);
+        final int[] bits = new int[bitCount];
+        Arrays.setAll(bits, i -> newVar.getAsInt());
+        for (int g = 0; g < groups; g++) {
+            final int from = g * BIMANDER_GROUP_SIZE;
+            final int to = Math.min(from + BIMANDER_GROUP_SIZE, literals.length);
+            pairwise(literals, from, to, constraints);
+            for (int i = from; i < to; i++) {
+                for (int b = 0; b < bitCount; b++) {
+                    constraints.add(-literals[i], ((g >> b) & 1) == 1 ? bits[b] : -bits[b]);
+                }
+            }
+        }
+    }
+}
@@ -1,29 +1,60 @@
 package formula_builders;
 
 import bnf_formulae.BooleanVariable;
+import bnf_formulae.ClauseBuffer;
+import bnf_formulae.VariableLayout;
+import sat_solving.Assignment;
+import sat_solving.ClauseGroup;
 
-import java.util.ArrayList;
-import java.util.List;
-import java.util.Map;
-import java.util.TreeMap;
+import java.util.*;
+import java.util.stream.Collectors;
 
 /**
  * Created by buzhinsky on 7/3/16.
  */
 public abstract class FastFormulaBuilder {
+    // the number of nodes nearest to the roots whose colors are used for cube-and-conquer splitting
+    private static final int MAX_SPLITTING_NODES = 16;
+
     protected final int colorSize;
     protected final List<String> events;
     final Map<String, Integer> eventIndices = new TreeMap<>();
     protected final List<String> actions;
     final Map<String, Integer> actionIndices = new TreeMap<>();
     final List<BooleanVariable> vars = new ArrayList<>();
+    final VariableLayout layout = new VariableLayout();
+    final VariableLayout.Kind x;
+    final VariableLayout.Kind y;
+    final VariableLayout.Kind xx;
+    final VariableLayout.Kind xxg;
+    private final VariableLayout.Kind p;
+    private final VariableLayout.Kind t;
+    private final VariableLayout.Kind m;
+    // auxiliary variables of at-most-one constraints
+    private final VariableLayout.Kind amo;
+    private int amoVarNumber = 0;
+
+    /*
+     * UNSAT cores. Scenarios and batches of negative constraints (i.e. counterexamples) are retractable groups,
+     * which are enabled by assumptions(). A scenario node must be colored only if it is used, i.e. some enabled
+     * scenario passes through it: used_node -> the node has a color, used_child -> used_parent, and
+     * the group of a scenario is act -> used_end. The rest of the node constraints hold trivially for a node
+     * without a color, so a core is a set of scenarios and counterexamples which no automaton of the given size
+     * satisfies.
+     */
+    private final boolean unsatCores;
+    private final VariableLayout.Kind used;
+    private final List<ClauseGroup> scenarioGroups = new ArrayList<>();
+    private final List<ClauseGroup> counterexampleGroups = new ArrayList<>();
 
     final boolean deterministic;
     protected final boolean complete;
     private final boolean bfsConstraints;
+    private final CardinalityEncoding amoEncoding;
 
     FastFormulaBuilder(int colorSize, List<String> events, List<String> actions,
-                       boolean deterministic, boolean complete, boolean bfsConstraints) {
+                       boolean deterministic, boolean complete, boolean bfsConstraints,
+                       CardinalityEncoding amoEncoding, boolean unsatCores) {
         this.colorSize = colorSize;
         this.events = events;
         for (int i = 0; i < events.size(); i++) {
@@ -36,21 +67,176 @@ public abstract class FastFormulaBuilder {
         this.deterministic = deterministic;
         this.complete = complete;
         this.bfsConstraints = bfsConstraints;
+        this.amoEncoding = amoEncoding;
+        this.unsatCores = unsatCores;
+        x = layout.kind("x", colorSize);
+        y = layout.kind("y", colorSize, events.size());
+        xx = layout.kind("xx", colorSize);
+        xxg = layout.kind("xxg", colorSize);
+        p = layout.kind("p", colorSize);
+        t = layout.kind("t", colorSize);
+        m = layout.kind("m", colorSize, colorSize);
+        amo = layout.kind("amo");
+        used = layout.kind("used");
+    }
+
+    public VariableLayout layout() {
+        return layout;
+    }
+
+    public VariableLayout.Kind xVars() {
+        return x;
+    }
+
+    public VariableLayout.Kind yVars() {
+        return y;
+    }
+
+    public abstract VariableLayout.Kind zVars();
+
+    /*
+     * x, y and z variables created so far, sorted by name. The automaton is decoded from them only.
+     */
+    public List<BooleanVariable> primaryVars() {
+        final List<BooleanVariable> result = new ArrayList<>(x.created());
+        result.addAll(y.created());
+        result.addAll(zVars().created());
+        Collections.sort(result);
+        return result;
+    }
+
+    /*
+     * Auxiliary variables occur only in positive constraints and are not decoded from models.
+     */
+    public boolean isAuxiliary(int varNumber) {
+        return layout.kindOf(BooleanVariable.getVarByNumber(varNumber)) == amo;
     }
 
-    static BooleanVariable xVar(int node, int color) {
-        return BooleanVariable.byName("x", node, color).get();
+    BooleanVariable xVar(int node, int color) {
+        return x.get(node, color);
     }
 
-    static BooleanVariable yVar(int from, int to, int event) {
-        return BooleanVariable.byName("y", from, to, event).get();
+    BooleanVariable yVar(int from, int to, int event) {
+        return y.get(from, to, event);
     }
 
-    static BooleanVariable xxVar(int node, int color, boolean isGlobal) {
-        return BooleanVariable.byName(isGlobal ? "xxg" : "xx", node, color).get();
+    BooleanVariable xxVar(int node, int color, boolean isGlobal) {
+        return (isGlobal ? xxg : xx).get(node, color);
     }
 
-    void eventCompletenessConstraints(List<int[]> constraints) {
+    /*
+     * Color variables of the given nodes, one group per node, for cube-and-conquer.
+     */
+    List<List<BooleanVariable>> colorGroups(List<Integer> nodes) {
+        final List<List<BooleanVariable>> result = new ArrayList<>();
+        for (int node : nodes.subList(0, Math.min(nodes.size(), MAX_SPLITTING_NODES))) {
+            final List<BooleanVariable> group = new ArrayList<>();
+            for (int color = 0; color < colorSize; color++) {
+                group.add(xVar(node, color));
+            }
+            result.add(group);
+        }
+        return result;
+    }
+
+    void addUsageVar(int node) {
+        if (unsatCores) {
+            vars.add(used.create(node));
+        }
+    }
+
+    /*
+     * The node has at least one color (if it is used).
+     */
+    void nodeHasColorConstraint(int node, ClauseBuffer constraints) {
+        for (int color = 0; color < colorSize; color++) {
+            constraints.literal(xVar(node, color).number);
+        }
+        if (unsatCores) {
+            constraints.literal(-used.create(node).number);
+        }
+        constraints.endClause();
+    }
+
+    /*
+     * The node has the initial color (if it is used).
+     */
+    void initialNodeConstraint(int node, ClauseBuffer constraints) {
+        constraints.literal(xVar(node, 0).number);
+        if (unsatCores) {
+            constraints.literal(-used.create(node).number);
+        }
+        constraints.endClause();
+    }
+
+    /*
+     * parents[node] is the parent of the node in the scenario tree or forest, -1 for roots.
+     */
+    void scenarioUsageConstraints(int[] parents, List<Integer> scenarioEnds, ClauseBuffer constraints) {
+        if (!unsatCores) {
+            return;
+        }
+        for (int node = 0; node < parents.length; node++) {
+            if (parents[node] != -1) {
+                constraints.add(-used.create(node).number, used.create(parents[node]).number);
+            }
+        }
+        for (int end : scenarioEnds) {
+            final ClauseGroup group = new ClauseGroup();
+            final ClauseBuffer activation = new ClauseBuffer();
+            activation.add(used.create(end).number);
+            constraints.addAll(group.guard(activation));
+            scenarioGroups.add(group);
+        }
+    }
+
+    /*
+     * With UNSAT cores, negative constraints of each call form a group.
+     */
+    ClauseBuffer guardNegativeConstraints(ClauseBuffer constraints) {
+        if (!unsatCores || constraints.isEmpty()) {
+            return constraints;
+        }
+        final ClauseGroup group = new ClauseGroup();
+        counterexampleGroups.add(group);
+        return group.guard(constraints);
+    }
+
+    /*
+     * Assumptions which enable all scenarios and counterexamples, empty without UNSAT cores.
+     */
+    public List<Assignment> assumptions() {
+        final List<Assignment> result = new ArrayList<>();
+        scenarioGroups.forEach(g -> result.add(g.enabled()));
+        counterexampleGroups.forEach(g -> result.add(g.enabled()));
+        return result;
+    }
+
+    /*
+     * Describes the scenarios and counterexample batches which form the UNSAT core.
+     */
+    public String describeCore(List<Assignment> core) {
+        final Set<BooleanVariable> coreVars = core.stream().map(a -> a.var).collect(Collectors.toSet());
+        final List<Integer> scenarios = new ArrayList<>();
+        for (int i = 0; i < scenarioGroups.size(); i++) {
+            if (coreVars.contains(scenarioGroups.get(i).activation)) {
+                scenarios.add(i);
+            }
+        }
+        final List<Integer> batches = new ArrayList<>();
+        for (int i = 0; i < counterexampleGroups.size(); i++) {
+            if (coreVars.contains(counterexampleGroups.get(i).activation)) {
+                batches.add(i);
+            }
+        }
+        if (scenarios.isEmpty() && batches.isEmpty()) {
+            return "unsatisfiable without scenarios and counterexamples";
+        }
+        return scenarios.size() + " of " + scenarioGroups.size() + " scenarios " + scenarios + ", "
+                + batches.size() + " of " + counterexampleGroups.size() + " counterexample iterations " + batches;
+    }
+
+    void eventCompletenessConstraints(ClauseBuffer constraints) {
         for (int i1 = 0; i1 < colorSize; i1++) {
             if (complete) {
                 for (int ei = 0; ei < events.size(); ei++) {
@@ -73,17 +259,22 @@ public abstract class FastFormulaBuilder {
         }
     }
 
-    void notMoreThanOneEdgeConstraints(List<int[]> constraints) {
+    void atMostOne(int[] literals, ClauseBuffer constraints) {
+        amoEncoding.atMostOne(literals, constraints, () -> {
+            final BooleanVariable var = amo.create(amoVarNumber++);
+            vars.add(var);
+            return var.number;
+        });
+    }
+
+    void notMoreThanOneEdgeConstraints(ClauseBuffer constraints) {
+        final int[] literals = new int[colorSize];
         for (int i1 = 0; i1 < colorSize; i1++) {
             for (int ei = 0; ei < events.size(); ei++) {
                 for (int i2 = 0; i2 < colorSize; i2++) {
-                    for (int i3 = 0; i3 < i2; i3++) {
-                        constraints.add(new int[] {
-                                -yVar(i1, i2, ei).number,
-                                -yVar(i1, i3, ei).number
-                        });
-                    }
+                    literals[i2] = yVar(i1, i2, ei).number;
                 }
+                atMostOne(literals, constraints);
             }
         }
     }
@@ -91,15 +282,15 @@ public abstract class FastFormulaBuilder {
     // BFS constraints
 
     private BooleanVariable pVar(int j, int i) {
-        return BooleanVariable.byName("p", j, i).get();
+        return p.get(j, i);
     }
 
     private BooleanVariable tVar(int i, int j) {
-        return BooleanVariable.byName("t", i, j).get();
+        return t.get(i, j);
     }
 
     private BooleanVariable mVar(int event, int i, int j) {
-        return BooleanVariable.byName("m", event, i, j).get();
+        return m.get(event, i, j);
     }
 
     void addBFSVars() {
@@ -109,8 +300,8 @@ public abstract class FastFormulaBuilder {
         // p_ji, t_ij
         for (int i = 0; i < colorSize; i++) {
             for (int j = i + 1; j < colorSize; j++) {
-                vars.add(BooleanVariable.getOrCreate("p", j, i));
-                vars.add(BooleanVariable.getOrCreate("t", i, j));
+                vars.add(p.create(j, i));
+                vars.add(t.create(i, j));
             }
         }
         if (events.size() > 2) {
@@ -118,14 +309,14 @@ public abstract class FastFormulaBuilder {
             for (int ei = 0; ei < events.size(); ei++) {
                 for (int i = 0; i < colorSize; i++) {
                     for (int j = i + 1; j < colorSize; j++) {
-                        vars.add(BooleanVariable.getOrCreate("m", ei, i, j));
+                        vars.add(m.create(ei, i, j));
                     }
                 }
             }
         }
     }
 
-    void addBFSConstraints(List<int[]> constraints) {
+    void addBFSConstraints(ClauseBuffer constraints) {
         if (bfsConstraints) {
             parentConstraints(constraints);
             pDefinitions(constraints);
@@ -134,7 +325,7 @@ public abstract class FastFormulaBuilder {
         }
     }
 
-    private void parentConstraints(List<int[]> constraints) {
+    private void parentConstraints(ClauseBuffer constraints) {
         for (int j = 1; j < colorSize; j++) {
             final int[] options = new int[j];
             for (int i = 0; i < j; i++) {
@@ -146,19 +337,19 @@ public abstract class FastFormulaBuilder {
         for (int k = 0; k < colorSize; k++) {
             for (int i = k + 1; i < colorSize; i++) {
                 for (int j = i + 1; j < colorSize - 1; j++) {
-                    constraints.add(new int[] { -pVar(j, i).number, -pVar(j + 1, k).number });
+                    constraints.add(-pVar(j, i).number, -pVar(j + 1, k).number);
                 }
             }
         }
     }
 
-    private void pDefinitions(List<int[]> constraints) {
+    private void pDefinitions(ClauseBuffer constraints) {
         for (int i = 0; i < colorSize; i++) {
             for (int j = i + 1; j < colorSize; j++) {
-                constraints.add(new int[] { -pVar(j, i).number, tVar(i, j).number });
+                constraints.add(-pVar(j, i).number, tVar(i, j).number);
                 final int[] options = new int[i + 2];
                 for (int k = i - 1; k >= 0; k--) {
-                    constraints.add(new int[] { -pVar(j, i).number, -tVar(k, j).number });
+                    constraints.add(-pVar(j, i).number, -tVar(k, j).number);
                     options[k] = tVar(k, j).number;
                 }
                 options[i] = -tVar(i, j).number;
@@ -168,12 +359,12 @@ public abstract class FastFormulaBuilder {
         }
     }
 
-    private void tDefinitions(List<int[]> constraints) {
+    private void tDefinitions(ClauseBuffer constraints) {
         for (int i = 0; i < colorSize; i++) {
             for (int j = i + 1; j < colorSize; j++) {
                 final int[] options = new int[events.size() + 1];
                 for (int ei = 0; ei < events.size(); ei++) {
-                    constraints.add(new int[] { -yVar(i, j, ei).number, tVar(i, j).number });
+                    constraints.add(-yVar(i, j, ei).number, tVar(i, j).number);
                     options[ei] = yVar(i, j, ei).number;
                 }
                 options[events.size()] = -tVar(i, j).number;
@@ -182,16 +373,16 @@ public abstract class FastFormulaBuilder {
         }
     }
 
-    private void childrenOrderConstraints(List<int[]> constraints) {
+    private void childrenOrderConstraints(ClauseBuffer constraints) {
         if (events.size() > 2) {
             // m definitions
             for (int i = 0; i < colorSize; i++) {
                 for (int j = i + 1; j < colorSize; j++) {
                     for (int ei1 = 0; ei1 < events.size(); ei1++) {
-                        constraints.add(new int[] { -mVar(ei1, i, j).number, yVar(i, j, ei1).number });
+                        constraints.add(-mVar(ei1, i, j).number, yVar(i, j, ei1).number);
                         final int[] options = new int[ei1 + 2];
                         for (int ei2 = ei1 - 1; ei2 >= 0; ei2--) {
-                            constraints.add(new int[] { -mVar(ei1, i, j).number, -yVar(i, j, ei2).number });
+                            constraints.add(-mVar(ei1, i, j).number, -yVar(i, j, ei2).number);
                             options[ei2] = yVar(i, j, ei2).number;
                         }
                         options[ei1] = -yVar(i, j, ei1).number;
@@ -205,10 +396,8 @@ public abstract class FastFormulaBuilder {
                 for (int j = i + 1; j < colorSize - 1; j++) {
                     for (int k = 0; k < events.size(); k++) {
                         for (int n = k + 1; n < events.size(); n++) {
-                            constraints.add(new int[] {
-                                    -pVar(j, i).number, -pVar(j + 1, i).number,
-                                    -mVar(n, i, j).number, -mVar(k, i, j + 1).number
-                            });
+                            constraints.add(-pVar(j, i).number, -pVar(j + 1, i).number,
+                                    -mVar(n, i, j).number, -mVar(k, i, j + 1).number);
                         }
                     }
                 }
@@ -216,7 +405,7 @@ public abstract class FastFormulaBuilder {
         } else {
             for (int i = 0; i < colorSize; i++) {
                 for (int j = i + 1; j < colorSize - 1; j++) {
-                    constraints.add(new int[] { -pVar(j, i).number, -pVar(j + 1, i).number, yVar(i, j, 0).number });
+                    constraints.add(-pVar(j, i).number, -pVar(j + 1, i).number, yVar(i, j, 0).number);
                 }
             }
         }
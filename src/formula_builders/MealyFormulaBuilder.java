@@ -6,6 +6,8 @@ package formula_builders;
 
 import algorithms.AdjacencyCalculator;
 import bnf_formulae.BooleanVariable;
+import bnf_formulae.ClauseBuffer;
+import bnf_formulae.VariableLayout;
 import org.apache.commons.lang3.tuple.Pair;
 import structures.mealy.*;
 
@@ -15,35 +17,62 @@ public class MealyFormulaBuilder extends FastFormulaBuilder {
     private final ScenarioTree positiveTree;
     private final NegativeScenarioTree negativeTree;
     private final NegativeScenarioTree globalNegativeTree;
+
+    /*
+     * The builder is kept during the whole synthesis: positive variables are created once,
+     * negative variables and constraints are created only for the parts of the negative trees
+     * which were added after the previous call.
+     */
+    private boolean positiveVarsAdded = false;
+    private int negativeVarNodes = 0;
+    private int globalNegativeVarNodes = 0;
+    private int negativeTreeChanges = 0;
+    private int globalNegativeTreeChanges = 0;
+    // z_color_action_event
+    private final VariableLayout.Kind z;
     
     public MealyFormulaBuilder(int colorSize, ScenarioTree positiveForest,
                                NegativeScenarioTree negativeTree, NegativeScenarioTree globalNegativeTree,
-                               List<String> events, List<String> actions, boolean complete, boolean bfsConstraints) {
-        super(colorSize, events, actions, true, complete, bfsConstraints);
+                               List<String> events, List<String> actions, boolean complete, boolean bfsConstraints,
+                               CardinalityEncoding amoEncoding, boolean unsatCores) {
+        super(colorSize, events, actions, true, complete, bfsConstraints, amoEncoding, unsatCores);
         this.positiveTree = positiveForest;
         this.negativeTree = negativeTree;
         this.globalNegativeTree = globalNegativeTree;
+        z = layout.kind("z", actions.size(), events.size());
+    }
+
+    @Override
+    public VariableLayout.Kind zVars() {
+        return z;
     }
 
-    private static BooleanVariable zVar(int from, int action, int event) {
-        return BooleanVariable.byName("z", from, action, event).get();
+    private BooleanVariable zVar(int from, int action, int event) {
+        return z.get(from, action, event);
     }
     
     private void addPositiveVars() {
+        if (positiveVarsAdded) {
+            return;
+        }
+        positiveVarsAdded = true;
+        for (MealyNode node : positiveTree.nodes()) {
+            addUsageVar(node.number());
+        }
         for (int color = 0; color < colorSize; color++) {
             // scenario vars
             for (MealyNode node : positiveTree.nodes()) {
-                vars.add(BooleanVariable.getOrCreate("x", node.number(), color));
+                vars.add(x.create(node.number(), color));
             }
             
             for (int ei = 0; ei < events.size(); ei++) {
                 // transition variables y_color_childColor_event_formula
                 for (int childColor = 0; childColor < colorSize; childColor++) {
-                    vars.add(BooleanVariable.getOrCreate("y", color, childColor, ei));
+                    vars.add(y.create(color, childColor, ei));
                 }
                 // action variables z_color_action_event_formula
                 for (int ai = 0; ai < actions.size(); ai++) {
-                    vars.add(BooleanVariable.getOrCreate("z", color, ai, ei));
+                    vars.add(z.create(color, ai, ei));
                 }
             }
         }
@@ -51,14 +80,14 @@ public class MealyFormulaBuilder extends FastFormulaBuilder {
     }
     
     private void addNegativeVars() {
-        for (MealyNode node : negativeTree.nodes()) {
+        for (; negativeVarNodes < negativeTree.nodeCount(); negativeVarNodes++) {
             for (int color = 0; color < colorSize; color++) {
-                vars.add(BooleanVariable.getOrCreate("xx", node.number(), color));
+                vars.add(xx.create(negativeVarNodes, color));
             }
         }
-        for (MealyNode node : globalNegativeTree.nodes()) {
+        for (; globalNegativeVarNodes < globalNegativeTree.nodeCount(); globalNegativeVarNodes++) {
             for (int color = 0; color < colorSize; color++) {
-                vars.add(BooleanVariable.getOrCreate("xxg", node.number(), color));
+                vars.add(xxg.create(globalNegativeVarNodes, color));
             }
         }
     }
@@ -66,38 +95,58 @@ public class MealyFormulaBuilder extends FastFormulaBuilder {
     /*
      * Each scenario node has at least one color
      */
-    private void eachNodeHasColorConstraints(List<int[]> constraints) {
+    private void eachNodeHasColorConstraints(ClauseBuffer constraints) {
         for (MealyNode node : positiveTree.nodes()) {
-            final int[] constraint = new int[colorSize];
-            for (int color = 0; color < colorSize; color++) {
-                constraint[color] = xVar(node.number(), color).number;
+            nodeHasColorConstraint(node.number(), constraints);
+        }
+    }
+
+    /*
+     * Colors of the scenario nodes in breadth-first order, except the root, whose color is fixed.
+     */
+    public List<List<BooleanVariable>> splittingGroups() {
+        final List<Integer> nodes = new ArrayList<>();
+        final Deque<MealyNode> queue = new ArrayDeque<>();
+        queue.add(positiveTree.root());
+        while (!queue.isEmpty()) {
+            for (MealyTransition t : queue.poll().transitions()) {
+                nodes.add(t.dst().number());
+                queue.add(t.dst());
+            }
+        }
+        return colorGroups(nodes);
+    }
+
+    private void scenarioUsageConstraints(ClauseBuffer constraints) {
+        final int[] parents = new int[positiveTree.nodeCount()];
+        parents[0] = -1;
+        for (MealyNode node : positiveTree.nodes()) {
+            for (MealyTransition t : node.transitions()) {
+                parents[t.dst().number()] = node.number();
             }
-            constraints.add(constraint);
         }
+        final List<Integer> ends = new ArrayList<>();
+        positiveTree.scenarioEnds().forEach(node -> ends.add(node.number()));
+        scenarioUsageConstraints(parents, ends, constraints);
     }
 
     /*
      * Each scenario node has at most one color
      */
-    private void eachNodeHasOnlyColorConstraints(List<int[]> constraints) {
+    private void eachNodeHasOnlyColorConstraints(ClauseBuffer constraints) {
+        final int[] literals = new int[colorSize];
         for (MealyNode node : positiveTree.nodes()) {
-            for (int color1 = 0; color1 < colorSize; color1++) {
-                final BooleanVariable v1 = xVar(node.number(), color1);
-                for (int color2 = 0; color2 < color1; color2++) {
-                    final BooleanVariable v2 = xVar(node.number(), color2);                 
-                    constraints.add(new int[] {
-                            -v1.number,
-                            -v2.number
-                    });
-                }
+            for (int color = 0; color < colorSize; color++) {
+                literals[color] = xVar(node.number(), color).number;
             }
+            atMostOne(literals, constraints);
         }
     }
     
     /*
      * REQUIRED since we account for action order
      */
-    private void consistencyConstraints(List<int[]> constraints) {
+    private void consistencyConstraints(ClauseBuffer constraints) {
         final Map<MealyNode, Set<MealyNode>> adjacent = AdjacencyCalculator.getAdjacent(positiveTree);
         final int[][] varNums = new int[positiveTree.nodes().size()][colorSize];
         for (MealyNode node : positiveTree.nodes()) {
@@ -111,14 +160,14 @@ public class MealyFormulaBuilder extends FastFormulaBuilder {
             for (MealyNode other : adjacent.get(node)) {
                 if (other.number() < node.number()) {
                     for (int color = 0; color < colorSize; color++) {
-                        constraints.add(new int[] { -varNums[nodeNum][color], -varNums[other.number()][color] });
+                        constraints.add(-varNums[nodeNum][color], -varNums[other.number()][color]);
                     }
                 }
             }
         }
     }
     
-    private void transitionConstraints(List<int[]> constraints) {
+    private void transitionConstraints(ClauseBuffer constraints) {
         for (MealyNode node : positiveTree.nodes()) {
             for (MealyTransition t : node.transitions()) {
                 for (int nodeColor = 0; nodeColor < colorSize; nodeColor++) {
@@ -127,26 +176,24 @@ public class MealyFormulaBuilder extends FastFormulaBuilder {
                         final BooleanVariable childVar = xVar(t.dst().number(), childColor);
                         final BooleanVariable relationVar = yVar(nodeColor, childColor,
                                 eventIndices.get(t.event()));
-                        constraints.add(new int[] { relationVar.number, -nodeVar.number, -childVar.number });
-                        constraints.add(new int[] { -relationVar.number, -nodeVar.number, childVar.number });
+                        constraints.add(relationVar.number, -nodeVar.number, -childVar.number);
+                        constraints.add(-relationVar.number, -nodeVar.number, childVar.number);
                     }
                 }
             }
         }
     }
 
-    private void scenarioActionConstraints(List<int[]> constraints) {
+    private void scenarioActionConstraints(ClauseBuffer constraints) {
         for (MealyNode node : positiveTree.nodes()) {
             for (MealyTransition t : node.transitions()) {
                 final List<String> actionSequence = Arrays.asList(t.actions().getActions());
                 for (int nodeColor = 0; nodeColor < colorSize; nodeColor++) {
                     for (int ai = 0; ai < actions.size(); ai++) {
                         final String action = actions.get(ai);
-                        constraints.add(new int[] {
-                                -xVar(node.number(), nodeColor).number,
+                        constraints.add(-xVar(node.number(), nodeColor).number,
                                 (actionSequence.contains(action) ? 1 : -1)
-                                    * zVar(nodeColor, ai, eventIndices.get(t.event())).number
-                        });
+                                    * zVar(nodeColor, ai, eventIndices.get(t.event())).number);
                     }
                 }
             }
@@ -157,33 +204,48 @@ public class MealyFormulaBuilder extends FastFormulaBuilder {
     
     private boolean negativeBasisAdded = false;
     
-    private void negativeScenarioBasis(List<int[]> constraints) {
+    private void negativeScenarioBasis(ClauseBuffer constraints) {
         if (!negativeBasisAdded) {
             for (int i = 0; i < colorSize; i++) {
-                constraints.add(new int[] { (i == 0 ? 1 : -1) * xxVar(0, i, false).number });
+                constraints.add((i == 0 ? 1 : -1) * xxVar(0, i, false).number);
             }
         }
     }
     
-    private void globalNegativeScenarioBasis(List<int[]> constraints) {
+    private void globalNegativeScenarioBasis(ClauseBuffer constraints) {
         if (!negativeBasisAdded) {
             for (int i = 0; i < colorSize; i++) {
-                constraints.add(new int[] { xxVar(0, i, true).number });
+                constraints.add(xxVar(0, i, true).number);
             }
         }
     }
     
     private final Set<NegativeMealyNode> unprocessedChildren = new HashSet<>();
     
-    private void negativeScenarioPropagation(List<int[]> constraints, boolean isGlobal) {
+    /*
+     * Distinct nodes of the tree changed since the previous call, ordered by their numbers.
+     */
+    private Collection<NegativeMealyNode> takeChangedNodes(boolean isGlobal) {
+        final NegativeScenarioTree tree = isGlobal ? globalNegativeTree : negativeTree;
+        final Map<Integer, NegativeMealyNode> changed = new TreeMap<>();
+        for (NegativeMealyNode node : tree.changedNodes(isGlobal ? globalNegativeTreeChanges : negativeTreeChanges)) {
+            changed.put(node.number(), node);
+        }
+        if (isGlobal) {
+            globalNegativeTreeChanges = tree.changeCount();
+        } else {
+            negativeTreeChanges = tree.changeCount();
+        }
+        return changed.values();
+    }
+    
+    private void negativeScenarioPropagation(ClauseBuffer constraints, boolean isGlobal,
+                                             Collection<NegativeMealyNode> changedNodes) {
         final int[] xxParent = new int[colorSize];
         final int[][] actionEq = new int[colorSize][actions.size()];
         final int[] xxChild = new int[colorSize];
-
-        final NegativeScenarioTree tree =
-                isGlobal ? globalNegativeTree : negativeTree;
         
-        for (NegativeMealyNode node : tree.nodes()) {
+        for (NegativeMealyNode node : changedNodes) {
             boolean xxParentFilled = false;
             for (MealyTransition edge : node.transitions()) {
                 final NegativeMealyNode childNode = (NegativeMealyNode) edge.dst();
@@ -194,10 +256,7 @@ public class MealyFormulaBuilder extends FastFormulaBuilder {
                             final BooleanVariable v1 = xxVar(node.number(), color1, isGlobal);
                             for (int color2 = 0; color2 < color1; color2++) {
                                 final BooleanVariable v2 = xxVar(node.number(), color2, isGlobal);                  
-                                constraints.add(new int[] {
-                                        -v1.number,
-                                        -v2.number
-                                });
+                                constraints.add(-v1.number, -v2.number);
                             }
                         }
                     }*/
@@ -223,13 +282,12 @@ public class MealyFormulaBuilder extends FastFormulaBuilder {
                     }
                     for (int color1 = 0; color1 < colorSize; color1++) {
                         for (int color2 = 0; color2 < colorSize; color2++) {
-                            final int[] constraint = new int[actions.size() + 3];
-                            System.arraycopy(actionEq[color1], 0, constraint, 0, actions.size());
-                            constraint[actions.size()] = -xxParent[color1];
-                            constraint[actions.size() + 1] = -yVar(color1, color2,
-                                    eventIndices.get(event)).number;
-                            constraint[actions.size() + 2] = xxChild[color2];
-                            constraints.add(constraint);
+                            for (int lit : actionEq[color1]) {
+                                constraints.literal(lit);
+                            }
+                            constraints.literal(-xxParent[color1])
+                                    .literal(-yVar(color1, color2, eventIndices.get(event)).number)
+                                    .literal(xxChild[color2]).endClause();
                         }
                     }
                 }
@@ -240,18 +298,14 @@ public class MealyFormulaBuilder extends FastFormulaBuilder {
     private final Set<NegativeMealyNode> processedTerminalNodes = new HashSet<>();
     private final Set<Pair<NegativeMealyNode, NegativeMealyNode>> processedLoops = new HashSet<>();
     
-    private void negativeScenarioTermination(List<int[]> constraints, boolean isGlobal) {
-        final NegativeScenarioTree tree =
-                isGlobal ? globalNegativeTree : negativeTree;
-        
-        for (NegativeMealyNode node : tree.nodes()) {
+    private void negativeScenarioTermination(ClauseBuffer constraints, boolean isGlobal,
+                                             Collection<NegativeMealyNode> changedNodes) {
+        for (NegativeMealyNode node : changedNodes) {
             final int nodeNumber = node.number();
             if (node.strongInvalid()) {
                 if (processedTerminalNodes.add(node)) {
                     for (int color = 0; color < colorSize; color++) {
-                        constraints.add(new int[] {
-                                -xxVar(nodeNumber, color, isGlobal).number
-                        });
+                        constraints.add(-xxVar(nodeNumber, color, isGlobal).number);
                     }
                 }
             } else {
@@ -259,10 +313,8 @@ public class MealyFormulaBuilder extends FastFormulaBuilder {
                     if (processedLoops.add(Pair.of(node, loop))) {
                         final int loopNumber = loop.number();
                         for (int color = 0; color < colorSize; color++) {
-                            constraints.add(new int[] {
-                                    -xxVar(nodeNumber, color, isGlobal).number,
-                                    -xxVar(loopNumber, color, isGlobal).number
-                            });
+                            constraints.add(-xxVar(nodeNumber, color, isGlobal).number,
+                                    -xxVar(loopNumber, color, isGlobal).number);
                         }
                     }
                 }
@@ -275,9 +327,9 @@ public class MealyFormulaBuilder extends FastFormulaBuilder {
         addNegativeVars();
     }
     
-    public List<int[]> positiveConstraints() {
-        final List<int[]> constraints = new ArrayList<>();
-        constraints.add(new int[] { xVar(0, 0).number });
+    public ClauseBuffer positiveConstraints() {
+        final ClauseBuffer constraints = new ClauseBuffer();
+        initialNodeConstraint(0, constraints);
         transitionConstraints(constraints);
         eventCompletenessConstraints(constraints);
         notMoreThanOneEdgeConstraints(constraints);
@@ -286,18 +338,20 @@ public class MealyFormulaBuilder extends FastFormulaBuilder {
         eachNodeHasOnlyColorConstraints(constraints);
         scenarioActionConstraints(constraints);
         addBFSConstraints(constraints);
+        scenarioUsageConstraints(constraints);
         return constraints;
     }
     
-    public List<int[]> negativeConstraints() {
-        final List<int[]> constraints = new ArrayList<>();
+    public ClauseBuffer negativeConstraints() {
+        final ClauseBuffer constraints = new ClauseBuffer();
         negativeScenarioBasis(constraints);
         globalNegativeScenarioBasis(constraints);
         negativeBasisAdded = true;
         for (boolean isGlobal : Arrays.asList(false, true)) {
-            negativeScenarioPropagation(constraints, isGlobal);
-            negativeScenarioTermination(constraints, isGlobal);
+            final Collection<NegativeMealyNode> changedNodes = takeChangedNodes(isGlobal);
+            negativeScenarioPropagation(constraints, isGlobal, changedNodes);
+            negativeScenarioTermination(constraints, isGlobal, changedNodes);
         }
-        return constraints;
+        return guardNegativeConstraints(constraints);
     }
 }
@@ -5,14 +5,20 @@ package formula_builders;
  */
 
 import bnf_formulae.BooleanVariable;
+import bnf_formulae.ClauseBuffer;
+import bnf_formulae.VariableLayout;
 import structures.moore.MooreNode;
 import structures.moore.MooreTransition;
 import structures.moore.NegativePlantScenarioForest;
 import structures.moore.PositivePlantScenarioForest;
 
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Deque;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Set;
 
 public class PlantFormulaBuilder extends FastFormulaBuilder {
     private final PositivePlantScenarioForest positiveForest;
@@ -22,15 +28,39 @@ public class PlantFormulaBuilder extends FastFormulaBuilder {
      * Special forest (actually, tree) for G(...) specifications, which are processed separately
      */
     private final NegativePlantScenarioForest globalNegativeForest;
+    
+    // G(...) specifications which are encoded directly
+    private final List<SafetyFormulaCompiler.SafetyFormula> safetyFormulae;
+
+    /*
+     * The builder is kept during the whole synthesis: positive variables are created once,
+     * negative variables only for the nodes added after the previous call.
+     */
+    private boolean positiveVarsAdded = false;
+    private int negativeVarNodes = 0;
+    private int globalNegativeVarNodes = 0;
+    // z_color_action
+    private final VariableLayout.Kind z;
+    // reach_color, only for safetyFormulae
+    private final VariableLayout.Kind reach;
 
     public PlantFormulaBuilder(int colorSize, PositivePlantScenarioForest positiveForest,
             NegativePlantScenarioForest negativeForest, NegativePlantScenarioForest globalNegativeForest,
             List<String> events, List<String> actions, boolean deterministic, boolean bfsConstraints,
-            boolean complete) {
-        super(colorSize, events, actions, deterministic, complete, bfsConstraints);
+            boolean complete, CardinalityEncoding amoEncoding, boolean unsatCores,
+            List<SafetyFormulaCompiler.SafetyFormula> safetyFormulae) {
+        super(colorSize, events, actions, deterministic, complete, bfsConstraints, amoEncoding, unsatCores);
         this.positiveForest = positiveForest;
         this.negativeForest = negativeForest;
         this.globalNegativeForest = globalNegativeForest;
+        this.safetyFormulae = safetyFormulae;
+        z = layout.kind("z", actions.size());
+        reach = layout.kind("reach");
+    }
+
+    @Override
+    public VariableLayout.Kind zVars() {
+        return z;
     }
 
     private BooleanVariable yVar(int from, int to, String event) {
@@ -41,39 +71,46 @@ public class PlantFormulaBuilder extends FastFormulaBuilder {
         return zVar(state, actionIndices.get(action));
     }
     
-    private static BooleanVariable zVar(int state, int action) {
-        return BooleanVariable.byName("z", state, action).get();
+    private BooleanVariable zVar(int state, int action) {
+        return z.get(state, action);
     }
     
     private void addPositiveVars() {
+        if (positiveVarsAdded) {
+            return;
+        }
+        positiveVarsAdded = true;
+        for (MooreNode node : positiveForest.nodes()) {
+            addUsageVar(node.number());
+        }
         for (int color = 0; color < colorSize; color++) {
             // scenario vars
             for (MooreNode node : positiveForest.nodes()) {
-                vars.add(BooleanVariable.getOrCreate("x", node.number(), color));
+                vars.add(x.create(node.number(), color));
             }
             // transition vars
             for (int ei = 0; ei < events.size(); ei++) {
                 for (int childColor = 0; childColor < colorSize; childColor++) {
-                    vars.add(BooleanVariable.getOrCreate("y", color, childColor, ei));
+                    vars.add(y.create(color, childColor, ei));
                 }
             }
             // action vars
             for (int ai = 0; ai < actions.size(); ai++) {
-                vars.add(BooleanVariable.getOrCreate("z", color, ai));
+                vars.add(z.create(color, ai));
             }
         }
         addBFSVars();
     }
     
     private void addNegativeVars() {
-        for (MooreNode node : negativeForest.nodes()) {
+        for (; negativeVarNodes < negativeForest.nodeCount(); negativeVarNodes++) {
             for (int color = 0; color < colorSize; color++) {
-                vars.add(BooleanVariable.getOrCreate("xx", node.number(), color));
+                vars.add(xx.create(negativeVarNodes, color));
             }
         }
-        for (MooreNode node : globalNegativeForest.nodes()) {
+        for (; globalNegativeVarNodes < globalNegativeForest.nodeCount(); globalNegativeVarNodes++) {
             for (int color = 0; color < colorSize; color++) {
-                vars.add(BooleanVariable.getOrCreate("xxg", node.number(), color));
+                vars.add(xxg.create(globalNegativeVarNodes, color));
             }
         }
     }
@@ -81,35 +118,54 @@ public class PlantFormulaBuilder extends FastFormulaBuilder {
     /*
      * Each scenario node has at least one color
      */
-    private void eachNodeHasColorConstraints(List<int[]> constraints) {
+    private void eachNodeHasColorConstraints(ClauseBuffer constraints) {
         for (MooreNode node : positiveForest.nodes()) {
-            final int[] constraint = new int[colorSize];
-            for (int color = 0; color < colorSize; color++) {
-                constraint[color] = xVar(node.number(), color).number;
+            nodeHasColorConstraint(node.number(), constraints);
+        }
+    }
+
+    /*
+     * Colors of the scenario nodes in breadth-first order, except the roots.
+     */
+    public List<List<BooleanVariable>> splittingGroups() {
+        final List<Integer> nodes = new ArrayList<>();
+        final Deque<MooreNode> queue = new ArrayDeque<>(positiveForest.roots());
+        while (!queue.isEmpty()) {
+            for (MooreTransition t : queue.poll().transitions()) {
+                nodes.add(t.dst().number());
+                queue.add(t.dst());
+            }
+        }
+        return colorGroups(nodes);
+    }
+
+    private void scenarioUsageConstraints(ClauseBuffer constraints) {
+        final int[] parents = new int[positiveForest.nodeCount()];
+        Arrays.fill(parents, -1);
+        for (MooreNode node : positiveForest.nodes()) {
+            for (MooreTransition t : node.transitions()) {
+                parents[t.dst().number()] = node.number();
             }
-            constraints.add(constraint);
         }
+        final List<Integer> ends = new ArrayList<>();
+        positiveForest.scenarioEnds().forEach(node -> ends.add(node.number()));
+        scenarioUsageConstraints(parents, ends, constraints);
     }
 
     /*
      * Each scenario node has at most one color
      */
-    private void eachNodeHasOnlyColorConstraints(List<int[]> constraints) {
+    private void eachNodeHasOnlyColorConstraints(ClauseBuffer constraints) {
+        final int[] literals = new int[colorSize];
         for (MooreNode node : positiveForest.nodes()) {
-            for (int color1 = 0; color1 < colorSize; color1++) {
-                final BooleanVariable v1 = xVar(node.number(), color1);
-                for (int color2 = 0; color2 < color1; color2++) {
-                    final BooleanVariable v2 = xVar(node.number(), color2);                 
-                    constraints.add(new int[] {
-                            -v1.number,
-                            -v2.number
-                    });
-                }
+            for (int color = 0; color < colorSize; color++) {
+                literals[color] = xVar(node.number(), color).number;
             }
+            atMostOne(literals, constraints);
         }
     }
     
-    private void transitionConstraints(List<int[]> constraints) {
+    private void transitionConstraints(ClauseBuffer constraints) {
         for (MooreNode node : positiveForest.nodes()) {
             for (MooreTransition t : node.transitions()) {
                 for (int nodeColor = 0; nodeColor < colorSize; nodeColor++) {
@@ -117,9 +173,9 @@ public class PlantFormulaBuilder extends FastFormulaBuilder {
                     for (int childColor = 0; childColor < colorSize; childColor++) {
                         final BooleanVariable childVar = xVar(t.dst().number(), childColor);
                         final BooleanVariable relationVar = yVar(nodeColor, childColor, t.event());
-                        constraints.add(new int[] { relationVar.number, -nodeVar.number, -childVar.number });
+                        constraints.add(relationVar.number, -nodeVar.number, -childVar.number);
                         if (deterministic) {
-                            constraints.add(new int[] { -relationVar.number, -nodeVar.number, childVar.number });
+                            constraints.add(-relationVar.number, -nodeVar.number, childVar.number);
                         }
                     }
                 }
@@ -127,111 +183,177 @@ public class PlantFormulaBuilder extends FastFormulaBuilder {
         }
     }
     
-    private void scenarioActionConstraints(List<int[]> constraints) {
+    private void scenarioActionConstraints(ClauseBuffer constraints) {
         for (MooreNode node : positiveForest.nodes()) {
             final List<String> actionSequence = Arrays.asList(node.actions().getActions());
             for (int nodeColor = 0; nodeColor < colorSize; nodeColor++) {
                 for (int ai = 0; ai < actions.size(); ai++) {
                     final String action = actions.get(ai);
-                    constraints.add(new int[] {
-                            -xVar(node.number(), nodeColor).number,
-                            (actionSequence.contains(action) ? 1 : -1) * zVar(nodeColor, ai).number
-                    });
+                    constraints.add(-xVar(node.number(), nodeColor).number,
+                            (actionSequence.contains(action) ? 1 : -1) * zVar(nodeColor, ai).number);
                 }
             }
         }
     }
     
-    private void negativeScenarioBasis(List<int[]> constraints) {
-        for (MooreNode negRoot : negativeForest.roots()) {
-            if (!negativeForest.processRoot(negRoot)) {
-                continue;
-            }
+    private void negativeScenarioBasis(ClauseBuffer constraints) {
+        for (MooreNode negRoot : negativeForest.takeUnprocessedRoots()) {
             for (MooreNode root : positiveForest.roots()) {
                 if (root.actions().setEquals(negRoot.actions())) {
                     for (int nodeColor = 0; nodeColor < colorSize; nodeColor++) {
-                        constraints.add(new int[] {
-                                -xVar(root.number(), nodeColor).number,
-                                xxVar(negRoot.number(), nodeColor, false).number
-                        });
+                        constraints.add(-xVar(root.number(), nodeColor).number,
+                                xxVar(negRoot.number(), nodeColor, false).number);
                     }
                 }
             }
         }
     }
     
-    private void globalNegativeScenarioBasis(List<int[]> constraints) {
+    private void globalNegativeScenarioBasis(ClauseBuffer constraints) {
         if (globalNegativeForest.roots().size() > 1) {
             throw new AssertionError();
         }
-        for (MooreNode root : globalNegativeForest.roots()) {
-            if (!globalNegativeForest.processRoot(root)) {
-                continue;
-            }
+        for (MooreNode root : globalNegativeForest.takeUnprocessedRoots()) {
             // the global negative root is colored in all colors
             for (int nodeColor = 0; nodeColor < colorSize; nodeColor++) {
-                constraints.add(new int[] { xxVar(root.number(), nodeColor, true).number });
+                constraints.add(xxVar(root.number(), nodeColor, true).number);
             }
         }
     }
     
-    private void negativeScenarioPropagation(List<int[]> constraints, boolean isGlobal) {
+    private void negativeScenarioPropagation(ClauseBuffer constraints, boolean isGlobal) {
         final NegativePlantScenarioForest forest =
                 isGlobal ? globalNegativeForest : negativeForest;
         final int[] xxParent = new int[colorSize];
         final int[][] actionEq = new int[colorSize][actions.size()];
         final int[] xxChild = new int[colorSize];
 
-        for (MooreNode node : forest.nodes()) {
-            boolean xxParentFilled = false;
-            for (MooreTransition edge : node.transitions()) {
-                final MooreNode childNode = edge.dst();
-                if (!forest.processChild(childNode)) {
-                    continue;
-                }
-                if (!xxParentFilled) {
-                    for (int color = 0; color < colorSize; color++) {
-                        xxParent[color] = xxVar(node.number(), color, isGlobal).number;
-                    }
-                    xxParentFilled = true;
-                }
-                final String event = edge.event();
-                final List<String> actionList = Arrays.asList(childNode.actions().getActions());
+        MooreNode parentNode = null;
+        for (MooreTransition edge : forest.takeUnprocessedTransitions()) {
+            final MooreNode childNode = edge.dst();
+            if (edge.src() != parentNode) {
+                parentNode = edge.src();
                 for (int color = 0; color < colorSize; color++) {
-                    for (int i = 0; i < actions.size(); i++) {
-                        final String action = actions.get(i);
-                        final int sign = actionList.contains(action) ? 1 : -1;
-                        // we actually need the negation, thus -sign:
-                        actionEq[color][i] = -sign * zVar(color, action).number;
-                    }
+                    xxParent[color] = xxVar(parentNode.number(), color, isGlobal).number;
                 }
-                for (int color = 0; color < colorSize; color++) {
-                    xxChild[color] = xxVar(childNode.number(), color, isGlobal).number;
+            }
+            final String event = edge.event();
+            final List<String> actionList = Arrays.asList(childNode.actions().getActions());
+            for (int color = 0; color < colorSize; color++) {
+                for (int i = 0; i < actions.size(); i++) {
+                    final String action = actions.get(i);
+                    final int sign = actionList.contains(action) ? 1 : -1;
+                    // we actually need the negation, thus -sign:
+                    actionEq[color][i] = -sign * zVar(color, action).number;
                 }
-                for (int color1 = 0; color1 < colorSize; color1++) {
-                    for (int color2 = 0; color2 < colorSize; color2++) {
-                        final int[] constraint = new int[actions.size() + 3];
-                        System.arraycopy(actionEq[color2], 0, constraint, 0, actions.size());
-                        constraint[actions.size()] = -xxParent[color1];
-                        constraint[actions.size() + 1] = -yVar(color1, color2, event).number;
-                        constraint[actions.size() + 2] = xxChild[color2];
-                        constraints.add(constraint);
+            }
+            for (int color = 0; color < colorSize; color++) {
+                xxChild[color] = xxVar(childNode.number(), color, isGlobal).number;
+            }
+            for (int color1 = 0; color1 < colorSize; color1++) {
+                for (int color2 = 0; color2 < colorSize; color2++) {
+                    for (int lit : actionEq[color2]) {
+                        constraints.literal(lit);
                     }
+                    constraints.literal(-xxParent[color1]).literal(-yVar(color1, color2, event).number)
+                            .literal(xxChild[color2]).endClause();
                 }
             }
         }
     }
     
-    private void negativeScenarioTermination(List<int[]> constraints, boolean isGlobal) {
+    private void negativeScenarioTermination(ClauseBuffer constraints, boolean isGlobal) {
         final NegativePlantScenarioForest forest = isGlobal ? globalNegativeForest : negativeForest;
-        for (MooreNode node : forest.terminalNodes()) {
-            if (!forest.processTerminalNode(node)) {
+        for (MooreNode node : forest.takeUnprocessedTerminalNodes()) {
+            for (int nodeColor = 0; nodeColor < colorSize; nodeColor++) {
+                constraints.add(-xxVar(node.number(), nodeColor, isGlobal).number);
+            }
+        }
+    }
+    
+    /*
+     * Clauses of the compiled safety formulae for all chains of transitions from reachable states,
+     * see SafetyFormulaCompiler. Since there are no dead ends, each such chain is a part of an infinite path.
+     * reach_color must hold for the initial states (the colors of the roots) and for the targets of transitions
+     * from states where it holds, so it holds for all reachable states. It may also hold for other states,
+     * which are then constrained too, but it is never required for them.
+     */
+    private void safetyConstraints(ClauseBuffer constraints) {
+        if (safetyFormulae.isEmpty()) {
+            return;
+        }
+        for (MooreNode root : positiveForest.roots()) {
+            for (int color = 0; color < colorSize; color++) {
+                constraints.add(-xVar(root.number(), color).number, reach.create(color).number);
+            }
+        }
+        for (int color = 0; color < colorSize; color++) {
+            for (int childColor = 0; childColor < colorSize; childColor++) {
+                for (int ei = 0; ei < events.size(); ei++) {
+                    constraints.add(-reach.create(color).number, -yVar(color, childColor, ei).number,
+                            reach.create(childColor).number);
+                }
+            }
+        }
+        for (SafetyFormulaCompiler.SafetyFormula formula : safetyFormulae) {
+            for (SafetyFormulaCompiler.Clause clause : formula.clauses) {
+                final int length = clause.hi - clause.lo + 1;
+                safetyConstraints(clause, new int[length], new int[length], 0, constraints);
+            }
+        }
+    }
+
+    /*
+     * chainEvents[i] is the event of the transition from chain[i - 1] to chain[i].
+     */
+    private void safetyConstraints(SafetyFormulaCompiler.Clause clause, int[] chain, int[] chainEvents,
+            int position, ClauseBuffer constraints) {
+        if (position == chain.length) {
+            final Set<Integer> literals = new LinkedHashSet<>();
+            literals.add(-reach.create(chain[0]).number);
+            for (int i = 1; i < chain.length; i++) {
+                literals.add(-yVar(chain[i - 1], chain[i], chainEvents[i]).number);
+            }
+            for (SafetyFormulaCompiler.Literal l : clause.literals) {
+                if (l.isEvent) {
+                    // satisfied literals have been excluded, so this one is false
+                    continue;
+                }
+                final Integer ai = actionIndices.get(l.arg);
+                if (ai == null) {
+                    // no such action: the literal is false if positive
+                    if (l.positive) {
+                        continue;
+                    }
+                    return;
+                }
+                final int lit = zVar(chain[l.offset - clause.lo], ai).number * (l.positive ? 1 : -1);
+                if (literals.contains(-lit)) {
+                    return;
+                }
+                literals.add(lit);
+            }
+            for (int lit : literals) {
+                constraints.literal(lit);
+            }
+            constraints.endClause();
+            return;
+        }
+        for (int color = 0; color < colorSize; color++) {
+            chain[position] = color;
+            if (position == 0) {
+                safetyConstraints(clause, chain, chainEvents, position + 1, constraints);
                 continue;
             }
-            for (int nodeColor = 0; nodeColor < colorSize; nodeColor++) {
-                constraints.add(new int[] {
-                        -xxVar(node.number(), nodeColor, isGlobal).number
-                });
+            for (int ei = 0; ei < events.size(); ei++) {
+                boolean satisfied = false;
+                for (SafetyFormulaCompiler.Literal l : clause.literals) {
+                    satisfied |= l.isEvent && l.offset - clause.lo == position && l.value(events.get(ei));
+                }
+                if (!satisfied) {
+                    chainEvents[position] = ei;
+                    safetyConstraints(clause, chain, chainEvents, position + 1, constraints);
+                }
             }
         }
     }
@@ -241,37 +363,39 @@ public class PlantFormulaBuilder extends FastFormulaBuilder {
         addNegativeVars();
     }
     
-    public List<int[]> positiveConstraints() {
-        final List<int[]> constraints = new ArrayList<>();
+    public ClauseBuffer positiveConstraints() {
+        final ClauseBuffer constraints = new ClauseBuffer();
         if (deterministic) {
             // only one initial state
             for (MooreNode root : positiveForest.roots()) {
-                constraints.add(new int[] { xVar(root.number(), 0).number });
+                initialNodeConstraint(root.number(), constraints);
             }
         } else {
             // first node is always an initial state (but probably there are more)
-            constraints.add(new int[] { xVar(0, 0).number });
+            initialNodeConstraint(0, constraints);
         }
         transitionConstraints(constraints);
         eventCompletenessConstraints(constraints);
         eachNodeHasColorConstraints(constraints);
         eachNodeHasOnlyColorConstraints(constraints);
         scenarioActionConstraints(constraints);
+        safetyConstraints(constraints);
         if (deterministic) {
             notMoreThanOneEdgeConstraints(constraints);
             addBFSConstraints(constraints);
         }
+        scenarioUsageConstraints(constraints);
         return constraints;
     }
     
-    public List<int[]> negativeConstraints() {
-        final List<int[]> constraints = new ArrayList<>();
+    public ClauseBuffer negativeConstraints() {
+        final ClauseBuffer constraints = new ClauseBuffer();
         negativeScenarioBasis(constraints);
         globalNegativeScenarioBasis(constraints);
         for (boolean isGlobal : Arrays.asList(false, true)) {
             negativeScenarioPropagation(constraints, isGlobal);
             negativeScenarioTermination(constraints, isGlobal);
         }
-        return constraints;
+        return guardNegativeConstraints(constraints);
     }
 }
@@ -0,0 +1,232 @@
+package formula_builders;
+
+/**
+ * (c) Igor Buzhinsky
+ */
+
+import verification.ltl.LtlParseException;
+import verification.ltl.LtlParser;
+import verification.ltl.grammar.BinaryOperator;
+import verification.ltl.grammar.BinaryOperatorType;
+import verification.ltl.grammar.BooleanNode;
+import verification.ltl.grammar.LtlNode;
+import verification.ltl.grammar.Predicate;
+import verification.ltl.grammar.UnaryOperator;
+import verification.ltl.grammar.UnaryOperatorType;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+
+/*
+ * Recognition of safety formulae G(psi) which can be given to the SAT solver directly instead of being checked
+ * by the verifier, where psi is a Boolean combination of event and action predicates under X operators, e.g.
+ * G(!(action(a) && X(event(e))) || X(action(b))). Such psi is converted into CNF over predicates with offsets
+ * (the number of enclosing X operators). Each clause then must hold on each chain of transitions
+ * s_lo -e_lo+1-> ... -e_hi-> s_hi, where s_0 is the current state and hi is the largest offset in the clause.
+ * Event predicates at offset k refer to e_k, and thus lo = -1 if there are such predicates with k = 0, since the
+ * event of a position is the one of the incoming transition. Otherwise, lo = 0. Position 0 (the initial one) has
+ * no incoming transition, so clauses with lo = -1 are not required there: they are weaker than the formula.
+ */
+public class SafetyFormulaCompiler {
+    // formulae with larger CNFs or more clauses after substitution of states and events are left to the verifier
+    private static final int MAX_CLAUSES = 64;
+    private static final long MAX_INSTANCES = 1 << 20;
+
+    public static class Literal {
+        public final int offset;
+        public final boolean isEvent;
+        // an action or a comma-separated list of events
+        public final String arg;
+        public final boolean positive;
+
+        Literal(int offset, boolean isEvent, String arg, boolean positive) {
+            this.offset = offset;
+            this.isEvent = isEvent;
+            this.arg = arg;
+            this.positive = positive;
+        }
+
+        Literal negation() {
+            return new Literal(offset, isEvent, arg, !positive);
+        }
+
+        /*
+         * For event literals.
+         */
+        public boolean value(String event) {
+            return Arrays.asList(arg.split(",")).contains(event) == positive;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Literal)) {
+                return false;
+            }
+            final Literal other = (Literal) obj;
+            return offset == other.offset && isEvent == other.isEvent && arg.equals(other.arg)
+                    && positive == other.positive;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(offset, isEvent, arg, positive);
+        }
+
+        @Override
+        public String toString() {
+            return (positive ? "" : "!") + "X^" + offset + " " + (isEvent ? "event(" : "action(") + arg + ")";
+        }
+    }
+
+    public static class Clause {
+        public final List<Literal> literals;
+        // the first and the last states of the chains, see above
+        public final int lo;
+        public final int hi;
+
+        Clause(Set<Literal> literals) {
+            this.literals = new ArrayList<>(literals);
+            int lo = 0;
+            int hi = 0;
+            for (Literal l : literals) {
+                if (l.isEvent && l.offset == 0) {
+                    lo = -1;
+                }
+                hi = Math.max(hi, l.offset);
+            }
+            this.lo = lo;
+            this.hi = hi;
+        }
+
+        long instanceCount(int states, int events) {
+            long result = states;
+            for (int i = lo; i < hi; i++) {
+                result *= (long) states * events;
+            }
+            return result;
+        }
+    }
+
+    public static class SafetyFormula {
+        public final String formula;
+        public final List<Clause> clauses;
+
+        SafetyFormula(String formula, List<Clause> clauses) {
+            this.formula = formula;
+            this.clauses = clauses;
+        }
+
+        long instanceCount(int states, int events) {
+            long result = 0;
+            for (Clause c : clauses) {
+                result += c.instanceCount(states, events);
+            }
+            return result;
+        }
+    }
+
+    /*
+     * Returns the formulae which can be encoded for the given number of states and events. Other formulae
+     * (including unparsable ones) are skipped.
+     */
+    public static List<SafetyFormula> compile(List<String> formulae, int states, int events) {
+        final List<SafetyFormula> result = new ArrayList<>();
+        for (String formula : formulae) {
+            if (formula.trim().isEmpty()) {
+                continue;
+            }
+            final LtlNode node;
+            try {
+                node = LtlParser.parse(Collections.singletonList(formula)).get(0);
+            } catch (LtlParseException e) {
+                continue;
+            }
+            if (!(node instanceof UnaryOperator) || ((UnaryOperator) node).getType() != UnaryOperatorType.GLOBAL) {
+                continue;
+            }
+            final List<Set<Literal>> cnf = cnf(((UnaryOperator) node).getOperand(), true, 0);
+            if (cnf == null) {
+                continue;
+            }
+            final List<Clause> clauses = new ArrayList<>();
+            cnf.forEach(c -> clauses.add(new Clause(c)));
+            final SafetyFormula compiled = new SafetyFormula(formula, clauses);
+            if (compiled.instanceCount(states, events) <= MAX_INSTANCES) {
+                result.add(compiled);
+            }
+        }
+        return result;
+    }
+
+    private static List<Set<Literal>> constant(boolean value) {
+        final List<Set<Literal>> result = new ArrayList<>();
+        if (!value) {
+            result.add(new LinkedHashSet<>());
+        }
+        return result;
+    }
+
+    /*
+     * CNF of the node (negated if !positive) at the given offset, or null if the node is not supported or
+     * the CNF is too large.
+     */
+    private static List<Set<Literal>> cnf(LtlNode node, boolean positive, int offset) {
+        if (node instanceof BooleanNode) {
+            return constant(((BooleanNode) node).getValue() == positive);
+        } else if (node instanceof Predicate) {
+            final Predicate p = (Predicate) node;
+            if (!p.getName().equals("event") && !p.getName().equals("action")) {
+                return null;
+            }
+            final Set<Literal> clause = new LinkedHashSet<>();
+            clause.add(new Literal(offset, p.getName().equals("event"), p.arg(), positive));
+            return new ArrayList<>(Collections.singletonList(clause));
+        } else if (node instanceof UnaryOperator) {
+            final UnaryOperator op = (UnaryOperator) node;
+            if (op.getType() == UnaryOperatorType.NEG) {
+                return cnf(op.getOperand(), !positive, offset);
+            } else if (op.getType() == UnaryOperatorType.NEXT) {
+                return cnf(op.getOperand(), positive, offset + 1);
+            }
+            return null;
+        } else if (node instanceof BinaryOperator) {
+            final BinaryOperator op = (BinaryOperator) node;
+            if (op.getType() != BinaryOperatorType.AND && op.getType() != BinaryOperatorType.OR) {
+                return null;
+            }
+            final List<Set<Literal>> left = cnf(op.getLeftOperand(), positive, offset);
+            final List<Set<Literal>> right = left == null ? null : cnf(op.getRightOperand(), positive, offset);
+            if (right == null) {
+                return null;
+            } else if ((op.getType() == BinaryOperatorType.AND) == positive) {
+                left.addAll(right);
+                return left.size() <= MAX_CLAUSES ? left : null;
+            }
+            // distribution of the disjunction over the conjunctions
+            final List<Set<Literal>> result = new ArrayList<>();
+            for (Set<Literal> c1 : left) {
+                for (Set<Literal> c2 : right) {
+                    final Set<Literal> clause = new LinkedHashSet<>(c1);
+                    boolean tautology = false;
+                    for (Literal l : c2) {
+                        tautology |= clause.contains(l.negation());
+                        clause.add(l);
+                    }
+                    if (!tautology) {
+                        result.add(clause);
+                        if (result.size() > MAX_CLAUSES) {
+                            return null;
+                        }
+                    }
+                }
+            }
+            return result;
+        }
+        return null;
+    }
+}
@@ -5,8 +5,11 @@ package main;
  */
 
 import automaton_builders.FastAutomatonBuilder;
+import formula_builders.CardinalityEncoding;
 import meta.Author;
 import meta.MainBase;
+import meta.Portfolio;
+import meta.SynthesisSession;
 import org.kohsuke.args4j.Argument;
 import org.kohsuke.args4j.Option;
 import org.kohsuke.args4j.spi.BooleanOptionHandler;
@@ -99,10 +102,73 @@ public class FastAutomatonBuilderMain extends MainBase {
     private boolean globalTree;
 
     @Option(name = "--solver",
-            usage = "SAT solver: INCREMENTAL_CRYPTOMINISAT (default), LINGELING, CRYPTOMINISAT",
+            usage = "SAT solver: INCREMENTAL_CRYPTOMINISAT (default), LINGELING, CRYPTOMINISAT, EMBEDDED",
             metaVar = "<solver>")
     private String strSolver = SatSolver.INCREMENTAL_CRYPTOMINISAT.name();
 
+    @Option(name = "--amo",
+            usage = "CNF encoding of at-most-one constraints: PAIRWISE (default), SEQUENTIAL, COMMANDER, PRODUCT, "
+                    + "BIMANDER", metaVar = "<encoding>")
+    private String strAmoEncoding = CardinalityEncoding.PAIRWISE.name();
+    private CardinalityEncoding amoEncoding;
+
+    @Option(name = "--preprocess", handler = BooleanOptionHandler.class,
+            usage = "simplify clauses before passing them to the SAT solver")
+    private boolean preprocess;
+
+    @Option(name = "--unsatCores", handler = BooleanOptionHandler.class,
+            usage = "if there is no automaton of the given size, report the scenarios and counterexamples "
+                    + "which are sufficient to prove it")
+    private boolean unsatCores;
+
+    @Option(name = "--cubeWorkers",
+            usage = "solve each SAT instance by cube-and-conquer with this number of embedded solvers in parallel "
+                    + "threads instead of --solver (default 0 = disabled)", metaVar = "<workers>")
+    private int cubeWorkers = 0;
+
+    @Option(name = "--verifierThreads",
+            usage = "number of threads to verify LTL formulae in parallel (default 1)", metaVar = "<threads>")
+    private int verifierThreads = 1;
+
+    @Option(name = "--counterexampleLimit",
+            usage = "stop verification after finding this number of counterexamples (default 0: check all formulae)",
+            metaVar = "<number>")
+    private int counterexampleLimit = 0;
+
+    @Option(name = "--counterexamplesPerFormula",
+            usage = "up to this number of diverse counterexamples are extracted for each violated formula on each "
+                    + "iteration (default 1)", metaVar = "<number>")
+    private int counterexamplesPerFormula = 1;
+
+    @Option(name = "--cacheDir",
+            usage = "directory for persistent caches (e.g. of LTL to Buchi translations), optional", metaVar = "<dir>")
+    private String cacheDir;
+
+    @Option(name = "--maxSize",
+            usage = "portfolio mode: search for the minimum automaton size from --size to this size",
+            metaVar = "<size>")
+    private int maxSize = 0;
+
+    @Option(name = "--portfolioThreads",
+            usage = "portfolio mode: number of parallel jobs (default: number of processors)", metaVar = "<threads>")
+    private int portfolioThreads = Runtime.getRuntime().availableProcessors();
+
+    @Option(name = "--portfolioSolvers",
+            usage = "portfolio mode: comma-separated SAT solvers to try for each size (default: --solver)",
+            metaVar = "<solvers>")
+    private String portfolioSolvers;
+
+    @Option(name = "--portfolioSeeds",
+            usage = "portfolio mode: number of solver seeds to try for each size and solver (default 1)",
+            metaVar = "<number>")
+    private int portfolioSeeds = 1;
+
+    private Optional<MealyAutomaton> resultAutomaton = null;
+
+    public Optional<MealyAutomaton> resultAutomaton() {
+        return resultAutomaton;
+    }
+
     public static void main(String[] args) {
         new FastAutomatonBuilderMain().run(args, Author.IB, "FSM builder from scenarios and LTL formulae");
     }
@@ -110,6 +176,7 @@ public class FastAutomatonBuilderMain extends MainBase {
     @Override
     protected void launcher() throws IOException, ParseException {
         initializeLogger(logFilePath);
+        initializeCacheDirectory(cacheDir);
         eventNumber = eventNames == null ? eventNumber : eventNames.split(",").length;
         actionNumber = actionNames == null ? actionNumber : actionNames.split(",").length;
         varNumber = varNames == null ? varNumber : varNames.split(",").length;
@@ -120,88 +187,145 @@ public class FastAutomatonBuilderMain extends MainBase {
         final List<String> events = events(eventnames, eventNumber, varNumber);
         final List<String> actions = actions(actionNames, actionNumber);
 
-        SatSolver solver;
+        final List<SatSolver> solvers = new ArrayList<>();
+        for (String s : (maxSize > 0 && portfolioSolvers != null ? portfolioSolvers : strSolver).split(",")) {
+            try {
+                solvers.add(SatSolver.valueOf(s));
+            } catch (IllegalArgumentException e) {
+                logger().warning(s + " is not a valid SAT solver.");
+                return;
+            }
+        }
         try {
-            solver = SatSolver.valueOf(strSolver);
+            amoEncoding = CardinalityEncoding.valueOf(strAmoEncoding);
         } catch (IllegalArgumentException e) {
-            logger().warning(strSolver + " is not a valid SAT solver.");
+            logger().warning(strAmoEncoding + " is not a valid at-most-one encoding.");
             return;
         }
 
         try {
             final List<String> strFormulae = LtlParser.load(ltlFilePath, varNumber, eventnames);
             logger().info("LTL formula from " + ltlFilePath);
+            final long finishTime = System.currentTimeMillis() + (long) timeout * 1000;
+
+            if (maxSize == 0) {
+                final Optional<MealyAutomaton> resultAutomaton = build(tree, size, strFormulae, events, actions,
+                        finishTime, solvers.get(0));
+                report(size, resultAutomaton, strFormulae, events, actions);
+                return;
+            }
+
+            // portfolio: configuration = (solver, seed)
+            final Optional<Portfolio.Solution<MealyAutomaton>> solution = new Portfolio<MealyAutomaton>(logger(),
+                    session(), portfolioThreads, size, maxSize, solvers.size() * portfolioSeeds).run((s, c) -> {
+                        SynthesisSession.current().setSolverSeed(c % portfolioSeeds);
+                        registerVariableNames(varNames, varNumber);
+                        return build(loadScenarioTree(arguments, true), s, strFormulae, events, actions, finishTime,
+                                solvers.get(c / portfolioSeeds));
+                    });
+            if (solution.isPresent()) {
+                try (Portfolio.Solution<MealyAutomaton> s = solution.get()) {
+                    s.call(() -> {
+                        report(s.size, Optional.of(s.result), strFormulae, events, actions);
+                        return null;
+                    });
+                }
+            } else {
+                resultAutomaton = Optional.empty();
+                logger().info("Automaton with " + size + ".." + maxSize + " states NOT FOUND!");
+                logger().info("Automaton builder execution time: " + executionTime());
+            }
+        } catch (ParseException e) {
+            logger().warning("Can't get LTL formula from " + treeFilePath);
+            throw new RuntimeException(e);
+        } catch (IOException | RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    private Optional<MealyAutomaton> build(ScenarioTree tree, int size, List<String> strFormulae,
+                                           List<String> events, List<String> actions, long finishTime,
+                                           SatSolver solver) throws IOException, ParseException {
+        final NegativeScenarioTree negativeForest = new NegativeScenarioTree();
+        if (negscFilePath != null) {
+            negativeForest.load(negscFilePath, true);
+        }
+
+        logger().info("Start building automaton");
+
+        try (Verifier verifier = new Verifier(logger(), strFormulae, events, actions)) {
+            verifier.setParallelism(verifierThreads, counterexampleLimit);
+            verifier.setCounterexamplesPerFormula(counterexamplesPerFormula);
+            return FastAutomatonBuilder.build(logger(), tree, negativeForest, size, strFormulae,
+                    events, actions, verifier, finishTime, complete, bfsConstraints,
+                    globalTree, solver, amoEncoding, preprocess, unsatCores, cubeWorkers);
+        }
+    }
 
+    private void report(int size, Optional<MealyAutomaton> resultAutomaton, List<String> strFormulae,
+                        List<String> events, List<String> actions) throws IOException, ParseException {
+        this.resultAutomaton = resultAutomaton;
+        if (!resultAutomaton.isPresent()) {
+            logger().info("Automaton with " + size + " states NOT FOUND!");
+            logger().info("Automaton builder execution time: " + executionTime());
+        } else {
             final List<StringScenario> scenarios = new ArrayList<>();
             for (String scenarioPath : arguments) {
                 scenarios.addAll(StringScenario.loadScenarios(scenarioPath, true));
             }
 
             final List<StringScenario> negativeScenarios = new ArrayList<>();
-            final NegativeScenarioTree negativeForest = new NegativeScenarioTree();
             if (negscFilePath != null) {
                 negativeScenarios.addAll(StringScenario.loadScenarios(negscFilePath, true));
-                negativeForest.load(negscFilePath, true);
             }
 
-            logger().info("Start building automaton");
+            final MealyAutomaton a = resultAutomaton.get();
+            logger().info("Automaton with " + size + " states WAS FOUND!");
+            logger().info("Automaton builder execution time: " + executionTime());
 
-            final Verifier verifier = new Verifier(logger(), strFormulae, events, actions);
-            final long finishTime = System.currentTimeMillis() + (long) timeout * 1000;
-            final Optional<MealyAutomaton> resultAutomaton = FastAutomatonBuilder.build(logger(),
-                    tree, negativeForest, size, strFormulae,
-                    events, actions, verifier, finishTime, complete, bfsConstraints,
-                    globalTree, solver);
-
-            if (!resultAutomaton.isPresent()) {
-                logger().info("Automaton with " + size + " states NOT FOUND!");
-                logger().info("Automaton builder execution time: " + executionTime());
+            if (scenarios.stream().allMatch(a::compliesWith)) {
+                logger().info("COMPLIES WITH SCENARIOS");
             } else {
-                final MealyAutomaton a = resultAutomaton.get();
-                logger().info("Automaton with " + size + " states WAS FOUND!");
-                logger().info("Automaton builder execution time: " + executionTime());
-
-                if (scenarios.stream().allMatch(a::compliesWith)) {
-                    logger().info("COMPLIES WITH SCENARIOS");
-                } else {
-                    logger().severe("NOT COMPLIES WITH SCENARIOS");
-                }
+                logger().severe("NOT COMPLIES WITH SCENARIOS");
+            }
 
-                if (negativeScenarios.stream().allMatch(sc -> !a.compliesWith(sc))) {
-                    logger().info("COMPLIES WITH NEGATIVE SCENARIOS");
-                } else {
-                    logger().severe("NOT COMPLIES WITH NEGATIVE SCENARIOS");
-                }
+            if (negativeScenarios.stream().allMatch(sc -> !a.compliesWith(sc))) {
+                logger().info("COMPLIES WITH NEGATIVE SCENARIOS");
+            } else {
+                logger().severe("NOT COMPLIES WITH NEGATIVE SCENARIOS");
+            }
 
-                saveToFile(a, resultFilePath);
+            saveToFile(a, resultFilePath);
 
-                boolean verified = verifier.verify(a);
-                if (verified) {
-                    logger().info("VERIFIED");
-                } else {
-                    logger().severe("NOT VERIFIED");
-                }
+            final boolean verified;
+            try (Verifier verifier = new Verifier(logger(), strFormulae, events, actions)) {
+                verifier.setParallelism(verifierThreads, counterexampleLimit);
+                verified = verifier.verify(a);
+            }
+            if (verified) {
+                logger().info("VERIFIED");
+            } else {
+                logger().severe("NOT VERIFIED");
+            }
 
-                // completeness check
-                boolean isComplete = true;
-                if (complete) {
-                    for (MealyNode s : a.states()) {
-                        isComplete &= s.transitionCount() == events.size();
-                    }
-                } else {
-                    for (MealyNode s : a.states()) {
-                        isComplete &= s.transitionCount() != 0;
-                    }
+            // completeness check
+            boolean isComplete = true;
+            if (complete) {
+                for (MealyNode s : a.states()) {
+                    isComplete &= s.transitionCount() == events.size();
                 }
-                if (isComplete) {
-                    logger().info("COMPLETE");
-                } else {
-                    logger().severe("INCOMPLETE");
+            } else {
+                for (MealyNode s : a.states()) {
+                    isComplete &= s.transitionCount() != 0;
                 }
             }
-        } catch (ParseException e) {
-            logger().warning("Can't get LTL formula from " + treeFilePath);
-            throw new RuntimeException(e);
+            if (isComplete) {
+                logger().info("COMPLETE");
+            } else {
+                logger().severe("INCOMPLETE");
+            }
         }
     }
 }
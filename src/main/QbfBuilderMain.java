@@ -6,12 +6,15 @@ package main;
 
 import algorithms.AutomatonCompleter.CompletenessType;
 import automaton_builders.BacktrackingAutomatonBuilder;
+import automaton_builders.BoundedAutomatonBuilder;
 import automaton_builders.CounterexampleAutomatonBuilder;
 import automaton_builders.QbfAutomatonBuilder;
 import automaton_builders.StateMergingAutomatonBuilder;
 import bool.MyBooleanExpression;
 import meta.Author;
 import meta.MainBase;
+import meta.Portfolio;
+import meta.SynthesisSession;
 import org.kohsuke.args4j.Argument;
 import org.kohsuke.args4j.Option;
 import org.kohsuke.args4j.spi.BooleanOptionHandler;
@@ -95,7 +98,7 @@ public class QbfBuilderMain extends MainBase {
     private String qbfSolver = QbfSolver.DEPQBF.name();
     
     @Option(name = "--satSolver", aliases = { "-qss" },
-            usage = "SAT solver: LINGELING (default), CRYPTOMINISAT",
+            usage = "SAT solver: LINGELING (default), CRYPTOMINISAT, EMBEDDED",
             metaVar = "<satSolver>")
     private String satSolver = SatSolver.LINGELING.name();
     
@@ -104,7 +107,7 @@ public class QbfBuilderMain extends MainBase {
     private int timeout = 10_000_000;
     
     @Option(name = "--strategy", aliases = { "-str" },
-            usage = "solving mode: QSAT, EXP_SAT, BACKTRACKING, COUNTEREXAMPLE (default), STATE_MERGING",
+            usage = "solving mode: QSAT, EXP_SAT, BACKTRACKING, COUNTEREXAMPLE (default), STATE_MERGING, BOUNDED",
             metaVar = "<strategy>")
     private String strategy = SolvingStrategy.COUNTEREXAMPLE.name();
     
@@ -131,6 +134,35 @@ public class QbfBuilderMain extends MainBase {
             metaVar = "<errorNumber>")
     private int generateQsatForK = -1;
 
+    @Option(name = "--cacheDir",
+            usage = "directory for persistent caches (of LTL to Buchi translations and BFS tables), optional", metaVar = "<dir>")
+    private String cacheDir;
+
+    @Option(name = "--maxSize",
+            usage = "portfolio mode: search for the minimum automaton size from --size to this size",
+            metaVar = "<size>")
+    private int maxSize = 0;
+
+    @Option(name = "--portfolioThreads",
+            usage = "portfolio mode: number of parallel jobs (default: number of processors)", metaVar = "<threads>")
+    private int portfolioThreads = Runtime.getRuntime().availableProcessors();
+
+    @Option(name = "--portfolioStrategies",
+            usage = "portfolio mode: comma-separated solving strategies to try for each size (default: --strategy)",
+            metaVar = "<strategies>")
+    private String portfolioStrategies;
+
+    @Option(name = "--portfolioSeeds",
+            usage = "portfolio mode: number of SAT solver seeds to try for each size and strategy (default 1)",
+            metaVar = "<number>")
+    private int portfolioSeeds = 1;
+
+    private Optional<MealyAutomaton> resultAutomaton = null;
+
+    public Optional<MealyAutomaton> resultAutomaton() {
+        return resultAutomaton;
+    }
+
     public static void main(String[] args) {
         new QbfBuilderMain().run(args, Author.IB, "Automaton builder from scenarios and LTL formulae");
     }
@@ -138,6 +170,7 @@ public class QbfBuilderMain extends MainBase {
     @Override
     protected void launcher() throws IOException, ParseException {
         initializeLogger(logFilePath);
+        initializeCacheDirectory(cacheDir);
         eventNumber = eventNames == null ? eventNumber : eventNames.split(",").length;
         actionNumber = actionNames == null ? actionNumber : actionNames.split(",").length;
         varNumber = varNames == null ? varNumber : varNames.split(",").length;
@@ -146,11 +179,18 @@ public class QbfBuilderMain extends MainBase {
         final ScenarioTree tree = loadScenarioTree(arguments, true);
         saveScenarioTree(tree, treeFilePath);
         
-        SolvingStrategy ss;
-        try {
-            ss = SolvingStrategy.valueOf(strategy);
-        } catch (IllegalArgumentException e) {
-            logger().warning(strategy + " is not a valid solving strategy.");
+        final List<SolvingStrategy> strategies = new ArrayList<>();
+        for (String s : (maxSize > 0 && portfolioStrategies != null ? portfolioStrategies : strategy).split(",")) {
+            try {
+                strategies.add(SolvingStrategy.valueOf(s));
+            } catch (IllegalArgumentException e) {
+                logger().warning(s + " is not a valid solving strategy.");
+                return;
+            }
+        }
+        if (maxSize > 0 && strategies.contains(SolvingStrategy.STATE_MERGING)) {
+            logger().warning(SolvingStrategy.STATE_MERGING + " does not depend on the size and cannot be used "
+                    + "in the portfolio mode.");
             return;
         }
         
@@ -183,114 +223,166 @@ public class QbfBuilderMain extends MainBase {
         final List<String> actions = actions(actionNames, actionNumber);
         
         try {
-            List<String> strFormulae = LtlParser.load(ltlFilePath, varNumber, eventnames);
-            if (ss == SolvingStrategy.QSAT || ss == SolvingStrategy.EXP_SAT) {
-                strFormulae = strFormulae.stream().map(LtlUtils::expandEventList).collect(Collectors.toList());
-            }
-            final List<LtlNode> formulae = LtlParser.parse(strFormulae);
+            final List<String> strFormulae = LtlParser.load(ltlFilePath, varNumber, eventnames);
             logger().info("LTL formulae from " + ltlFilePath);
+            final long finishTime = startTime() + (long) timeout * 1000;
+            
+            if (maxSize == 0) {
+                final SolvingStrategy ss = strategies.get(0);
+                final Optional<MealyAutomaton> resultAutomaton = build(tree, ss, size, strFormulae, events,
+                        eventnames, actions, qbfsolver, satsolver, completenesstype, finishTime);
+                if ((ss == SolvingStrategy.QSAT || ss == SolvingStrategy.EXP_SAT) && generateQsatForK > -1) {
+                    return;
+                }
+                report(size, ss, resultAutomaton, strFormulae, events, actions, completenesstype);
+                return;
+            }
+            
+            // portfolio: configuration = (strategy, seed)
+            final Optional<Portfolio.Solution<MealyAutomaton>> solution = new Portfolio<MealyAutomaton>(logger(),
+                    session(), portfolioThreads, size, maxSize, strategies.size() * portfolioSeeds).run((s, c) -> {
+                        SynthesisSession.current().setSolverSeed(c % portfolioSeeds);
+                        registerVariableNames(varNames, varNumber);
+                        return build(loadScenarioTree(arguments, true), strategies.get(c / portfolioSeeds), s,
+                                strFormulae, events, eventnames, actions, qbfsolver, satsolver, completenesstype,
+                                finishTime);
+                    });
+            if (solution.isPresent()) {
+                try (Portfolio.Solution<MealyAutomaton> s = solution.get()) {
+                    s.call(() -> {
+                        report(s.size, strategies.get(s.configuration / portfolioSeeds), Optional.of(s.result),
+                                strFormulae, events, actions, completenesstype);
+                        return null;
+                    });
+                }
+            } else {
+                resultAutomaton = Optional.empty();
+                logger().info("Automaton with " + size + ".." + maxSize + " states NOT FOUND!");
+                logger().info("Automaton builder execution time: " + executionTime());
+            }
+        } catch (LtlParseException e) {
+            logger().warning("Can't get LTL formula from " + treeFilePath);
+            throw new RuntimeException(e);
+        } catch (ParseException e) {
+            logger().warning("ParseException");
+            throw new RuntimeException(e);
+        } catch (IOException | RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new AssertionError(e);
+        }
+    }
+    
+    private Optional<MealyAutomaton> build(ScenarioTree tree, SolvingStrategy ss, int size, List<String> strFormulae,
+                                           List<String> events, List<String> eventnames, List<String> actions,
+                                           QbfSolver qbfsolver, SatSolver satsolver,
+                                           CompletenessType completenesstype, long finishTime)
+            throws IOException, ParseException, LtlParseException {
+        if (ss == SolvingStrategy.QSAT || ss == SolvingStrategy.EXP_SAT) {
+            strFormulae = strFormulae.stream().map(LtlUtils::expandEventList).collect(Collectors.toList());
+        }
+        final List<LtlNode> formulae = LtlParser.parse(strFormulae);
+        
+        final List<StringScenario> scenarios = new ArrayList<>();
+        for (String scenarioPath : arguments) {
+            scenarios.addAll(StringScenario.loadScenarios(scenarioPath, true));
+        }
+        
+        final NegativeScenarioTree negativeTree = new NegativeScenarioTree();
+        if (negscFilePath != null) {
+            negativeTree.load(negscFilePath, true);
+        }
+        
+        logger().info("Start building automaton");
+        
+        final Verifier verifier = new Verifier(logger(), strFormulae, events, actions);
+        switch (ss) {
+        case QSAT: case EXP_SAT:
+            return QbfAutomatonBuilder.build(logger(), tree, formulae, size,
+                    qbfsolver, ss == SolvingStrategy.EXP_SAT, events, actions, satsolver, verifier, finishTime,
+                    completenesstype, generateQsatForK);
+        case COUNTEREXAMPLE:
+            return CounterexampleAutomatonBuilder.build(logger(), tree, size, events, actions, satsolver,
+                    verifier, finishTime, completenesstype, negativeTree, !noCompletenessHeuristics);
+        case BOUNDED:
+            return BoundedAutomatonBuilder.build(logger(), tree, negativeTree, size, strFormulae, events, actions,
+                    verifier, finishTime, completenesstype, satsolver);
+        case STATE_MERGING:
+            return StateMergingAutomatonBuilder.build(logger(), verifier, arguments, negscFilePath);
+        case BACKTRACKING:
+            return BacktrackingAutomatonBuilder.build(logger(), tree, size, events, actions,
+                    verifier, finishTime, completenesstype, varNumber, ensureCoverageAndWeakCompleteness,
+                    eventnames, backtrackingErrorNumber, scenarios);
+        default:
+            throw new AssertionError();
+        }
+    }
+    
+    private void report(int size, SolvingStrategy ss, Optional<MealyAutomaton> resultAutomaton,
+                        List<String> strFormulae, List<String> events, List<String> actions,
+                        CompletenessType completenesstype) throws IOException, ParseException, LtlParseException {
+        this.resultAutomaton = resultAutomaton;
+        if (!resultAutomaton.isPresent()) {
+            logger().info("Automaton with " + size + " states NOT FOUND!");
+            logger().info("Automaton builder execution time: " + executionTime());
+        } else {
+            logger().info("Automaton with " + size + " states WAS FOUND!");
+            logger().info("Automaton builder execution time: " + executionTime());
             
+            // compliance with scenarios
             final List<StringScenario> scenarios = new ArrayList<>();
             for (String scenarioPath : arguments) {
                 scenarios.addAll(StringScenario.loadScenarios(scenarioPath, true));
             }
-            
-            final NegativeScenarioTree negativeTree = new NegativeScenarioTree();
-            if (negscFilePath != null) {
-                negativeTree.load(negscFilePath, true);
+            if (scenarios.stream().allMatch(resultAutomaton.get()::compliesWith)) {
+                logger().info("COMPLIES WITH SCENARIOS");
+            } else {
+                logger().severe("NOT COMPLIES WITH SCENARIOS");
             }
+
+            saveToFile(resultAutomaton.get(), resultFilePath);
             
-            logger().info("Start building automaton");
-            
-            Optional<MealyAutomaton> resultAutomaton = null;
+            // verification
             final Verifier verifier = new Verifier(logger(), strFormulae, events, actions);
-            final long finishTime = startTime() + (long) timeout * 1000;
-            switch (ss) {
-            case QSAT: case EXP_SAT:
-                resultAutomaton = QbfAutomatonBuilder.build(logger(), tree, formulae, size,
-                        qbfsolver, ss == SolvingStrategy.EXP_SAT, events, actions, satsolver, verifier, finishTime,
-                        completenesstype, generateQsatForK);
-                if (generateQsatForK > -1) {
-                    return;
-                }
-                break;
-            case COUNTEREXAMPLE:
-                resultAutomaton = CounterexampleAutomatonBuilder.build(logger(), tree, size, events, actions, satsolver,
-                        verifier, finishTime, completenesstype, negativeTree, !noCompletenessHeuristics);
-                break;
-            case STATE_MERGING:
-                resultAutomaton = StateMergingAutomatonBuilder.build(logger(), verifier, arguments, negscFilePath);
-                break;
-            case BACKTRACKING:
-                resultAutomaton = BacktrackingAutomatonBuilder.build(logger(), tree, size, events, actions,
-                        verifier, finishTime, completenesstype, varNumber, ensureCoverageAndWeakCompleteness,
-                        eventnames, backtrackingErrorNumber, scenarios);
-                break;
-            }
-
-            if (!resultAutomaton.isPresent()) {
-                logger().info("Automaton with " + size + " states NOT FOUND!");
-                logger().info("Automaton builder execution time: " + executionTime());
+            boolean verified = verifier.verify(resultAutomaton.get());
+            if (verified) {
+                logger().info("VERIFIED");
             } else {
-                logger().info("Automaton with " + size + " states WAS FOUND!");
-                logger().info("Automaton builder execution time: " + executionTime());
-                
-                // compliance with scenarios
-                if (scenarios.stream().allMatch(resultAutomaton.get()::compliesWith)) {
-                    logger().info("COMPLIES WITH SCENARIOS");
-                } else {
-                    logger().severe("NOT COMPLIES WITH SCENARIOS");
-                }
-
-                saveToFile(resultAutomaton.get(), resultFilePath);
-                
-                // verification
-                boolean verified = verifier.verify(resultAutomaton.get());
-                if (verified) {
-                    logger().info("VERIFIED");
+                logger().severe("NOT VERIFIED");
+            }
+            
+            // bfs check
+            if (ss != SolvingStrategy.BACKTRACKING) {
+                if (checkBfs(resultAutomaton.get(), events, logger())) {
+                    logger().info("BFS");
                 } else {
-                    logger().severe("NOT VERIFIED");
+                    logger().info("NOT BFS (possibly due to transition redirections)");
                 }
-                
-                // bfs check
-                if (ss != SolvingStrategy.BACKTRACKING) {
-                    if (checkBfs(resultAutomaton.get(), events, logger())) {
-                        logger().info("BFS");
-                    } else {
-                        logger().info("NOT BFS (possibly due to transition redirections)");
+            }
+            
+            // completeness check
+            boolean complete = true;
+            switch (completenesstype) {
+            case NORMAL:
+                for (MealyNode s : resultAutomaton.get().states()) {
+                    if (s.transitionCount() != events.size()) {
+                        complete = false;
                     }
                 }
-                
-                // completeness check
-                boolean complete = true;
-                switch (completenesstype) {
-                case NORMAL:
-                    for (MealyNode s : resultAutomaton.get().states()) {
-                        if (s.transitionCount() != events.size()) {
-                            complete = false;
-                        }
-                    }
-                    break;
-                case NO_DEAD_ENDS:
-                    for (MealyNode s : resultAutomaton.get().states()) {
-                        if (s.transitionCount() == 0) {
-                            complete = false;
-                        }
+                break;
+            case NO_DEAD_ENDS:
+                for (MealyNode s : resultAutomaton.get().states()) {
+                    if (s.transitionCount() == 0) {
+                        complete = false;
                     }
-                    break;
-                }
-                if (complete) {
-                    logger().info("COMPLETE");
-                } else {
-                    logger().severe("INCOMPLETE");
                 }
+                break;
+            }
+            if (complete) {
+                logger().info("COMPLETE");
+            } else {
+                logger().severe("INCOMPLETE");
             }
-        } catch (LtlParseException e) {
-            logger().warning("Can't get LTL formula from " + treeFilePath);
-            throw new RuntimeException(e);
-        } catch (ParseException e) {
-            logger().warning("ParseException");
-            throw new RuntimeException(e);
         }
     }
 
@@ -0,0 +1,105 @@
+package main.misc;
+
+/**
+ * (c) Igor Buzhinsky
+ */
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+
+import main.FastAutomatonBuilderMain;
+import main.QbfBuilderMain;
+import meta.Author;
+import structures.mealy.MealyAutomaton;
+
+/*
+ * Synthesizes the examples with the BOUNDED strategy and with counterexample-guided FastAutomatonBuilder and checks
+ * that both find an automaton for the same instances, with and without completeness. Each example is tried with
+ * its minimum size and with one state less, so that the instances without solutions are covered as well.
+ * Both builders check the found automata themselves (and BOUNDED fails on a non-verified one).
+ * Must be run from the examples directory.
+ */
+public class BoundedSynthesisCheck {
+    private static File tempFile(String suffix) throws IOException {
+        final File result = File.createTempFile("bounded-synthesis-check", suffix);
+        result.deleteOnExit();
+        return result;
+    }
+
+    private static boolean synthesizeBounded(List<String> args, boolean complete) throws IOException {
+        final List<String> allArgs = new ArrayList<>(args);
+        allArgs.addAll(Arrays.asList("--strategy", "BOUNDED", "--satSolver", "EMBEDDED", "--completenessType",
+                complete ? "NORMAL" : "NO_DEAD_ENDS", "--result", tempFile(".gv").getPath(),
+                "--log", tempFile(".log").getPath()));
+        final QbfBuilderMain builder = new QbfBuilderMain();
+        builder.run(allArgs.toArray(new String[0]), Author.IB, "");
+        return found(builder.resultAutomaton());
+    }
+
+    private static boolean synthesizeFast(List<String> args, boolean complete) throws IOException {
+        final List<String> allArgs = new ArrayList<>(args);
+        allArgs.addAll(Arrays.asList("--solver", "EMBEDDED", "--result", tempFile(".gv").getPath(),
+                "--log", tempFile(".log").getPath()));
+        if (complete) {
+            allArgs.add("--complete");
+        }
+        final FastAutomatonBuilderMain builder = new FastAutomatonBuilderMain();
+        builder.run(allArgs.toArray(new String[0]), Author.IB, "");
+        return found(builder.resultAutomaton());
+    }
+
+    private static boolean found(Optional<MealyAutomaton> resultAutomaton) {
+        if (resultAutomaton == null) {
+            throw new AssertionError("The builder has not finished");
+        }
+        return resultAutomaton.isPresent();
+    }
+
+    private static List<String> args(String name, int size, String... args) {
+        final List<String> result = new ArrayList<>(Arrays.asList(name + ".sc", "--ltl", name + ".ltl",
+                "--size", String.valueOf(size)));
+        result.addAll(Arrays.asList(args));
+        return result;
+    }
+
+    public static void main(String[] args) throws IOException {
+        final List<List<String>> instances = new ArrayList<>();
+        for (int size : Arrays.asList(2, 3)) {
+            instances.add(args("clock", size, "--eventNames", "A,T,H,M", "--actionNames",
+                    "z1,z2,z3,z4,z5,z6,z7", "--varNumber", "2"));
+        }
+        for (int size : Arrays.asList(4, 5)) {
+            instances.add(args("elevator", size, "--eventNames", "e11,e12,e2,e3,e4", "--actionNames", "z1,z2,z3"));
+        }
+        for (int size : Arrays.asList(3, 4)) {
+            instances.add(args("editor", size, "--negsc", "editor.negsc", "--eventNames",
+                    "load,save,close,exit,edit"));
+        }
+        for (int size : Arrays.asList(8, 9)) {
+            instances.add(args("cash-dispenser", size, "--eventNames", "IC,EC,A,AE,AS,C,CR,CP,M,MR,MS,ME,MP,CNL",
+                    "--actionNames", "z1,z2,z3,z4,z5,z6,z7,z8,z9,z10,z11,z12,z13"));
+        }
+        int failures = 0;
+        for (List<String> instance : instances) {
+            for (boolean complete : new boolean[] { false, true }) {
+                final boolean bounded = synthesizeBounded(instance, complete);
+                final boolean fast = synthesizeFast(instance, complete);
+                final boolean ok = bounded == fast;
+                System.out.println((ok ? "OK    " : "FAILED") + " bounded: " + bounded + ", fast: " + fast + " "
+                        + instance.get(0) + " --size " + instance.get(instance.indexOf("--size") + 1)
+                        + (complete ? " complete" : ""));
+                if (!ok) {
+                    failures++;
+                }
+            }
+        }
+        if (failures > 0) {
+            throw new AssertionError(failures + " instances are solved differently by BOUNDED");
+        }
+        System.out.println("ALL OK");
+    }
+}
@@ -0,0 +1,79 @@
+package main.misc;
+
+/**
+ * (c) Igor Buzhinsky
+ */
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import bnf_formulae.ClauseBuffer;
+import formula_builders.CardinalityEncoding;
+
+/*
+ * Checks by brute-force enumeration that each CardinalityEncoding is equivalent to at-most-one: for up to MAX_N
+ * literals (in all polarity patterns for small n, otherwise random ones), the encoding together with an
+ * assignment of the literal variables is satisfiable (with some values of the auxiliary variables) exactly
+ * when at most one literal is true.
+ * Usage: CardinalityEncodingCheck
+ */
+public class CardinalityEncodingCheck {
+    private static final int MAX_N = 10;
+    private static final int RANDOM_POLARITIES = 16;
+
+    private static int checks = 0;
+
+    private static void check(CardinalityEncoding encoding, int[] literals) {
+        final int n = literals.length;
+        final ClauseBuffer buffer = new ClauseBuffer();
+        final int[] lastVar = { n };
+        encoding.atMostOne(literals, buffer, () -> ++lastVar[0]);
+        final List<int[]> clauses = RandomCnf.toList(buffer);
+        final boolean[] values = new boolean[n + 1];
+        for (int mask = 0; mask < 1 << n; mask++) {
+            final int[] fixed = new int[n];
+            for (int var = 1; var <= n; var++) {
+                values[var] = (mask >> (var - 1) & 1) == 1;
+                fixed[var - 1] = values[var] ? var : -var;
+            }
+            final long trueLiterals = Arrays.stream(literals).filter(lit -> RandomCnf.holds(lit, values)).count();
+            final boolean expected = trueLiterals <= 1;
+            final boolean actual = RandomCnf.satisfiable(clauses, lastVar[0], fixed);
+            checks++;
+            if (expected != actual) {
+                throw new AssertionError(encoding + " for literals " + Arrays.toString(literals) + " is "
+                        + (actual ? "satisfiable" : "unsatisfiable") + " with " + trueLiterals
+                        + " true literals under " + Arrays.toString(fixed));
+            }
+        }
+    }
+
+    public static void main(String[] args) {
+        final Random random = new Random(1);
+        for (CardinalityEncoding encoding : CardinalityEncoding.values()) {
+            for (int n = 1; n <= MAX_N; n++) {
+                // literals over variables 1..n in a random order
+                final int[] literals = new int[n];
+                Arrays.setAll(literals, i -> i + 1);
+                for (int i = n - 1; i > 0; i--) {
+                    final int j = random.nextInt(i + 1);
+                    final int t = literals[i];
+                    literals[i] = literals[j];
+                    literals[j] = t;
+                }
+                final int patterns = n <= 4 ? 1 << n : RANDOM_POLARITIES;
+                for (int p = 0; p < patterns; p++) {
+                    final int[] signed = literals.clone();
+                    for (int i = 0; i < n; i++) {
+                        final boolean negative = n <= 4 ? (p >> i & 1) == 1 : p > 0 && random.nextBoolean();
+                        signed[i] = negative ? -signed[i] : signed[i];
+                    }
+                    check(encoding, signed);
+                }
+            }
+        }
+        System.out.println(CardinalityEncoding.values().length + " encodings, up to " + MAX_N + " literals, "
+                + checks + " checks: OK");
+    }
+}
@@ -0,0 +1,203 @@
+package main.misc;
+
+/**
+ * (c) Igor Buzhinsky
+ */
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import bnf_formulae.BinaryOperation;
+import bnf_formulae.BooleanFormula;
+import bnf_formulae.BooleanVariable;
+import bnf_formulae.CnfEncoder;
+import bnf_formulae.LimbooleParser;
+import meta.SynthesisSession;
+import sat_solving.EmbeddedSolver;
+import sat_solving.SolverResult.SolverResults;
+
+/*
+ * Checks CnfEncoder and LimbooleParser on random formulae with all limboole operators. Each formula is built
+ * both through the BooleanFormula API and by parsing its limboole string (with random redundant parentheses),
+ * and both are encoded, asserted as well as negated. For each assignment of the variables, the CNF together with
+ * the assignment must be satisfiable exactly when the formula holds, which is checked with EmbeddedSolver
+ * (see EmbeddedSolverCheck) under assumptions.
+ * Usage: CnfEncoderCheck [formulae]
+ */
+public class CnfEncoderCheck {
+    private static final int MAX_VARS = 6;
+    private static final int MAX_DEPTH = 5;
+
+    private enum Op {
+        VAR(6), NOT(5), AND(4), OR(3), IMPLIES(2), IMPLIED(2), EQ(1);
+
+        final int precedence;
+
+        Op(int precedence) {
+            this.precedence = precedence;
+        }
+    }
+
+    private static class Node {
+        final Op op;
+        final int var;
+        final List<Node> children = new ArrayList<>();
+
+        Node(Op op, int var) {
+            this.op = op;
+            this.var = var;
+        }
+
+        boolean value(boolean[] values) {
+            switch (op) {
+            case VAR:
+                return values[var];
+            case NOT:
+                return !children.get(0).value(values);
+            case AND:
+                return children.stream().allMatch(c -> c.value(values));
+            case OR:
+                return children.stream().anyMatch(c -> c.value(values));
+            case IMPLIES:
+                return !children.get(0).value(values) || children.get(1).value(values);
+            case IMPLIED:
+                return children.get(0).value(values) || !children.get(1).value(values);
+            case EQ:
+                return children.get(0).value(values) == children.get(1).value(values);
+            default:
+                throw new AssertionError();
+            }
+        }
+    }
+
+    private final Random random = new Random(1);
+    private final BooleanVariable[] vars = new BooleanVariable[MAX_VARS + 1];
+    private int checks = 0;
+
+    private CnfEncoderCheck() {
+        for (int i = 1; i <= MAX_VARS; i++) {
+            vars[i] = BooleanVariable.getOrCreate("v", i);
+        }
+    }
+
+    private Node randomNode(int n, int depth) {
+        if (depth == 0 || random.nextInt(4) == 0) {
+            return new Node(Op.VAR, 1 + random.nextInt(n));
+        }
+        final Op op = Op.values()[1 + random.nextInt(Op.values().length - 1)];
+        final Node node = new Node(op, 0);
+        final int arity = op == Op.NOT ? 1 : op == Op.AND || op == Op.OR ? 2 + random.nextInt(2) : 2;
+        for (int i = 0; i < arity; i++) {
+            node.children.add(randomNode(n, depth - 1));
+        }
+        return node;
+    }
+
+    private BooleanFormula toFormula(Node node) {
+        final List<BooleanFormula> children = new ArrayList<>();
+        node.children.forEach(c -> children.add(toFormula(c)));
+        switch (node.op) {
+        case VAR:
+            return vars[node.var];
+        case NOT:
+            return children.get(0).not();
+        case AND:
+            return BinaryOperation.and(children);
+        case OR:
+            return BinaryOperation.or(children);
+        case IMPLIES:
+            return children.get(0).implies(children.get(1));
+        case IMPLIED:
+            return children.get(1).implies(children.get(0));
+        case EQ:
+            return children.get(0).equivalent(children.get(1));
+        default:
+            throw new AssertionError();
+        }
+    }
+
+    /*
+     * Parentheses are omitted where the precedence makes them unnecessary, except randomly.
+     */
+    private String toLimboole(Node node) {
+        switch (node.op) {
+        case VAR:
+            return String.valueOf(vars[node.var].number);
+        case NOT:
+            return "!" + child(node, node.children.get(0), false);
+        default:
+            final String operator = node.op == Op.AND ? " & " : node.op == Op.OR ? " | "
+                    : node.op == Op.IMPLIES ? " -> " : node.op == Op.IMPLIED ? " <- " : " <-> ";
+            final StringBuilder sb = new StringBuilder();
+            for (int i = 0; i < node.children.size(); i++) {
+                sb.append(i == 0 ? "" : operator).append(child(node, node.children.get(i),
+                        node.op == Op.AND || node.op == Op.OR));
+            }
+            return sb.toString();
+        }
+    }
+
+    private String child(Node parent, Node child, boolean associative) {
+        final String s = toLimboole(child);
+        final boolean necessary = child.op.precedence < parent.op.precedence
+                || child.op.precedence == parent.op.precedence && !associative && child.op != Op.NOT;
+        return necessary || random.nextInt(4) == 0 ? "(" + s + ")" : s;
+    }
+
+    private void check(Node node, int n, BooleanFormula formula, boolean negated, String description) {
+        final EmbeddedSolver solver = new EmbeddedSolver();
+        solver.ensureVars(n);
+        final CnfEncoder encoder = new CnfEncoder(limbooleNum -> {
+            for (int i = 1; i <= n; i++) {
+                if (vars[i].number == limbooleNum) {
+                    return i;
+                }
+            }
+            throw new AssertionError("Unexpected variable " + limbooleNum);
+        }, solver::newVar, solver::addClause);
+        encoder.assertFormula(negated ? formula.not() : formula);
+        final boolean[] values = new boolean[n + 1];
+        for (int mask = 0; mask < 1 << n; mask++) {
+            final int[] assumptions = new int[n];
+            for (int i = 1; i <= n; i++) {
+                values[i] = (mask >> (i - 1) & 1) == 1;
+                assumptions[i - 1] = values[i] ? i : -i;
+            }
+            final boolean expected = node.value(values) != negated;
+            final SolverResults result = solver.solve(0, assumptions);
+            checks++;
+            if (result != (expected ? SolverResults.SAT : SolverResults.UNSAT)) {
+                throw new AssertionError("CNF of " + (negated ? "the negation of " : "") + description + " "
+                        + toLimboole(node) + " is " + result + " under " + Arrays.toString(assumptions)
+                        + ", expected SAT = " + expected);
+            }
+        }
+    }
+
+    private void run(int formulae) {
+        for (int i = 0; i < formulae; i++) {
+            final int n = 1 + random.nextInt(MAX_VARS);
+            final Node node = randomNode(n, 1 + random.nextInt(MAX_DEPTH));
+            final BooleanFormula built = toFormula(node);
+            final String limboole = toLimboole(node);
+            final BooleanFormula parsed = LimbooleParser.parse(limboole);
+            for (boolean negated : new boolean[] { false, true }) {
+                check(node, n, built, negated, "the formula built from");
+                check(node, n, parsed, negated, "the formula parsed from");
+            }
+        }
+        System.out.println(formulae + " formulae, " + checks + " checks: OK");
+    }
+
+    public static void main(String[] args) throws Exception {
+        final int formulae = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+        try (SynthesisSession session = SynthesisSession.withTemporaryDirectory()) {
+            session.call(() -> {
+                new CnfEncoderCheck().run(formulae);
+                return null;
+            });
+        }
+    }
+}
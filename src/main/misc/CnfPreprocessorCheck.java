@@ -0,0 +1,145 @@
+package main.misc;
+
+/**
+ * (c) Igor Buzhinsky
+ */
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import bnf_formulae.ClauseBuffer;
+import sat_solving.CnfPreprocessor;
+
+/*
+ * Checks that CnfPreprocessor preserves the formula on random inputs given in several batches, as in
+ * counterexample-guided synthesis. Variables 1..primary are not auxiliary; each batch introduces its own
+ * auxiliary variables, which occur only in it. Batches contain units, duplicate, subsumed and tautological
+ * clauses to trigger all simplifications. After each batch, for every assignment of the primary variables,
+ * the union of the original batches and the union of the preprocessed ones must be both satisfiable or both
+ * unsatisfiable (with some values of the auxiliary variables), which is checked by brute-force enumeration.
+ * Usage: CnfPreprocessorCheck [instances]
+ */
+public class CnfPreprocessorCheck {
+    private static final int MAX_PRIMARY = 7;
+    private static final int MAX_AUXILIARY_PER_BATCH = 3;
+    private static final int BATCHES = 3;
+
+    private final Random random = new Random(1);
+    private final Logger logger = Logger.getLogger("CnfPreprocessorCheck");
+    private int checks = 0;
+    private int removedClauses = 0;
+    private int inputClauses = 0;
+    private int satisfiable = 0;
+
+    private CnfPreprocessorCheck() {
+        logger.setLevel(Level.WARNING);
+    }
+
+    private List<int[]> randomBatch(int primary, int firstAuxiliary, int lastAuxiliary, List<int[]> previous) {
+        final List<int[]> batch = new ArrayList<>();
+        final int clauses = 1 + random.nextInt(2 * primary);
+        for (int i = 0; i < clauses; i++) {
+            final int length = random.nextInt(8) == 0 ? 1 : 2 + random.nextInt(3);
+            final int[] clause = new int[length];
+            for (int j = 0; j < length; j++) {
+                // auxiliary variables are frequent, so that they can be eliminated
+                final int var = lastAuxiliary >= firstAuxiliary && random.nextInt(3) == 0
+                        ? firstAuxiliary + random.nextInt(lastAuxiliary - firstAuxiliary + 1)
+                        : 1 + random.nextInt(primary);
+                clause[j] = random.nextBoolean() ? var : -var;
+            }
+            batch.add(clause);
+            if (random.nextInt(6) == 0) {
+                // a duplicate
+                batch.add(clause.clone());
+            }
+            if (random.nextInt(6) == 0) {
+                // a tautology
+                final int[] tautology = Arrays.copyOf(clause, clause.length + 1);
+                tautology[clause.length] = -clause[0];
+                batch.add(tautology);
+            }
+        }
+        // a clause subsumed by an earlier one (auxiliary variables of earlier batches must not occur)
+        final List<int[]> candidates = new ArrayList<>(batch);
+        previous.stream().filter(c -> Arrays.stream(c).allMatch(lit -> Math.abs(lit) <= primary))
+                .forEach(candidates::add);
+        if (random.nextBoolean()) {
+            final int[] earlier = candidates.get(random.nextInt(candidates.size()));
+            final int[] subsumed = Arrays.copyOf(earlier, earlier.length + 1);
+            final int var = 1 + random.nextInt(primary);
+            subsumed[earlier.length] = random.nextBoolean() ? var : -var;
+            batch.add(subsumed);
+        }
+        return batch;
+    }
+
+    private void checkInstance() {
+        final int primary = 1 + random.nextInt(MAX_PRIMARY);
+        final CnfPreprocessor preprocessor = new CnfPreprocessor(logger, var -> var > primary);
+        final List<int[]> original = new ArrayList<>();
+        final List<int[]> processed = new ArrayList<>();
+        int lastVar = primary;
+        for (int b = 0; b < BATCHES; b++) {
+            final int firstAuxiliary = lastVar + 1;
+            lastVar += random.nextInt(MAX_AUXILIARY_PER_BATCH + 1);
+            final List<int[]> batch = randomBatch(primary, firstAuxiliary, lastVar, original);
+            final List<int[]> result = RandomCnf.toList(preprocessor.process(RandomCnf.toBuffer(batch)));
+            for (int[] clause : result) {
+                for (int lit : clause) {
+                    if (Math.abs(lit) > lastVar || lit == 0) {
+                        throw new AssertionError("Unexpected literal " + lit + " in " + Arrays.toString(clause));
+                    }
+                }
+            }
+            original.addAll(batch);
+            processed.addAll(result);
+            inputClauses += batch.size();
+            removedClauses += batch.size() - result.size();
+            compare(original, processed, primary, lastVar);
+        }
+        if (RandomCnf.satisfiable(original, lastVar)) {
+            satisfiable++;
+        }
+    }
+
+    private void compare(List<int[]> original, List<int[]> processed, int primary, int vars) {
+        final int[] fixed = new int[primary];
+        for (int mask = 0; mask < 1 << primary; mask++) {
+            for (int var = 1; var <= primary; var++) {
+                fixed[var - 1] = (mask >> (var - 1) & 1) == 1 ? var : -var;
+            }
+            final boolean expected = RandomCnf.satisfiable(original, vars, fixed);
+            final boolean actual = RandomCnf.satisfiable(processed, vars, fixed);
+            checks++;
+            if (expected != actual) {
+                throw new AssertionError("Preprocessed clauses are " + (actual ? "satisfiable" : "unsatisfiable")
+                        + " under " + Arrays.toString(fixed) + ", original: " + toString(original)
+                        + ", preprocessed: " + toString(processed));
+            }
+        }
+    }
+
+    private static String toString(List<int[]> clauses) {
+        final StringBuilder sb = new StringBuilder();
+        clauses.forEach(c -> sb.append(Arrays.toString(c)).append(" "));
+        return sb.toString();
+    }
+
+    private void run(int instances) {
+        for (int i = 0; i < instances; i++) {
+            checkInstance();
+        }
+        System.out.println(instances + " instances (" + satisfiable + " satisfiable), " + removedClauses + " of " + inputClauses
+                + " clauses removed, " + checks + " checks: OK");
+    }
+
+    public static void main(String[] args) {
+        final int instances = args.length > 0 ? Integer.parseInt(args[0]) : 5000;
+        new CnfPreprocessorCheck().run(instances);
+    }
+}
@@ -0,0 +1,206 @@
+package main.misc;
+
+/**
+ * (c) Igor Buzhinsky
+ */
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import bnf_formulae.BooleanVariable;
+import bnf_formulae.ClauseBuffer;
+import meta.SynthesisSession;
+import sat_solving.Assignment;
+import sat_solving.EmbeddedSolver;
+import sat_solving.SatSolver;
+import sat_solving.SolverInterface;
+import sat_solving.SolverResult;
+import sat_solving.SolverResult.SolverResults;
+
+/*
+ * Cross-checks EmbeddedSolver against brute force on random CNFs near the satisfiability threshold:
+ * results and models with and without assumptions, failed assumptions, incremental clause addition.
+ * The same instances are solved through SolverInterface with SatSolver.EMBEDDED and, if given, with an external
+ * solver (e.g. LINGELING), whose results must agree with brute force as well.
+ * Usage: EmbeddedSolverCheck [instances] [external solver]
+ */
+public class EmbeddedSolverCheck {
+    private static final int MAX_VARS = 14;
+    private static final int TIMEOUT_SECONDS = 60;
+
+    private final Random random = new Random(1);
+    private final Logger logger = Logger.getLogger("EmbeddedSolverCheck");
+    private final SatSolver external;
+    private final BooleanVariable[] vars = new BooleanVariable[MAX_VARS + 1];
+    private int checks = 0;
+
+    private EmbeddedSolverCheck(SatSolver external) {
+        this.external = external;
+        logger.setLevel(Level.WARNING);
+        for (int i = 1; i <= MAX_VARS; i++) {
+            vars[i] = BooleanVariable.getOrCreate("v", i);
+        }
+    }
+
+    private void check(boolean condition, String message, List<int[]> clauses) {
+        checks++;
+        if (!condition) {
+            final StringBuilder sb = new StringBuilder();
+            clauses.forEach(c -> sb.append(Arrays.toString(c)).append(" "));
+            throw new AssertionError(message + ": " + sb);
+        }
+    }
+
+    private int[] randomAssumptions(int n) {
+        final int[] result = RandomCnf.clause(random, 1, n, 1 + random.nextInt(Math.min(4, n)));
+        if (random.nextInt(8) == 0) {
+            // contradictory assumptions
+            final int[] contradictory = Arrays.copyOf(result, result.length + 1);
+            contradictory[result.length] = -result[0];
+            return contradictory;
+        }
+        return result;
+    }
+
+    private void checkDirect(List<int[]> clauses, int n) {
+        final EmbeddedSolver solver = new EmbeddedSolver();
+        solver.ensureVars(n);
+        for (int[] clause : clauses) {
+            if (random.nextInt(16) == 0) {
+                // a duplicate literal, and a tautology which does not change the formula
+                final int[] extended = Arrays.copyOf(clause, clause.length + 1);
+                extended[clause.length] = clause[0];
+                solver.addClause(extended);
+                extended[clause.length] = -clause[0];
+                solver.addClause(extended);
+            } else {
+                solver.addClause(clause);
+            }
+        }
+        checkSolve(solver, clauses, n, new int[0]);
+        for (int round = 0; round < 3; round++) {
+            checkSolve(solver, clauses, n, randomAssumptions(n));
+        }
+        // incremental addition after solving
+        for (int round = 0; round < 2; round++) {
+            final int[] clause = RandomCnf.clause(random, 1, n, 1 + random.nextInt(Math.min(3, n)));
+            clauses.add(clause);
+            solver.addClause(clause);
+            checkSolve(solver, clauses, n, new int[0]);
+            checkSolve(solver, clauses, n, randomAssumptions(n));
+        }
+    }
+
+    private void checkSolve(EmbeddedSolver solver, List<int[]> clauses, int n, int[] assumptions) {
+        final boolean expected = RandomCnf.satisfiable(clauses, n, assumptions);
+        final SolverResults result = solver.solve(0, assumptions);
+        final String context = "assumptions " + Arrays.toString(assumptions);
+        check(result == (expected ? SolverResults.SAT : SolverResults.UNSAT),
+                "EmbeddedSolver returned " + result + ", expected SAT = " + expected + ", " + context, clauses);
+        if (result == SolverResults.SAT) {
+            final boolean[] values = new boolean[n + 1];
+            for (int var = 1; var <= n; var++) {
+                values[var] = solver.modelValue(var);
+            }
+            check(RandomCnf.satisfies(clauses, values), "EmbeddedSolver model violates clauses, " + context,
+                    clauses);
+            for (int lit : assumptions) {
+                check(RandomCnf.holds(lit, values), "EmbeddedSolver model violates assumption " + lit, clauses);
+            }
+        } else {
+            final int[] failed = solver.failedAssumptions();
+            for (int lit : failed) {
+                check(Arrays.stream(assumptions).anyMatch(a -> a == lit), "failed assumption " + lit
+                        + " is not an assumption, " + context, clauses);
+            }
+            check(!RandomCnf.satisfiable(clauses, n, failed), "failed assumptions "
+                    + Arrays.toString(failed) + " are satisfiable, " + context, clauses);
+        }
+    }
+
+    private void checkInterface(SatSolver solverType, List<int[]> clauses, int n) throws IOException {
+        final ClauseBuffer constraints = new ClauseBuffer();
+        clauses.forEach(c -> constraints.add(Arrays.stream(c).map(this::toVariableLiteral).toArray()));
+        final SolverInterface inf = solverType.createInterface(constraints, null, logger);
+        try {
+            for (int round = 0; round < 3; round++) {
+                final int[] assumptions = round == 0 ? new int[0] : RandomCnf.clause(random, 1, n,
+                        1 + random.nextInt(Math.min(3, n)));
+                final List<Assignment> assignments = new ArrayList<>();
+                for (int lit : assumptions) {
+                    assignments.add(new Assignment(vars[Math.abs(lit)], lit > 0));
+                }
+                final SolverResult result = inf.solve(new ClauseBuffer(), assignments, TIMEOUT_SECONDS);
+                final boolean expected = RandomCnf.satisfiable(clauses, n, assumptions);
+                final String context = solverType + ", assumptions " + Arrays.toString(assumptions);
+                check(result.type() == (expected ? SolverResults.SAT : SolverResults.UNSAT),
+                        "returned " + result.type() + ", expected SAT = " + expected + ", " + context, clauses);
+                if (result.type() == SolverResults.SAT) {
+                    final boolean[] values = new boolean[n + 1];
+                    for (int var = 1; var <= n; var++) {
+                        values[var] = result.model().value(vars[var]);
+                    }
+                    check(RandomCnf.satisfies(clauses, values), "model violates clauses, " + context, clauses);
+                    for (int lit : assumptions) {
+                        check(RandomCnf.holds(lit, values), "model violates assumption " + lit + ", " + context,
+                                clauses);
+                    }
+                } else {
+                    final int[] core = result.core().stream()
+                            .mapToInt(a -> (a.value ? 1 : -1) * toClauseVar(a.var)).toArray();
+                    check(!RandomCnf.satisfiable(clauses, n, core), "core " + Arrays.toString(core)
+                            + " is satisfiable, " + context, clauses);
+                }
+            }
+        } finally {
+            inf.halt();
+        }
+    }
+
+    private int toVariableLiteral(int lit) {
+        return lit > 0 ? vars[lit].number : -vars[-lit].number;
+    }
+
+    private int toClauseVar(BooleanVariable var) {
+        for (int i = 1; i <= MAX_VARS; i++) {
+            if (vars[i] == var) {
+                return i;
+            }
+        }
+        throw new AssertionError("Unexpected variable " + var);
+    }
+
+    private void run(int instances) throws IOException {
+        int satisfiable = 0;
+        for (int i = 0; i < instances; i++) {
+            final int n = 3 + random.nextInt(MAX_VARS - 2);
+            final int m = (int) (n * (3 + 2.5 * random.nextDouble()));
+            final List<int[]> clauses = RandomCnf.generate(random, n, m, 3);
+            if (RandomCnf.satisfiable(clauses, n)) {
+                satisfiable++;
+            }
+            checkInterface(SatSolver.EMBEDDED, clauses, n);
+            if (external != null) {
+                checkInterface(external, clauses, n);
+            }
+            checkDirect(clauses, n);
+        }
+        System.out.println(instances + " instances (" + satisfiable + " satisfiable), " + checks + " checks: OK");
+    }
+
+    public static void main(String[] args) throws Exception {
+        final int instances = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+        final SatSolver external = args.length > 1 ? SatSolver.valueOf(args[1]) : null;
+        try (SynthesisSession session = SynthesisSession.withTemporaryDirectory()) {
+            session.call(() -> {
+                new EmbeddedSolverCheck(external).run(instances);
+                return null;
+            });
+        }
+    }
+}
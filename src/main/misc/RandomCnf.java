@@ -0,0 +1,126 @@
+package main.misc;
+
+/**
+ * (c) Igor Buzhinsky
+ */
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import bnf_formulae.ClauseBuffer;
+
+/*
+ * Random CNFs and brute-force satisfiability for the self-checking drivers (EmbeddedSolverCheck etc.).
+ * Variables are numbered from 1, literals are signed as in DIMACS. Brute force enumerates the assignments
+ * of the variables which are not fixed, so it is meant for up to about 20 free variables.
+ */
+public class RandomCnf {
+    /*
+     * Clauses over distinct variables, of maxLength literals with probability 3/4 and of 1 to maxLength literals
+     * otherwise.
+     */
+    public static List<int[]> generate(Random random, int vars, int clauses, int maxLength) {
+        final List<int[]> result = new ArrayList<>();
+        final int length = Math.min(maxLength, vars);
+        for (int i = 0; i < clauses; i++) {
+            result.add(clause(random, 1, vars, random.nextInt(4) == 0 ? 1 + random.nextInt(length) : length));
+        }
+        return result;
+    }
+
+    /*
+     * A clause of the given length over distinct variables from firstVar to lastVar.
+     */
+    public static int[] clause(Random random, int firstVar, int lastVar, int length) {
+        final int[] clause = new int[length];
+        for (int j = 0; j < length; j++) {
+            int var;
+            do {
+                var = firstVar + random.nextInt(lastVar - firstVar + 1);
+            } while (contains(clause, j, var));
+            clause[j] = random.nextBoolean() ? var : -var;
+        }
+        return clause;
+    }
+
+    private static boolean contains(int[] clause, int length, int var) {
+        for (int i = 0; i < length; i++) {
+            if (Math.abs(clause[i]) == var) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public static List<int[]> toList(ClauseBuffer buffer) {
+        final List<int[]> result = new ArrayList<>();
+        for (int i = 0; i < buffer.clauseCount(); i++) {
+            result.add(buffer.clause(i));
+        }
+        return result;
+    }
+
+    public static ClauseBuffer toBuffer(List<int[]> clauses) {
+        final ClauseBuffer result = new ClauseBuffer();
+        clauses.forEach(result::add);
+        return result;
+    }
+
+    public static boolean holds(int lit, boolean[] values) {
+        return values[Math.abs(lit)] == lit > 0;
+    }
+
+    /*
+     * values is indexed by variable.
+     */
+    public static boolean satisfies(List<int[]> clauses, boolean[] values) {
+        for (int[] clause : clauses) {
+            boolean satisfied = false;
+            for (int lit : clause) {
+                if (holds(lit, values)) {
+                    satisfied = true;
+                    break;
+                }
+            }
+            if (!satisfied) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /*
+     * Whether the clauses over variables 1..vars have a model in which the fixed literals hold.
+     */
+    public static boolean satisfiable(List<int[]> clauses, int vars, int... fixed) {
+        final boolean[] values = new boolean[vars + 1];
+        final boolean[] isFixed = new boolean[vars + 1];
+        for (int lit : fixed) {
+            final int var = Math.abs(lit);
+            if (isFixed[var] && values[var] != lit > 0) {
+                return false;
+            }
+            isFixed[var] = true;
+            values[var] = lit > 0;
+        }
+        final List<Integer> free = new ArrayList<>();
+        for (int var = 1; var <= vars; var++) {
+            if (!isFixed[var]) {
+                free.add(var);
+            }
+        }
+        if (free.size() > 30) {
+            throw new IllegalArgumentException("Too many free variables for brute force: " + free.size());
+        }
+        for (long mask = 0; mask < 1L << free.size(); mask++) {
+            for (int i = 0; i < free.size(); i++) {
+                values[free.get(i)] = (mask >> i & 1) == 1;
+            }
+            if (satisfies(clauses, values)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
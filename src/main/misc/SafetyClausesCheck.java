@@ -0,0 +1,78 @@
+package main.misc;
+
+/**
+ * (c) Igor Buzhinsky
+ */
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import main.plant.PlantBuilderMain;
+import meta.Author;
+
+/*
+ * Synthesizes the plant models of the evaluation examples with and without --safetyClauses and checks that
+ * the encoding of safety formulae does not turn the instances which have solutions into ones without.
+ * The sizes include ones larger than needed, so that some states may be unreachable.
+ * Run from the repository root.
+ */
+public class SafetyClausesCheck {
+    private static final String DIR = "evaluation/plant-synthesis/";
+
+    private static final List<String> WATER_LEVEL = Arrays.asList(
+            "--actionNames", "abovehh,aboveh,aboveth,abovesp,belowsp,belowth,belowl,belowll,sensorwet,sensordry",
+            "--eventNames", "open,closed", "--actionspec", DIR + "lic100.actionspec");
+
+    private static final List<String> CYLINDER = Arrays.asList(
+            "--actionNames", "home,end", "--eventNames", "extend,retract,wait", "--ltl", DIR + "cylinder.ltl");
+
+    private static boolean synthesize(List<String> args, boolean safetyClauses) throws IOException {
+        final File result = File.createTempFile("safety-clauses-check", ".gv");
+        result.deleteOnExit();
+        final List<String> allArgs = new ArrayList<>(args);
+        allArgs.addAll(Arrays.asList("--solver", "EMBEDDED", "--result", result.getPath()));
+        if (safetyClauses) {
+            allArgs.add("--safetyClauses");
+        }
+        final PlantBuilderMain builder = new PlantBuilderMain();
+        builder.run(allArgs.toArray(new String[0]), Author.IB, "");
+        return builder.resultAutomaton() != null && builder.resultAutomaton().isPresent();
+    }
+
+    private static List<String> args(List<String> common, String... args) {
+        final List<String> result = new ArrayList<>(Arrays.asList(args));
+        result.addAll(common);
+        return result;
+    }
+
+    public static void main(String[] args) throws IOException {
+        final List<List<String>> instances = new ArrayList<>();
+        for (int size : Arrays.asList(3, 4, 6)) {
+            instances.add(args(CYLINDER, DIR + "cylinder.sc", "--size", String.valueOf(size)));
+        }
+        for (int index : Arrays.asList(1, 2)) {
+            for (int size : Arrays.asList(8 * index, 8 * index + 2)) {
+                instances.add(args(WATER_LEVEL, DIR + "water-level-" + index + ".sc", "--ltl",
+                        DIR + "water-level-" + index + ".ltl", "--size", String.valueOf(size)));
+            }
+        }
+        int failures = 0;
+        for (List<String> instance : instances) {
+            final boolean withoutClauses = synthesize(instance, false);
+            final boolean withClauses = synthesize(instance, true);
+            final boolean ok = withClauses || !withoutClauses;
+            System.out.println((ok ? "OK    " : "FAILED") + " without: " + withoutClauses + ", with: " + withClauses
+                    + " " + instance.get(0) + " --size " + instance.get(instance.indexOf("--size") + 1));
+            if (!ok) {
+                failures++;
+            }
+        }
+        if (failures > 0) {
+            throw new AssertionError(failures + " instances have no solution with --safetyClauses");
+        }
+        System.out.println("ALL OK");
+    }
+}
@@ -0,0 +1,134 @@
+package main.misc;
+
+/**
+ * (c) Igor Buzhinsky
+ */
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import algorithms.AutomatonGVLoader;
+import scenario.StringActions;
+import structures.mealy.MealyAutomaton;
+import structures.mealy.MealyNode;
+import structures.mealy.MealyTransition;
+import verification.ltl.LtlParser;
+import verification.verifier.Counterexample;
+import verification.verifier.Verifier;
+import bool.MyBooleanExpression;
+
+/*
+ * Checks that the verification cache does not change verification results. As in counterexample-guided synthesis,
+ * a single Verifier (which keeps the cache between calls) checks a sequence of similar automata: each one differs
+ * from the previous one in a single transition (redirected, added, removed or with changed actions), or is the
+ * known solution from the examples, for which all formulae hold. The counterexample lists must be equal to those
+ * of a fresh Verifier (with an empty cache). The cached Verifier uses two threads, so that concurrent cache
+ * access is covered as well.
+ * Must be run from the examples directory.
+ * Usage: VerificationCacheCheck [steps per example]
+ */
+public class VerificationCacheCheck {
+    private static final int COUNTEREXAMPLES_PER_FORMULA = 2;
+
+    private final Random random = new Random(1);
+    private final Logger logger = Logger.getLogger("VerificationCacheCheck");
+    private int checks = 0;
+    private int satisfiedFormulae = 0;
+    private int checkedFormulae = 0;
+
+    private VerificationCacheCheck() {
+        logger.setLevel(Level.WARNING);
+    }
+
+    private static MealyAutomaton copy(MealyAutomaton a) {
+        final MealyAutomaton result = new MealyAutomaton(a.stateCount());
+        for (MealyNode state : a.states()) {
+            for (MealyTransition t : state.transitions()) {
+                final MealyNode src = result.state(state.number());
+                result.addTransition(src, new MealyTransition(src, result.state(t.dst().number()), t.event(),
+                        t.expr(), t.actions()));
+            }
+        }
+        return result;
+    }
+
+    private StringActions randomActions(List<String> actions) {
+        final List<String> result = new ArrayList<>();
+        for (String action : actions) {
+            if (random.nextInt(actions.size()) == 0) {
+                result.add(action);
+            }
+        }
+        return new StringActions(result);
+    }
+
+    private MealyAutomaton mutate(MealyAutomaton a, List<String> events, List<String> actions) {
+        final MealyAutomaton result = copy(a);
+        final MealyNode state = result.state(random.nextInt(result.stateCount()));
+        final String event = events.get(random.nextInt(events.size()));
+        final MyBooleanExpression expr = MyBooleanExpression.getTautology();
+        final MealyTransition t = state.transition(event, expr);
+        final MealyNode dst = result.state(random.nextInt(result.stateCount()));
+        if (t == null) {
+            state.addTransition(event, expr, randomActions(actions), dst);
+        } else {
+            switch (random.nextInt(3)) {
+            case 0:
+                state.removeTransition(t);
+                break;
+            case 1:
+                state.addTransition(event, expr, t.actions(), dst);
+                break;
+            default:
+                state.addTransition(event, expr, randomActions(actions), t.dst());
+                break;
+            }
+        }
+        return result;
+    }
+
+    private void checkExample(String name, int steps, List<String> events, List<String> actions) throws Exception {
+        final List<String> formulae = LtlParser.load(name + ".ltl", 0, events);
+        final MealyAutomaton solution = AutomatonGVLoader.load(name + ".gv");
+        final Verifier cached = new Verifier(logger, formulae, events, actions);
+        cached.setParallelism(2, 0);
+        cached.setCounterexamplesPerFormula(COUNTEREXAMPLES_PER_FORMULA);
+        if (!cached.verify(solution)) {
+            throw new AssertionError("The solution of " + name + " does not satisfy the formulae");
+        }
+        MealyAutomaton a = solution;
+        for (int step = 0; step < steps; step++) {
+            a = random.nextInt(4) == 0 ? solution : mutate(a, events, actions);
+            final Verifier fresh = new Verifier(logger, formulae, events, actions);
+            fresh.setCounterexamplesPerFormula(COUNTEREXAMPLES_PER_FORMULA);
+            final List<List<Counterexample>> expected = fresh.verifyWithCounterexampleListsWithNoDeadEndRemoval(a);
+            final List<List<Counterexample>> actual = cached.verifyWithCounterexampleListsWithNoDeadEndRemoval(a);
+            checks++;
+            if (!expected.equals(actual)) {
+                throw new AssertionError(name + ", step " + step + ": with the cache " + actual + ", without: "
+                        + expected + ", automaton:\n" + a);
+            }
+            checkedFormulae += expected.size();
+            satisfiedFormulae += expected.stream().filter(List::isEmpty).count();
+        }
+    }
+
+    private void run(int steps) throws Exception {
+        checkExample("elevator", steps, Arrays.asList("e11", "e12", "e2", "e3", "e4"),
+                Arrays.asList("z1", "z2", "z3"));
+        checkExample("cash-dispenser", steps, Arrays.asList("IC", "EC", "A", "AE", "AS", "C", "CR", "CP", "M", "MR",
+                "MS", "ME", "MP", "CNL"), Arrays.asList("z1", "z2", "z3", "z4", "z5", "z6", "z7", "z8", "z9", "z10",
+                "z11", "z12", "z13"));
+        System.out.println(checks + " automata, " + satisfiedFormulae + " of " + checkedFormulae
+                + " formulae satisfied: OK");
+    }
+
+    public static void main(String[] args) throws Exception {
+        final int steps = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+        new VerificationCacheCheck().run(steps);
+    }
+}
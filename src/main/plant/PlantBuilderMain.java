@@ -7,8 +7,11 @@ package main.plant;
 import automaton_builders.PlantAutomatonBuilder;
 import automaton_builders.RapidPlantAutomatonBuilder;
 import automaton_builders.StateMergingNondetAutomatonBuilder;
+import formula_builders.CardinalityEncoding;
 import meta.Author;
 import meta.MainBase;
+import meta.Portfolio;
+import meta.SynthesisSession;
 import org.kohsuke.args4j.Argument;
 import org.kohsuke.args4j.Option;
 import org.kohsuke.args4j.spi.BooleanOptionHandler;
@@ -103,10 +106,66 @@ public class PlantBuilderMain extends MainBase {
     private boolean makeAllStatesInitial = false;
 
     @Option(name = "--solver",
-            usage = "SAT solver: INCREMENTAL_CRYPTOMINISAT (default), LINGELING, CRYPTOMINISAT",
+            usage = "SAT solver: INCREMENTAL_CRYPTOMINISAT (default), LINGELING, CRYPTOMINISAT, EMBEDDED",
             metaVar = "<solver>")
     private String strSolver = SatSolver.INCREMENTAL_CRYPTOMINISAT.name();
 
+    @Option(name = "--amo",
+            usage = "CNF encoding of at-most-one constraints: PAIRWISE (default), SEQUENTIAL, COMMANDER, PRODUCT, "
+                    + "BIMANDER", metaVar = "<encoding>")
+    private String strAmoEncoding = CardinalityEncoding.PAIRWISE.name();
+    private CardinalityEncoding amoEncoding;
+
+    @Option(name = "--preprocess", handler = BooleanOptionHandler.class,
+            usage = "simplify clauses before passing them to the SAT solver")
+    private boolean preprocess;
+
+    @Option(name = "--unsatCores", handler = BooleanOptionHandler.class,
+            usage = "if there is no automaton of the given size, report the scenarios and counterexamples "
+                    + "which are sufficient to prove it")
+    private boolean unsatCores;
+
+    @Option(name = "--cubeWorkers",
+            usage = "solve each SAT instance by cube-and-conquer with this number of embedded solvers in parallel "
+                    + "threads instead of --solver (default 0 = disabled)", metaVar = "<workers>")
+    private int cubeWorkers = 0;
+
+    @Option(name = "--safetyClauses", handler = BooleanOptionHandler.class,
+            usage = "encode LTL formulae G(...) without F, G, U and R inside directly as SAT constraints")
+    private boolean safetyClauses;
+
+    @Option(name = "--verifierThreads",
+            usage = "number of threads to verify LTL formulae in parallel (default 1)", metaVar = "<threads>")
+    private int verifierThreads = 1;
+
+    @Option(name = "--counterexampleLimit",
+            usage = "stop verification after finding this number of counterexamples (default 0: check all formulae)",
+            metaVar = "<number>")
+    private int counterexampleLimit = 0;
+
+    @Option(name = "--cacheDir",
+            usage = "directory for persistent caches (e.g. of LTL to Buchi translations), optional", metaVar = "<dir>")
+    private String cacheDir;
+
+    @Option(name = "--maxSize",
+            usage = "portfolio mode: search for the minimum automaton size from --size to this size",
+            metaVar = "<size>")
+    private int maxSize = 0;
+
+    @Option(name = "--portfolioThreads",
+            usage = "portfolio mode: number of parallel jobs (default: number of processors)", metaVar = "<threads>")
+    private int portfolioThreads = Runtime.getRuntime().availableProcessors();
+
+    @Option(name = "--portfolioSolvers",
+            usage = "portfolio mode: comma-separated SAT solvers to try for each size (default: --solver)",
+            metaVar = "<solvers>")
+    private String portfolioSolvers;
+
+    @Option(name = "--portfolioSeeds",
+            usage = "portfolio mode: number of solver seeds to try for each size and solver (default 1)",
+            metaVar = "<number>")
+    private int portfolioSeeds = 1;
+
     @Option(name = "--bfsConstraints", handler = BooleanOptionHandler.class,
             usage = "BFS symmetry breaking (only with --deterministic)")
     private boolean bfsConstraints;
@@ -140,6 +199,7 @@ public class PlantBuilderMain extends MainBase {
     @Override
     protected void launcher() throws IOException, ParseException {
         initializeLogger(logFilePath);
+        initializeCacheDirectory(cacheDir);
         eventNumber = eventNames == null ? eventNumber : eventNames.split(",").length;
         actionNumber = actionNames == null ? actionNumber : actionNames.split(",").length;
         varNumber = varNames == null ? varNumber : varNames.split(",").length;
@@ -151,11 +211,19 @@ public class PlantBuilderMain extends MainBase {
             nusmvFilePath = null;
         }
 
-        SatSolver solver;
+        final List<SatSolver> solvers = new ArrayList<>();
+        for (String s : (maxSize > 0 && portfolioSolvers != null ? portfolioSolvers : strSolver).split(",")) {
+            try {
+                solvers.add(SatSolver.valueOf(s));
+            } catch (IllegalArgumentException e) {
+                logger().warning(s + " is not a valid SAT solver.");
+                return;
+            }
+        }
         try {
-            solver = SatSolver.valueOf(strSolver);
+            amoEncoding = CardinalityEncoding.valueOf(strAmoEncoding);
         } catch (IllegalArgumentException e) {
-            logger().warning(strSolver + " is not a valid SAT solver.");
+            logger().warning(strAmoEncoding + " is not a valid at-most-one encoding.");
             return;
         }
 
@@ -176,93 +244,154 @@ public class PlantBuilderMain extends MainBase {
             logger().info("Automaton with " + a.stateCount() + " states WAS FOUND!");
             logger().info("Automaton builder execution time: " + executionTime());
             save(a, events, actions);
+        } else if (maxSize == 0 || stateMerging) {
+            final PositivePlantScenarioForest positiveForest = loadPositiveForest();
+            saveScenarioTree(positiveForest, treeFilePath);
+            final List<String> strFormulae = LtlParser.load(ltlFilePath, varNumber, eventnames);
+            logger().info("LTL formula from " + ltlFilePath);
+
+            resultAutomaton = stateMerging
+                    ? StateMergingNondetAutomatonBuilder.build(logger(), events, actions, arguments, strFormulae)
+                    : build(positiveForest, size, strFormulae, events, actions, finishTime, solvers.get(0));
+            report(resultAutomaton, strFormulae, events, actions);
         } else {
-            final PositivePlantScenarioForest positiveForest = new PositivePlantScenarioForest(!deterministic);
-            final List<StringScenario> scenarios = new ArrayList<>();
-            for (String scenarioPath : arguments) {
-                scenarios.addAll(loadScenarios(scenarioPath, true));
-                logger().info("Loaded scenarios from " + scenarioPath);
+            if (treeFilePath != null) {
+                saveScenarioTree(loadPositiveForest(), treeFilePath);
             }
-            scenarios.forEach(positiveForest::addScenario);
-            logger().info("Scenario forest size: " + positiveForest.nodeCount());
-            saveScenarioTree(positiveForest, treeFilePath);
             final List<String> strFormulae = LtlParser.load(ltlFilePath, varNumber, eventnames);
             logger().info("LTL formula from " + ltlFilePath);
 
-            final List<StringScenario> negativeScenarios = new ArrayList<>();
-            final NegativePlantScenarioForest negativeForest = new NegativePlantScenarioForest();
-            if (negscFilePath != null) {
-                negativeScenarios.addAll(StringScenario.loadScenarios(negscFilePath, true));
-                negativeForest.load(negscFilePath, true);
+            // portfolio: configuration = (solver, seed)
+            final Optional<Portfolio.Solution<NondetMooreAutomaton>> solution;
+            try {
+                solution = new Portfolio<NondetMooreAutomaton>(logger(), session(), portfolioThreads, size, maxSize,
+                        solvers.size() * portfolioSeeds).run((s, c) -> {
+                            SynthesisSession.current().setSolverSeed(c % portfolioSeeds);
+                            registerVariableNames(varNames, varNumber);
+                            return build(loadPositiveForest(), s, strFormulae, events, actions, finishTime,
+                                    solvers.get(c / portfolioSeeds));
+                        });
+                if (solution.isPresent()) {
+                    try (Portfolio.Solution<NondetMooreAutomaton> s = solution.get()) {
+                        resultAutomaton = Optional.of(s.result);
+                        s.call(() -> {
+                            report(resultAutomaton, strFormulae, events, actions);
+                            return null;
+                        });
+                    }
+                } else {
+                    resultAutomaton = Optional.empty();
+                    logger().info("Automaton with " + size + ".." + maxSize + " states NOT FOUND!");
+                    logger().info("Automaton builder execution time: " + executionTime());
+                }
+            } catch (IOException | ParseException | RuntimeException e) {
+                throw e;
+            } catch (Exception e) {
+                throw new AssertionError(e);
             }
+        }
+    }
+
+    private PositivePlantScenarioForest loadPositiveForest() throws IOException, ParseException {
+        final PositivePlantScenarioForest positiveForest = new PositivePlantScenarioForest(!deterministic);
+        for (String scenarioPath : arguments) {
+            loadScenarios(scenarioPath, true).forEach(positiveForest::addScenario);
+            logger().info("Loaded scenarios from " + scenarioPath);
+        }
+        logger().info("Scenario forest size: " + positiveForest.nodeCount());
+        return positiveForest;
+    }
+
+    private Optional<NondetMooreAutomaton> build(PositivePlantScenarioForest positiveForest, int size,
+                                                 List<String> strFormulae, List<String> events,
+                                                 List<String> actions, long finishTime, SatSolver solver)
+            throws IOException, ParseException {
+        final NegativePlantScenarioForest negativeForest = new NegativePlantScenarioForest();
+        if (negscFilePath != null) {
+            negativeForest.load(negscFilePath, true);
+        }
 
-            logger().info("Initializing the verifier...");
+        logger().info("Initializing the verifier...");
 
-            final NondetMooreVerifierPair verifier = new NondetMooreVerifierPair(logger(), strFormulae, events, actions);
+        try (NondetMooreVerifierPair verifier = new NondetMooreVerifierPair(logger(), strFormulae, events,
+                actions)) {
+            verifier.setParallelism(verifierThreads, counterexampleLimit);
 
             logger().info("Started building automaton.");
 
-            resultAutomaton = stateMerging
-                    ? StateMergingNondetAutomatonBuilder.build(logger(), events, actions, arguments, strFormulae)
-                    : PlantAutomatonBuilder.build(logger(), positiveForest, negativeForest, size, actionspecFilePath,
-                    events, actions, verifier, finishTime, solver, deterministic, bfsConstraints, !incomplete);
+            return PlantAutomatonBuilder.build(logger(), positiveForest, negativeForest, size, actionspecFilePath,
+                    events, actions, verifier, finishTime, solver, deterministic, bfsConstraints, !incomplete,
+                    amoEncoding, preprocess, unsatCores, cubeWorkers,
+                    safetyClauses ? strFormulae : Collections.emptyList());
+        }
+    }
 
-            if (!resultAutomaton.isPresent()) {
-                logger().info("Automaton with " + size + " states NOT FOUND!");
-                logger().info("Automaton builder execution time: " + executionTime());
-            } else {
-                final NondetMooreAutomaton a = resultAutomaton.get();
-                logger().info("Automaton with " + a.stateCount() + " states WAS FOUND!");
-                logger().info("Automaton builder execution time: " + executionTime());
+    private void report(Optional<NondetMooreAutomaton> resultAutomaton, List<String> strFormulae,
+                        List<String> events, List<String> actions) throws IOException, ParseException {
+        if (!resultAutomaton.isPresent()) {
+            logger().info("Automaton with " + size + " states NOT FOUND!");
+            logger().info("Automaton builder execution time: " + executionTime());
+        } else {
+            final List<StringScenario> scenarios = new ArrayList<>();
+            for (String scenarioPath : arguments) {
+                scenarios.addAll(StringScenario.loadScenarios(scenarioPath, true));
+            }
+            final List<StringScenario> negativeScenarios = new ArrayList<>();
+            if (negscFilePath != null) {
+                negativeScenarios.addAll(StringScenario.loadScenarios(negscFilePath, true));
+            }
 
-                if (a.compliesWith(scenarios, true, true)) {
-                    logger().info("COMPLIES WITH SCENARIOS");
-                } else {
-                    logger().severe("DOES NOT COMPLY WITH SCENARIOS");
-                }
+            final NondetMooreAutomaton a = resultAutomaton.get();
+            logger().info("Automaton with " + a.stateCount() + " states WAS FOUND!");
+            logger().info("Automaton builder execution time: " + executionTime());
 
-                if (a.compliesWith(negativeScenarios, false, false)) {
-                    logger().info("COMPLIES WITH NEGATIVE SCENARIOS");
-                } else {
-                    logger().severe("DOES NOT COMPLY WITH NEGATIVE SCENARIOS");
-                }
+            if (a.compliesWith(scenarios, true, true)) {
+                logger().info("COMPLIES WITH SCENARIOS");
+            } else {
+                logger().severe("DOES NOT COMPLY WITH SCENARIOS");
+            }
+
+            if (a.compliesWith(negativeScenarios, false, false)) {
+                logger().info("COMPLIES WITH NEGATIVE SCENARIOS");
+            } else {
+                logger().severe("DOES NOT COMPLY WITH NEGATIVE SCENARIOS");
+            }
 
-                save(a, events, actions);
+            save(a, events, actions);
 
-                final Verifier usualVerifier = new Verifier(logger(), strFormulae, events, actions);
-                final List<Counterexample> counterexamples = usualVerifier.verifyNondetMoore(a);
-                if (counterexamples.stream().allMatch(Counterexample::isEmpty)) {
-                    logger().info("VERIFIED");
-                } else {
-                    logger().severe("NOT VERIFIED");
-                }
+            final Verifier usualVerifier = new Verifier(logger(), strFormulae, events, actions);
+            final List<Counterexample> counterexamples = usualVerifier.verifyNondetMoore(a);
+            if (counterexamples.stream().allMatch(Counterexample::isEmpty)) {
+                logger().info("VERIFIED");
+            } else {
+                logger().severe("NOT VERIFIED");
+            }
 
-                // completeness check
-                boolean complete = true;
-                if (!incomplete) {
-                    for (MooreNode s : a.states()) {
-                        for (String event : events) {
-                            complete &= s.transitions().stream().anyMatch(t -> t.event().endsWith(event));
-                        }
-                    }
-                } else {
-                    for (MooreNode s : a.states()) {
-                        complete &= s.transitionCount() != 0;
+            // completeness check
+            boolean complete = true;
+            if (!incomplete) {
+                for (MooreNode s : a.states()) {
+                    for (String event : events) {
+                        complete &= s.transitions().stream().anyMatch(t -> t.event().endsWith(event));
                     }
                 }
-                if (complete) {
-                    logger().info("COMPLETE");
-                } else {
-                    logger().severe("INCOMPLETE");
+            } else {
+                for (MooreNode s : a.states()) {
+                    complete &= s.transitionCount() != 0;
                 }
+            }
+            if (complete) {
+                logger().info("COMPLETE");
+            } else {
+                logger().severe("INCOMPLETE");
+            }
 
-                // determinism check
-                if (deterministic) {
-                    if (a.isDeterministic()) {
-                        logger().info("DETERMINISTIC");
-                    } else {
-                        logger().severe("NONDETERMINISTIC");
-                    }
+            // determinism check
+            if (deterministic) {
+                if (a.isDeterministic()) {
+                    logger().info("DETERMINISTIC");
+                } else {
+                    logger().severe("NONDETERMINISTIC");
                 }
             }
         }
@@ -0,0 +1,73 @@
+package meta;
+
+/**
+ * (c) Igor Buzhinsky
+ */
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+/*
+ * Text files of the on-disk cache (see SynthesisSession.cacheDirectory()). The first line of a file identifies
+ * its content, so that a file which does not correspond to the expected content is ignored. The cache directory
+ * may be shared by concurrent processes, so a file is written to a temporary file and then moved into place.
+ * The cache is an optimization: failing to write or read a file is not fatal.
+ */
+public class CacheFiles {
+    public interface Writer {
+        /*
+         * Writes the content after the header line.
+         */
+        void write(PrintWriter pw) throws IOException;
+    }
+
+    public interface Reader<T> {
+        /*
+         * Reads the content after the header line, returns null if it is malformed.
+         */
+        T read(BufferedReader in) throws IOException;
+    }
+
+    /*
+     * The header must not contain line breaks. Errors are ignored.
+     */
+    public static void write(File file, String header, Writer writer) {
+        try {
+            final File dir = file.getParentFile();
+            dir.mkdirs();
+            final File tmp = File.createTempFile("cache", ".tmp", dir);
+            try (PrintWriter pw = new PrintWriter(tmp, "UTF-8")) {
+                pw.println(header);
+                writer.write(pw);
+            }
+            try {
+                Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (IOException e) {
+            // the file is not cached
+        }
+    }
+
+    /*
+     * Returns null if the file does not exist, cannot be read, has another header or malformed content
+     * (including runtime exceptions of the reader).
+     */
+    public static <T> T read(File file, String header, Reader<T> reader) {
+        if (!file.exists()) {
+            return null;
+        }
+        try (BufferedReader in = Files.newBufferedReader(file.toPath(), StandardCharsets.UTF_8)) {
+            return header.equals(in.readLine()) ? reader.read(in) : null;
+        } catch (IOException | RuntimeException e) {
+            return null;
+        }
+    }
+}
@@ -22,20 +22,31 @@ import java.util.logging.SimpleFormatter;
  * Created by buzhinsky on 7/1/16.
  */
 public abstract class MainBase {
-    private static Random RANDOM;
-    private static long START_TIME;
-    private static Logger LOGGER;
+    private final SynthesisSession session = SynthesisSession.inCurrentDirectory();
+    private long startTime;
+    private Logger logger;
+
+    protected SynthesisSession session() {
+        return session;
+    }
 
     protected Random random() {
-        return RANDOM;
+        return session.random();
     }
 
     protected void initializeRandom(int seed) {
-        RANDOM = seed == 0 ? new Random() : new Random(seed);
+        session.initializeRandom(seed);
+    }
+
+    /*
+     * null: persistent caches are not used.
+     */
+    protected void initializeCacheDirectory(String cacheDir) {
+        session.setCacheDirectory(cacheDir == null ? null : new File(cacheDir));
     }
 
     protected long startTime() {
-        return START_TIME;
+        return startTime;
     }
 
     protected double executionTime() {
@@ -43,14 +54,14 @@ public abstract class MainBase {
     }
 
     protected void initializeLogger(String logFilePath) {
-        LOGGER = Logger.getLogger("Logger");
+        logger = Logger.getLogger("Logger");
         if (logFilePath != null) {
             try {
                 final FileHandler fh = new FileHandler(logFilePath, false);
-                LOGGER.addHandler(fh);
+                logger.addHandler(fh);
                 final SimpleFormatter formatter = new SimpleFormatter();
                 fh.setFormatter(formatter);
-                LOGGER.setUseParentHandlers(false);
+                logger.setUseParentHandlers(false);
                 System.out.println("Log redirected to " + logFilePath);
             } catch (Exception e) {
                 System.err.println("Can't work with file " + logFilePath + ": " + e.getMessage());
@@ -59,22 +70,29 @@ public abstract class MainBase {
     }
 
     public Logger logger() {
-        return LOGGER;
+        return logger;
     }
 
     protected abstract void launcher() throws IOException, ParseException;
 
     public void run(String[] args, Author author, String intro) {
-        START_TIME = System.currentTimeMillis();
+        startTime = System.currentTimeMillis();
         Locale.setDefault(Locale.US);
         if (!parseArgs(args, author, intro)) {
             return;
         }
         try {
-            launcher();
+            session.call(() -> {
+                launcher();
+                return null;
+            });
         } catch (IOException | ParseException e) {
             e.printStackTrace();
             System.exit(1);
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new AssertionError(e);
         }
     }
 
@@ -0,0 +1,217 @@
+package meta;
+
+/**
+ * (c) Igor Buzhinsky
+ */
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.logging.Logger;
+
+/*
+ * Parallel search for the minimum automaton size. Jobs (size, configuration) for sizes minSize..maxSize and
+ * the given number of configurations (e.g. solvers, strategies or seeds) run on a thread pool, smaller sizes first.
+ * Each job is executed in its own SynthesisSession with a temporary directory.
+ * Once an automaton of some size is found, jobs for this and larger sizes are cancelled. Once some configuration
+ * proves that there is no automaton of some size (SynthesisSession.reportNoSolution()), there is no automaton of
+ * smaller sizes either (see SizeBounds), so jobs for this and smaller sizes are cancelled or skipped.
+ */
+public class Portfolio<R> {
+    public interface Task<R> {
+        /*
+         * Called in the session of the job.
+         */
+        Optional<R> run(int size, int configuration) throws Exception;
+    }
+
+    /*
+     * The found automaton and the session in which it was built. The session must be closed after use.
+     */
+    public static class Solution<R> implements AutoCloseable {
+        public final int size;
+        public final int configuration;
+        public final R result;
+        private final SynthesisSession session;
+
+        private Solution(int size, int configuration, R result, SynthesisSession session) {
+            this.size = size;
+            this.configuration = configuration;
+            this.result = result;
+            this.session = session;
+        }
+
+        public <T> T call(Callable<T> task) throws Exception {
+            return session.call(task);
+        }
+
+        @Override
+        public void close() {
+            session.close();
+        }
+    }
+
+    private static class Job {
+        final int size;
+        final int configuration;
+        SynthesisSession session;
+
+        Job(int size, int configuration) {
+            this.size = size;
+            this.configuration = configuration;
+        }
+
+        @Override
+        public String toString() {
+            return "size " + size + ", configuration " + configuration;
+        }
+    }
+
+    private final Logger logger;
+    private final SynthesisSession parent;
+    private final int threads;
+    private final int minSize;
+    private final int maxSize;
+    private final int configurations;
+
+    // guarded by this
+    private final List<Job> running = new ArrayList<>();
+    private final SizeBounds bounds = new SizeBounds();
+    private Solution<R> best;
+
+    /*
+     * Sessions of the jobs take the cache directory from the parent session.
+     */
+    public Portfolio(Logger logger, SynthesisSession parent, int threads, int minSize, int maxSize,
+                     int configurations) {
+        if (threads < 1 || minSize < 1 || maxSize < minSize || configurations < 1) {
+            throw new IllegalArgumentException("Invalid portfolio parameters");
+        }
+        this.logger = logger;
+        this.parent = parent;
+        this.threads = threads;
+        this.minSize = minSize;
+        this.maxSize = maxSize;
+        this.configurations = configurations;
+    }
+
+    public Optional<Solution<R>> run(Task<R> task) throws InterruptedException {
+        logger.info("PORTFOLIO: sizes " + minSize + ".." + maxSize + ", " + configurations + " configurations, "
+                + threads + " threads");
+        final ExecutorService pool = Executors.newFixedThreadPool(threads);
+        final List<Future<?>> futures = new ArrayList<>();
+        for (int size = minSize; size <= maxSize; size++) {
+            for (int configuration = 0; configuration < configurations; configuration++) {
+                final Job job = new Job(size, configuration);
+                futures.add(pool.submit(() -> {
+                    execute(job, task);
+                    return null;
+                }));
+            }
+        }
+        pool.shutdown();
+        try {
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } catch (ExecutionException e) {
+            throw new RuntimeException(e.getCause());
+        } finally {
+            pool.shutdownNow();
+            cancelRunning(Integer.MIN_VALUE);
+        }
+
+        synchronized (this) {
+            if (best != null) {
+                final List<Integer> unresolved = new ArrayList<>();
+                for (int size = Math.max(minSize, bounds.lowerBound()); size < best.size; size++) {
+                    unresolved.add(size);
+                }
+                if (unresolved.isEmpty()) {
+                    logger.info("PORTFOLIO: size " + best.size + " is minimal in " + minSize + ".." + maxSize);
+                } else {
+                    logger.info("PORTFOLIO: size " + best.size + " is not proved to be minimal, unresolved sizes: "
+                            + unresolved);
+                }
+            }
+            if (bounds.lowerBound() > minSize) {
+                logger.info("PORTFOLIO: no automaton with less than " + bounds.lowerBound() + " states"
+                        + bounds.explanation().map(e -> ", UNSAT core: " + e).orElse(""));
+            }
+            return Optional.ofNullable(best);
+        }
+    }
+
+    private void execute(Job job, Task<R> task) throws IOException {
+        synchronized (this) {
+            if (best != null && job.size >= best.size || bounds.excluded(job.size)) {
+                return;
+            }
+            job.session = SynthesisSession.withTemporaryDirectory();
+            job.session.setCacheDirectory(parent.cacheDirectory());
+            running.add(job);
+        }
+        boolean keepSession = false;
+        try {
+            Optional<R> result;
+            try {
+                result = job.session.call(() -> task.run(job.size, job.configuration));
+            } catch (Exception e) {
+                if (!job.session.isCancelled()) {
+                    logger.warning("PORTFOLIO: " + job + " failed: " + e);
+                }
+                result = Optional.empty();
+            }
+            synchronized (this) {
+                running.remove(job);
+                if (result.isPresent()) {
+                    if (best == null || job.size < best.size) {
+                        logger.info("PORTFOLIO: " + job + ": FOUND");
+                        if (best != null) {
+                            best.close();
+                        }
+                        best = new Solution<>(job.size, job.configuration, result.get(), job.session);
+                        keepSession = true;
+                        cancelRunning(job.size);
+                    } else {
+                        logger.info("PORTFOLIO: " + job
+                                + ": FOUND, but an automaton of this or smaller size is already known");
+                    }
+                } else if (job.session.noSolution()) {
+                    final String explanation = job.session.noSolutionExplanation();
+                    logger.info("PORTFOLIO: " + job + ": NO SOLUTION"
+                            + (explanation == null ? "" : ", UNSAT core: " + explanation));
+                    bounds.noSolution(job.size, explanation);
+                    for (Job other : running) {
+                        if (bounds.excluded(other.size)) {
+                            other.session.cancel();
+                        }
+                    }
+                } else {
+                    logger.info("PORTFOLIO: " + job + ": " + (job.session.isCancelled() ? "CANCELLED" : "UNKNOWN"));
+                }
+            }
+        } finally {
+            if (!keepSession) {
+                job.session.close();
+            }
+        }
+    }
+
+    /*
+     * Cancels running jobs for sizes not less than the given one.
+     */
+    private synchronized void cancelRunning(int minCancelledSize) {
+        for (Job job : running) {
+            if (job.size >= minCancelledSize) {
+                job.session.cancel();
+            }
+        }
+    }
+}
@@ -0,0 +1,46 @@
+package meta;
+
+/**
+ * (c) Igor Buzhinsky
+ */
+
+import java.util.Optional;
+
+/*
+ * Lower bound on the number of states learned from failed searches. Existence of an automaton is monotone in
+ * its size: an automaton with n states can be extended with an unreachable state (or a state can be split), so
+ * if there is no automaton with n states, there is none with fewer states either. Thread-safe.
+ */
+public class SizeBounds {
+    // the largest size without an automaton, 0 if none is known
+    private int maxExcluded;
+    private String explanation;
+
+    /*
+     * The explanation (e.g. the UNSAT core) may be null.
+     */
+    public synchronized void noSolution(int size, String explanation) {
+        if (size > maxExcluded) {
+            maxExcluded = size;
+            this.explanation = explanation;
+        }
+    }
+
+    /*
+     * The minimum size which may have an automaton.
+     */
+    public synchronized int lowerBound() {
+        return maxExcluded + 1;
+    }
+
+    public synchronized boolean excluded(int size) {
+        return size <= maxExcluded;
+    }
+
+    /*
+     * The explanation of the largest excluded size.
+     */
+    public synchronized Optional<String> explanation() {
+        return Optional.ofNullable(explanation);
+    }
+}
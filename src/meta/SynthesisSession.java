@@ -0,0 +1,223 @@
+package meta;
+
+/**
+ * (c) Igor Buzhinsky
+ */
+
+import bnf_formulae.FormulaTable;
+import bnf_formulae.VariableRegistry;
+import bool.MyBooleanExpression;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+
+/*
+ * State of one synthesis run: the working directory for solver files, the BooleanVariable registry,
+ * the unique table of BooleanFormula objects, the MyBooleanExpression cache, the random number generator,
+ * the solver seed, verifier settings, the directory of persistent caches and the cancellation state.
+ * A session is bound to the thread that executes it (see call()), so independent runs may proceed
+ * in parallel in one JVM. Code executed outside of any bound session uses the default session,
+ * which works in the current directory.
+ */
+public class SynthesisSession implements AutoCloseable {
+    private static final String TEMPORARY_FILE_PREFIX = "_tmp.";
+    private static final SynthesisSession DEFAULT = new SynthesisSession(new File("."), false, new Random());
+    private static final ThreadLocal<SynthesisSession> CURRENT = new ThreadLocal<>();
+
+    private final File directory;
+    private final boolean ownsDirectory;
+    private final VariableRegistry variables = new VariableRegistry();
+    private final FormulaTable formulas = new FormulaTable();
+    private final MyBooleanExpression.Cache expressions = new MyBooleanExpression.Cache();
+    private Random random;
+    private int solverSeed = 0;
+    private int loopWeight = 1;
+    private File cacheDirectory;
+    private volatile boolean cancelled;
+    private final List<Runnable> cancelListeners = new ArrayList<>();
+    private volatile boolean noSolution;
+    private volatile String noSolutionExplanation;
+
+    private SynthesisSession(File directory, boolean ownsDirectory, Random random) {
+        this.directory = directory;
+        this.ownsDirectory = ownsDirectory;
+        this.random = random;
+    }
+
+    /*
+     * A session which keeps its files in the current directory.
+     */
+    public static SynthesisSession inCurrentDirectory() {
+        return new SynthesisSession(new File("."), false, new Random());
+    }
+
+    /*
+     * A session with its own temporary directory, which is deleted on close().
+     */
+    public static SynthesisSession withTemporaryDirectory() throws IOException {
+        return new SynthesisSession(Files.createTempDirectory("efsm-tools-").toFile(), true, new Random());
+    }
+
+    public static SynthesisSession current() {
+        final SynthesisSession session = CURRENT.get();
+        return session == null ? DEFAULT : session;
+    }
+
+    /*
+     * Executes the task with this session bound to the current thread.
+     */
+    public <T> T call(Callable<T> task) throws Exception {
+        final SynthesisSession previous = CURRENT.get();
+        CURRENT.set(this);
+        try {
+            return task.call();
+        } finally {
+            if (previous == null) {
+                CURRENT.remove();
+            } else {
+                CURRENT.set(previous);
+            }
+        }
+    }
+
+    public File directory() {
+        return directory;
+    }
+
+    /*
+     * Path of a temporary file with the given name suffix (e.g. "dimacs" -> "_tmp.dimacs").
+     */
+    public String temporaryFile(String suffix) {
+        return new File(directory, TEMPORARY_FILE_PREFIX + suffix).getPath();
+    }
+
+    public void deleteTemporaryFiles() {
+        final File[] files = directory.listFiles();
+        if (files != null) {
+            Arrays.stream(files).filter(f -> f.getName().startsWith(TEMPORARY_FILE_PREFIX)).forEach(File::delete);
+        }
+    }
+
+    public VariableRegistry variables() {
+        return variables;
+    }
+
+    public FormulaTable formulas() {
+        return formulas;
+    }
+
+    public MyBooleanExpression.Cache expressions() {
+        return expressions;
+    }
+
+    public Random random() {
+        return random;
+    }
+
+    /*
+     * seed = 0 means a random seed.
+     */
+    public void initializeRandom(int seed) {
+        random = seed == 0 ? new Random() : new Random(seed);
+    }
+
+    public int nextSolverSeed() {
+        return solverSeed++;
+    }
+
+    public void setSolverSeed(int seed) {
+        solverSeed = seed;
+    }
+
+    public int loopWeight() {
+        return loopWeight;
+    }
+
+    /*
+     * Weight of loop length when choosing the best counterexample (SimpleVerifier).
+     */
+    public void setLoopWeight(int loopWeight) {
+        this.loopWeight = loopWeight;
+    }
+
+    /*
+     * Directory of persistent caches shared between runs, null if they are kept in memory only.
+     */
+    public File cacheDirectory() {
+        return cacheDirectory;
+    }
+
+    public void setCacheDirectory(File cacheDirectory) {
+        this.cacheDirectory = cacheDirectory;
+    }
+
+    /*
+     * Requests the run to stop: builders check isCancelled() between iterations,
+     * and solvers registered with onCancel() are interrupted. May be called from any thread.
+     */
+    public void cancel() {
+        final List<Runnable> listeners;
+        synchronized (cancelListeners) {
+            cancelled = true;
+            listeners = new ArrayList<>(cancelListeners);
+        }
+        listeners.forEach(Runnable::run);
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    /*
+     * The action is executed on cancellation, or immediately if the session is already cancelled.
+     */
+    public void onCancel(Runnable action) {
+        synchronized (cancelListeners) {
+            if (!cancelled) {
+                cancelListeners.add(action);
+                return;
+            }
+        }
+        action.run();
+    }
+
+    /*
+     * Called by builders which have proved that there is no automaton of the requested size.
+     */
+    public void reportNoSolution() {
+        reportNoSolution(null);
+    }
+
+    /*
+     * The explanation (e.g. the UNSAT core) may be null.
+     */
+    public void reportNoSolution(String explanation) {
+        noSolutionExplanation = explanation;
+        noSolution = true;
+    }
+
+    public boolean noSolution() {
+        return noSolution;
+    }
+
+    public String noSolutionExplanation() {
+        return noSolutionExplanation;
+    }
+
+    @Override
+    public void close() {
+        if (ownsDirectory) {
+            final File[] files = directory.listFiles();
+            if (files != null) {
+                Arrays.stream(files).forEach(File::delete);
+            }
+            directory.delete();
+        }
+    }
+}
@@ -0,0 +1,46 @@
+package sat_solving;
+
+/**
+ * (c) Igor Buzhinsky
+ */
+
+import bnf_formulae.BooleanVariable;
+import bnf_formulae.ClauseBuffer;
+import meta.SynthesisSession;
+
+/*
+ * A retractable group of clauses. Each clause of the group is extended with the negation of the activation
+ * variable, so the group is in force only in the solve() calls which get enabled() among the assumptions.
+ * Passing the clause returned by retraction() to the solver removes the group for good.
+ */
+public class ClauseGroup {
+    public final BooleanVariable activation;
+
+    public ClauseGroup() {
+        activation = new BooleanVariable("act", SynthesisSession.current().variables().size());
+    }
+
+    /*
+     * The clauses of the group as they are to be given to the solver.
+     */
+    public ClauseBuffer guard(ClauseBuffer clauses) {
+        final ClauseBuffer result = new ClauseBuffer();
+        clauses.forEach((literals, from, to) -> {
+            for (int i = from; i < to; i++) {
+                result.literal(literals[i]);
+            }
+            result.literal(-activation.number).endClause();
+        });
+        return result;
+    }
+
+    public Assignment enabled() {
+        return new Assignment(activation, true);
+    }
+
+    public ClauseBuffer retraction() {
+        final ClauseBuffer result = new ClauseBuffer();
+        result.add(-activation.number);
+        return result;
+    }
+}
@@ -0,0 +1,349 @@
+package sat_solving;
+
+/**
+ * (c) Igor Buzhinsky
+ */
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.IntPredicate;
+import java.util.logging.Logger;
+
+import bnf_formulae.ClauseBuffer;
+
+/*
+ * Simplification of CNF clauses before they are given to the solver. Clauses arrive in batches (the positive
+ * constraints, then new negative constraints on each iteration), and each batch is simplified with respect to
+ * the clauses kept from previous batches:
+ *   unit propagation: clauses satisfied by unit clauses are dropped and false literals are removed
+ *     (the units themselves are kept, so models still define the fixed variables);
+ *   tautologies, duplicate clauses and clauses subsumed by kept ones are dropped;
+ *   auxiliary variables are removed by pure literal elimination and bounded variable elimination
+ *     (resolvents replace the clauses of the variable if they are not more numerous).
+ * An auxiliary variable must occur only in the batch which introduces it and must not be decoded from models:
+ * eliminated variables remain unassigned. Variables of the automaton are never eliminated.
+ */
+public class CnfPreprocessor {
+    // resolvents longer than this prevent variable elimination
+    private static final int MAX_RESOLVENT_LENGTH = 16;
+
+    private final Logger logger;
+    private final IntPredicate isAuxiliary;
+
+    // kept clauses of all batches
+    private final ClauseBuffer store = new ClauseBuffer();
+    private boolean[] removed = new boolean[256];
+    private long[] signatures = new long[256];
+    // for forward subsumption, each kept clause is listed under one of its literals
+    private int[][] lists = new int[2][];
+    private int[] listSizes = new int[2];
+
+    // by variable: 1 = true, -1 = false, 0 = not fixed
+    private byte[] values = new byte[1];
+    // by variable: the number of the batch where the variable has occurred first, 0 = not occurred
+    private int[] firstBatch = new int[1];
+    private boolean[] eliminated = new boolean[1];
+    // by variable: 0 = unknown, 1 = auxiliary, 2 = not auxiliary
+    private byte[] auxiliary = new byte[1];
+    // by literal index: the last stamp the literal was marked with
+    private int[] marks = new int[2];
+    private int stamp = 0;
+    private int[] scratch = new int[16];
+
+    // batch state
+    private int batch = 0;
+    private boolean newUnits;
+    private final List<Integer> batchUnits = new ArrayList<>();
+    // auxiliary variables introduced by the batch -> indices of kept clauses with them
+    private final Map<Integer, List<Integer>> auxiliaryOccurrences = new LinkedHashMap<>();
+    private int satisfied;
+    private int shortened;
+    private int duplicate;
+    private int subsumed;
+    private int pure;
+    private int eliminatedVars;
+    private int eliminatedClauses;
+    private int resolvents;
+
+    public CnfPreprocessor(Logger logger, IntPredicate isAuxiliary) {
+        this.logger = logger;
+        this.isAuxiliary = isAuxiliary;
+    }
+
+    private static int index(int lit) {
+        return lit > 0 ? 2 * lit : -2 * lit + 1;
+    }
+
+    private void ensureVar(int var) {
+        if (var < values.length) {
+            return;
+        }
+        final int capacity = Math.max(var + 1, values.length * 2);
+        values = Arrays.copyOf(values, capacity);
+        firstBatch = Arrays.copyOf(firstBatch, capacity);
+        eliminated = Arrays.copyOf(eliminated, capacity);
+        auxiliary = Arrays.copyOf(auxiliary, capacity);
+        marks = Arrays.copyOf(marks, 2 * capacity);
+        lists = Arrays.copyOf(lists, 2 * capacity);
+        listSizes = Arrays.copyOf(listSizes, 2 * capacity);
+    }
+
+    private int value(int lit) {
+        final int v = values[Math.abs(lit)];
+        return lit > 0 ? v : -v;
+    }
+
+    private boolean isAuxiliary(int var) {
+        if (auxiliary[var] == 0) {
+            auxiliary[var] = (byte) (isAuxiliary.test(var) ? 1 : 2);
+        }
+        return auxiliary[var] == 1;
+    }
+
+    // auxiliary variables which are introduced by the current batch
+    private boolean isEliminable(int var) {
+        return firstBatch[var] == batch && isAuxiliary(var);
+    }
+
+    public ClauseBuffer process(ClauseBuffer clauses) {
+        final int batchStart = store.clauseCount();
+        batch++;
+        satisfied = shortened = duplicate = subsumed = pure = eliminatedVars = eliminatedClauses = resolvents = 0;
+        batchUnits.clear();
+        auxiliaryOccurrences.clear();
+
+        do {
+            newUnits = false;
+            clauses.forEach(this::propagate);
+        } while (newUnits);
+        for (int lit : batchUnits) {
+            keep(new int[] { lit }, 0, 1);
+        }
+        clauses.forEach(this::simplify);
+        eliminateAuxiliaryVariables();
+
+        final ClauseBuffer result = new ClauseBuffer();
+        for (int i = batchStart; i < store.clauseCount(); i++) {
+            if (!removed[i]) {
+                for (int j = 0; j < store.clauseSize(i); j++) {
+                    result.literal(store.literalAt(i, j));
+                }
+                result.endClause();
+            }
+        }
+        logger.info("CNF PREPROCESSING: " + clauses.clauseCount() + " -> " + result.clauseCount() + " clauses: "
+                + batchUnits.size() + " units, " + satisfied + " satisfied, " + shortened + " shortened, "
+                + duplicate + " duplicate, " + subsumed + " subsumed, " + pure + " pure literals, "
+                + eliminatedVars + " eliminated variables (" + eliminatedClauses + " clauses -> " + resolvents
+                + " resolvents)");
+        return result;
+    }
+
+    /*
+     * Fixes the last unassigned literal of the clause if others are false.
+     */
+    private void propagate(int[] literals, int from, int to) {
+        int unassigned = 0;
+        int last = 0;
+        for (int i = from; i < to; i++) {
+            final int lit = literals[i];
+            final int var = Math.abs(lit);
+            ensureVar(var);
+            if (eliminated[var]) {
+                throw new AssertionError("Eliminated auxiliary variable " + var + " occurs in a new clause");
+            } else if (firstBatch[var] == 0) {
+                firstBatch[var] = batch;
+            }
+            final int val = value(lit);
+            if (val > 0) {
+                return;
+            } else if (val == 0) {
+                unassigned++;
+                last = lit;
+            }
+        }
+        if (unassigned == 1) {
+            values[Math.abs(last)] = (byte) (last > 0 ? 1 : -1);
+            batchUnits.add(last);
+            newUnits = true;
+        }
+    }
+
+    private void simplify(int[] literals, int from, int to) {
+        if (to - from > scratch.length) {
+            scratch = new int[Math.max(to - from, scratch.length * 2)];
+        }
+        stamp++;
+        int size = 0;
+        for (int i = from; i < to; i++) {
+            final int lit = literals[i];
+            final int val = value(lit);
+            if (val > 0 || marks[index(-lit)] == stamp) {
+                // units have already been kept
+                if (to - from > 1) {
+                    satisfied++;
+                }
+                return;
+            } else if (val == 0 && marks[index(lit)] != stamp) {
+                marks[index(lit)] = stamp;
+                scratch[size++] = lit;
+            }
+        }
+        if (size == 0) {
+            // conflict: the clause is left as is for the solver to find it
+            keep(literals, from, to);
+            return;
+        } else if (size < to - from) {
+            shortened++;
+        }
+        keep(scratch, 0, size);
+    }
+
+    private long signature(int[] literals, int from, int to) {
+        long signature = 0;
+        for (int i = from; i < to; i++) {
+            signature |= 1L << (index(literals[i]) & 63);
+        }
+        return signature;
+    }
+
+    /*
+     * Adds the clause unless a kept clause subsumes it.
+     */
+    private void keep(int[] literals, int from, int to) {
+        final int size = to - from;
+        final long signature = signature(literals, from, to);
+        stamp++;
+        for (int i = from; i < to; i++) {
+            marks[index(literals[i])] = stamp;
+        }
+        for (int i = from; i < to; i++) {
+            final int l = index(literals[i]);
+            for (int k = 0; k < listSizes[l]; k++) {
+                final int other = lists[l][k];
+                if (removed[other] || (signatures[other] & ~signature) != 0 || store.clauseSize(other) > size) {
+                    continue;
+                }
+                boolean subset = true;
+                for (int j = 0; j < store.clauseSize(other) && subset; j++) {
+                    subset = marks[index(store.literalAt(other, j))] == stamp;
+                }
+                if (subset) {
+                    if (store.clauseSize(other) == size) {
+                        duplicate++;
+                    } else {
+                        subsumed++;
+                    }
+                    return;
+                }
+            }
+        }
+
+        final int clause = store.clauseCount();
+        store.add(literals, from, to);
+        if (clause == removed.length) {
+            removed = Arrays.copyOf(removed, clause * 2);
+            signatures = Arrays.copyOf(signatures, clause * 2);
+        }
+        signatures[clause] = signature;
+        int shortest = index(literals[from]);
+        for (int i = from; i < to; i++) {
+            final int lit = literals[i];
+            final int var = Math.abs(lit);
+            if (listSizes[index(lit)] < listSizes[shortest]) {
+                shortest = index(lit);
+            }
+            if (isEliminable(var)) {
+                auxiliaryOccurrences.computeIfAbsent(var, v -> new ArrayList<>()).add(clause);
+            }
+        }
+        if (lists[shortest] == null) {
+            lists[shortest] = new int[4];
+        } else if (listSizes[shortest] == lists[shortest].length) {
+            lists[shortest] = Arrays.copyOf(lists[shortest], listSizes[shortest] * 2);
+        }
+        lists[shortest][listSizes[shortest]++] = clause;
+    }
+
+    private boolean contains(int clause, int lit) {
+        for (int j = 0; j < store.clauseSize(clause); j++) {
+            if (store.literalAt(clause, j) == lit) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void eliminateAuxiliaryVariables() {
+        for (int var : new ArrayList<>(auxiliaryOccurrences.keySet())) {
+            final List<Integer> positive = new ArrayList<>();
+            final List<Integer> negative = new ArrayList<>();
+            for (int clause : auxiliaryOccurrences.get(var)) {
+                if (!removed[clause]) {
+                    (contains(clause, var) ? positive : negative).add(clause);
+                }
+            }
+            if (positive.isEmpty() && negative.isEmpty()) {
+                continue;
+            } else if (positive.isEmpty() || negative.isEmpty()) {
+                positive.forEach(clause -> removed[clause] = true);
+                negative.forEach(clause -> removed[clause] = true);
+                eliminated[var] = true;
+                pure++;
+                continue;
+            }
+            final ClauseBuffer varResolvents = new ClauseBuffer();
+            boolean bounded = true;
+            for (int i = 0; i < positive.size() && bounded; i++) {
+                for (int j = 0; j < negative.size() && bounded; j++) {
+                    final int size = resolve(positive.get(i), negative.get(j), var);
+                    if (size > MAX_RESOLVENT_LENGTH) {
+                        bounded = false;
+                    } else if (size >= 0) {
+                        varResolvents.add(scratch, 0, size);
+                        bounded = varResolvents.clauseCount() <= positive.size() + negative.size();
+                    }
+                }
+            }
+            if (!bounded) {
+                continue;
+            }
+            positive.forEach(clause -> removed[clause] = true);
+            negative.forEach(clause -> removed[clause] = true);
+            eliminated[var] = true;
+            eliminatedVars++;
+            eliminatedClauses += positive.size() + negative.size();
+            resolvents += varResolvents.clauseCount();
+            varResolvents.forEach(this::keep);
+        }
+    }
+
+    /*
+     * Puts the resolvent of two clauses on var into scratch and returns its length, or -1 if it is a tautology.
+     */
+    private int resolve(int positive, int negative, int var) {
+        final int maxSize = store.clauseSize(positive) + store.clauseSize(negative);
+        if (maxSize > scratch.length) {
+            scratch = new int[Math.max(maxSize, scratch.length * 2)];
+        }
+        stamp++;
+        int size = 0;
+        for (int clause : new int[] { positive, negative }) {
+            for (int j = 0; j < store.clauseSize(clause); j++) {
+                final int lit = store.literalAt(clause, j);
+                if (Math.abs(lit) == var) {
+                    continue;
+                } else if (marks[index(-lit)] == stamp) {
+                    return -1;
+                } else if (marks[index(lit)] != stamp) {
+                    marks[index(lit)] = stamp;
+                    scratch[size++] = lit;
+                }
+            }
+        }
+        return size;
+    }
+}
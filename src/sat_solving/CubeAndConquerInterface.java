@@ -0,0 +1,222 @@
+package sat_solving;
+
+/**
+ * (c) Igor Buzhinsky
+ */
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.logging.Logger;
+
+import bnf_formulae.BooleanVariable;
+import bnf_formulae.ClauseBuffer;
+import meta.SynthesisSession;
+import sat_solving.SolverResult.SolverResults;
+
+/*
+ * Cube-and-conquer: the search space is split into cubes (conjunctions of literals), which are solved as
+ * assumptions by several EmbeddedSolver instances in parallel threads. Each instance gets all clauses.
+ * Cubes are built from splitting groups, e.g. the color variables of one scenario node: for each variable
+ * of the group there is a cube where it is true, plus the cube where all of them are false. Thus the cubes cover
+ * all assignments regardless of the constraints on the group, and groups are multiplied until there are enough
+ * cubes for the workers.
+ * The answer is SAT once some cube is satisfiable (other workers are then interrupted), and UNSAT once all cubes
+ * are refuted, with the union of the cores without cube literals as the core. A cube refuted without
+ * the assumptions of the caller remains refuted on further calls, since clauses are only added.
+ */
+public class CubeAndConquerInterface implements SolverInterface {
+    // more cubes balance the load better, but each cube is a separate solver call
+    private static final int CUBES_PER_WORKER = 4;
+
+    private final Logger logger;
+    private final List<EmbeddedInterface> workers = new ArrayList<>();
+    private final List<List<Assignment>> cubes = new ArrayList<>();
+    private final boolean[] refuted;
+
+    public CubeAndConquerInterface(ClauseBuffer positiveConstraints, String actionspec, Logger logger,
+                                   int workerNumber, List<List<BooleanVariable>> splittingGroups)
+            throws IOException {
+        if (workerNumber < 1) {
+            throw new IllegalArgumentException("Invalid number of workers: " + workerNumber);
+        }
+        this.logger = logger;
+        cubes.add(Collections.emptyList());
+        int groupsUsed = 0;
+        for (List<BooleanVariable> group : splittingGroups) {
+            if (cubes.size() >= workerNumber * CUBES_PER_WORKER) {
+                break;
+            }
+            final List<List<Assignment>> extended = new ArrayList<>();
+            for (List<Assignment> cube : cubes) {
+                for (BooleanVariable var : group) {
+                    final List<Assignment> newCube = new ArrayList<>(cube);
+                    newCube.add(new Assignment(var, true));
+                    extended.add(newCube);
+                }
+                final List<Assignment> newCube = new ArrayList<>(cube);
+                group.forEach(var -> newCube.add(new Assignment(var, false)));
+                extended.add(newCube);
+            }
+            cubes.clear();
+            cubes.addAll(extended);
+            groupsUsed++;
+        }
+        refuted = new boolean[cubes.size()];
+        for (int i = 0; i < workerNumber; i++) {
+            final EmbeddedInterface worker = new EmbeddedInterface(positiveConstraints, actionspec, logger);
+            worker.verbose = false;
+            workers.add(worker);
+        }
+        logger.info("CUBE AND CONQUER: " + workerNumber + " workers, " + cubes.size() + " cubes from "
+                + groupsUsed + " splitting groups");
+    }
+
+    @Override
+    public void halt() {
+        workers.forEach(EmbeddedInterface::halt);
+    }
+
+    @Override
+    public SolverResult solve(ClauseBuffer newConstraints, int timeLeftForSolver) throws IOException {
+        return solve(newConstraints, Collections.emptyList(), timeLeftForSolver);
+    }
+
+    private static int literal(Assignment a) {
+        return a.value ? a.var.number : -a.var.number;
+    }
+
+    @Override
+    public SolverResult solve(ClauseBuffer newConstraints, List<Assignment> assumptions, int timeLeftForSolver)
+            throws IOException {
+        final long deadline = timeLeftForSolver <= 0 ? Long.MAX_VALUE
+                : System.currentTimeMillis() + timeLeftForSolver * 1000L;
+        final SynthesisSession session = SynthesisSession.current();
+        final ConcurrentLinkedQueue<Integer> queue = new ConcurrentLinkedQueue<>();
+        for (int i = 0; i < cubes.size(); i++) {
+            if (!refuted[i]) {
+                queue.add(i);
+            }
+        }
+        final Set<Integer> assumptionLiterals = new HashSet<>();
+        assumptions.forEach(a -> assumptionLiterals.add(literal(a)));
+
+        // guarded by this
+        final SolverResult[] satisfiable = new SolverResult[1];
+        final Set<Integer> coreLiterals = new HashSet<>();
+        final List<Assignment> core = new ArrayList<>();
+        final int[] counts = new int[2]; // refuted, unknown
+
+        final ExecutorService pool = Executors.newFixedThreadPool(workers.size());
+        final List<Future<?>> futures = new ArrayList<>();
+        for (EmbeddedInterface worker : workers) {
+            futures.add(pool.submit(() -> session.call(() -> {
+                worker.addConstraints(newConstraints);
+                for (Integer cube = queue.poll(); cube != null; cube = queue.poll()) {
+                    synchronized (this) {
+                        if (satisfiable[0] != null) {
+                            break;
+                        }
+                    }
+                    final int secondsLeft = timeLeftForSolver <= 0 ? 0
+                            : (int) ((deadline - System.currentTimeMillis()) / 1000);
+                    if (timeLeftForSolver > 0 && secondsLeft <= 0) {
+                        synchronized (this) {
+                            counts[1]++;
+                        }
+                        continue;
+                    }
+                    final List<Assignment> cubeAssumptions = new ArrayList<>(assumptions);
+                    cubeAssumptions.addAll(cubes.get(cube));
+                    final SolverResult result = worker.solve(new ClauseBuffer(), cubeAssumptions, secondsLeft);
+                    synchronized (this) {
+                        if (result.type() == SolverResults.SAT) {
+                            if (satisfiable[0] == null) {
+                                satisfiable[0] = result;
+                                logger.info("CUBE AND CONQUER: cube " + cube + " is satisfiable");
+                                halt();
+                            }
+                        } else if (result.type() == SolverResults.UNSAT) {
+                            counts[0]++;
+                            boolean usesAssumptions = false;
+                            for (Assignment a : result.core()) {
+                                // cube literals are dropped from the core
+                                if (assumptionLiterals.contains(literal(a))) {
+                                    usesAssumptions = true;
+                                    if (coreLiterals.add(literal(a))) {
+                                        core.add(a);
+                                    }
+                                }
+                            }
+                            refuted[cube] |= !usesAssumptions;
+                        } else if (satisfiable[0] == null) {
+                            counts[1]++;
+                        }
+                    }
+                }
+                return null;
+            })));
+        }
+        pool.shutdown();
+        boolean interrupted = false;
+        try {
+            for (Future<?> future : futures) {
+                while (true) {
+                    try {
+                        future.get();
+                        break;
+                    } catch (InterruptedException e) {
+                        // the workers are stopped, but their solvers must be idle before this method returns
+                        interrupted = true;
+                        halt();
+                    }
+                }
+            }
+        } catch (ExecutionException e) {
+            throw new RuntimeException(e.getCause());
+        } finally {
+            // interrupts that arrived after the searches of the workers have finished
+            workers.forEach(EmbeddedInterface::clearInterrupt);
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        synchronized (this) {
+            final int remaining = (int) queue.stream().count();
+            logger.info("CUBE AND CONQUER: " + counts[0] + " cubes refuted, " + counts[1] + " unknown, "
+                    + remaining + " not solved, " + countRefuted() + " of " + cubes.size()
+                    + " refuted without assumptions");
+            if (satisfiable[0] != null) {
+                return satisfiable[0];
+            } else if (counts[1] > 0 || remaining > 0 || interrupted || session.isCancelled()) {
+                return new SolverResult(SolverResults.UNKNOWN);
+            }
+            return new SolverResult(SolverResults.UNSAT, core);
+        }
+    }
+
+    private int countRefuted() {
+        int result = 0;
+        for (boolean r : refuted) {
+            if (r) {
+                result++;
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public void setProjection(Collection<BooleanVariable> vars) {
+        workers.forEach(worker -> worker.setProjection(vars));
+    }
+}
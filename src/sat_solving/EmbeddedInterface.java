@@ -0,0 +1,160 @@
+package sat_solving;
+
+/**
+ * (c) Igor Buzhinsky
+ */
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.logging.Logger;
+
+import sat_solving.SolverResult.SolverResults;
+import bnf_formulae.BooleanVariable;
+import bnf_formulae.ClauseBuffer;
+import bnf_formulae.CnfEncoder;
+import bnf_formulae.LimbooleParser;
+import meta.SynthesisSession;
+
+/*
+ * Incremental solving with EmbeddedSolver: no solver process and no clause marshalling.
+ * Solver variables coincide with limboole (BooleanVariable) numbers unless an action specification is given,
+ * whose CNF encoding needs auxiliary variables.
+ */
+public class EmbeddedInterface implements SolverInterface {
+    private final EmbeddedSolver solver = new EmbeddedSolver();
+    private final Logger logger;
+    // limboole number -> solver variable and back, 0 = not mapped
+    private int[] toSolver = new int[1];
+    private int[] toLimboole = new int[1];
+    private final boolean identityMapping;
+    // limboole numbers, null = all variables
+    private int[] projection;
+    // mapped literals of the clause being added
+    private int[] scratch = new int[16];
+    // whether each solve() call is logged
+    boolean verbose = true;
+
+    EmbeddedInterface(ClauseBuffer positiveConstraints, String actionspec, Logger logger) throws IOException {
+        this.logger = logger;
+        SynthesisSession.current().onCancel(solver::interrupt);
+        identityMapping = actionspec == null;
+        if (!identityMapping) {
+            // auxiliary variables of the specification get solver variables without limboole numbers
+            final CnfEncoder encoder = new CnfEncoder(limbooleNum -> Math.abs(toSolverLiteral(limbooleNum)),
+                    solver::newVar, solver::addClause);
+            encoder.assertFormula(LimbooleParser.parse(actionspec));
+            logger.info("ACTION SPECIFICATION: " + encoder.clauseCount() + " clauses, "
+                    + encoder.auxVarCount() + " auxiliary variables");
+        }
+        addConstraints(positiveConstraints);
+    }
+
+    private void map(int limbooleNum, int solverVar) {
+        if (limbooleNum >= toSolver.length) {
+            toSolver = Arrays.copyOf(toSolver, Math.max(limbooleNum + 1, toSolver.length * 2));
+        }
+        if (solverVar >= toLimboole.length) {
+            toLimboole = Arrays.copyOf(toLimboole, Math.max(solverVar + 1, toLimboole.length * 2));
+        }
+        toSolver[limbooleNum] = solverVar;
+        toLimboole[solverVar] = limbooleNum;
+    }
+
+    private int toSolverLiteral(int limbooleLiteral) {
+        final int var = Math.abs(limbooleLiteral);
+        if (identityMapping) {
+            return limbooleLiteral;
+        }
+        int solverVar = var < toSolver.length ? toSolver[var] : 0;
+        if (solverVar == 0) {
+            solverVar = solver.newVar();
+            map(var, solverVar);
+        }
+        return limbooleLiteral > 0 ? solverVar : -solverVar;
+    }
+
+    void addConstraints(ClauseBuffer constraints) {
+        if (identityMapping) {
+            constraints.forEach(solver::addClause);
+            return;
+        }
+        constraints.forEach((literals, from, to) -> {
+            if (to - from > scratch.length) {
+                scratch = new int[Math.max(to - from, scratch.length * 2)];
+            }
+            for (int i = from; i < to; i++) {
+                scratch[i - from] = toSolverLiteral(literals[i]);
+            }
+            solver.addClause(scratch, 0, to - from);
+        });
+    }
+
+    @Override
+    public void halt() {
+        solver.interrupt();
+    }
+
+    void clearInterrupt() {
+        solver.clearInterrupt();
+    }
+
+    private int toLimbooleNumber(int solverVar) {
+        return identityMapping ? solverVar : solverVar < toLimboole.length ? toLimboole[solverVar] : 0;
+    }
+
+    @Override
+    public SolverResult solve(ClauseBuffer newConstraints, int timeLeftForSolver) throws IOException {
+        return solve(newConstraints, Collections.emptyList(), timeLeftForSolver);
+    }
+
+    @Override
+    public SolverResult solve(ClauseBuffer newConstraints, List<Assignment> assumptions, int timeLeftForSolver) {
+        addConstraints(newConstraints);
+        final int[] solverAssumptions = new int[assumptions.size()];
+        for (int i = 0; i < solverAssumptions.length; i++) {
+            final Assignment a = assumptions.get(i);
+            solverAssumptions[i] = toSolverLiteral(a.value ? a.var.number : -a.var.number);
+        }
+        final SolverResults verdict = solver.solve(timeLeftForSolver, solverAssumptions);
+        if (verbose) {
+            logger.info("EMBEDDED SOLVER: " + verdict + ", " + solver.varNumber() + " vars, "
+                    + solver.clauseNumber() + " clauses, " + solver.learntNumber() + " learnts, "
+                    + solver.conflicts() + " conflicts");
+        }
+        if (verdict == SolverResults.UNSAT) {
+            final List<Assignment> core = new ArrayList<>();
+            for (int lit : solver.failedAssumptions()) {
+                final BooleanVariable var = BooleanVariable.getVarByNumber(toLimbooleNumber(Math.abs(lit)));
+                core.add(new Assignment(var, lit > 0));
+            }
+            return new SolverResult(verdict, core);
+        } else if (verdict != SolverResults.SAT) {
+            return new SolverResult(verdict);
+        }
+        final Model model = new Model();
+        if (projection == null) {
+            for (int v = 1; v <= solver.varNumber(); v++) {
+                final int limbooleNum = toLimbooleNumber(v);
+                if (limbooleNum != 0) {
+                    model.set(limbooleNum, solver.modelValue(v));
+                }
+            }
+        } else {
+            for (int limbooleNum : projection) {
+                // variables unknown to the solver are unconstrained
+                final int v = identityMapping ? limbooleNum : limbooleNum < toSolver.length ? toSolver[limbooleNum] : 0;
+                model.set(limbooleNum, v != 0 && solver.modelValue(v));
+            }
+        }
+        return new SolverResult(model);
+    }
+
+    @Override
+    public void setProjection(Collection<BooleanVariable> vars) {
+        projection = vars.stream().mapToInt(v -> v.number).toArray();
+    }
+}
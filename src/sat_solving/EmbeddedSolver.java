@@ -0,0 +1,721 @@
+package sat_solving;
+
+/**
+ * (c) Igor Buzhinsky
+ */
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.Arrays;
+
+import sat_solving.SolverResult.SolverResults;
+
+/*
+ * A compact in-process incremental CDCL solver (two watched literals, first UIP learning,
+ * VSIDS, phase saving, Luby restarts, learned clause database reduction).
+ * Variables are numbered from 1 and literals are signed integers, as in DIMACS.
+ * Learned clauses are kept between solve() calls, so new clauses can be added incrementally.
+ * solve() may be given assumptions (literals which hold for this call only); if the formula is unsatisfiable
+ * under them, failedAssumptions() returns the assumptions used in the refutation, and the solver remains usable.
+ * Instances are independent and all public methods are synchronized, except interrupt(),
+ * which may be called from any thread to stop the current search.
+ */
+public class EmbeddedSolver {
+    private static final int RESTART_UNIT = 100;
+    private static final double VAR_DECAY = 0.95;
+    private static final double CLAUSE_DECAY = 0.999;
+    private static final int TIME_CHECK_PERIOD = 256;
+
+    private static class Clause {
+        final int[] lits;
+        final boolean learnt;
+        double activity;
+        boolean removed;
+
+        Clause(int[] lits, boolean learnt) {
+            this.lits = lits;
+            this.learnt = learnt;
+        }
+    }
+
+    private static class ClauseList {
+        Clause[] data = new Clause[4];
+        int size;
+
+        void add(Clause c) {
+            if (size == data.length) {
+                data = Arrays.copyOf(data, size * 2);
+            }
+            data[size++] = c;
+        }
+    }
+
+    private int varNum;
+    // per variable
+    private byte[] values = new byte[1]; // 0 = undefined, 1 = true, -1 = false
+    private byte[] model = new byte[1];
+    private int[] levels = new int[1];
+    private Clause[] reasons = new Clause[1];
+    private boolean[] phases = new boolean[1];
+    private boolean[] seen = new boolean[1];
+    private double[] activities = new double[1];
+    // per literal: literal l of variable v is 2 * v + (l < 0 ? 1 : 0)
+    private ClauseList[] watches = new ClauseList[2];
+
+    private int[] trail = new int[1];
+    private int trailSize;
+    private int[] trailLimits = new int[1];
+    private int decisionLevel;
+    private int propagationHead;
+
+    private final VarHeap heap = new VarHeap();
+    private double varIncrement = 1;
+    private double clauseIncrement = 1;
+
+    private ClauseList learnts = new ClauseList();
+    private int clauseNum;
+    private double maxLearnts;
+
+    private boolean ok = true;
+    private volatile boolean interrupted;
+    private int[] assumptions = new int[0];
+    private int[] failedAssumptions = new int[0];
+    private long conflicts;
+
+    public synchronized int varNumber() {
+        return varNum;
+    }
+
+    public synchronized int clauseNumber() {
+        return clauseNum;
+    }
+
+    public synchronized int learntNumber() {
+        return learnts.size;
+    }
+
+    public synchronized long conflicts() {
+        return conflicts;
+    }
+
+    /*
+     * Makes variables 1..n available.
+     */
+    public synchronized void ensureVars(int n) {
+        if (n <= varNum) {
+            return;
+        }
+        if (n + 1 > values.length) {
+            final int capacity = Math.max(n + 1, values.length * 2);
+            values = Arrays.copyOf(values, capacity);
+            model = Arrays.copyOf(model, capacity);
+            levels = Arrays.copyOf(levels, capacity);
+            reasons = Arrays.copyOf(reasons, capacity);
+            phases = Arrays.copyOf(phases, capacity);
+            seen = Arrays.copyOf(seen, capacity);
+            activities = Arrays.copyOf(activities, capacity);
+            trail = Arrays.copyOf(trail, capacity);
+            trailLimits = Arrays.copyOf(trailLimits, Math.max(capacity, trailLimits.length));
+            watches = Arrays.copyOf(watches, capacity * 2);
+        }
+        for (int v = varNum + 1; v <= n; v++) {
+            watches[2 * v] = new ClauseList();
+            watches[2 * v + 1] = new ClauseList();
+            heap.insert(v);
+        }
+        varNum = n;
+    }
+
+    public synchronized int newVar() {
+        ensureVars(varNum + 1);
+        return varNum;
+    }
+
+    private static int index(int lit) {
+        return lit > 0 ? 2 * lit : -2 * lit + 1;
+    }
+
+    private int value(int lit) {
+        final int v = values[Math.abs(lit)];
+        return lit > 0 ? v : -v;
+    }
+
+    /*
+     * Returns false if the formula became trivially unsatisfiable.
+     */
+    public boolean addClause(int... clause) {
+        return addClause(clause, 0, clause.length);
+    }
+
+    /*
+     * Adds the clause clause[from..to), the array is not retained.
+     */
+    public synchronized boolean addClause(int[] clause, int from, int to) {
+        if (!ok) {
+            return false;
+        }
+        cancelUntil(0);
+        // sorting by literal index puts complementary literals next to each other
+        int[] lits = new int[to - from];
+        for (int i = 0; i < lits.length; i++) {
+            if (clause[from + i] == 0) {
+                throw new IllegalArgumentException("Zero literal in clause "
+                        + Arrays.toString(Arrays.copyOfRange(clause, from, to)));
+            }
+            lits[i] = index(clause[from + i]);
+        }
+        Arrays.sort(lits);
+        int size = 0;
+        int last = 0;
+        for (int i = 0; i < lits.length; i++) {
+            final int lit = (lits[i] & 1) == 0 ? lits[i] >> 1 : -(lits[i] >> 1);
+            ensureVars(Math.abs(lit));
+            final int val = value(lit);
+            if (val == 1 || lit == -last) {
+                return true; // satisfied or tautology
+            } else if (val == 0 && lit != last) {
+                lits[size++] = lit;
+                last = lit;
+            }
+        }
+        lits = Arrays.copyOf(lits, size);
+        if (size == 0) {
+            return ok = false;
+        } else if (size == 1) {
+            enqueue(lits[0], null);
+            return ok = propagate() == null;
+        }
+        attach(new Clause(lits, false));
+        clauseNum++;
+        return true;
+    }
+
+    private void attach(Clause c) {
+        watches[index(c.lits[0])].add(c);
+        watches[index(c.lits[1])].add(c);
+    }
+
+    private void enqueue(int lit, Clause reason) {
+        final int v = Math.abs(lit);
+        values[v] = (byte) (lit > 0 ? 1 : -1);
+        levels[v] = decisionLevel;
+        reasons[v] = reason;
+        trail[trailSize++] = lit;
+    }
+
+    private void cancelUntil(int level) {
+        if (decisionLevel <= level) {
+            return;
+        }
+        for (int i = trailSize - 1; i >= trailLimits[level]; i--) {
+            final int lit = trail[i];
+            final int v = Math.abs(lit);
+            values[v] = 0;
+            reasons[v] = null;
+            phases[v] = lit > 0;
+            heap.insert(v);
+        }
+        trailSize = trailLimits[level];
+        propagationHead = trailSize;
+        decisionLevel = level;
+    }
+
+    /*
+     * Returns the conflicting clause or null.
+     */
+    private Clause propagate() {
+        while (propagationHead < trailSize) {
+            final int falseLit = -trail[propagationHead++];
+            final ClauseList ws = watches[index(falseLit)];
+            final Clause[] data = ws.data;
+            int i = 0;
+            int j = 0;
+            final int n = ws.size;
+            while (i < n) {
+                final Clause c = data[i++];
+                if (c.removed) {
+                    continue;
+                }
+                final int[] lits = c.lits;
+                if (lits[0] == falseLit) {
+                    lits[0] = lits[1];
+                    lits[1] = falseLit;
+                }
+                if (value(lits[0]) == 1) {
+                    data[j++] = c;
+                    continue;
+                }
+                boolean moved = false;
+                for (int k = 2; k < lits.length; k++) {
+                    if (value(lits[k]) != -1) {
+                        lits[1] = lits[k];
+                        lits[k] = falseLit;
+                        watches[index(lits[1])].add(c);
+                        moved = true;
+                        break;
+                    }
+                }
+                if (moved) {
+                    continue;
+                }
+                data[j++] = c;
+                if (value(lits[0]) == -1) {
+                    while (i < n) {
+                        data[j++] = data[i++];
+                    }
+                    ws.size = j;
+                    propagationHead = trailSize;
+                    return c;
+                }
+                enqueue(lits[0], c);
+            }
+            ws.size = j;
+        }
+        return null;
+    }
+
+    private void bumpVar(int v) {
+        if ((activities[v] += varIncrement) > 1e100) {
+            for (int i = 1; i <= varNum; i++) {
+                activities[i] *= 1e-100;
+            }
+            varIncrement *= 1e-100;
+        }
+        heap.update(v);
+    }
+
+    private void bumpClause(Clause c) {
+        if ((c.activity += clauseIncrement) > 1e20) {
+            for (int i = 0; i < learnts.size; i++) {
+                learnts.data[i].activity *= 1e-20;
+            }
+            clauseIncrement *= 1e-20;
+        }
+    }
+
+    private final IntStack learnt = new IntStack();
+    private final IntStack toClear = new IntStack();
+
+    /*
+     * First UIP conflict analysis with local minimization.
+     * The asserting literal is placed first, the literal with the highest remaining level second.
+     */
+    private int[] analyze(Clause conflict) {
+        learnt.clear();
+        learnt.push(0);
+        toClear.clear();
+        int pathCount = 0;
+        int p = 0;
+        int index = trailSize - 1;
+        Clause c = conflict;
+        do {
+            if (c.learnt) {
+                bumpClause(c);
+            }
+            for (int j = p == 0 ? 0 : 1; j < c.lits.length; j++) {
+                final int q = c.lits[j];
+                final int v = Math.abs(q);
+                if (!seen[v] && levels[v] > 0) {
+                    bumpVar(v);
+                    seen[v] = true;
+                    toClear.push(v);
+                    if (levels[v] >= decisionLevel) {
+                        pathCount++;
+                    } else {
+                        learnt.push(q);
+                    }
+                }
+            }
+            while (!seen[Math.abs(trail[index--])]);
+            p = trail[index + 1];
+            c = reasons[Math.abs(p)];
+            seen[Math.abs(p)] = false;
+            pathCount--;
+        } while (pathCount > 0);
+        learnt.data[0] = -p;
+
+        int size = 1;
+        for (int i = 1; i < learnt.size; i++) {
+            final int q = learnt.data[i];
+            final Clause reason = reasons[Math.abs(q)];
+            boolean redundant = reason != null;
+            if (redundant) {
+                for (int k = 1; k < reason.lits.length; k++) {
+                    final int v = Math.abs(reason.lits[k]);
+                    if (!seen[v] && levels[v] > 0) {
+                        redundant = false;
+                        break;
+                    }
+                }
+            }
+            if (!redundant) {
+                learnt.data[size++] = q;
+            }
+        }
+        for (int i = 0; i < toClear.size; i++) {
+            seen[toClear.data[i]] = false;
+        }
+
+        final int[] result = Arrays.copyOf(learnt.data, size);
+        int maxIndex = 1;
+        for (int i = 2; i < size; i++) {
+            if (levels[Math.abs(result[i])] > levels[Math.abs(result[maxIndex])]) {
+                maxIndex = i;
+            }
+        }
+        if (size > 1) {
+            final int tmp = result[1];
+            result[1] = result[maxIndex];
+            result[maxIndex] = tmp;
+        }
+        return result;
+    }
+
+    private boolean locked(Clause c) {
+        final int v = Math.abs(c.lits[0]);
+        return reasons[v] == c && value(c.lits[0]) == 1;
+    }
+
+    private void reduceLearnts() {
+        final Clause[] sorted = Arrays.copyOf(learnts.data, learnts.size);
+        Arrays.sort(sorted, (c1, c2) -> c1.lits.length == 2 ? (c2.lits.length == 2 ? 0 : 1)
+                : c2.lits.length == 2 ? -1 : Double.compare(c1.activity, c2.activity));
+        final double limit = clauseIncrement / sorted.length;
+        final ClauseList kept = new ClauseList();
+        for (int i = 0; i < sorted.length; i++) {
+            final Clause c = sorted[i];
+            if (c.lits.length > 2 && !locked(c) && (i < sorted.length / 2 || c.activity < limit)) {
+                c.removed = true;
+            } else {
+                kept.add(c);
+            }
+        }
+        learnts = kept;
+    }
+
+    private int pickBranchLiteral() {
+        while (!heap.isEmpty()) {
+            final int v = heap.removeMax();
+            if (values[v] == 0) {
+                return phases[v] ? v : -v;
+            }
+        }
+        return 0;
+    }
+
+    private static double luby(double y, int x) {
+        int size = 1;
+        int seq = 0;
+        while (size < x + 1) {
+            seq++;
+            size = 2 * size + 1;
+        }
+        while (size - 1 != x) {
+            size = (size - 1) >> 1;
+            seq--;
+            x = x % size;
+        }
+        return Math.pow(y, seq);
+    }
+
+    /*
+     * The assumptions that imply the negation of the failed assumption p, together with p itself.
+     * All decisions made so far are assumptions.
+     */
+    private void analyzeFinal(int p) {
+        final IntStack failed = new IntStack();
+        failed.push(p);
+        seen[Math.abs(p)] = true;
+        for (int i = trailSize - 1; i >= trailLimits[0] && decisionLevel > 0; i--) {
+            final int v = Math.abs(trail[i]);
+            if (seen[v]) {
+                final Clause reason = reasons[v];
+                if (reason == null) {
+                    failed.push(trail[i]);
+                } else {
+                    for (int k = 1; k < reason.lits.length; k++) {
+                        final int u = Math.abs(reason.lits[k]);
+                        if (levels[u] > 0) {
+                            seen[u] = true;
+                        }
+                    }
+                }
+                seen[v] = false;
+            }
+        }
+        seen[Math.abs(p)] = false;
+        failedAssumptions = Arrays.copyOf(failed.data, failed.size);
+    }
+
+    private enum SearchOutcome {
+        SAT, UNSAT, UNSAT_UNDER_ASSUMPTIONS, RESTART, TIMEOUT
+    }
+
+    private SearchOutcome search(long conflictLimit, long deadline) {
+        long localConflicts = 0;
+        while (true) {
+            final Clause conflict = propagate();
+            if (conflict != null) {
+                conflicts++;
+                localConflicts++;
+                if (decisionLevel == 0) {
+                    return SearchOutcome.UNSAT;
+                }
+                final int[] learntClause = analyze(conflict);
+                cancelUntil(learntClause.length == 1 ? 0 : levels[Math.abs(learntClause[1])]);
+                if (learntClause.length == 1) {
+                    enqueue(learntClause[0], null);
+                } else {
+                    final Clause c = new Clause(learntClause, true);
+                    learnts.add(c);
+                    attach(c);
+                    bumpClause(c);
+                    enqueue(learntClause[0], c);
+                }
+                varIncrement /= VAR_DECAY;
+                clauseIncrement /= CLAUSE_DECAY;
+                if (conflicts % TIME_CHECK_PERIOD == 0
+                        && (interrupted || System.currentTimeMillis() > deadline)) {
+                    return SearchOutcome.TIMEOUT;
+                }
+            } else {
+                if (localConflicts >= conflictLimit) {
+                    return SearchOutcome.RESTART;
+                }
+                if (learnts.size - trailSize >= maxLearnts) {
+                    reduceLearnts();
+                }
+                int next = 0;
+                while (decisionLevel < assumptions.length) {
+                    final int p = assumptions[decisionLevel];
+                    if (value(p) == 1) {
+                        // already satisfied, a dummy decision level keeps levels aligned with assumptions
+                        trailLimits[decisionLevel++] = trailSize;
+                    } else if (value(p) == -1) {
+                        analyzeFinal(p);
+                        return SearchOutcome.UNSAT_UNDER_ASSUMPTIONS;
+                    } else {
+                        next = p;
+                        break;
+                    }
+                }
+                if (next == 0) {
+                    next = pickBranchLiteral();
+                    if (next == 0) {
+                        return SearchOutcome.SAT;
+                    }
+                }
+                trailLimits[decisionLevel++] = trailSize;
+                enqueue(next, null);
+            }
+        }
+    }
+
+    /*
+     * timeLimitSeconds <= 0 means no limit.
+     */
+    public synchronized SolverResults solve(int timeLimitSeconds, int... assumptions) {
+        for (int lit : assumptions) {
+            if (lit == 0) {
+                throw new IllegalArgumentException("Zero literal in assumptions " + Arrays.toString(assumptions));
+            }
+            ensureVars(Math.abs(lit));
+        }
+        // each assumption may take a decision level
+        if (trailLimits.length < varNum + assumptions.length + 1) {
+            trailLimits = Arrays.copyOf(trailLimits, varNum + assumptions.length + 1);
+        }
+        this.assumptions = assumptions;
+        failedAssumptions = new int[0];
+        try {
+            return solveWithRestarts(timeLimitSeconds);
+        } finally {
+            this.assumptions = new int[0];
+            interrupted = false;
+        }
+    }
+
+    private SolverResults solveWithRestarts(int timeLimitSeconds) {
+        final long deadline = timeLimitSeconds <= 0 ? Long.MAX_VALUE
+                : System.currentTimeMillis() + timeLimitSeconds * 1000L;
+        if (!ok) {
+            return SolverResults.UNSAT;
+        }
+        cancelUntil(0);
+        maxLearnts = Math.max(maxLearnts, clauseNum / 3.0 + 1000);
+        for (int restart = 0; ; restart++) {
+            final SearchOutcome outcome = search((long) (luby(2, restart) * RESTART_UNIT), deadline);
+            switch (outcome) {
+            case SAT:
+                System.arraycopy(values, 0, model, 0, varNum + 1);
+                cancelUntil(0);
+                return SolverResults.SAT;
+            case UNSAT:
+                ok = false;
+                return SolverResults.UNSAT;
+            case UNSAT_UNDER_ASSUMPTIONS:
+                cancelUntil(0);
+                return SolverResults.UNSAT;
+            case TIMEOUT:
+                cancelUntil(0);
+                return SolverResults.UNKNOWN;
+            case RESTART:
+                cancelUntil(0);
+                maxLearnts *= 1.05;
+                if (interrupted || System.currentTimeMillis() > deadline) {
+                    return SolverResults.UNKNOWN;
+                }
+                break;
+            default:
+                throw new AssertionError();
+            }
+        }
+    }
+
+    /*
+     * After solve() has returned UNSAT: a subset of its assumptions which is unsatisfiable together with
+     * the clauses, empty if the clauses are unsatisfiable by themselves.
+     */
+    public synchronized int[] failedAssumptions() {
+        return failedAssumptions.clone();
+    }
+
+    /*
+     * Value of the variable in the last found model.
+     */
+    public synchronized boolean modelValue(int var) {
+        return var <= varNum && model[var] == 1;
+    }
+
+    /*
+     * Stops the current search, or the next one if no search is running.
+     */
+    public void interrupt() {
+        interrupted = true;
+    }
+
+    /*
+     * Withdraws interrupt() which has been called when no search was running.
+     */
+    public synchronized void clearInterrupt() {
+        interrupted = false;
+    }
+
+    public static EmbeddedSolver fromDimacs(String filename) throws IOException {
+        final EmbeddedSolver solver = new EmbeddedSolver();
+        try (BufferedReader input = new BufferedReader(new FileReader(filename))) {
+            String line;
+            while ((line = input.readLine()) != null) {
+                line = line.trim();
+                if (line.startsWith("p")) {
+                    solver.ensureVars(Integer.parseInt(line.split(" +")[2]));
+                } else if (!line.isEmpty() && !line.startsWith("c")) {
+                    final String[] tokens = line.split(" +");
+                    solver.addClause(Arrays.stream(tokens, 0, tokens.length - 1).mapToInt(Integer::parseInt)
+                            .toArray());
+                }
+            }
+        }
+        return solver;
+    }
+
+    private static class IntStack {
+        int[] data = new int[16];
+        int size;
+
+        void push(int x) {
+            if (size == data.length) {
+                data = Arrays.copyOf(data, size * 2);
+            }
+            data[size++] = x;
+        }
+
+        void clear() {
+            size = 0;
+        }
+    }
+
+    /*
+     * Binary max-heap of variables ordered by activity.
+     */
+    private class VarHeap {
+        private int[] heap = new int[16];
+        private int[] positions = new int[16]; // -1 = not in the heap
+        private int size;
+
+        boolean isEmpty() {
+            return size == 0;
+        }
+
+        void insert(int v) {
+            if (v >= positions.length) {
+                final int oldLength = positions.length;
+                positions = Arrays.copyOf(positions, Math.max(v + 1, oldLength * 2));
+                Arrays.fill(positions, oldLength, positions.length, -1);
+            }
+            if (positions[v] >= 0 && positions[v] < size && heap[positions[v]] == v) {
+                return;
+            }
+            if (size == heap.length) {
+                heap = Arrays.copyOf(heap, size * 2);
+            }
+            heap[size] = v;
+            positions[v] = size;
+            siftUp(size++);
+        }
+
+        void update(int v) {
+            if (v < positions.length && positions[v] >= 0 && positions[v] < size && heap[positions[v]] == v) {
+                siftUp(positions[v]);
+            }
+        }
+
+        int removeMax() {
+            final int top = heap[0];
+            heap[0] = heap[--size];
+            positions[heap[0]] = 0;
+            positions[top] = -1;
+            if (size > 0) {
+                siftDown(0);
+            }
+            return top;
+        }
+
+        private void siftUp(int i) {
+            final int v = heap[i];
+            while (i > 0) {
+                final int parent = (i - 1) >> 1;
+                if (activities[heap[parent]] >= activities[v]) {
+                    break;
+                }
+                heap[i] = heap[parent];
+                positions[heap[i]] = i;
+                i = parent;
+            }
+            heap[i] = v;
+            positions[v] = i;
+        }
+
+        private void siftDown(int i) {
+            final int v = heap[i];
+            while (true) {
+                int child = 2 * i + 1;
+                if (child >= size) {
+                    break;
+                }
+                if (child + 1 < size && activities[heap[child + 1]] > activities[heap[child]]) {
+                    child++;
+                }
+                if (activities[heap[child]] <= activities[v]) {
+                    break;
+                }
+                heap[i] = heap[child];
+                positions[heap[i]] = i;
+                i = child;
+            }
+            heap[i] = v;
+            positions[v] = i;
+        }
+    }
+}
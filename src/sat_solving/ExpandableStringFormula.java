@@ -13,7 +13,7 @@ import bnf_formulae.BooleanFormula.DimacsConversionInfo;
 import bnf_formulae.BooleanFormula.SolveAsSatResult;
 
 public class ExpandableStringFormula {
-    private final String initialFormula;
+    private final BooleanFormula initialFormula;
     private final Logger logger;
     private final SatSolver solver;
     private DimacsConversionInfo info;
@@ -22,7 +22,7 @@ public class ExpandableStringFormula {
         return info;
     }
     
-    public ExpandableStringFormula(String initialFormula, Logger logger, SatSolver solver) {
+    public ExpandableStringFormula(BooleanFormula initialFormula, Logger logger, SatSolver solver) {
         this.initialFormula = initialFormula;
         this.logger = logger;
         this.solver = solver;
@@ -11,33 +11,47 @@ import java.io.DataOutputStream;
 import java.io.FileReader;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.EnumMap;
 import java.util.List;
+import java.util.Map;
 import java.util.logging.Logger;
 
 import sat_solving.SolverResult.SolverResults;
 import bnf_formulae.BooleanFormula;
 import bnf_formulae.BooleanFormula.DimacsConversionInfo;
 import bnf_formulae.BooleanVariable;
+import bnf_formulae.ClauseBuffer;
+import meta.SynthesisSession;
 
 public class IncrementalInterface implements SolverInterface {
+    // the version of the protocol of incremental-cryptominisat-binary.cpp with solving under assumptions (4),
+    // projections (5) and version requests (6)
+    private static final int PROTOCOL_VERSION = 2;
+    private static final Map<SatSolver, Integer> protocolVersions = new EnumMap<>(SatSolver.class);
+
+    private final int protocolVersion;
     private final DimacsConversionInfo info;
     private final Process solverProcess;
     private final DataOutputStream writer;
     private final DataInputStream reader;
+    private boolean halted = false;
     
-    IncrementalInterface(List<int[]> positiveConstraints, String actionspec, Logger logger, SatSolver solver)
+    IncrementalInterface(ClauseBuffer positiveConstraints, String actionspec, Logger logger, SatSolver solver)
             throws IOException {
         if (!solver.isIncremental) {
             throw new AssertionError("An incremental solver was expected!");
         }
-        info = BooleanFormula.actionSpecToDimacs(logger, BooleanFormula.DIMACS_FILENAME, actionspec);
+        protocolVersion = protocolVersion(solver, logger);
+        info = BooleanFormula.actionSpecToDimacs(logger, BooleanFormula.dimacsFilename(), actionspec);
         info.close();
 
         solverProcess = Runtime.getRuntime().exec(solver.command + info.varNumber());
+        SynthesisSession.current().onCancel(solverProcess::destroy);
         writer = new DataOutputStream(new BufferedOutputStream(solverProcess.getOutputStream()));
         reader = new DataInputStream(solverProcess.getInputStream());
         
-        try (BufferedReader input = new BufferedReader(new FileReader(BooleanFormula.DIMACS_FILENAME))) {
+        try (BufferedReader input = new BufferedReader(new FileReader(BooleanFormula.dimacsFilename()))) {
             input.readLine();
             String line;
             while ((line = input.readLine()) != null) {
@@ -52,8 +66,53 @@ public class IncrementalInterface implements SolverInterface {
         BooleanFormula.appendConstraints(positiveConstraints, info, writer);
     }
 
+    /*
+     * A binary of protocol version 1 reads the version request as an empty clause followed by solving and answers
+     * UNSAT, so the request is sent to a separate short-lived process.
+     */
+    private static synchronized int protocolVersion(SatSolver solver, Logger logger) throws IOException {
+        final Integer knownVersion = protocolVersions.get(solver);
+        if (knownVersion != null) {
+            return knownVersion;
+        }
+        final Process process = Runtime.getRuntime().exec(solver.command + 0);
+        final int version;
+        try {
+            final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(process.getOutputStream()));
+            final DataInputStream in = new DataInputStream(process.getInputStream());
+            for (int value : new int[] { 6, 0, 2, 0, 3 }) { // version request, terminate
+                out.writeInt(value);
+            }
+            out.flush();
+            final int answer = in.readInt();
+            if (answer == 6) {
+                version = in.readInt();
+            } else if (answer == 1) {
+                version = 1;
+            } else {
+                throw new AssertionError("Unexpected answer to the protocol version request: " + answer);
+            }
+        } finally {
+            process.destroy();
+        }
+        if (version < PROTOCOL_VERSION) {
+            logger.warning(solver.command.trim() + " is outdated (protocol version " + version
+                    + "): rebuild it from incremental-cryptominisat/. Projections are not used, solving under"
+                    + " assumptions is not supported.");
+        }
+        protocolVersions.put(solver, version);
+        return version;
+    }
+
+    /*
+     * solve() halts the solver process itself when it cannot be used further, so halt() may be called again.
+     */
     @Override
     public void halt() throws IOException {
+        if (halted) {
+            return;
+        }
+        halted = true;
         writer.writeInt(3);
         writer.flush();
         writer.close();
@@ -61,7 +120,7 @@ public class IncrementalInterface implements SolverInterface {
     }
 
     @Override
-    public SolverResult solve(List<int[]> newConstraints, int timeLeftForSolver) throws IOException {
+    public SolverResult solve(ClauseBuffer newConstraints, int timeLeftForSolver) throws IOException {
         BooleanFormula.appendConstraints(newConstraints, info, writer);
         writer.writeInt(2); // solve
         writer.writeInt(timeLeftForSolver); // with a time limit
@@ -69,18 +128,7 @@ public class IncrementalInterface implements SolverInterface {
         final int verdict = reader.readInt();
         switch (verdict) {
         case 0:
-            final List<Assignment> list = new ArrayList<>();
-            while (true) {
-                final int value = reader.readInt();
-                if (value == 0) {
-                    break;
-                }
-                info.toLimbooleNumber(Math.abs(value)).ifPresent(limbooleNum -> {
-                    final BooleanVariable var = BooleanVariable.getVarByNumber(limbooleNum);
-                    list.add(new Assignment(var, value > 0));
-                });
-            }
-            return new SolverResult(list);
+            return new SolverResult(readModel());
         case 1:
             halt();
             return new SolverResult(SolverResults.UNSAT);
@@ -91,4 +139,107 @@ public class IncrementalInterface implements SolverInterface {
             throw new AssertionError();
         }
     }
+
+    /*
+     * The solver process is kept alive on UNSAT under assumptions, since the constraints alone may be satisfiable.
+     */
+    @Override
+    public SolverResult solve(ClauseBuffer newConstraints, List<Assignment> assumptions, int timeLeftForSolver)
+            throws IOException {
+        if (protocolVersion < PROTOCOL_VERSION) {
+            throw new IOException("The incremental solver binary (protocol version " + protocolVersion
+                    + ") does not support solving under assumptions, rebuild it from incremental-cryptominisat/");
+        }
+        // assumption variables which do not appear in the constraints get solver variables as well
+        BooleanFormula.appendConstraints(newConstraints, info, writer);
+        final int initialVarNumber = info.varNumber();
+        final int[] assumptionLiterals = new int[assumptions.size()];
+        for (int i = 0; i < assumptionLiterals.length; i++) {
+            final Assignment a = assumptions.get(i);
+            assumptionLiterals[i] = BooleanFormula.toDimacsLiteral(a.value ? a.var.number : -a.var.number, info);
+        }
+        final int varNumber = info.varNumber();
+        if (varNumber > initialVarNumber) {
+            writer.writeInt(1);
+            writer.writeInt(varNumber - initialVarNumber);
+        }
+        writer.writeInt(4); // solve under assumptions
+        writer.writeInt(timeLeftForSolver); // with a time limit
+        for (int literal : assumptionLiterals) {
+            writer.writeInt(literal);
+        }
+        writer.writeInt(0);
+        writer.flush();
+        final int verdict = reader.readInt();
+        switch (verdict) {
+        case 0:
+            return new SolverResult(readModel());
+        case 1:
+            final List<Assignment> core = readAssignments();
+            if (core.isEmpty()) {
+                halt();
+            }
+            return new SolverResult(SolverResults.UNSAT, core);
+        case 2:
+            halt();
+            return new SolverResult(SolverResults.UNKNOWN);
+        default:
+            throw new AssertionError();
+        }
+    }
+
+    /*
+     * Once a projection is set, the solver process sends the values of the projected variables only.
+     * An outdated binary always sends the whole model.
+     */
+    @Override
+    public void setProjection(Collection<BooleanVariable> vars) throws IOException {
+        if (protocolVersion < PROTOCOL_VERSION) {
+            return;
+        }
+        final int initialVarNumber = info.varNumber();
+        final int[] literals = vars.stream().mapToInt(v -> BooleanFormula.toDimacsLiteral(v.number, info)).toArray();
+        if (info.varNumber() > initialVarNumber) {
+            writer.writeInt(1);
+            writer.writeInt(info.varNumber() - initialVarNumber);
+        }
+        writer.writeInt(5); // projection
+        for (int literal : literals) {
+            writer.writeInt(literal);
+        }
+        writer.writeInt(0);
+    }
+
+    /*
+     * A model as literals terminated by 0.
+     */
+    private Model readModel() throws IOException {
+        final Model model = new Model();
+        while (true) {
+            final int value = reader.readInt();
+            if (value == 0) {
+                break;
+            }
+            info.toLimbooleNumber(Math.abs(value)).ifPresent(limbooleNum -> model.set(limbooleNum, value > 0));
+        }
+        return model;
+    }
+
+    /*
+     * Literals terminated by 0.
+     */
+    private List<Assignment> readAssignments() throws IOException {
+        final List<Assignment> list = new ArrayList<>();
+        while (true) {
+            final int value = reader.readInt();
+            if (value == 0) {
+                break;
+            }
+            info.toLimbooleNumber(Math.abs(value)).ifPresent(limbooleNum -> {
+                final BooleanVariable var = BooleanVariable.getVarByNumber(limbooleNum);
+                list.add(new Assignment(var, value > 0));
+            });
+        }
+        return list;
+    }
 }
@@ -0,0 +1,49 @@
+package sat_solving;
+
+/**
+ * (c) Igor Buzhinsky
+ */
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+
+import bnf_formulae.BooleanVariable;
+
+/*
+ * A satisfying assignment as bitsets indexed by BooleanVariable number.
+ * If the solver was given a projection (SolverInterface.setProjection()), only the projected variables are
+ * defined. Undefined variables read as false.
+ */
+public class Model {
+    private final BitSet defined = new BitSet();
+    private final BitSet values = new BitSet();
+
+    public void set(int varNumber, boolean value) {
+        defined.set(varNumber);
+        values.set(varNumber, value);
+    }
+
+    public boolean isDefined(int varNumber) {
+        return defined.get(varNumber);
+    }
+
+    public boolean value(int varNumber) {
+        return values.get(varNumber);
+    }
+
+    public boolean value(BooleanVariable var) {
+        return values.get(var.number);
+    }
+
+    /*
+     * Defined variables in the order of their numbers.
+     */
+    public List<Assignment> assignments() {
+        final List<Assignment> list = new ArrayList<>(defined.cardinality());
+        for (int i = defined.nextSetBit(0); i >= 0; i = defined.nextSetBit(i + 1)) {
+            list.add(new Assignment(BooleanVariable.getVarByNumber(i), values.get(i)));
+        }
+        return list;
+    }
+}
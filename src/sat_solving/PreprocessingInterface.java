@@ -0,0 +1,46 @@
+package sat_solving;
+
+/**
+ * (c) Igor Buzhinsky
+ */
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.List;
+
+import bnf_formulae.BooleanVariable;
+import bnf_formulae.ClauseBuffer;
+
+/*
+ * Passes the clauses given to another solver interface through a CnfPreprocessor.
+ */
+public class PreprocessingInterface implements SolverInterface {
+    private final SolverInterface solver;
+    private final CnfPreprocessor preprocessor;
+
+    PreprocessingInterface(SolverInterface solver, CnfPreprocessor preprocessor) {
+        this.solver = solver;
+        this.preprocessor = preprocessor;
+    }
+
+    @Override
+    public void halt() throws IOException {
+        solver.halt();
+    }
+
+    @Override
+    public SolverResult solve(ClauseBuffer newConstraints, int timeLeftForSolver) throws IOException {
+        return solver.solve(preprocessor.process(newConstraints), timeLeftForSolver);
+    }
+
+    @Override
+    public SolverResult solve(ClauseBuffer newConstraints, List<Assignment> assumptions, int timeLeftForSolver)
+            throws IOException {
+        return solver.solve(preprocessor.process(newConstraints), assumptions, timeLeftForSolver);
+    }
+
+    @Override
+    public void setProjection(Collection<BooleanVariable> vars) throws IOException {
+        solver.setProjection(vars);
+    }
+}
@@ -7,37 +7,45 @@ package sat_solving;
 import bnf_formulae.BooleanFormula;
 import bnf_formulae.BooleanFormula.DimacsConversionInfo;
 import bnf_formulae.BooleanVariable;
+import bnf_formulae.ClauseBuffer;
 import sat_solving.SolverResult.SolverResults;
 
 import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.List;
 import java.util.logging.Logger;
-import java.util.stream.Collectors;
 
 public class RestartInterface implements SolverInterface {
     private final DimacsConversionInfo info;
     private final Logger logger;
     private final SatSolver solver;
 
-    RestartInterface(List<int[]> positiveConstraints, String actionspec, Logger logger, SatSolver solver)
+    RestartInterface(ClauseBuffer positiveConstraints, String actionspec, Logger logger, SatSolver solver)
             throws IOException {
         if (solver.isIncremental) {
             throw new AssertionError("A non-incremental solver was expected!");
         }
         this.logger = logger;
         this.solver = solver;
-        info = BooleanFormula.actionSpecToDimacs(logger, BooleanFormula.DIMACS_FILENAME, actionspec);
+        info = BooleanFormula.actionSpecToDimacs(logger, BooleanFormula.dimacsFilename(), actionspec);
         info.close();
         appendConstraints(positiveConstraints);
     }
 
-    private void appendConstraints(List<int[]> constraints) throws IOException {
+    private void appendConstraints(ClauseBuffer constraints) throws IOException {
         BooleanFormula.transformConstraints(constraints, info);
-        final List<String> strClauses = constraints.stream()
-                .map(arr -> Arrays.toString(arr).replace(",", "").replace("[", "").replace("]", "") + " 0")
-                .collect(Collectors.toList());
+        final List<String> strClauses = new ArrayList<>();
+        final StringBuilder sb = new StringBuilder();
+        constraints.forEach((literals, from, to) -> {
+            sb.setLength(0);
+            for (int i = from; i < to; i++) {
+                sb.append(literals[i]).append(" ");
+            }
+            strClauses.add(sb.append("0").toString());
+        });
         BooleanFormula.appendConstraintsToDimacs(logger, strClauses, info);
     }
 
@@ -46,8 +54,33 @@ public class RestartInterface implements SolverInterface {
     }
 
     @Override
-    public SolverResult solve(List<int[]> newConstraints, int timeLeftForSolver) throws IOException {
+    public SolverResult solve(ClauseBuffer newConstraints, int timeLeftForSolver) throws IOException {
         appendConstraints(newConstraints);
         return BooleanFormula.solveDimacs(logger, timeLeftForSolver, solver, info).toSolverResult(timeLeftForSolver);
     }
+
+    /*
+     * Assumptions are added as unit clauses, which are removed from the DIMACS file after solving.
+     * The solvers do not report which assumptions have failed, so all of them form the core.
+     */
+    @Override
+    public SolverResult solve(ClauseBuffer newConstraints, List<Assignment> assumptions, int timeLeftForSolver)
+            throws IOException {
+        appendConstraints(newConstraints);
+        final Path dimacs = Paths.get(BooleanFormula.dimacsFilename());
+        final byte[] saved = Files.readAllBytes(dimacs);
+        final SolverResult result;
+        try {
+            final ClauseBuffer units = new ClauseBuffer();
+            for (Assignment a : assumptions) {
+                units.add(a.value ? a.var.number : -a.var.number);
+            }
+            appendConstraints(units);
+            result = BooleanFormula.solveDimacs(logger, timeLeftForSolver, solver, info)
+                    .toSolverResult(timeLeftForSolver);
+        } finally {
+            Files.write(dimacs, saved);
+        }
+        return result.type() == SolverResults.UNSAT ? new SolverResult(SolverResults.UNSAT, assumptions) : result;
+    }
 }
@@ -4,6 +4,9 @@ import java.io.IOException;
 import java.util.List;
 import java.util.logging.Logger;
 
+import bnf_formulae.BooleanVariable;
+import bnf_formulae.ClauseBuffer;
+
 /**
  * (c) Igor Buzhinsky
  */
@@ -11,7 +14,8 @@ import java.util.logging.Logger;
 public enum SatSolver {
     CRYPTOMINISAT(false, "cryptominisat4 --maxtime="),
     LINGELING(false, "lingeling -t "),
-    INCREMENTAL_CRYPTOMINISAT(true, "incremental-cryptominisat-binary ");
+    INCREMENTAL_CRYPTOMINISAT(true, "incremental-cryptominisat-binary "),
+    EMBEDDED(true, null);
 
     public final boolean isIncremental;
     public final String command;
@@ -21,15 +25,42 @@ public enum SatSolver {
         this.command = command;
     }
 
-    public SolverInterface createInterface(List<int[]> positiveConstraints, String actionspec, Logger logger)
+    public SolverInterface createInterface(ClauseBuffer positiveConstraints, String actionspec, Logger logger)
             throws IOException {
         switch (this) {
             case INCREMENTAL_CRYPTOMINISAT:
                 return new IncrementalInterface(positiveConstraints, actionspec, logger, this);
+            case EMBEDDED:
+                return new EmbeddedInterface(positiveConstraints, actionspec, logger);
             case LINGELING: case CRYPTOMINISAT:
                 return new RestartInterface(positiveConstraints, actionspec, logger, this);
             default:
                 throw new AssertionError();
         }
     }
+
+    /*
+     * If the preprocessor is not null, all clauses pass through it.
+     */
+    public SolverInterface createInterface(ClauseBuffer positiveConstraints, String actionspec, Logger logger,
+                                           CnfPreprocessor preprocessor) throws IOException {
+        return preprocessor == null ? createInterface(positiveConstraints, actionspec, logger)
+                : new PreprocessingInterface(createInterface(preprocessor.process(positiveConstraints), actionspec,
+                        logger), preprocessor);
+    }
+
+    /*
+     * Cube-and-conquer with the given number of embedded solvers, regardless of the solver type.
+     */
+    public static SolverInterface createCubeAndConquerInterface(ClauseBuffer positiveConstraints, String actionspec,
+                                                                Logger logger, CnfPreprocessor preprocessor,
+                                                                int workers,
+                                                                List<List<BooleanVariable>> splittingGroups)
+            throws IOException {
+        if (preprocessor == null) {
+            return new CubeAndConquerInterface(positiveConstraints, actionspec, logger, workers, splittingGroups);
+        }
+        return new PreprocessingInterface(new CubeAndConquerInterface(preprocessor.process(positiveConstraints),
+                actionspec, logger, workers, splittingGroups), preprocessor);
+    }
 }
@@ -1,13 +1,32 @@
 package sat_solving;
 
 import java.io.IOException;
+import java.util.Collection;
 import java.util.List;
 
+import bnf_formulae.BooleanVariable;
+import bnf_formulae.ClauseBuffer;
+
 /**
  * Created by buzhinsky on 7/2/16.
  */
 
 public interface SolverInterface {
     void halt() throws IOException;
-    SolverResult solve(List<int[]> newConstraints, int timeLeftForSolver) throws IOException;
+    SolverResult solve(ClauseBuffer newConstraints, int timeLeftForSolver) throws IOException;
+
+    /*
+     * The assumptions hold for this call only. If the result is UNSAT, its core() is a subset of the assumptions
+     * which cannot be satisfied, and the solver can be used further (unless the core is empty, which means that
+     * the constraints are unsatisfiable by themselves).
+     */
+    SolverResult solve(ClauseBuffer newConstraints, List<Assignment> assumptions, int timeLeftForSolver)
+            throws IOException;
+
+    /*
+     * Subsequent models need to define only these variables. Solvers which read the whole model from a file
+     * ignore the projection.
+     */
+    default void setProjection(Collection<BooleanVariable> vars) throws IOException {
+    }
 }
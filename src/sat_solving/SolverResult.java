@@ -10,7 +10,10 @@ import java.util.stream.Collectors;
 
 public class SolverResult {
     private final SolverResults result;
-    private final List<Assignment> assignments;
+    private final Model model;
+    // sorted by variable name, built from the model on demand
+    private List<Assignment> assignments;
+    private final List<Assignment> core;
     
     public enum SolverResults {
         SAT, UNSAT, UNKNOWN
@@ -19,11 +22,29 @@ public class SolverResult {
     public SolverResult(List<Assignment> assignments) {
         result = SolverResults.SAT;
         this.assignments = assignments.stream().sorted().collect(Collectors.toList());
+        model = new Model();
+        assignments.forEach(a -> model.set(a.var.number, a.value));
+        core = Collections.emptyList();
+    }
+    
+    public SolverResult(Model model) {
+        result = SolverResults.SAT;
+        this.model = model;
+        core = Collections.emptyList();
     }
     
     public SolverResult(SolverResults result) {
+        this(result, Collections.emptyList());
+    }
+    
+    /*
+     * UNSAT under assumptions: the core is a subset of the assumptions which cannot be satisfied.
+     */
+    public SolverResult(SolverResults result, List<Assignment> core) {
         this.result = result;
+        model = new Model();
         assignments = Collections.emptyList();
+        this.core = core;
     }
     
     public SolverResults type() {
@@ -31,12 +52,23 @@ public class SolverResult {
     }
     
     public List<Assignment> list() {
+        if (assignments == null) {
+            assignments = model.assignments().stream().sorted().collect(Collectors.toList());
+        }
         return Collections.unmodifiableList(assignments);
     }
     
+    public Model model() {
+        return model;
+    }
+    
+    public List<Assignment> core() {
+        return Collections.unmodifiableList(core);
+    }
+    
     @Override
     public String toString() {
         return result + (result == SolverResults.SAT ?
-            assignments.toString().replaceAll(", ", "\n").replace("[", "\n").replace("]", "") : "");
+            list().toString().replaceAll(", ", "\n").replace("[", "\n").replace("]", "") : "");
     }
 }
@@ -5,5 +5,5 @@ package sat_solving;
  */
 
 public enum SolvingStrategy {
-    QSAT, EXP_SAT, BACKTRACKING, COUNTEREXAMPLE, STATE_MERGING
+    QSAT, EXP_SAT, BACKTRACKING, COUNTEREXAMPLE, STATE_MERGING, BOUNDED
 }
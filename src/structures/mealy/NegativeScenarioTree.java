@@ -10,7 +10,9 @@ import scenario.StringScenario;
 
 import java.io.IOException;
 import java.text.ParseException;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Set;
@@ -18,6 +20,8 @@ import java.util.Set;
 public class NegativeScenarioTree {
     private final NegativeMealyNode root;
     private final Set<NegativeMealyNode> nodes;
+    // nodes which got new outgoing transitions or loops, in the order of changes (possibly repeated)
+    private final List<NegativeMealyNode> changedNodes = new ArrayList<>();
 
     public NegativeScenarioTree() {
         root = new NegativeMealyNode(0);
@@ -55,6 +59,7 @@ public class NegativeScenarioTree {
             throw new AssertionError("Duplicate counterexample!");
         }
         node.addLoop(loopNode);
+        changedNodes.add(node);
     }
 
     /*
@@ -71,10 +76,22 @@ public class NegativeScenarioTree {
                     nodes.add(dst);
                 }
                 src.addTransition(e, expr, actions, dst);
+                changedNodes.add(src);
             }
         }
     }
 
+    public int changeCount() {
+        return changedNodes.size();
+    }
+
+    /*
+     * Nodes changed after the first changeCount changes, for incremental processing of the tree.
+     */
+    public List<NegativeMealyNode> changedNodes(int changeCount) {
+        return Collections.unmodifiableList(changedNodes.subList(changeCount, changedNodes.size()));
+    }
+
     public Collection<NegativeMealyNode> nodes() {
         return nodes;
     }
@@ -12,6 +12,8 @@ import java.util.stream.Collectors;
 public class ScenarioTree {
     private final MealyNode root;
     private final List<MealyNode> nodes;
+    // the last node of each added scenario, in the order of addition
+    private final List<MealyNode> scenarioEnds = new ArrayList<>();
 
     public ScenarioTree() {
         this.root = new MealyNode(0);
@@ -42,6 +44,14 @@ public class ScenarioTree {
             addTransitions(node, scenario.getEvents(i), scenario.getExpr(i), scenario.getActions(i));
             node = node.dst(scenario.getEvents(i).get(0), scenario.getExpr(i));
         }
+        scenarioEnds.add(node);
+    }
+
+    /*
+     * Scenario i corresponds to the path from the root to scenarioEnds().get(i).
+     */
+    public List<MealyNode> scenarioEnds() {
+        return Collections.unmodifiableList(scenarioEnds);
     }
 
     /*
@@ -4,10 +4,12 @@ package structures.moore;
  * (c) Igor Buzhinsky
  */
 
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
-import java.util.HashSet;
+import java.util.Comparator;
 import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Set;
 
 import scenario.StringActions;
@@ -15,24 +17,36 @@ import scenario.StringScenario;
 
 public class NegativePlantScenarioForest extends PlantScenarioForest {
     private final Set<MooreNode> terminalNodes = new LinkedHashSet<>();
-    private final Set<MooreNode> unprocessedRoots = new HashSet<>();
-    private final Set<MooreNode> unprocessedTerminalNodes = new HashSet<>();
-    private final Set<MooreNode> unprocessedChildren = new HashSet<>();
+    // parts of the forest added after the last call of the corresponding take...() method
+    private final List<MooreNode> unprocessedRoots = new ArrayList<>();
+    private final List<MooreNode> unprocessedTerminalNodes = new ArrayList<>();
+    private final List<MooreTransition> unprocessedTransitions = new ArrayList<>();
 
     public Collection<MooreNode> terminalNodes() {
         return Collections.unmodifiableSet(terminalNodes);
     }
 
-    public boolean processRoot(MooreNode node) {
-        return unprocessedRoots.remove(node);
+    public List<MooreNode> takeUnprocessedRoots() {
+        return take(unprocessedRoots);
     }
     
-    public boolean processTerminalNode(MooreNode node) {
-        return unprocessedTerminalNodes.remove(node);
+    public List<MooreNode> takeUnprocessedTerminalNodes() {
+        return take(unprocessedTerminalNodes);
     }
     
-    public boolean processChild(MooreNode node) {
-        return unprocessedChildren.remove(node);
+    /*
+     * New transitions ordered by source node numbers, and by their addition for the same source.
+     */
+    public List<MooreTransition> takeUnprocessedTransitions() {
+        final List<MooreTransition> result = take(unprocessedTransitions);
+        result.sort(Comparator.comparingInt(t -> t.src().number()));
+        return result;
+    }
+    
+    private static <T> List<T> take(List<T> unprocessed) {
+        final List<T> result = new ArrayList<>(unprocessed);
+        unprocessed.clear();
+        return result;
     }
 
     @Override
@@ -60,8 +74,9 @@ public class NegativePlantScenarioForest extends PlantScenarioForest {
         if (dst == null) {
             dst = new MooreNode(nodes.size(), actions);
             nodes.add(dst);
-            unprocessedChildren.add(dst);
-            src.addTransition(event, dst);
+            final MooreTransition transition = new MooreTransition(src, dst, event);
+            src.addTransition(transition);
+            unprocessedTransitions.add(transition);
         }
         return dst;
     }
@@ -7,8 +7,14 @@ package structures.moore;
 import scenario.StringActions;
 import scenario.StringScenario;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
 public class PositivePlantScenarioForest extends PlantScenarioForest {
     private final boolean separatePaths;
+    // the last node of each added scenario, in the order of addition
+    private final List<MooreNode> scenarioEnds = new ArrayList<>();
 
     public PositivePlantScenarioForest(boolean separatePaths) {
         this.separatePaths = separatePaths;
@@ -24,7 +30,14 @@ public class PositivePlantScenarioForest extends PlantScenarioForest {
             nodes.add(properRoot);
             roots.add(properRoot);
         }
-        addScenarioFrom(properRoot, scenario);
+        scenarioEnds.add(addScenarioFrom(properRoot, scenario));
+    }
+
+    /*
+     * Scenario i corresponds to the path from a root to scenarioEnds().get(i).
+     */
+    public List<MooreNode> scenarioEnds() {
+        return Collections.unmodifiableList(scenarioEnds);
     }
 
     @Override
@@ -4,6 +4,7 @@
 package verification.statemachine;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
 /**
@@ -15,6 +16,8 @@ public class SimpleState {
     public final String name;
     final boolean isInitial;
     private final List<StateTransition> outTransitions = new ArrayList<>();
+    // dense number of the state in its StateMachine, -1 if the state has not been added to one
+    int index = -1;
 
     public SimpleState(String name, boolean isInitial) {
         this.name = name;
@@ -23,11 +26,11 @@ public class SimpleState {
     }
 
     public List<StateTransition> outgoingTransitions() {
-        return outTransitions;
+        return Collections.unmodifiableList(outTransitions);
     }
 
-    public String getUniqueName() {
-        return name + '@' + Integer.toHexString(super.hashCode());
+    public int index() {
+        return index;
     }
 
     public void addOutgoingTransition(StateTransition t) {
@@ -1,6 +1,9 @@
 package verification.statemachine;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 /**
@@ -11,6 +14,8 @@ import java.util.Map;
 public class StateMachine {
     private SimpleState initialState;
     private final Map<String, SimpleState> states = new HashMap<>();
+    // by SimpleState.index()
+    private final List<SimpleState> stateList = new ArrayList<>();
 
     public SimpleState initialState() {
         if (initialState == null) {
@@ -21,7 +26,19 @@ public class StateMachine {
 
     public void addState(SimpleState s) {
         checkInitial(s);
+        if (s.index != -1) {
+            throw new IllegalArgumentException("State " + s + " already belongs to a state machine");
+        }
+        s.index = stateList.size();
         states.put(s.name, s);
+        stateList.add(s);
+    }
+
+    /*
+     * In the order of SimpleState.index().
+     */
+    public List<SimpleState> states() {
+        return Collections.unmodifiableList(stateList);
     }
 
     private void checkInitial(SimpleState s)  {
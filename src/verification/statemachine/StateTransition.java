@@ -13,6 +13,9 @@ public class StateTransition {
     public final String event;
     private final List<String> actions = new ArrayList<>();
     private final SimpleState target;
+    // interned event and action set, used by the compiled Buchi transition guards of the verifier
+    private int eventIndex = -1;
+    private long[] actionBits = new long[0];
 
     public StateTransition(String event, SimpleState target) {
         this.event = event;
@@ -30,4 +33,17 @@ public class StateTransition {
     public void addAction(String a) {
         actions.add(a);
     }
+
+    public void setSymbols(int eventIndex, long[] actionBits) {
+        this.eventIndex = eventIndex;
+        this.actionBits = actionBits;
+    }
+
+    public int eventIndex() {
+        return eventIndex;
+    }
+
+    public long[] actionBits() {
+        return actionBits;
+    }
 }
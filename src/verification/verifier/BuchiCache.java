@@ -0,0 +1,219 @@
+package verification.verifier;
+
+/**
+ * (c) Igor Buzhinsky
+ */
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.lang.reflect.Method;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+
+import meta.CacheFiles;
+import meta.SynthesisSession;
+import verification.ltl.buchi.BuchiAutomaton;
+import verification.ltl.buchi.BuchiNode;
+import verification.ltl.buchi.TransitionCondition;
+import verification.ltl.buchi.translator.JLtl2baTranslator;
+import verification.ltl.grammar.BooleanNode;
+import verification.ltl.grammar.IExpression;
+import verification.ltl.grammar.LtlNode;
+import verification.ltl.grammar.Predicate;
+import verification.ltl.grammar.PredicateFactory;
+
+/*
+ * Content-addressed cache of LTL-to-Buchi translations together with their finite counterexample node sets.
+ * The key is the printed (negated) formula plus the event/action alphabet. Entries are kept in memory for
+ * the lifetime of the JVM and, if the current SynthesisSession has a cache directory, in files named by
+ * the SHA-256 of the key. Cached automata are shared and must not be modified.
+ * ltl2ba is called through JNI and is not thread-safe, so translations are serialized.
+ */
+public class BuchiCache {
+    private static final Object TRANSLATOR_LOCK = new Object();
+    private static final JLtl2baTranslator TRANSLATOR = new JLtl2baTranslator();
+    private static final Map<String, Entry> MEMORY = new ConcurrentHashMap<>();
+    // target object for the predicates of automata loaded from disk
+    private static final PredicateFactory PREDICATES = new PredicateFactory();
+    private static final String FILE_SUFFIX = ".buchi";
+
+    static class Entry {
+        final BuchiAutomaton automaton;
+        final Set<BuchiNode> finiteCounterexampleNodes;
+
+        Entry(BuchiAutomaton automaton, Set<BuchiNode> finiteCounterexampleNodes) {
+            this.automaton = automaton;
+            this.finiteCounterexampleNodes = finiteCounterexampleNodes;
+        }
+    }
+
+    static String alphabet(Collection<String> events, Collection<String> actions) {
+        return "events " + String.join(",", new TreeSet<>(events)) + "; actions "
+                + String.join(",", new TreeSet<>(actions));
+    }
+
+    static Entry get(LtlNode formula, String alphabet) {
+        final String key = formula + "\n" + alphabet;
+        Entry entry = MEMORY.get(key);
+        if (entry != null) {
+            return entry;
+        }
+        final File dir = SynthesisSession.current().cacheDirectory();
+        final File file = dir == null ? null : new File(dir, sha256(key) + FILE_SUFFIX);
+        // the key line of the file
+        final String header = key.replace('\n', '\t');
+        if (file != null) {
+            entry = CacheFiles.read(file, header, BuchiCache::load);
+        }
+        if (entry == null) {
+            final BuchiAutomaton automaton;
+            synchronized (TRANSLATOR_LOCK) {
+                automaton = TRANSLATOR.translate(formula);
+            }
+            final Entry translated = new Entry(automaton,
+                    FiniteCounterexampleNodeSearcher.findCounterexampleBuchiStates(automaton));
+            if (file != null) {
+                CacheFiles.write(file, header, pw -> save(pw, translated));
+            }
+            entry = translated;
+        }
+        final Entry previous = MEMORY.putIfAbsent(key, entry);
+        return previous == null ? entry : previous;
+    }
+
+    private static String sha256(String s) {
+        try {
+            final byte[] digest = MessageDigest.getInstance("SHA-256").digest(s.getBytes(StandardCharsets.UTF_8));
+            final StringBuilder sb = new StringBuilder();
+            for (byte b : digest) {
+                sb.append(String.format("%02x", b));
+            }
+            return sb.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    /*
+     * File format (tab-separated):
+     * key line (with the newline replaced by a tab)
+     * nodes <id>...
+     * start <id>
+     * accept <id>...
+     * finite <id>...
+     * t <source> <target> (+|-)<expression>...
+     */
+    private static void save(PrintWriter pw, Entry entry) {
+        final BuchiAutomaton a = entry.automaton;
+        pw.println(ids("nodes", a.nodes()));
+        pw.println("start\t" + a.startNode().getID());
+        pw.println(ids("accept", a.acceptSet()));
+        pw.println(ids("finite", entry.finiteCounterexampleNodes));
+        for (BuchiNode node : a.nodes()) {
+            for (Map.Entry<TransitionCondition, BuchiNode> t : node.getTransitions().entrySet()) {
+                final StringBuilder sb = new StringBuilder("t\t" + node.getID() + "\t" + t.getValue().getID());
+                t.getKey().expressions().forEach(e -> sb.append("\t+").append(e));
+                t.getKey().negativeExpressions().forEach(e -> sb.append("\t-").append(e));
+                pw.println(sb);
+            }
+        }
+    }
+
+    private static String ids(String title, Collection<BuchiNode> nodes) {
+        final StringBuilder sb = new StringBuilder(title);
+        nodes.forEach(n -> sb.append("\t").append(n.getID()));
+        return sb.toString();
+    }
+
+    /*
+     * Reads the file after the key line, returns null if it is malformed.
+     */
+    private static Entry load(BufferedReader in) throws IOException {
+        final BuchiAutomaton a = new BuchiAutomaton();
+        final Map<Integer, BuchiNode> nodes = new HashMap<>();
+        final Map<String, IExpression<Boolean>> expressions = new HashMap<>();
+        final Set<BuchiNode> accept = new HashSet<>();
+        final Set<BuchiNode> finite = new HashSet<>();
+        String line;
+        while ((line = in.readLine()) != null) {
+            final String[] tokens = line.split("\t");
+            switch (tokens[0]) {
+            case "nodes":
+                for (int i = 1; i < tokens.length; i++) {
+                    final BuchiNode node = new BuchiNode(Integer.parseInt(tokens[i]));
+                    nodes.put(node.getID(), node);
+                    a.addNode(node);
+                }
+                break;
+            case "start":
+                a.setStartNode(node(nodes, tokens[1]));
+                break;
+            case "accept":
+                for (int i = 1; i < tokens.length; i++) {
+                    accept.add(node(nodes, tokens[i]));
+                }
+                break;
+            case "finite":
+                for (int i = 1; i < tokens.length; i++) {
+                    finite.add(node(nodes, tokens[i]));
+                }
+                break;
+            case "t":
+                final TransitionCondition condition = new TransitionCondition();
+                for (int i = 3; i < tokens.length; i++) {
+                    final IExpression<Boolean> expr = expressions.computeIfAbsent(tokens[i].substring(1),
+                            BuchiCache::expression);
+                    if (tokens[i].charAt(0) == '+') {
+                        condition.addExpression(expr);
+                    } else {
+                        condition.addNegExpression(expr);
+                    }
+                }
+                node(nodes, tokens[1]).addTransition(condition, node(nodes, tokens[2]));
+                break;
+            default:
+                return null;
+            }
+        }
+        if (a.startNode() == null) {
+            return null;
+        }
+        a.setAcceptSet(accept);
+        return new Entry(a, finite);
+    }
+
+    private static BuchiNode node(Map<Integer, BuchiNode> nodes, String id) {
+        final BuchiNode node = nodes.get(Integer.parseInt(id));
+        if (node == null) {
+            throw new IllegalArgumentException("Unknown Buchi node " + id);
+        }
+        return node;
+    }
+
+    private static IExpression<Boolean> expression(String s) {
+        final BooleanNode constant = BooleanNode.getByName(s);
+        if (constant != null) {
+            return constant;
+        }
+        final int bracket = s.indexOf('(');
+        if (bracket == -1 || !s.endsWith(")")) {
+            throw new IllegalArgumentException("Unexpected expression " + s);
+        }
+        try {
+            final Method m = PredicateFactory.class.getMethod(s.substring(0, bracket), String.class);
+            return new Predicate(PREDICATES, m, s.substring(bracket + 1, s.length() - 1));
+        } catch (NoSuchMethodException e) {
+            throw new IllegalArgumentException("Unexpected predicate " + s);
+        }
+    }
+}
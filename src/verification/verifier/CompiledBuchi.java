@@ -0,0 +1,186 @@
+package verification.verifier;
+
+/**
+ * (c) Igor Buzhinsky
+ */
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import verification.ltl.buchi.BuchiAutomaton;
+import verification.ltl.buchi.BuchiNode;
+import verification.ltl.buchi.TransitionCondition;
+import verification.ltl.grammar.BooleanNode;
+import verification.ltl.grammar.IExpression;
+import verification.ltl.grammar.Predicate;
+import verification.statemachine.StateTransition;
+
+/*
+ * Buchi automaton with transition guards compiled into bitmask tests over the interned
+ * event and action numbers of a SymbolTable. The guards are evaluated against
+ * StateTransition.eventIndex() and StateTransition.actionBits() without reflection.
+ * Immutable after construction; the original BuchiAutomaton is not modified.
+ */
+class CompiledBuchi {
+    final BuchiAutomaton buchi;
+    // indexed by BuchiNode.getID()
+    private final Guard[][] guards;
+    private final BuchiNode[][] targets;
+    private final BuchiNode[] nodes;
+
+    CompiledBuchi(BuchiAutomaton buchi, SymbolTable symbols) {
+        this.buchi = buchi;
+        int maxId = -1;
+        for (BuchiNode node : buchi.nodes()) {
+            maxId = Math.max(maxId, node.getID());
+        }
+        guards = new Guard[maxId + 1][];
+        targets = new BuchiNode[maxId + 1][];
+        nodes = new BuchiNode[maxId + 1];
+        for (BuchiNode node : buchi.nodes()) {
+            nodes[node.getID()] = node;
+            final List<Guard> nodeGuards = new ArrayList<>();
+            final List<BuchiNode> nodeTargets = new ArrayList<>();
+            for (Map.Entry<TransitionCondition, BuchiNode> transition : node.getTransitions().entrySet()) {
+                final Guard guard = new Guard(transition.getKey(), symbols);
+                if (!guard.unsatisfiable) {
+                    nodeGuards.add(guard);
+                    nodeTargets.add(transition.getValue());
+                }
+            }
+            guards[node.getID()] = nodeGuards.toArray(new Guard[nodeGuards.size()]);
+            targets[node.getID()] = nodeTargets.toArray(new BuchiNode[nodeTargets.size()]);
+        }
+    }
+
+    /*
+     * Node ids are less than this number.
+     */
+    int nodeIdBound() {
+        return guards.length;
+    }
+
+    BuchiNode node(int id) {
+        return nodes[id];
+    }
+
+    /*
+     * Buchi successors of the node which are enabled by the state machine transition,
+     * in the order of the original transitions.
+     */
+    List<BuchiNode> successors(BuchiNode node, StateTransition transition) {
+        final Guard[] nodeGuards = guards[node.getID()];
+        final BuchiNode[] nodeTargets = targets[node.getID()];
+        final List<BuchiNode> result = new ArrayList<>(nodeGuards.length);
+        final int event = transition.eventIndex();
+        final long[] actions = transition.actionBits();
+        for (int i = 0; i < nodeGuards.length; i++) {
+            if (nodeGuards[i].accepts(event, actions)) {
+                result.add(nodeTargets[i]);
+            }
+        }
+        return result;
+    }
+
+    private static boolean bit(long[] mask, int index) {
+        final int word = index >>> 6;
+        return word < mask.length && (mask[word] & (1L << index)) != 0;
+    }
+
+    private static long[] set(long[] mask, int index) {
+        final int word = index >>> 6;
+        final long[] result = word < mask.length ? mask : Arrays.copyOf(mask, word + 1);
+        result[word] |= 1L << index;
+        return result;
+    }
+
+    private static long[] or(long[] mask1, long[] mask2) {
+        final long[] result = Arrays.copyOf(mask1, Math.max(mask1.length, mask2.length));
+        for (int i = 0; i < mask2.length; i++) {
+            result[i] |= mask2[i];
+        }
+        return result;
+    }
+
+    /*
+     * Conjunction of event and action literals:
+     * the event must be in every positive event set and in no negative one,
+     * all required actions must be present and all forbidden ones absent.
+     */
+    private static class Guard {
+        // null if no positive event literal is present
+        private long[] allowedEvents;
+        private long[] forbiddenEvents = new long[0];
+        private long[] requiredActions = new long[0];
+        private long[] forbiddenActions = new long[0];
+        private boolean unsatisfiable;
+
+        Guard(TransitionCondition condition, SymbolTable symbols) {
+            for (IExpression<Boolean> expr : condition.expressions()) {
+                add(expr, true, symbols);
+            }
+            for (IExpression<Boolean> expr : condition.negativeExpressions()) {
+                add(expr, false, symbols);
+            }
+            for (int i = 0; i < Math.min(requiredActions.length, forbiddenActions.length); i++) {
+                unsatisfiable |= (requiredActions[i] & forbiddenActions[i]) != 0;
+            }
+            if (allowedEvents != null) {
+                boolean empty = true;
+                for (int i = 0; i < allowedEvents.length; i++) {
+                    empty &= (allowedEvents[i] & ~(i < forbiddenEvents.length ? forbiddenEvents[i] : 0)) == 0;
+                }
+                unsatisfiable |= empty;
+            }
+        }
+
+        private void add(IExpression<Boolean> expr, boolean positive, SymbolTable symbols) {
+            if (expr instanceof BooleanNode) {
+                unsatisfiable |= expr.getValue() != positive;
+            } else if (expr instanceof Predicate && ((Predicate) expr).getName().equals("event")) {
+                long[] events = new long[0];
+                for (String event : ((Predicate) expr).arg().split(",")) {
+                    events = set(events, symbols.event(event));
+                }
+                if (!positive) {
+                    forbiddenEvents = or(forbiddenEvents, events);
+                } else if (allowedEvents == null) {
+                    allowedEvents = events;
+                } else {
+                    for (int i = 0; i < allowedEvents.length; i++) {
+                        allowedEvents[i] &= i < events.length ? events[i] : 0;
+                    }
+                }
+            } else if (expr instanceof Predicate && ((Predicate) expr).getName().equals("action")) {
+                final int action = symbols.action(((Predicate) expr).arg());
+                if (positive) {
+                    requiredActions = set(requiredActions, action);
+                } else {
+                    forbiddenActions = set(forbiddenActions, action);
+                }
+            } else {
+                throw new AssertionError("Unsupported transition condition expression " + expr);
+            }
+        }
+
+        boolean accepts(int event, long[] actions) {
+            if (allowedEvents != null && !bit(allowedEvents, event) || bit(forbiddenEvents, event)) {
+                return false;
+            }
+            for (int i = 0; i < requiredActions.length; i++) {
+                final long present = i < actions.length ? actions[i] : 0;
+                if ((requiredActions[i] & ~present) != 0) {
+                    return false;
+                }
+            }
+            for (int i = 0; i < Math.min(forbiddenActions.length, actions.length); i++) {
+                if ((forbiddenActions[i] & actions[i]) != 0) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+}
@@ -1,48 +1,51 @@
 package verification.verifier;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.util.Arrays;
 
-import verification.ltl.buchi.BuchiAutomaton;
 import verification.ltl.buchi.BuchiNode;
-import verification.ltl.grammar.PredicateFactory;
 import verification.statemachine.SimpleState;
 
 /**
- * TODO: add comment
+ * Product of a state machine and a Buchi automaton, whose nodes are created on demand.
+ * Nodes are stored in a table indexed by SimpleState.index() and BuchiNode.getID(),
+ * whose rows are allocated when a state is first reached.
  *
  * @author Kirill Egorov
  */
 class IntersectionAutomata {
-    private final PredicateFactory predicates;
-    private final BuchiAutomaton buchiAutomata;
-    private final Map<String, IntersectionNode> nodeMap = new HashMap<>();
+    private final CompiledBuchi buchiAutomata;
+    private IntersectionNode[][] table = new IntersectionNode[16][];
+    private int nodeCount;
 
-    IntersectionAutomata(PredicateFactory predicates, BuchiAutomaton buchi) {
-        this.predicates = predicates;
+    IntersectionAutomata(CompiledBuchi buchi) {
         buchiAutomata = buchi;
     }
 
-    BuchiAutomaton getBuchiAutomata() {
+    CompiledBuchi getBuchiAutomata() {
         return buchiAutomata;
     }
 
     IntersectionNode getNode(SimpleState state, BuchiNode node) {
-        String key = getUniqueKey(state, node);
-
-        IntersectionNode res = nodeMap.get(key);
+        final int stateIndex = state.index();
+        if (stateIndex < 0) {
+            throw new AssertionError("State " + state + " does not belong to a state machine");
+        }
+        if (stateIndex >= table.length) {
+            table = Arrays.copyOf(table, Math.max(stateIndex + 1, table.length * 2));
+        }
+        IntersectionNode[] row = table[stateIndex];
+        if (row == null) {
+            row = table[stateIndex] = new IntersectionNode[buchiAutomata.nodeIdBound()];
+        }
+        IntersectionNode res = row[node.getID()];
         if (res == null) {
-            res = new IntersectionNode(this, state, node);
-            nodeMap.put(key, res);
+            res = new IntersectionNode(this, state, node, nodeCount++);
+            row[node.getID()] = res;
         }
         return res;
     }
 
-    PredicateFactory getPredicates() {
-        return predicates;
-    }
-
-    private String getUniqueKey(SimpleState state, BuchiNode node) {
-        return state.getUniqueName() + "_" + node.getID();
+    int nodeCount() {
+        return nodeCount;
     }
 }
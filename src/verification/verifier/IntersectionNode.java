@@ -1,13 +1,9 @@
 package verification.verifier;
 
-import java.util.Iterator;
-import java.util.Map;
-import java.util.NoSuchElementException;
-import java.util.function.Consumer;
+import java.util.ArrayList;
+import java.util.List;
 
-import verification.ltl.buchi.BuchiAutomaton;
 import verification.ltl.buchi.BuchiNode;
-import verification.ltl.buchi.TransitionCondition;
 import verification.statemachine.SimpleState;
 import verification.statemachine.StateTransition;
 
@@ -21,24 +17,37 @@ public class IntersectionNode {
     public final SimpleState state;
     public final BuchiNode node;
     public final boolean terminal;
-    private final TransitionIterator iterator;
+    // dense number of this node in its IntersectionAutomata
+    final int id;
+    private List<IntersectionTransition> successors;
 
-    IntersectionNode(IntersectionAutomata automata, SimpleState state, BuchiNode node) {
+    IntersectionNode(IntersectionAutomata automata, SimpleState state, BuchiNode node, int id) {
         this.automata = automata;
         this.state = state;
         this.node = node;
+        this.id = id;
 
-        final BuchiAutomaton buchi = automata.getBuchiAutomata();
-        terminal = buchi.acceptSet().contains(node);
-        iterator = new TransitionIterator();
+        terminal = automata.getBuchiAutomata().buchi.acceptSet().contains(node);
     }
 
-    public IntersectionTransition next() {
-        return iterator.hasNext() ? iterator.next() : null;
-    }
-
-    void resetIterator() {
-        iterator.reset();
+    /*
+     * Outgoing transitions of the product, except the ones which correspond to state machine
+     * transitions with null events. Computed once.
+     */
+    List<IntersectionTransition> successors() {
+        if (successors == null) {
+            successors = new ArrayList<>();
+            for (StateTransition stateTransition : state.outgoingTransitions()) {
+                if (stateTransition.event == null) {
+                    continue;
+                }
+                for (BuchiNode target : automata.getBuchiAutomata().successors(node, stateTransition)) {
+                    successors.add(new IntersectionTransition(stateTransition,
+                            automata.getNode(stateTransition.getTarget(), target)));
+                }
+            }
+        }
+        return successors;
     }
 
     @Override
@@ -67,72 +76,4 @@ public class IntersectionNode {
     public String toString() {
         return String.format("[\"%s\", %d]", state.name, node.getID());
     }
-
-    private class TransitionIterator implements Iterator<IntersectionTransition> {
-        private Iterator<StateTransition> stateIter;
-        private Iterator<Map.Entry<TransitionCondition, BuchiNode>> nodeIter;
-
-        private StateTransition nextStateTransition;
-        private IntersectionTransition next;
-
-        private TransitionIterator() {
-            reset();
-        }
-
-        public void reset() {
-            stateIter = state.outgoingTransitions().iterator();
-            nodeIter = node.getTransitions().entrySet().iterator();
-            if (stateIter.hasNext()) {
-                nextStateTransition = stateIter.next();
-            }
-        }
-
-        @Override
-        public boolean hasNext() {
-            if (next != null) {
-                return true;
-            }
-            Map.Entry<TransitionCondition, BuchiNode> nextBuchiTransition;
-
-            automata.getPredicates().setAutomataState(state, nextStateTransition);
-            while (true) {
-                if (nodeIter.hasNext()) {
-                    nextBuchiTransition = nodeIter.next();
-                    if (nextBuchiTransition.getKey().getValue()) {
-                        IntersectionNode node = automata.getNode(nextStateTransition.getTarget(),
-                                nextBuchiTransition.getValue());
-                        next = new IntersectionTransition(nextStateTransition, node);
-                        return true;
-                    }
-                } else if (stateIter.hasNext()) {
-                    nextStateTransition = stateIter.next();
-                    nodeIter = node.getTransitions().entrySet().iterator();
-                    automata.getPredicates().setAutomataState(state, nextStateTransition);
-                } else {
-                    next = null;
-                    return false;
-                }
-            }
-        }
-
-        @Override
-        public IntersectionTransition next() {
-            if (!hasNext()) {
-                throw new NoSuchElementException();
-            }
-            final IntersectionTransition res = next;
-            next = null;
-            return res;
-        }
-
-        @Override
-        public void remove() {
-            throw new UnsupportedOperationException();
-        }
-
-        @Override
-        public void forEachRemaining(Consumer<? super IntersectionTransition> action) {
-            throw new UnsupportedOperationException();
-        }
-    }
 }
@@ -3,15 +3,21 @@ package verification.verifier;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 import java.util.logging.Logger;
 
+import meta.SynthesisSession;
 import org.apache.commons.lang3.tuple.Pair;
 
 import structures.moore.NondetMooreAutomaton;
 
-public class NondetMooreVerifierPair {
+public class NondetMooreVerifierPair implements AutoCloseable {
     private final Verifier ordinaryVerifier;
     private final Verifier globalVerifier;
+    // runs the global verifier concurrently with the ordinary one
+    private ExecutorService executor;
     
     public NondetMooreVerifierPair(Logger logger, List<String> strFormulae, List<String> events, List<String> actions) {
         final List<String> ordinaryLTL = new ArrayList<>();
@@ -29,9 +35,52 @@ public class NondetMooreVerifierPair {
         globalVerifier = new Verifier(logger, globalLTL, events, actions, true);
     }
     
+    /*
+     * See Verifier.setParallelism(). With threads > 1, the ordinary and the global verifiers also run concurrently.
+     */
+    public void setParallelism(int threads, int counterexampleLimit) {
+        ordinaryVerifier.setParallelism(threads, counterexampleLimit);
+        globalVerifier.setParallelism(threads, counterexampleLimit);
+        if (executor != null) {
+            executor.shutdown();
+        }
+        executor = threads > 1 ? VerifierFactory.daemonPool(1) : null;
+    }
+
+    /*
+     * Shuts down the thread pools created by setParallelism().
+     */
+    @Override
+    public void close() {
+        ordinaryVerifier.close();
+        globalVerifier.close();
+        if (executor != null) {
+            executor.shutdown();
+            executor = null;
+        }
+    }
+    
     public Pair<List<Counterexample>, List<Counterexample>> verifyNondetMoore(NondetMooreAutomaton automaton) {
-        final List<Counterexample> ordinary = ordinaryVerifier.verifyNondetMoore(automaton);
-        final List<Counterexample> global = globalVerifier.verifyNondetMoore(automaton);
+        final List<Counterexample> ordinary;
+        final List<Counterexample> global;
+        if (executor == null) {
+            ordinary = ordinaryVerifier.verifyNondetMoore(automaton);
+            global = globalVerifier.verifyNondetMoore(automaton);
+        } else {
+            final SynthesisSession session = SynthesisSession.current();
+            final Future<List<Counterexample>> globalFuture = executor.submit(
+                    () -> session.call(() -> globalVerifier.verifyNondetMoore(automaton)));
+            ordinary = ordinaryVerifier.verifyNondetMoore(automaton);
+            try {
+                global = globalFuture.get();
+            } catch (InterruptedException e) {
+                globalFuture.cancel(false);
+                Thread.currentThread().interrupt();
+                throw new RuntimeException(e);
+            } catch (ExecutionException e) {
+                throw new RuntimeException(e.getCause());
+            }
+        }
         final List<Counterexample> globalPatched = new ArrayList<>();
         for (Counterexample ce : global) {
             if (ce.isEmpty()) {
@@ -1,173 +1,467 @@
 package verification.verifier;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Collections;
-import java.util.Deque;
-import java.util.HashSet;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Set;
 
+import meta.SynthesisSession;
 import org.apache.commons.lang3.tuple.Pair;
 
-import verification.ltl.buchi.BuchiAutomaton;
 import verification.ltl.buchi.BuchiNode;
-import verification.ltl.grammar.PredicateFactory;
 import verification.statemachine.SimpleState;
 
 /**
- * Simple IVerifier implementation. Use one thread and can't be used concurrently.
+ * Simple IVerifier implementation. verify() keeps no state between calls and may be called concurrently.
+ *
+ * Emptiness is checked in linear time: the reachable product is explored once by BFS,
+ * and accepting cycles are looked for only in nontrivial strongly connected components.
+ * If the formula is violated, the lasso counterexample with the minimum effective length
+ * (prefix + loop * loopWeight) is returned, as with the former nested BFS. The shortest loop through each
+ * candidate accepting node is looked for by a BFS inside its component, in the order of distance, only up to
+ * the length which can still improve the best counterexample found so far. These searches reuse arrays indexed
+ * by node id, so each of them takes time proportional to the part of the component it visits, but in the worst
+ * case extraction is still quadratic in the size of the component: the shortest cycle through each accepting
+ * node cannot be found in linear time in general.
+ * Several diverse counterexamples per formula may be requested, see Search.alternatives().
  *
  * @author Kirill Egorov
  */
 public class SimpleVerifier {
+    // the search of further counterexamples of one formula after the first one may examine at most this number
+    // of product transitions per reachable product node, so that the result does not depend on timing
+    private static final int ALTERNATIVES_STEPS_PER_NODE = 8;
+
     private final SimpleState initState;
-    
+    private final int loopWeight;
+
     SimpleVerifier(SimpleState initState) {
         this.initState = initState;
+        loopWeight = SynthesisSession.current().loopWeight();
     }
 
-    public Pair<List<IntersectionTransition>, Integer> verify(BuchiAutomaton buchi,
-            PredicateFactory predicates, Set<BuchiNode> finiteCounterexampleNodes) {
-        final IntersectionAutomata automata = new IntersectionAutomata(predicates, buchi);
-        return bfs(automata.getNode(initState, buchi.startNode()), finiteCounterexampleNodes);
+    Pair<List<IntersectionTransition>, Integer> verify(CompiledBuchi buchi, Set<BuchiNode> finiteCounterexampleNodes) {
+        final List<Pair<List<IntersectionTransition>, Integer>> result = verify(buchi, finiteCounterexampleNodes,
+                null, 1);
+        return result.isEmpty() ? Pair.of(new ArrayList<>(), 0) : result.get(0);
     }
 
-    private class QueueElement {
-        private final IntersectionTransition trans;
-        private final IntersectionNode dest;
-        private final QueueElement predecessor;
-        
-        QueueElement(IntersectionTransition trans, QueueElement predecessor) {
-            this.trans = trans;
-            this.dest = trans.target;
-            this.predecessor = predecessor;
-        }
-        
-        @Override
-        public String toString() {
-            return "[" + trans + " -> " + dest + "]";
+    /*
+     * Returns up to count counterexamples, the first of which is the one described above, or an empty list if
+     * the formula holds. In the latter case, if region is not null, the reachable product nodes are added to region
+     * (see VerificationCache).
+     */
+    List<Pair<List<IntersectionTransition>, Integer>> verify(CompiledBuchi buchi,
+                                                             Set<BuchiNode> finiteCounterexampleNodes,
+                                                             BitSet region, int count) {
+        final IntersectionAutomata automata = new IntersectionAutomata(buchi);
+        final Search search = new Search(automata,
+                Collections.singletonList(automata.getNode(initState, buchi.buchi.startNode())),
+                finiteCounterexampleNodes, Integer.MAX_VALUE);
+        final Pair<List<IntersectionTransition>, Integer> first = search.run();
+        if (first.getLeft().isEmpty()) {
+            if (region != null) {
+                search.addTo(region);
+            }
+            return Collections.emptyList();
         }
+        final List<Pair<List<IntersectionTransition>, Integer>> result = new ArrayList<>();
+        result.add(first);
+        if (count > 1) {
+            result.addAll(search.alternatives(first.getLeft(), count - 1));
+        }
+        return result;
     }
-    
-    private static int LOOP_WEIGHT = 1;
-    
-    public static void setLoopWeight(int weight) {
-        LOOP_WEIGHT = weight;
-    }
-    
-    // FIXME currently does not work if true
-    // But this must change the nested-bfs complexity from O(n^2) to O(n)
-    private static final boolean REUSE_VISITED = false;
-    
-    private Pair<List<IntersectionTransition>, Integer> bfs(IntersectionNode initialNode,
-            Set<BuchiNode> finiteCounterexampleNodes) {
-        final Deque<QueueElement> queue = new LinkedList<>();
-        final Set<IntersectionNode> visited = new HashSet<>();
-        queue.addLast(new QueueElement(new IntersectionTransition(null, initialNode), null));
-        final List<Pair<List<IntersectionTransition>, Integer>> counterexamples = new ArrayList<>();
-        
-        Pair<List<IntersectionTransition>, Integer> finiteCounterexample = null;
-        
-        while (!queue.isEmpty()) {
-            final QueueElement element = queue.pollFirst();
-            if (!visited.contains(element.dest)) {
-    
-                if (finiteCounterexample == null && finiteCounterexampleNodes.contains(element.dest.node)) {
-                    // finite counterexample exists
-                    final List<IntersectionTransition> path = new ArrayList<>();
-                    QueueElement elem = element;
-                    do {
-                        path.add(elem.trans);
-                        elem = elem.predecessor;
-                    } while (elem != null);
-                    path.remove(path.size() - 1);
-                    Collections.reverse(path);
-                    finiteCounterexample = Pair.of(path, 0);
-                }
-                if (element.dest.terminal) {
-                    secondBfs(element.dest, element, counterexamples,
-                            REUSE_VISITED ? visited : new HashSet<>());
-                }
-                visited.add(element.dest);
-                
-                element.dest.resetIterator();
-                IntersectionTransition trans;
-                while ((trans = element.dest.next()) != null) {
-                    if (trans.transition.event != null) {
-                        queue.addLast(new QueueElement(trans, element));
-                    }
-                }
+
+    /*
+     * Incremental check (see VerificationCache): the product is explored from the nodes of the region whose states
+     * are changed. Returns true and adds the explored nodes to region if neither an accepting cycle nor a node
+     * of a finite counterexample is found among them. Returns false if one is found (it may be unreachable from
+     * the initial node) or if more than limit nodes would be explored.
+     */
+    boolean holdsIncrementally(CompiledBuchi buchi, Set<BuchiNode> finiteCounterexampleNodes, List<SimpleState> states,
+                               BitSet region, BitSet changedStates, int limit) {
+        final IntersectionAutomata automata = new IntersectionAutomata(buchi);
+        final int bound = buchi.nodeIdBound();
+        final List<IntersectionNode> roots = new ArrayList<>();
+        for (int key = region.nextSetBit(0); key >= 0; key = region.nextSetBit(key + 1)) {
+            if (changedStates.get(key / bound)) {
+                roots.add(automata.getNode(states.get(key / bound), buchi.node(key % bound)));
             }
         }
-        if (finiteCounterexample != null) {
-            counterexamples.add(finiteCounterexample);
+        if (roots.isEmpty()) {
+            return true;
+        }
+        final Search search = new Search(automata, roots, finiteCounterexampleNodes, limit);
+        if (!search.bfs()) {
+            return false;
+        }
+        search.components();
+        if (search.hasViolation()) {
+            return false;
+        }
+        search.addTo(region);
+        return true;
+    }
+
+    /*
+     * Per-node arrays are indexed by IntersectionNode.id.
+     * The product is explored from the roots, which have no parents.
+     */
+    private class Search {
+        private final IntersectionAutomata automata;
+        private final List<IntersectionNode> roots;
+        private final Set<BuchiNode> finiteCounterexampleNodes;
+        // the maximum number of explored nodes
+        private final int limit;
+
+        // BFS tree of the reachable product
+        private IntersectionNode[] bfsOrder;
+        private int reached;
+        private IntersectionTransition[] parentTransition;
+        private int[] parent;
+        private int[] distance;
+
+        // strongly connected components
+        private int[] component;
+        private boolean[] nontrivialComponent;
+        // the reached nodes by id
+        private IntersectionNode[] nodes;
+
+        // BFS inside a component in shortestLoop(): a node is visited if its mark is the current generation
+        private int[] mark;
+        private int generation;
+        private int[] queue;
+        private int[] previous;
+        private IntersectionTransition[] incoming;
+
+        // the number of product transitions examined by shortestLoop() and pathTo()
+        private long steps;
+
+        Search(IntersectionAutomata automata, List<IntersectionNode> roots,
+                Set<BuchiNode> finiteCounterexampleNodes, int limit) {
+            this.automata = automata;
+            this.roots = roots;
+            this.finiteCounterexampleNodes = finiteCounterexampleNodes;
+            this.limit = limit;
         }
-        if (counterexamples.isEmpty()) {
-            return Pair.of(new ArrayList<>(), 0);
-        } else {
-            int minIndex = 0;
+
+        Pair<List<IntersectionTransition>, Integer> run() {
+            bfs();
+            components();
+
             // the counterexample of the minimum effective length
             // (looping parts can be more expensive)
             // if the lengths are equal, then with the minimum loop size
-            for (int i = 1; i < counterexamples.size(); i++) {
-                final int currentSize = counterexamples.get(i).getLeft().size();
-                final int bestSize = counterexamples.get(minIndex).getLeft().size();
-                final int currentLoopSize = counterexamples.get(i).getRight();
-                final int bestLoopSize = counterexamples.get(minIndex).getRight();
-                
-                final int currentEffSize = currentSize + currentLoopSize * (LOOP_WEIGHT - 1);
-                final int bestEffSize = bestSize + bestLoopSize * (LOOP_WEIGHT - 1);
+            List<IntersectionTransition> best = null;
+            int bestLoop = 0;
+            int bestEff = Integer.MAX_VALUE;
+            for (int i = 0; i < reached; i++) {
+                final IntersectionNode node = bfsOrder[i];
+                if (!node.terminal || !nontrivialComponent[component[node.id]]) {
+                    continue;
+                }
+                // the loop has at least one transition, and BFS distances do not decrease
+                final int bound = distance[node.id] + loopWeight;
+                if (best != null && (bound > bestEff || bound == bestEff && bestLoop <= 1)) {
+                    break;
+                }
+                // longer loops cannot give a better counterexample
+                // (with loopWeight = 0, only a shorter loop at the same distance can)
+                final int maxLoop = best == null ? Integer.MAX_VALUE
+                        : loopWeight < 1 ? bestLoop - 1 : (bestEff - distance[node.id]) / loopWeight;
+                final List<IntersectionTransition> loop = shortestLoop(node, maxLoop);
+                if (loop == null) {
+                    continue;
+                }
+                final int eff = distance[node.id] + loop.size() * loopWeight;
+                if (best == null || eff < bestEff || eff == bestEff && loop.size() < bestLoop) {
+                    best = pathTo(node);
+                    best.addAll(loop);
+                    bestLoop = loop.size();
+                    bestEff = eff;
+                }
+            }
+
+            // finite counterexample: the closest node with a Buchi node from which acceptance is unavoidable
+            for (int i = 0; i < reached; i++) {
+                final IntersectionNode node = bfsOrder[i];
+                if (finiteCounterexampleNodes.contains(node.node)) {
+                    if (best == null || distance[node.id] <= bestEff) {
+                        best = pathTo(node);
+                        bestLoop = 0;
+                    }
+                    break;
+                }
+            }
 
-                if (currentEffSize < bestEffSize
-                        || currentEffSize == bestEffSize && currentLoopSize < bestLoopSize) {
-                    minIndex = i;
+            return best == null ? Pair.of(new ArrayList<>(), 0) : Pair.of(best, bestLoop);
+        }
+
+        /*
+         * Returns false if the limit is exceeded.
+         */
+        private boolean bfs() {
+            final int initialCapacity = Math.max(16, automata.nodeCount());
+            bfsOrder = new IntersectionNode[initialCapacity];
+            parentTransition = new IntersectionTransition[initialCapacity];
+            parent = new int[initialCapacity];
+            distance = new int[initialCapacity];
+            boolean[] visited = new boolean[initialCapacity];
+            for (IntersectionNode root : roots) {
+                bfsOrder[reached++] = root;
+                visited[root.id] = true;
+                parent[root.id] = -1;
+            }
+            for (int head = 0; head < reached; head++) {
+                final IntersectionNode node = bfsOrder[head];
+                for (IntersectionTransition trans : node.successors()) {
+                    final int target = trans.target.id;
+                    if (target >= visited.length) {
+                        final int capacity = Math.max(automata.nodeCount(), visited.length * 2);
+                        visited = Arrays.copyOf(visited, capacity);
+                        parentTransition = Arrays.copyOf(parentTransition, capacity);
+                        parent = Arrays.copyOf(parent, capacity);
+                        distance = Arrays.copyOf(distance, capacity);
+                    }
+                    if (!visited[target]) {
+                        visited[target] = true;
+                        parentTransition[target] = trans;
+                        parent[target] = node.id;
+                        distance[target] = distance[node.id] + 1;
+                        if (reached == bfsOrder.length) {
+                            bfsOrder = Arrays.copyOf(bfsOrder, reached * 2);
+                        }
+                        bfsOrder[reached++] = trans.target;
+                        if (reached > limit) {
+                            return false;
+                        }
+                    }
                 }
             }
-            return counterexamples.get(minIndex);
+            return true;
         }
-    }
-    
-    private void secondBfs(IntersectionNode initialNode, QueueElement parentQueueElement,
-            List<Pair<List<IntersectionTransition>, Integer>> counterexamples,
-            Set<IntersectionNode> visited) {
-        final Deque<QueueElement> queue = new LinkedList<>();
-        queue.addLast(new QueueElement(new IntersectionTransition(null, initialNode), null));
-        
-        while (!queue.isEmpty()) {
-            final QueueElement element = queue.pollFirst();
-            if (visited.contains(element.dest)) {
-                if (element.dest == initialNode && element.predecessor != null) {
-                    // found a loop
-                    final List<IntersectionTransition> path = new ArrayList<>();
-                    QueueElement elem = element;
-                    do {
-                        path.add(elem.trans);
-                        elem = elem.predecessor;
-                    } while (elem != null);
-                    path.remove(path.size() - 1);
-                    int loopLength = path.size();
-                    elem = parentQueueElement;
-                    do {
-                        path.add(elem.trans);
-                        elem = elem.predecessor;
-                    } while (elem != null);
-                    path.remove(path.size() - 1);
-                    Collections.reverse(path);
-                    counterexamples.add(Pair.of(path, loopLength));
-                    return;
-                }
-            } else {
-                visited.add(element.dest);
-                IntersectionTransition trans;
-                element.dest.resetIterator();
-                
-                while ((trans = element.dest.next()) != null) {
-                    if (trans.transition.event != null) {
-                        queue.addLast(new QueueElement(trans, element));
+
+        /*
+         * After components(): whether an accepting cycle or a node of a finite counterexample is reached.
+         */
+        private boolean hasViolation() {
+            for (int i = 0; i < reached; i++) {
+                final IntersectionNode node = bfsOrder[i];
+                if (node.terminal && nontrivialComponent[component[node.id]]
+                        || finiteCounterexampleNodes.contains(node.node)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private void addTo(BitSet region) {
+            final int bound = automata.getBuchiAutomata().nodeIdBound();
+            for (int i = 0; i < reached; i++) {
+                region.set(bfsOrder[i].state.index() * bound + bfsOrder[i].node.getID());
+            }
+        }
+
+        /*
+         * Up to count further counterexamples in the order of BFS distance. Each of them must end in a violation
+         * (an accepting cycle or a node of a finite counterexample) at a product node which is not on the
+         * counterexamples selected before (starting with the given one), its prefix must not pass through their
+         * violations, and its cycle must avoid their nodes. Thus the counterexamples differ in their prefixes rather
+         * than being variants of each other, and do not share cycles. The search stops when its number of steps
+         * exceeds ALTERNATIVES_STEPS_PER_NODE per reachable node.
+         */
+        private List<Pair<List<IntersectionTransition>, Integer>> alternatives(List<IntersectionTransition> first,
+                                                                              int count) {
+            final long maxSteps = steps + (long) ALTERNATIVES_STEPS_PER_NODE * reached;
+            final List<Pair<List<IntersectionTransition>, Integer>> result = new ArrayList<>();
+            final BitSet used = new BitSet();
+            final BitSet violations = new BitSet();
+            markUsed(first, used, violations);
+            for (int i = 0; i < reached && result.size() < count; i++) {
+                if (steps > maxSteps) {
+                    break;
+                }
+                final IntersectionNode node = bfsOrder[i];
+                if (used.get(node.id) || !node.terminal && !finiteCounterexampleNodes.contains(node.node)) {
+                    continue;
+                }
+                final List<IntersectionTransition> path = pathTo(node);
+                if (path.stream().anyMatch(t -> violations.get(t.target.id))) {
+                    continue;
+                }
+                int loopLength = 0;
+                if (node.terminal && nontrivialComponent[component[node.id]]) {
+                    final List<IntersectionTransition> loop = shortestLoop(node, Integer.MAX_VALUE);
+                    if (loop != null && loop.stream().noneMatch(t -> t.target != node && used.get(t.target.id))) {
+                        path.addAll(loop);
+                        loopLength = loop.size();
+                    }
+                }
+                if (loopLength == 0 && !finiteCounterexampleNodes.contains(node.node)) {
+                    continue;
+                }
+                result.add(Pair.of(path, loopLength));
+                markUsed(path, used, violations);
+            }
+            return result;
+        }
+
+        /*
+         * Marks the nodes of the counterexample, and its last node (where its violation is) as a violation.
+         */
+        private void markUsed(List<IntersectionTransition> counterexample, BitSet used, BitSet violations) {
+            for (IntersectionNode root : roots) {
+                used.set(root.id);
+            }
+            for (IntersectionTransition t : counterexample) {
+                used.set(t.target.id);
+            }
+            violations.set(counterexample.get(counterexample.size() - 1).target.id);
+        }
+
+        private List<IntersectionTransition> pathTo(IntersectionNode node) {
+            final List<IntersectionTransition> path = new ArrayList<>();
+            for (int id = node.id; parent[id] != -1; id = parent[id]) {
+                steps++;
+                path.add(parentTransition[id]);
+            }
+            Collections.reverse(path);
+            return path;
+        }
+
+        /*
+         * Iterative Tarjan's algorithm over the product nodes reachable from the roots.
+         */
+        private void components() {
+            final int n = automata.nodeCount();
+            component = new int[n];
+            Arrays.fill(component, -1);
+            final int[] index = new int[n];
+            Arrays.fill(index, -1);
+            final int[] low = new int[n];
+            final boolean[] onStack = new boolean[n];
+            final int[] stack = new int[n];
+            int stackSize = 0;
+            final int[] callNode = new int[n];
+            final int[] callEdge = new int[n];
+            nodes = new IntersectionNode[n];
+            for (int i = 0; i < reached; i++) {
+                nodes[bfsOrder[i].id] = bfsOrder[i];
+            }
+            final List<Boolean> nontrivial = new ArrayList<>();
+            int counter = 0;
+
+            for (IntersectionNode root : roots) {
+                if (index[root.id] != -1) {
+                    continue;
+                }
+                int depth = 0;
+                callNode[0] = root.id;
+                callEdge[0] = 0;
+                index[root.id] = low[root.id] = counter++;
+                stack[stackSize++] = root.id;
+                onStack[root.id] = true;
+                while (depth >= 0) {
+                    final int v = callNode[depth];
+                    final List<IntersectionTransition> successors = nodes[v].successors();
+                    if (callEdge[depth] < successors.size()) {
+                        final int w = successors.get(callEdge[depth]++).target.id;
+                        if (index[w] == -1) {
+                            index[w] = low[w] = counter++;
+                            stack[stackSize++] = w;
+                            onStack[w] = true;
+                            depth++;
+                            callNode[depth] = w;
+                            callEdge[depth] = 0;
+                        } else if (onStack[w]) {
+                            low[v] = Math.min(low[v], index[w]);
+                        }
+                    } else {
+                        if (low[v] == index[v]) {
+                            final int componentId = nontrivial.size();
+                            int size = 0;
+                            int w;
+                            do {
+                                w = stack[--stackSize];
+                                onStack[w] = false;
+                                component[w] = componentId;
+                                size++;
+                            } while (w != v);
+                            boolean selfLoop = false;
+                            if (size == 1) {
+                                for (IntersectionTransition trans : successors) {
+                                    selfLoop |= trans.target.id == v;
+                                }
+                            }
+                            nontrivial.add(size > 1 || selfLoop);
+                        }
+                        depth--;
+                        if (depth >= 0) {
+                            final int u = callNode[depth];
+                            low[u] = Math.min(low[u], low[v]);
+                        }
+                    }
+                }
+            }
+            nontrivialComponent = new boolean[nontrivial.size()];
+            for (int i = 0; i < nontrivialComponent.length; i++) {
+                nontrivialComponent[i] = nontrivial.get(i);
+            }
+        }
+
+        /*
+         * BFS inside the component of the node: the shortest cycle through the node
+         * with at most maxLength transitions, or null. Proportional to the number of visited
+         * nodes and their transitions, but called for each candidate accepting node.
+         */
+        private List<IntersectionTransition> shortestLoop(IntersectionNode start, int maxLength) {
+            if (mark == null) {
+                mark = new int[nodes.length];
+                queue = new int[nodes.length];
+                previous = new int[nodes.length];
+                incoming = new IntersectionTransition[nodes.length];
+            }
+            final int targetComponent = component[start.id];
+            generation++;
+            int size = 0;
+            queue[size++] = start.id;
+            mark[start.id] = generation;
+            // the nodes of the current depth end at layerEnd
+            int layerEnd = size;
+            int depth = 0;
+            for (int head = 0; head < size; head++) {
+                if (head == layerEnd) {
+                    layerEnd = size;
+                    depth++;
+                }
+                if (depth + 1 > maxLength) {
+                    break;
+                }
+                final int v = queue[head];
+                for (IntersectionTransition trans : nodes[v].successors()) {
+                    steps++;
+                    final int w = trans.target.id;
+                    if (w == start.id) {
+                        final List<IntersectionTransition> loop = new ArrayList<>();
+                        loop.add(trans);
+                        for (int u = v; u != start.id; u = previous[u]) {
+                            loop.add(incoming[u]);
+                        }
+                        Collections.reverse(loop);
+                        return loop;
+                    }
+                    if (component[w] == targetComponent && mark[w] != generation) {
+                        mark[w] = generation;
+                        incoming[w] = trans;
+                        previous[w] = v;
+                        queue[size++] = w;
                     }
                 }
             }
+            return null;
         }
     }
 }
@@ -0,0 +1,135 @@
+package verification.verifier;
+
+/**
+ * (c) Igor Buzhinsky
+ */
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import verification.ltl.GrammarConverter;
+import verification.ltl.LtlParseException;
+import verification.ltl.LtlParser;
+import verification.ltl.buchi.BuchiAutomaton;
+import verification.ltl.buchi.BuchiNode;
+import verification.ltl.buchi.TransitionCondition;
+import verification.ltl.grammar.BooleanNode;
+import verification.ltl.grammar.IExpression;
+import verification.ltl.grammar.LtlNode;
+import verification.ltl.grammar.Predicate;
+import verification.ltl.grammar.PredicateFactory;
+import verification.ltl.grammar.UnaryOperator;
+import verification.ltl.grammar.UnaryOperatorType;
+
+/*
+ * The Buchi automaton of the negation of an LTL formula (the same one the verifier uses, see BuchiCache)
+ * in the form needed to encode the formula into SAT: nodes are given by their ids, and transition guards
+ * are split into the allowed events and the required and forbidden actions. Transitions with unsatisfiable
+ * guards are omitted.
+ */
+public class SpecificationAutomaton {
+    public static class Transition {
+        public final int source;
+        public final int target;
+        // null = any event
+        private final Set<String> allowedEvents;
+        private final Set<String> forbiddenEvents = new LinkedHashSet<>();
+        public final Set<String> requiredActions = new LinkedHashSet<>();
+        public final Set<String> forbiddenActions = new LinkedHashSet<>();
+        private boolean unsatisfiable;
+
+        private Transition(int source, int target, TransitionCondition condition) {
+            this.source = source;
+            this.target = target;
+            Set<String> allowedEvents = null;
+            for (boolean positive : Arrays.asList(true, false)) {
+                for (IExpression<Boolean> expr : positive ? condition.expressions()
+                        : condition.negativeExpressions()) {
+                    if (expr instanceof BooleanNode) {
+                        unsatisfiable |= expr.getValue() != positive;
+                    } else if (expr instanceof Predicate && ((Predicate) expr).getName().equals("event")) {
+                        final List<String> events = Arrays.asList(((Predicate) expr).arg().split(","));
+                        if (!positive) {
+                            forbiddenEvents.addAll(events);
+                        } else if (allowedEvents == null) {
+                            allowedEvents = new LinkedHashSet<>(events);
+                        } else {
+                            allowedEvents.retainAll(events);
+                        }
+                    } else if (expr instanceof Predicate && ((Predicate) expr).getName().equals("action")) {
+                        (positive ? requiredActions : forbiddenActions).add(((Predicate) expr).arg());
+                    } else {
+                        throw new AssertionError("Unsupported transition condition expression " + expr);
+                    }
+                }
+            }
+            this.allowedEvents = allowedEvents;
+            unsatisfiable |= !Collections.disjoint(requiredActions, forbiddenActions);
+        }
+
+        public boolean allows(String event) {
+            return (allowedEvents == null || allowedEvents.contains(event)) && !forbiddenEvents.contains(event);
+        }
+    }
+
+    public final String formula;
+    public final int startNode;
+    // node ids are less than this number
+    public final int nodeIdBound;
+    private final boolean[] accepting;
+    public final List<Transition> transitions = new ArrayList<>();
+
+    private SpecificationAutomaton(String formula, BuchiAutomaton buchi) {
+        this.formula = formula;
+        startNode = buchi.startNode().getID();
+        int maxId = -1;
+        for (BuchiNode node : buchi.nodes()) {
+            maxId = Math.max(maxId, node.getID());
+        }
+        nodeIdBound = maxId + 1;
+        accepting = new boolean[nodeIdBound];
+        for (BuchiNode node : buchi.acceptSet()) {
+            accepting[node.getID()] = true;
+        }
+        for (BuchiNode node : buchi.nodes()) {
+            for (Map.Entry<TransitionCondition, BuchiNode> t : node.getTransitions().entrySet()) {
+                final Transition transition = new Transition(node.getID(), t.getValue().getID(), t.getKey());
+                if (!transition.unsatisfiable) {
+                    transitions.add(transition);
+                }
+            }
+        }
+    }
+
+    public boolean isAccepting(int node) {
+        return accepting[node];
+    }
+
+    public int acceptingNodeCount() {
+        int result = 0;
+        for (boolean a : accepting) {
+            if (a) {
+                result++;
+            }
+        }
+        return result;
+    }
+
+    public static List<SpecificationAutomaton> of(List<String> formulae, List<String> events, List<String> actions)
+            throws LtlParseException {
+        final String alphabet = BuchiCache.alphabet(events, actions);
+        final List<LtlNode> nodes = LtlParser.parse(formulae, new GrammarConverter(new PredicateFactory()));
+        final List<SpecificationAutomaton> result = new ArrayList<>();
+        for (int i = 0; i < nodes.size(); i++) {
+            final BuchiCache.Entry entry = BuchiCache.get(new UnaryOperator(UnaryOperatorType.NEG, nodes.get(i)),
+                    alphabet);
+            result.add(new SpecificationAutomaton(formulae.get(i), entry.automaton));
+        }
+        return result;
+    }
+}
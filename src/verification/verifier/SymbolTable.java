@@ -0,0 +1,35 @@
+package verification.verifier;
+
+/**
+ * (c) Igor Buzhinsky
+ */
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/*
+ * Interned event and action names of one VerifierFactory.
+ * Filled while formulae are compiled and state machines are configured, read-only during verification.
+ */
+class SymbolTable {
+    private final Map<String, Integer> events = new HashMap<>();
+    private final Map<String, Integer> actions = new HashMap<>();
+
+    int event(String name) {
+        return events.computeIfAbsent(name, k -> events.size());
+    }
+
+    int action(String name) {
+        return actions.computeIfAbsent(name, k -> actions.size());
+    }
+
+    long[] actionBits(List<String> names) {
+        final long[] bits = new long[(actions.size() + names.size() + 63) >>> 6];
+        for (String name : names) {
+            final int index = action(name);
+            bits[index >>> 6] |= 1L << index;
+        }
+        return bits;
+    }
+}
@@ -0,0 +1,115 @@
+package verification.verifier;
+
+/**
+ * (c) Igor Buzhinsky
+ */
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.commons.lang3.tuple.Pair;
+
+import verification.ltl.buchi.BuchiNode;
+import verification.statemachine.SimpleState;
+import verification.statemachine.StateMachine;
+import verification.statemachine.StateTransition;
+
+/*
+ * Incremental re-verification of formulae for the consecutive candidate automata of counterexample-guided
+ * synthesis. For each formula which has held for some state machine, the machine is kept together with a region:
+ * a set of product nodes (state index * Buchi node id bound + Buchi node id) which contains the initial node,
+ * is closed under product transitions and contains neither accepting cycles nor nodes of finite counterexamples.
+ * For a new machine with the same states and the same initial state, product transitions differ only at the nodes
+ * whose states have different outgoing transitions (changed states). A counterexample must take such a transition,
+ * and the first one starts in the region, so the product is explored only from the region nodes with changed
+ * states. If neither an accepting cycle nor a node of a finite counterexample is reachable from them, the formula
+ * still holds, and the region extended with the explored nodes satisfies the conditions above for the new machine.
+ * Otherwise, as well as if too many states have changed or too many nodes would be explored, the formula is
+ * checked from scratch. Thus the results are the same as without the cache.
+ * verify() may be called concurrently for different formulae.
+ */
+class VerificationCache {
+    // fractions of all states and of the region, respectively, above which the incremental check is not done
+    private static final double MAX_CHANGED_STATES = 0.5;
+    private static final double MAX_EXPLORED_NODES = 0.5;
+
+    private static class Entry {
+        final int initialState;
+        final String[] transitions;
+        final BitSet region;
+
+        Entry(int initialState, String[] transitions, BitSet region) {
+            this.initialState = initialState;
+            this.transitions = transitions;
+            this.region = region;
+        }
+    }
+
+    // by formula, null if the formula has not held for the last machine it was checked on
+    private final Entry[] entries;
+
+    // the current machine
+    private List<SimpleState> states;
+    private int initialState;
+    // by state index: what the product depends on, i.e. the events, actions and targets of outgoing transitions
+    private String[] transitions;
+
+    VerificationCache(int formulaCount) {
+        entries = new Entry[formulaCount];
+    }
+
+    int formulaCount() {
+        return entries.length;
+    }
+
+    void setMachine(StateMachine machine) {
+        states = machine.states();
+        initialState = machine.initialState().index();
+        transitions = new String[states.size()];
+        for (int i = 0; i < transitions.length; i++) {
+            final StringBuilder sb = new StringBuilder();
+            for (StateTransition t : states.get(i).outgoingTransitions()) {
+                if (t.event != null) {
+                    sb.append(t.eventIndex()).append(Arrays.toString(t.actionBits())).append(t.getTarget().index())
+                            .append(';');
+                }
+            }
+            transitions[i] = sb.toString();
+        }
+    }
+
+    /*
+     * Returns up to count counterexamples, see SimpleVerifier.verify().
+     */
+    List<Pair<List<IntersectionTransition>, Integer>> verify(int formula, SimpleVerifier verifier, CompiledBuchi buchi,
+                                                             Set<BuchiNode> finiteCounterexampleNodes, int count) {
+        final Entry entry = entries[formula];
+        entries[formula] = null;
+        if (entry != null && entry.initialState == initialState && entry.transitions.length == transitions.length) {
+            final BitSet changedStates = new BitSet();
+            for (int i = 0; i < transitions.length; i++) {
+                if (!transitions[i].equals(entry.transitions[i])) {
+                    changedStates.set(i);
+                }
+            }
+            if (changedStates.cardinality() <= MAX_CHANGED_STATES * transitions.length) {
+                final BitSet region = (BitSet) entry.region.clone();
+                if (verifier.holdsIncrementally(buchi, finiteCounterexampleNodes, states, region, changedStates,
+                        (int) (MAX_EXPLORED_NODES * entry.region.cardinality()))) {
+                    entries[formula] = new Entry(initialState, transitions, region);
+                    return Collections.emptyList();
+                }
+            }
+        }
+        final BitSet region = new BitSet();
+        final List<Pair<List<IntersectionTransition>, Integer>> result = verifier.verify(buchi,
+                finiteCounterexampleNodes, region, count);
+        if (result.isEmpty()) {
+            entries[formula] = new Entry(initialState, transitions, region);
+        }
+        return result;
+    }
+}
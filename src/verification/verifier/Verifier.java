@@ -18,11 +18,16 @@ import structures.moore.NondetMooreAutomaton;
 import verification.ltl.LtlParseException;
 import verification.ltl.buchi.translator.TranslationException;
 
-public class Verifier {
+/*
+ * With threads > 1 (setParallelism()), the verifier has a thread pool, which is shut down by close().
+ */
+public class Verifier implements AutoCloseable {
     private final List<String> ltlFormulae;
     private final Set<String> allEvents;
     private final Set<String> allActions;
     private final VerifierFactory verifier;
+    private int threads = 1;
+    private int counterexampleLimit = 0;
     
     public Verifier(Logger logger, List<String> ltlFormulae, List<String> events, List<String> actions) {
         this(logger, ltlFormulae, events, actions, false);
@@ -30,6 +35,9 @@ public class Verifier {
     
     public static final String G_REGEX = "^ *G *\\(.*$";
     
+    /*
+     * The returned verifier uses the thread pool of this one, so it must not be used after this one is closed.
+     */
     public Verifier globalVerifier() {
         final VerifierFactory globalFactory = new VerifierFactory(true);
         
@@ -37,12 +45,40 @@ public class Verifier {
                 .filter(f -> f.matches(G_REGEX))
                 .collect(Collectors.toList());
         try {
-            globalFactory.prepareFormulas(projection);
+            globalFactory.prepareFormulas(projection, BuchiCache.alphabet(allEvents, allActions));
         } catch (TranslationException | LtlParseException e) {
             throw new RuntimeException(e);
         }
         
-        return new Verifier(projection, allEvents, allActions, globalFactory);
+        final Verifier result = new Verifier(projection, allEvents, allActions, globalFactory);
+        result.threads = threads;
+        result.counterexampleLimit = counterexampleLimit;
+        globalFactory.shareParallelism(verifier);
+        return result;
+    }
+
+    /*
+     * threads > 1: check formulae in parallel.
+     * counterexampleLimit > 0: stop verification after finding this number of counterexamples
+     * (0 means that all formulae are checked).
+     */
+    public void setParallelism(int threads, int counterexampleLimit) {
+        this.threads = threads;
+        this.counterexampleLimit = counterexampleLimit;
+        verifier.configureParallelism(threads, counterexampleLimit);
+    }
+
+    /*
+     * The maximum number of counterexamples per formula returned by
+     * verifyWithCounterexampleListsWithNoDeadEndRemoval(), 1 by default.
+     */
+    public void setCounterexamplesPerFormula(int count) {
+        verifier.setCounterexamplesPerFormula(count);
+    }
+
+    @Override
+    public void close() {
+        verifier.shutdown();
     }
     
     private Verifier(List<String> ltlFormulae, Set<String> events, Set<String> actions, VerifierFactory verifier) {
@@ -63,7 +99,7 @@ public class Verifier {
         verifier = new VerifierFactory(verifyFromAllStates);
 
         try {
-            verifier.prepareFormulas(ltlFormulae);
+            verifier.prepareFormulas(ltlFormulae, BuchiCache.alphabet(allEvents, allActions));
         } catch (TranslationException e) {
             logger.warning("Caught TranslationException: " + e.getMessage());
             e.printStackTrace();
@@ -134,6 +170,14 @@ public class Verifier {
         verifier.configureDetMealyMachine(a);
         return verifier.verify();
     }
+
+    /*
+     * For each formula, the list of its counterexamples (empty if the formula holds).
+     */
+    public List<List<Counterexample>> verifyWithCounterexampleListsWithNoDeadEndRemoval(MealyAutomaton a) {
+        verifier.configureDetMealyMachine(a);
+        return verifier.verifyAll();
+    }
     
     public List<Counterexample> verifyNondetMoore(NondetMooreAutomaton a) {
         verifier.configureNondetMooreMachine(a);
@@ -14,9 +14,8 @@ import structures.moore.NondetMooreAutomaton;
 import verification.ltl.GrammarConverter;
 import verification.ltl.LtlParseException;
 import verification.ltl.LtlParser;
-import verification.ltl.buchi.BuchiAutomaton;
 import verification.ltl.buchi.BuchiNode;
-import verification.ltl.buchi.translator.JLtl2baTranslator;
+import verification.ltl.grammar.LtlNode;
 import verification.ltl.grammar.PredicateFactory;
 import verification.ltl.grammar.UnaryOperator;
 import verification.ltl.grammar.UnaryOperatorType;
@@ -25,6 +24,13 @@ import verification.statemachine.StateMachine;
 import verification.statemachine.StateTransition;
 
 import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.IntConsumer;
 import java.util.stream.Collectors;
 
 /**
@@ -32,28 +38,39 @@ import java.util.stream.Collectors;
  *         Date: Jun 18, 2009
  */
 public class VerifierFactory {
+    private static final Counterexample EMPTY = new Counterexample(Collections.emptyList(),
+            Collections.emptyList(), 0);
+
     private StateMachine machine;
     private final PredicateFactory predicates = new PredicateFactory();
     
-    private final List<BuchiAutomaton> preparedFormulae = new ArrayList<>();
+    private final SymbolTable symbols = new SymbolTable();
+    
+    private final List<CompiledBuchi> preparedFormulae = new ArrayList<>();
     private final List<Set<BuchiNode>> finiteCounterexampleBuchiStates = new ArrayList<>();
 
     private final boolean verifyFromAllStates;
+
+    private ExecutorService executor;
+    // false if the executor belongs to another factory
+    private boolean ownsExecutor;
+    private int counterexampleLimit = Integer.MAX_VALUE;
+    private int counterexamplesPerFormula = 1;
+    private VerificationCache cache;
     
     VerifierFactory(boolean verifyFromAllStates) {
         this.verifyFromAllStates = verifyFromAllStates;
     }
 
-    void prepareFormulas(List<String> formulas) throws LtlParseException {
-         final JLtl2baTranslator translator = new JLtl2baTranslator();
-
-        preparedFormulae.addAll(LtlParser.parse(formulas, new GrammarConverter(predicates)).stream()
-                .map(node -> translator.translate(new UnaryOperator(UnaryOperatorType.NEG, node)))
-                .collect(Collectors.toList()));
-         
-         finiteCounterexampleBuchiStates.addAll(preparedFormulae.stream()
-                 .map(FiniteCounterexampleNodeSearcher::findCounterexampleBuchiStates)
-                 .collect(Collectors.toList()));
+    /*
+     * alphabet: see BuchiCache.alphabet()
+     */
+    void prepareFormulas(List<String> formulas, String alphabet) throws LtlParseException {
+        for (LtlNode node : LtlParser.parse(formulas, new GrammarConverter(predicates))) {
+            final BuchiCache.Entry entry = BuchiCache.get(new UnaryOperator(UnaryOperatorType.NEG, node), alphabet);
+            preparedFormulae.add(new CompiledBuchi(entry.automaton, symbols));
+            finiteCounterexampleBuchiStates.add(entry.finiteCounterexampleNodes);
+        }
     }
         
     void configureDetMealyMachine(MealyAutomaton automaton) {
@@ -74,6 +91,7 @@ public class VerifierFactory {
             for (MealyTransition t : currentState.transitions()) {
                 final StateTransition out = new StateTransition(extractEvent(t.event()), statesArr[t.dst().number()]);
                 Arrays.stream(t.actions().getActions()).forEach(out::addAction);
+                setSymbols(out);
                 statesArr[i].addOutgoingTransition(out);
                 if (verifyFromAllStates) {
                     nondetInit.addOutgoingTransition(out);
@@ -97,6 +115,7 @@ public class VerifierFactory {
             if (automaton.isInitialState(i)) {
                 final StateTransition out = new StateTransition("", statesArr[i]);
                 Arrays.stream(automaton.state(i).actions().getActions()).forEach(out::addAction);
+                setSymbols(out);
                 if (!verifyFromAllStates) {
                     nondetInit.addOutgoingTransition(out);
                 }
@@ -108,6 +127,7 @@ public class VerifierFactory {
             for (MooreTransition t : currentState.transitions()) {
                 final StateTransition out = new StateTransition(extractEvent(t.event()), statesArr[t.dst().number()]);
                 Arrays.stream(t.dst().actions().getActions()).forEach(out::addAction);
+                setSymbols(out);
                 statesArr[i].addOutgoingTransition(out);
                 if (verifyFromAllStates) {
                     nondetInit.addOutgoingTransition(out);
@@ -118,25 +138,121 @@ public class VerifierFactory {
         this.machine = machine;
     }
     
+    private void setSymbols(StateTransition transition) {
+        transition.setSymbols(symbols.event(transition.event), symbols.actionBits(transition.getActions()));
+    }
+    
+    /*
+     * threads > 1: check formulae in parallel on a pool of this many threads.
+     * counterexampleLimit > 0: stop after this number of counterexamples has been found,
+     * the formulae which were not checked are reported with empty counterexamples.
+     */
+    void configureParallelism(int threads, int counterexampleLimit) {
+        shutdown();
+        executor = threads > 1 ? daemonPool(threads) : null;
+        ownsExecutor = true;
+        this.counterexampleLimit = counterexampleLimit > 0 ? counterexampleLimit : Integer.MAX_VALUE;
+    }
+
+    /*
+     * The same settings as in the other factory, with its thread pool, which remains owned by it.
+     */
+    void shareParallelism(VerifierFactory other) {
+        shutdown();
+        executor = other.executor;
+        ownsExecutor = false;
+        counterexampleLimit = other.counterexampleLimit;
+    }
+
+    /*
+     * Shuts down the own thread pool. Further verification is done in the calling thread.
+     */
+    void shutdown() {
+        if (executor != null && ownsExecutor) {
+            executor.shutdown();
+        }
+        executor = null;
+    }
+
+    /*
+     * The maximum number of counterexamples returned by verifyAll() for each formula.
+     */
+    void setCounterexamplesPerFormula(int counterexamplesPerFormula) {
+        this.counterexamplesPerFormula = Math.max(1, counterexamplesPerFormula);
+    }
+
+    static ExecutorService daemonPool(int threads) {
+        return Executors.newFixedThreadPool(threads, r -> {
+            final Thread thread = new Thread(r, "verifier");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+    
     public List<Counterexample> verify() {
-        final List<Counterexample> counterexamples = new ArrayList<>();
+        return verifyAll().stream().map(list -> list.isEmpty() ? EMPTY : list.get(0)).collect(Collectors.toList());
+    }
+
+    /*
+     * For each formula, the list of its counterexamples, which is empty if the formula holds (or was not checked
+     * due to counterexampleLimit).
+     */
+    public List<List<Counterexample>> verifyAll() {
+        // created in the calling thread, so that session settings are taken from it
         final SimpleVerifier verifier = new SimpleVerifier(machine.initialState());
-        for (int i = 0; i < preparedFormulae.size(); i++) {
-            final BuchiAutomaton buchi = preparedFormulae.get(i);
-            final Pair<List<IntersectionTransition>, Integer> list = verifier.verify(buchi, predicates,
-                    finiteCounterexampleBuchiStates.get(i));
-            
-            if (!list.getLeft().isEmpty()) {
-                final List<String> eventList = list.getLeft().stream().map(t -> t.transition.event)
-                        .collect(Collectors.toList());
-                final List<List<String>> actionList = list.getLeft().stream().map(t -> t.transition.getActions())
-                        .collect(Collectors.toList());
-                counterexamples.add(new Counterexample(eventList, actionList, list.getRight()));
-            } else {
-                counterexamples.add(new Counterexample(Collections.emptyList(), Collections.emptyList(), 0));
+        if (cache == null || cache.formulaCount() != preparedFormulae.size()) {
+            cache = new VerificationCache(preparedFormulae.size());
+        }
+        cache.setMachine(machine);
+        final AtomicReferenceArray<List<Counterexample>> counterexamples =
+                new AtomicReferenceArray<>(preparedFormulae.size());
+        final AtomicInteger found = new AtomicInteger();
+        final IntConsumer check = i -> {
+            final List<Counterexample> result = found.get() >= counterexampleLimit ? Collections.emptyList()
+                    : cache.verify(i, verifier, preparedFormulae.get(i), finiteCounterexampleBuchiStates.get(i),
+                    counterexamplesPerFormula).stream().map(VerifierFactory::toCounterexample)
+                    .collect(Collectors.toList());
+            counterexamples.set(i, result);
+            if (!result.isEmpty()) {
+                found.incrementAndGet();
+            }
+        };
+        if (executor == null || counterexamples.length() < 2) {
+            for (int i = 0; i < counterexamples.length(); i++) {
+                check.accept(i);
+            }
+        } else {
+            final List<Future<?>> futures = new ArrayList<>();
+            for (int i = 0; i < counterexamples.length(); i++) {
+                final int index = i;
+                futures.add(executor.submit(() -> check.accept(index)));
+            }
+            for (Future<?> future : futures) {
+                try {
+                    future.get();
+                } catch (InterruptedException e) {
+                    futures.forEach(f -> f.cancel(false));
+                    Thread.currentThread().interrupt();
+                    throw new RuntimeException(e);
+                } catch (ExecutionException e) {
+                    futures.forEach(f -> f.cancel(false));
+                    throw new RuntimeException(e.getCause());
+                }
             }
         }
-        return counterexamples;
+        final List<List<Counterexample>> result = new ArrayList<>();
+        for (int i = 0; i < counterexamples.length(); i++) {
+            result.add(counterexamples.get(i));
+        }
+        return result;
+    }
+
+    private static Counterexample toCounterexample(Pair<List<IntersectionTransition>, Integer> list) {
+        final List<String> eventList = list.getLeft().stream().map(t -> t.transition.event)
+                .collect(Collectors.toList());
+        final List<List<String>> actionList = list.getLeft().stream().map(t -> t.transition.getActions())
+                .collect(Collectors.toList());
+        return new Counterexample(eventList, actionList, list.getRight());
     }
 
     private String extractEvent(String input) {